@@ -44,6 +44,8 @@ import org.apache.guacamole.net.auth.Connection;
 import org.apache.guacamole.net.auth.ConnectionRecord;
 import org.apache.guacamole.net.auth.GuacamoleProxyConfiguration;
 import org.apache.guacamole.net.auth.GuacamoleProxyConfiguration.EncryptionMethod;
+import org.apache.guacamole.net.auth.GuacamoleProxyGroup;
+import org.apache.guacamole.net.auth.GuacamoleProxySockets;
 import org.apache.guacamole.protocol.GuacamoleClientInformation;
 import org.apache.guacamole.protocol.GuacamoleConfiguration;
 import org.slf4j.Logger;
@@ -464,6 +466,32 @@ public class ModeledConnection extends ModeledChildDirectoryObject<ConnectionMod
         );
     }
 
+    /**
+     * Returns the group of interchangeable guacd instances from which the
+     * guacd used to establish a connection to the remote desktop described by
+     * this connection should be selected. A group is only used if this
+     * specific remote desktop connection does not define its own guacd
+     * hostname.
+     *
+     * @return
+     *     The group of guacd instances from which guacd should be selected,
+     *     or null if the guacd returned by getGuacamoleProxyConfiguration()
+     *     should be used.
+     *
+     * @throws GuacamoleException
+     *     If the group of guacd instances cannot be parsed.
+     */
+    public GuacamoleProxyGroup getGuacamoleProxyGroup()
+            throws GuacamoleException {
+
+        // A guacd explicitly defined for this connection takes priority
+        if (getModel().getProxyHostname() != null)
+            return null;
+
+        return GuacamoleProxySockets.getProxyGroup(environment);
+
+    }
+
     /** 
      * Returns the weight of the connection used in applying weighted
      * load balancing algorithms, or a default of 1 if the 
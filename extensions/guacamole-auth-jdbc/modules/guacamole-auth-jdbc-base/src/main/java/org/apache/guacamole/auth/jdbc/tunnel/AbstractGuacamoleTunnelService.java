@@ -45,6 +45,7 @@ import org.apache.guacamole.GuacamoleSecurityException;
 import org.apache.guacamole.GuacamoleServerException;
 import org.apache.guacamole.GuacamoleUpstreamException;
 import org.apache.guacamole.auth.jdbc.connection.ConnectionMapper;
+import org.apache.guacamole.net.GuacamoleEndpointRegistry;
 import org.apache.guacamole.net.GuacamoleSocket;
 import org.apache.guacamole.net.GuacamoleTunnel;
 import org.apache.guacamole.net.auth.Connection;
@@ -61,6 +62,8 @@ import org.apache.guacamole.auth.jdbc.sharingprofile.SharingProfileParameterMapp
 import org.apache.guacamole.auth.jdbc.sharingprofile.SharingProfileParameterModel;
 import org.apache.guacamole.auth.jdbc.user.RemoteAuthenticatedUser;
 import org.apache.guacamole.net.auth.GuacamoleProxyConfiguration;
+import org.apache.guacamole.net.auth.GuacamoleProxyConfiguration.EncryptionMethod;
+import org.apache.guacamole.net.auth.GuacamoleProxyGroup;
 import org.apache.guacamole.protocol.FailoverGuacamoleSocket;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -329,36 +332,53 @@ public abstract class AbstractGuacamoleTunnelService implements GuacamoleTunnelS
      *     An unconfigured GuacamoleSocket, already connected to guacd.
      *
      * @throws GuacamoleException 
-     *     If an error occurs while connecting to guacd, or while parsing
-     *     guacd-related properties.
+     *     If an error occurs while connecting to guacd, if guacd has recently
+     *     and repeatedly been unreachable, or while parsing guacd-related
+     *     properties.
      */
     private GuacamoleSocket getUnconfiguredGuacamoleSocket(
             GuacamoleProxyConfiguration proxyConfig,
             Runnable socketClosedCallback) throws GuacamoleException {
 
-        // Select socket type depending on desired encryption
-        switch (proxyConfig.getEncryptionMethod()) {
+        String hostname = proxyConfig.getHostname();
+        int port = proxyConfig.getPort();
+
+        // Bail out if encryption method is unknown
+        EncryptionMethod method = proxyConfig.getEncryptionMethod();
+        if (method != EncryptionMethod.SSL && method != EncryptionMethod.NONE)
+            throw new GuacamoleServerException("Unimplemented encryption method.");
+
+        // Fail immediately if guacd has recently and repeatedly failed,
+        // allowing balancing groups to fail over without waiting for the
+        // connection to time out
+        GuacamoleEndpointRegistry registry = GuacamoleEndpointRegistry.getDefault();
+        registry.checkAvailable(hostname, port);
+
+        long startTime = System.currentTimeMillis();
+        GuacamoleSocket socket;
+
+        try {
 
             // Use SSL if requested
-            case SSL:
-                return new ManagedSSLGuacamoleSocket(
-                    proxyConfig.getHostname(),
-                    proxyConfig.getPort(),
-                    socketClosedCallback
-                );
+            if (method == EncryptionMethod.SSL)
+                socket = new ManagedSSLGuacamoleSocket(hostname, port,
+                        socketClosedCallback);
 
             // Use straight TCP if unencrypted
-            case NONE:
-                return new ManagedInetGuacamoleSocket(
-                    proxyConfig.getHostname(),
-                    proxyConfig.getPort(),
-                    socketClosedCallback
-                );
+            else
+                socket = new ManagedInetGuacamoleSocket(hostname, port,
+                        socketClosedCallback);
 
         }
 
-        // Bail out if encryption method is unknown
-        throw new GuacamoleServerException("Unimplemented encryption method.");
+        // Record failure such that repeated failures open the circuit
+        catch (GuacamoleException e) {
+            registry.failed(hostname, port);
+            throw e;
+        }
+
+        registry.connected(hostname, port, System.currentTimeMillis() - startTime);
+        return socket;
 
     }
 
@@ -379,6 +399,13 @@ public abstract class AbstractGuacamoleTunnelService implements GuacamoleTunnelS
          */
         private final ActiveConnectionRecord activeConnection;
 
+        /**
+         * The group of guacd instances from which the guacd hosting the
+         * connection was selected, or null if the guacd was not selected
+         * from a group.
+         */
+        private GuacamoleProxyGroup proxyGroup;
+
         /**
          * Creates a new task which automatically cleans up after the
          * connection associated with the given ActiveConnectionRecord. The
@@ -392,6 +419,19 @@ public abstract class AbstractGuacamoleTunnelService implements GuacamoleTunnelS
         public ConnectionCleanupTask(ActiveConnectionRecord activeConnection) {
             this.activeConnection = activeConnection;
         }
+
+        /**
+         * Notes that the guacd hosting the connection was selected from the
+         * given group, such that the guacd is released back to that group
+         * once this task runs.
+         *
+         * @param proxyGroup
+         *     The group of guacd instances from which the guacd hosting the
+         *     connection was selected.
+         */
+        public void setProxyGroup(GuacamoleProxyGroup proxyGroup) {
+            this.proxyGroup = proxyGroup;
+        }
         
         @Override
         public void run() {
@@ -406,6 +446,10 @@ public abstract class AbstractGuacamoleTunnelService implements GuacamoleTunnelS
             // Remove underlying tunnel from list of active tunnels
             activeTunnels.remove(activeConnection.getUUID().toString());
 
+            // Release guacd if selected from a group
+            if (proxyGroup != null)
+                proxyGroup.release(activeConnection.getGuacamoleProxyConfiguration());
+
             // Get original user
             RemoteAuthenticatedUser user = activeConnection.getUser();
 
@@ -472,7 +516,7 @@ public abstract class AbstractGuacamoleTunnelService implements GuacamoleTunnelS
             boolean interceptErrors) throws GuacamoleException {
 
         // Record new active connection
-        Runnable cleanupTask = new ConnectionCleanupTask(activeConnection);
+        ConnectionCleanupTask cleanupTask = new ConnectionCleanupTask(activeConnection);
         activeTunnels.put(activeConnection.getUUID().toString(), activeConnection);
 
         try {
@@ -514,10 +558,28 @@ public abstract class AbstractGuacamoleTunnelService implements GuacamoleTunnelS
             // Filter the configuration
             tokenFilter.filterValues(config.getParameters());
 
+            // Select guacd for new connections, using the guacd of the
+            // connection being joined otherwise
+            GuacamoleProxyConfiguration proxyConfig = activeConnection.getGuacamoleProxyConfiguration();
+            if (proxyConfig == null) {
+
+                // Distribute connections across group of guacd, if defined
+                GuacamoleProxyGroup proxyGroup = connection.getGuacamoleProxyGroup();
+                if (proxyGroup != null) {
+                    proxyConfig = proxyGroup.select(activeConnection.getUsername());
+                    cleanupTask.setProxyGroup(proxyGroup);
+                }
+                else
+                    proxyConfig = connection.getGuacamoleProxyConfiguration();
+
+                activeConnection.setGuacamoleProxyConfiguration(proxyConfig);
+
+            }
+
             // Obtain socket which will automatically run the cleanup task
             ConfiguredGuacamoleSocket socket = new ConfiguredGuacamoleSocket(
-                getUnconfiguredGuacamoleSocket(connection.getGuacamoleProxyConfiguration(),
-                        cleanupTask), config, info);
+                getUnconfiguredGuacamoleSocket(proxyConfig, cleanupTask),
+                config, info);
 
             // Assign and return new tunnel
             if (interceptErrors)
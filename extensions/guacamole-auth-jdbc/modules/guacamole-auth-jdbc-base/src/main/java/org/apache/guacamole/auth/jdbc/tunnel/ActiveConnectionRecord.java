@@ -32,6 +32,7 @@ import org.apache.guacamole.net.AbstractGuacamoleTunnel;
 import org.apache.guacamole.net.GuacamoleSocket;
 import org.apache.guacamole.net.GuacamoleTunnel;
 import org.apache.guacamole.net.auth.ConnectionRecord;
+import org.apache.guacamole.net.auth.GuacamoleProxyConfiguration;
 
 
 /**
@@ -81,6 +82,14 @@ public class ActiveConnectionRecord implements ConnectionRecord {
      * is the ID that must be supplied to guacd if joining this connection.
      */
     private String connectionID;
+
+    /**
+     * The configuration of the guacd hosting the connection, or null if the
+     * connection has not yet been assigned to a guacd. If the connection is
+     * joining another connection, this will be the guacd hosting the
+     * connection being joined.
+     */
+    private GuacamoleProxyConfiguration proxyConfiguration;
     
     /**
      * The GuacamoleTunnel used by the connection associated with this
@@ -209,6 +218,7 @@ public class ActiveConnectionRecord implements ConnectionRecord {
             ModeledSharingProfile sharingProfile) {
         init(user, null, activeConnection.getConnection(), sharingProfile);
         this.connectionID = activeConnection.getConnectionID();
+        this.proxyConfiguration = activeConnection.getGuacamoleProxyConfiguration();
     }
 
     /**
@@ -428,6 +438,31 @@ public class ActiveConnectionRecord implements ConnectionRecord {
         return connectionID;
     }
 
+    /**
+     * Returns the configuration of the guacd hosting the connection. If the
+     * connection is joining another connection, this will be the guacd
+     * hosting the connection being joined.
+     *
+     * @return
+     *     The configuration of the guacd hosting the connection, or null if
+     *     the connection has not yet been assigned to a guacd.
+     */
+    public GuacamoleProxyConfiguration getGuacamoleProxyConfiguration() {
+        return proxyConfiguration;
+    }
+
+    /**
+     * Assigns the connection represented by this record to the guacd having
+     * the given configuration.
+     *
+     * @param proxyConfiguration
+     *     The configuration of the guacd which will host the connection.
+     */
+    public void setGuacamoleProxyConfiguration(
+            GuacamoleProxyConfiguration proxyConfiguration) {
+        this.proxyConfiguration = proxyConfiguration;
+    }
+
     /**
      * Registers the given share key with this ActiveConnectionRecord, such that
      * the key is automatically removed from the common SharedConnectionMap when
@@ -495,6 +495,33 @@ Guacamole.HTTPTunnel = function(tunnelURL, crossDomain, extraTunnelHeaders) {
         // Parsed elements
         var elements = new Array();
 
+        // The minimum lifetime of this response, in milliseconds, as
+        // declared by the server, or null if not yet known. If zero, the
+        // next request is made immediately.
+        var readDuration = null;
+
+        // The number of characters after which the server may end this
+        // response, or zero if unlimited
+        var readLength = 0;
+
+        // The timeout ID of the pending next request, if any
+        var nextRequestTimeout = null;
+
+        /**
+         * Makes the next read request, if not already made, such that it is
+         * ready to take over once this response ends.
+         *
+         * @private
+         */
+        function makeNextRequest() {
+
+            window.clearTimeout(nextRequestTimeout);
+
+            if (!nextRequest && tunnel.isConnected())
+                nextRequest = makeRequest();
+
+        }
+
         function parseResponse() {
 
             // Do not handle responses if not connected
@@ -503,6 +530,9 @@ Guacamole.HTTPTunnel = function(tunnelURL, crossDomain, extraTunnelHeaders) {
                 // Clean up interval if polling
                 if (interval !== null)
                     clearInterval(interval);
+
+                // Cancel any pending next request
+                window.clearTimeout(nextRequestTimeout);
                 
                 return;
             }
@@ -517,9 +547,27 @@ Guacamole.HTTPTunnel = function(tunnelURL, crossDomain, extraTunnelHeaders) {
             // If status could not be read, assume successful.
             catch (e) { status = 200; }
 
-            // Start next request as soon as possible IF request was successful
-            if (!nextRequest && status === 200)
-                nextRequest = makeRequest();
+            // Start next request IF request was successful
+            if (!nextRequest && status === 200) {
+
+                // Determine whether the server will hold this response open
+                // for a minimum duration or length
+                if (readDuration === null) {
+
+                    readDuration = parseInt(xmlhttprequest.getResponseHeader("Guacamole-Read-Duration")) || 0;
+                    readLength = parseInt(xmlhttprequest.getResponseHeader("Guacamole-Read-Length")) || 0;
+
+                    // Make next request only once this response may end
+                    if (readDuration > 0)
+                        nextRequestTimeout = window.setTimeout(makeNextRequest, readDuration);
+
+                }
+
+                // Otherwise, start next request as soon as possible
+                if (readDuration <= 0)
+                    nextRequest = makeRequest();
+
+            }
 
             // Parse stream when data is received and when complete.
             if (xmlhttprequest.readyState === 3 ||
@@ -554,6 +602,11 @@ Guacamole.HTTPTunnel = function(tunnelURL, crossDomain, extraTunnelHeaders) {
                 // Do not attempt to parse if data could not be read
                 catch (e) { return; }
 
+                // Make next request early if this response may end due to
+                // its length
+                if (readLength > 0 && current.length >= readLength)
+                    makeNextRequest();
+
                 // While search is within currently received data
                 while (elementEnd < current.length) {
 
@@ -606,7 +659,9 @@ Guacamole.HTTPTunnel = function(tunnelURL, crossDomain, extraTunnelHeaders) {
                             xmlhttprequest.onreadystatechange = null;
                             xmlhttprequest.abort();
 
-                            // Start handling next request
+                            // Start handling next request, making that
+                            // request now if not yet made
+                            makeNextRequest();
                             if (nextRequest)
                                 handleResponse(nextRequest);
 
@@ -801,6 +856,47 @@ Guacamole.WebSocketTunnel = function(tunnelURL) {
      */
     var PING_FREQUENCY = 500;
 
+    /**
+     * The WebSocket subprotocol used when all messages are text messages.
+     *
+     * @private
+     * @constant
+     * @type {String}
+     */
+    var SUBPROTOCOL = "guacamole";
+
+    /**
+     * The WebSocket subprotocol used when messages received from the server
+     * are binary messages containing UTF-8. Messages sent to the server are
+     * still text messages.
+     *
+     * @private
+     * @constant
+     * @type {String}
+     */
+    var BINARY_SUBPROTOCOL = "guacamole-binary";
+
+    /**
+     * The maximum length of an element which will be converted to a string
+     * directly from its bytes if it consists solely of ASCII characters.
+     * Longer elements are always decoded using the TextDecoder.
+     *
+     * @private
+     * @constant
+     * @type {Number}
+     */
+    var MAX_ASCII_ELEMENT_LENGTH = 1024;
+
+    /**
+     * Decoder for the UTF-8 contained within binary messages, or null if the
+     * browser lacks TextDecoder, in which case only text messages will be
+     * requested.
+     *
+     * @private
+     * @type {TextDecoder}
+     */
+    var decoder = window.TextDecoder ? new window.TextDecoder("utf-8") : null;
+
     // Transform current URL to WebSocket URL
 
     // If not already a websocket URL
@@ -895,6 +991,115 @@ Guacamole.WebSocketTunnel = function(tunnelURL) {
 
     }
 
+    /**
+     * Handles the given fully-parsed instruction, updating the state of this
+     * tunnel if it is the first instruction received and passing it to the
+     * oninstruction handler if it is not tunnel-internal. The given array is
+     * cleared once the instruction has been handled.
+     *
+     * @private
+     * @param {String[]} elements
+     *     All elements of the instruction, beginning with its opcode.
+     */
+    function handle_instruction(elements) {
+
+        // Get opcode
+        var opcode = elements.shift();
+
+        // Update state and UUID when first instruction received
+        if (tunnel.uuid === null) {
+
+            // Associate tunnel UUID if received
+            if (opcode === Guacamole.Tunnel.INTERNAL_DATA_OPCODE)
+                tunnel.uuid = elements[0];
+
+            // Tunnel is now open and UUID is available
+            tunnel.setState(Guacamole.Tunnel.State.OPEN);
+
+        }
+
+        // Call instruction handler.
+        if (opcode !== Guacamole.Tunnel.INTERNAL_DATA_OPCODE && tunnel.oninstruction)
+            tunnel.oninstruction(opcode, elements);
+
+        // Clear elements
+        elements.length = 0;
+
+    }
+
+    /**
+     * Parses and handles each instruction within the given binary message,
+     * which must contain the UTF-8 encoding of one or more complete
+     * instructions. Element lengths are interpreted exactly as they are for
+     * text messages, thus each four-byte UTF-8 sequence (a surrogate pair in
+     * JavaScript) counts as two characters.
+     *
+     * @private
+     * @param {ArrayBuffer} buffer
+     *     The contents of the binary message received.
+     */
+    function handle_binary_message(buffer) {
+
+        var bytes = new Uint8Array(buffer);
+        var position = 0;
+
+        var elements = [];
+
+        while (position < bytes.length) {
+
+            // Parse length, stopping at the period
+            var length = 0;
+            var digit;
+            while (position < bytes.length
+                    && (digit = bytes[position]) !== 0x2E /* "." */) {
+                length = length * 10 + digit - 0x30 /* "0" */;
+                position++;
+            }
+
+            // Calculate start of element
+            var startIndex = ++position;
+
+            // Skip past the UTF-8 sequence of each character of the element
+            var remaining = length;
+            while (remaining > 0 && position < bytes.length) {
+
+                var lead = bytes[position];
+
+                if (lead < 0x80)      { position += 1; remaining -= 1; }
+                else if (lead < 0xE0) { position += 2; remaining -= 1; }
+                else if (lead < 0xF0) { position += 3; remaining -= 1; }
+                else                  { position += 4; remaining -= 2; }
+
+            }
+
+            // If no period or data ends before the terminator, incomplete
+            // instruction
+            if (remaining > 0 || position >= bytes.length) {
+                close_tunnel(new Guacamole.Status(Guacamole.Status.Code.SERVER_ERROR, "Incomplete instruction."));
+                return;
+            }
+
+            // We now have enough data for the element. Short ASCII elements
+            // (one byte per character) are converted directly, avoiding the
+            // overhead of the decoder.
+            var data = bytes.subarray(startIndex, position);
+            var element;
+            if (data.length === length && length <= MAX_ASCII_ELEMENT_LENGTH)
+                element = String.fromCharCode.apply(String, data);
+            else
+                element = decoder.decode(data);
+
+            // Add element to array
+            elements.push(element);
+
+            // If last element, handle instruction
+            if (bytes[position++] === 0x3B /* ";" */)
+                handle_instruction(elements);
+
+        }
+
+    }
+
     this.sendMessage = function(elements) {
 
         // Do not attempt to send messages if not connected
@@ -939,8 +1144,15 @@ Guacamole.WebSocketTunnel = function(tunnelURL) {
         // Mark the tunnel as connecting
         tunnel.setState(Guacamole.Tunnel.State.CONNECTING);
 
-        // Connect socket
-        socket = new WebSocket(tunnelURL + "?" + data, "guacamole");
+        // Connect socket, offering to receive binary messages if they can
+        // be decoded
+        if (decoder)
+            socket = new WebSocket(tunnelURL + "?" + data, [BINARY_SUBPROTOCOL, SUBPROTOCOL]);
+        else
+            socket = new WebSocket(tunnelURL + "?" + data, SUBPROTOCOL);
+
+        // Receive binary messages as ArrayBuffers, if used
+        socket.binaryType = "arraybuffer";
 
         socket.onopen = function(event) {
             reset_timeout();
@@ -974,6 +1186,12 @@ Guacamole.WebSocketTunnel = function(tunnelURL) {
 
             reset_timeout();
 
+            // Binary messages contain UTF-8 and must be parsed separately
+            if (typeof event.data !== "string") {
+                handle_binary_message(event.data);
+                return;
+            }
+
             var message = event.data;
             var startIndex = 0;
             var elementEnd;
@@ -1009,31 +1227,8 @@ Guacamole.WebSocketTunnel = function(tunnelURL) {
                 elements.push(element);
 
                 // If last element, handle instruction
-                if (terminator === ";") {
-
-                    // Get opcode
-                    var opcode = elements.shift();
-
-                    // Update state and UUID when first instruction received
-                    if (tunnel.uuid === null) {
-
-                        // Associate tunnel UUID if received
-                        if (opcode === Guacamole.Tunnel.INTERNAL_DATA_OPCODE)
-                            tunnel.uuid = elements[0];
-
-                        // Tunnel is now open and UUID is available
-                        tunnel.setState(Guacamole.Tunnel.State.OPEN);
-
-                    }
-
-                    // Call instruction handler.
-                    if (opcode !== Guacamole.Tunnel.INTERNAL_DATA_OPCODE && tunnel.oninstruction)
-                        tunnel.oninstruction(opcode, elements);
-
-                    // Clear elements
-                    elements.length = 0;
-
-                }
+                if (terminator === ";")
+                    handle_instruction(elements);
 
                 // Start searching for length at character after
                 // element terminator
@@ -0,0 +1,273 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.guacamole.io;
+
+import java.util.Arrays;
+
+/**
+ * Base64 encoder and decoder which operates directly on caller-provided
+ * buffers, such that the data of Guacamole "blob" instructions can be
+ * translated without allocating intermediate arrays for each blob. Encoded
+ * data uses the standard base64 alphabet with padding. Padding is optional
+ * when decoding, but whitespace and any other characters outside the
+ * alphabet are rejected.
+ */
+public final class Base64Codec {
+
+    /**
+     * The characters of the standard base64 alphabet, indexed by the 6-bit
+     * values they represent.
+     */
+    private static final char[] ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"
+            .toCharArray();
+
+    /**
+     * The 6-bit values represented by each ASCII character, or -1 for
+     * characters outside the base64 alphabet.
+     */
+    private static final int[] VALUES = new int[128];
+
+    static {
+        Arrays.fill(VALUES, -1);
+        for (int i = 0; i < ALPHABET.length; i++)
+            VALUES[ALPHABET[i]] = i;
+    }
+
+    /**
+     * This class is a utility class and may not be instantiated.
+     */
+    private Base64Codec() {}
+
+    /**
+     * Returns the number of characters required to encode the given number
+     * of bytes, including padding.
+     *
+     * @param length
+     *     The number of bytes to be encoded.
+     *
+     * @return
+     *     The number of characters required to encode the given number of
+     *     bytes.
+     */
+    public static int getEncodedLength(int length) {
+        return (length + 2) / 3 * 4;
+    }
+
+    /**
+     * Returns the maximum number of bytes which may result from decoding the
+     * given number of characters.
+     *
+     * @param length
+     *     The number of characters to be decoded.
+     *
+     * @return
+     *     The maximum number of bytes which may result from decoding the
+     *     given number of characters.
+     */
+    public static int getMaxDecodedLength(int length) {
+        return length / 4 * 3 + 2;
+    }
+
+    /**
+     * Returns the 6-bit value represented by the given base64 character.
+     *
+     * @param c
+     *     The base64 character to translate.
+     *
+     * @return
+     *     The 6-bit value represented by the given character.
+     *
+     * @throws IllegalArgumentException
+     *     If the character is not part of the base64 alphabet.
+     */
+    private static int valueOf(char c) throws IllegalArgumentException {
+
+        int value = c < VALUES.length ? VALUES[c] : -1;
+        if (value == -1)
+            throw new IllegalArgumentException("Invalid base64 character: 0x"
+                    + Integer.toHexString(c));
+
+        return value;
+
+    }
+
+    /**
+     * Decodes the given range of base64 characters into the given buffer.
+     * The buffer must have at least getMaxDecodedLength(length) bytes
+     * available following the given offset.
+     *
+     * @param data
+     *     The buffer containing the base64 characters to decode.
+     *
+     * @param offset
+     *     The offset within the data buffer of the first character to decode.
+     *
+     * @param length
+     *     The number of characters to decode.
+     *
+     * @param buffer
+     *     The buffer which should receive the decoded bytes.
+     *
+     * @param bufferOffset
+     *     The offset within the destination buffer at which the first decoded
+     *     byte should be stored.
+     *
+     * @return
+     *     The number of bytes decoded.
+     *
+     * @throws IllegalArgumentException
+     *     If the given characters are not valid base64.
+     */
+    public static int decode(char[] data, int offset, int length,
+            byte[] buffer, int bufferOffset) throws IllegalArgumentException {
+
+        // Ignore up to two trailing padding characters
+        int end = offset + length;
+        for (int i = 0; i < 2 && end > offset && data[end - 1] == '='; i++)
+            end--;
+
+        // A single trailing character cannot encode a complete byte
+        if ((end - offset) % 4 == 1)
+            throw new IllegalArgumentException("Invalid base64 length.");
+
+        int start = bufferOffset;
+
+        // Decode each complete group of four characters into three bytes
+        int i = offset;
+        for (; i + 4 <= end; i += 4) {
+
+            int bits = valueOf(data[i])     << 18
+                     | valueOf(data[i + 1]) << 12
+                     | valueOf(data[i + 2]) << 6
+                     | valueOf(data[i + 3]);
+
+            buffer[bufferOffset++] = (byte) (bits >> 16);
+            buffer[bufferOffset++] = (byte) (bits >> 8);
+            buffer[bufferOffset++] = (byte) bits;
+
+        }
+
+        // Decode final partial group of two or three characters, if any
+        int remaining = end - i;
+        if (remaining >= 2) {
+
+            int bits = valueOf(data[i]) << 18 | valueOf(data[i + 1]) << 12;
+            buffer[bufferOffset++] = (byte) (bits >> 16);
+
+            if (remaining == 3) {
+                bits |= valueOf(data[i + 2]) << 6;
+                buffer[bufferOffset++] = (byte) (bits >> 8);
+            }
+
+        }
+
+        return bufferOffset - start;
+
+    }
+
+    /**
+     * Encodes the given range of bytes as base64 into the given buffer,
+     * including padding. The buffer must have at least
+     * getEncodedLength(length) characters available following the given
+     * offset.
+     *
+     * @param data
+     *     The buffer containing the bytes to encode.
+     *
+     * @param offset
+     *     The offset within the data buffer of the first byte to encode.
+     *
+     * @param length
+     *     The number of bytes to encode.
+     *
+     * @param buffer
+     *     The buffer which should receive the base64 characters.
+     *
+     * @param bufferOffset
+     *     The offset within the destination buffer at which the first base64
+     *     character should be stored.
+     *
+     * @return
+     *     The number of characters stored within the destination buffer.
+     */
+    public static int encode(byte[] data, int offset, int length,
+            char[] buffer, int bufferOffset) {
+
+        int start = bufferOffset;
+        int end = offset + length;
+
+        // Encode each complete group of three bytes as four characters
+        int i = offset;
+        for (; i + 3 <= end; i += 3) {
+
+            int bits = (data[i] & 0xFF) << 16
+                     | (data[i + 1] & 0xFF) << 8
+                     | (data[i + 2] & 0xFF);
+
+            buffer[bufferOffset++] = ALPHABET[bits >> 18];
+            buffer[bufferOffset++] = ALPHABET[(bits >> 12) & 0x3F];
+            buffer[bufferOffset++] = ALPHABET[(bits >> 6) & 0x3F];
+            buffer[bufferOffset++] = ALPHABET[bits & 0x3F];
+
+        }
+
+        // Encode and pad final partial group of one or two bytes, if any
+        int remaining = end - i;
+        if (remaining > 0) {
+
+            int bits = (data[i] & 0xFF) << 16;
+            if (remaining == 2)
+                bits |= (data[i + 1] & 0xFF) << 8;
+
+            buffer[bufferOffset++] = ALPHABET[bits >> 18];
+            buffer[bufferOffset++] = ALPHABET[(bits >> 12) & 0x3F];
+            buffer[bufferOffset++] = remaining == 2 ? ALPHABET[(bits >> 6) & 0x3F] : '=';
+            buffer[bufferOffset++] = '=';
+
+        }
+
+        return bufferOffset - start;
+
+    }
+
+    /**
+     * Encodes the given range of bytes as a base64 string, including padding.
+     *
+     * @param data
+     *     The buffer containing the bytes to encode.
+     *
+     * @param offset
+     *     The offset within the data buffer of the first byte to encode.
+     *
+     * @param length
+     *     The number of bytes to encode.
+     *
+     * @return
+     *     The base64 encoding of the given bytes.
+     */
+    public static String encode(byte[] data, int offset, int length) {
+        char[] encoded = new char[getEncodedLength(length)];
+        encode(data, offset, length, encoded, 0);
+        return new String(encoded);
+    }
+
+}
@@ -0,0 +1,393 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.guacamole.io;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.protocol.GuacamoleOpcode;
+
+/**
+ * Batches instructions read from a GuacamoleReader into larger frames before
+ * sending, reducing per-message overhead for transports like WebSocket.
+ * A frame is sent when any of these is true:
+ *
+ * <ul>
+ *     <li>the frame has reached the maximum frame length,</li>
+ *     <li>the data most recently added contained a "sync" instruction and
+ *         flushing on sync is enabled,</li>
+ *     <li>no further data is immediately available,</li>
+ *     <li>the oldest instruction within the frame has been held for the
+ *         maximum delay while further data continued to arrive.</li>
+ * </ul>
+ *
+ * Frames are never held while waiting for data which has not yet arrived,
+ * thus the maximum delay only bounds how long a continuous stream of data
+ * may be batched into a single frame. With a maximum delay of zero, such
+ * batching is bounded only by the maximum frame length. Each
+ * InstructionCoalescer is intended for use by a single tunnel, and maintains
+ * counters describing the data it has sent.
+ */
+public class InstructionCoalescer {
+
+    /**
+     * Sends frames of coalesced instructions.
+     */
+    public interface FrameSender {
+
+        /**
+         * Sends the given frame, which contains one or more complete
+         * instructions.
+         *
+         * @param frame
+         *     The frame to send.
+         *
+         * @throws IOException
+         *     If an I/O error prevents the frame from being sent.
+         *
+         * @throws GuacamoleException
+         *     If the frame cannot be sent for reasons other than I/O errors,
+         *     such as the recipient failing to keep up with the data sent.
+         */
+        void sendFrame(String frame) throws IOException, GuacamoleException;
+
+    }
+
+    /**
+     * The default maximum length of each frame, in characters.
+     */
+    public static final int DEFAULT_MAX_FRAME_LENGTH = 8192;
+
+    /**
+     * The maximum length of each frame, in characters. A frame exceeds this
+     * length only if a single instruction does.
+     */
+    private final int maxFrameLength;
+
+    /**
+     * The maximum amount of time that an instruction may be held before its
+     * frame is sent, in nanoseconds.
+     */
+    private final long maxDelay;
+
+    /**
+     * Whether a frame should be sent after each "sync" instruction.
+     */
+    private final boolean flushOnSync;
+
+    /**
+     * The frame currently being built. This buffer is reused for each frame.
+     */
+    private StringBuilder buffer;
+
+    /**
+     * The time that the first instruction of the current frame was added, as
+     * returned by System.nanoTime().
+     */
+    private long frameStart;
+
+    /**
+     * The total number of frames sent.
+     */
+    private volatile long frameCount = 0;
+
+    /**
+     * The total number of instructions sent.
+     */
+    private volatile long instructionCount = 0;
+
+    /**
+     * The total number of characters sent.
+     */
+    private volatile long characterCount = 0;
+
+    /**
+     * Creates a new InstructionCoalescer which sends frames of at most
+     * DEFAULT_MAX_FRAME_LENGTH characters whenever no further data is
+     * immediately available.
+     */
+    public InstructionCoalescer() {
+        this(DEFAULT_MAX_FRAME_LENGTH, 0, false);
+    }
+
+    /**
+     * Creates a new InstructionCoalescer having the given limits.
+     *
+     * @param maxFrameLength
+     *     The maximum length of each frame, in characters. A frame exceeds
+     *     this length only if a single instruction does.
+     *
+     * @param maxDelay
+     *     The maximum amount of time that an instruction may be held before
+     *     its frame is sent while further data continues to arrive, in
+     *     microseconds. If zero, such frames are limited only by the maximum
+     *     frame length. Regardless of this value, frames are sent as soon as
+     *     no further data is immediately available.
+     *
+     * @param flushOnSync
+     *     Whether a frame should be sent after each "sync" instruction.
+     */
+    public InstructionCoalescer(int maxFrameLength, long maxDelay,
+            boolean flushOnSync) {
+        this.maxFrameLength = maxFrameLength;
+        this.maxDelay = TimeUnit.MICROSECONDS.toNanos(maxDelay);
+        this.flushOnSync = flushOnSync;
+        this.buffer = new StringBuilder(maxFrameLength);
+    }
+
+    /**
+     * Scans the given data, which contains one or more complete instructions,
+     * counting the instructions it contains and determining whether any of
+     * those instructions is a "sync" instruction.
+     *
+     * @param data
+     *     The data to scan, in Guacamole protocol format.
+     *
+     * @return
+     *     true if the given data contains a "sync" instruction, false
+     *     otherwise.
+     */
+    private boolean scan(char[] data) {
+
+        boolean containsSync = false;
+        boolean isOpcode = true;
+
+        int i = 0;
+        while (i < data.length) {
+
+            // Parse length of element
+            int length = 0;
+            while (i < data.length && data[i] >= '0' && data[i] <= '9')
+                length = length * 10 + data[i++] - '0';
+
+            // Stop if data is not valid
+            if (i >= data.length || data[i] != '.')
+                break;
+
+            // Skip element value, which is measured in code points
+            int start = ++i;
+            for (int codePoints = 0; codePoints < length && i < data.length; codePoints++) {
+                if (Character.isHighSurrogate(data[i]) && i + 1 < data.length)
+                    i += 2;
+                else
+                    i++;
+            }
+
+            // Stop if element is incomplete
+            if (i >= data.length)
+                break;
+
+            // The first element of each instruction is its opcode
+            if (isOpcode && GuacamoleOpcode.fromChars(data, start, i - start)
+                    == GuacamoleOpcode.SYNC)
+                containsSync = true;
+
+            // The next element is an opcode only if this instruction has ended
+            isOpcode = (data[i++] == ';');
+            if (isOpcode)
+                instructionCount++;
+
+        }
+
+        return containsSync;
+
+    }
+
+    /**
+     * Returns whether the current frame should be sent now that the given
+     * data has been added. Frames are never held waiting for data which has
+     * not yet arrived.
+     *
+     * @param reader
+     *     The reader from which the data was read.
+     *
+     * @param containsSync
+     *     Whether the data most recently added to the current frame contains
+     *     a "sync" instruction.
+     *
+     * @return
+     *     true if the current frame should be sent, false otherwise.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while checking for available data.
+     */
+    private boolean shouldFlush(GuacamoleReader reader, boolean containsSync)
+            throws GuacamoleException {
+
+        // Send full frames
+        if (buffer.length() >= maxFrameLength)
+            return true;
+
+        // Send on frame boundaries, if requested
+        if (flushOnSync && containsSync)
+            return true;
+
+        // Keep adding while data is available, up to the maximum delay
+        if (reader.available())
+            return maxDelay > 0 && System.nanoTime() - frameStart >= maxDelay;
+
+        // Otherwise, send immediately
+        return true;
+
+    }
+
+    /**
+     * Sends the current frame, if non-empty, resetting the buffer for the
+     * next frame.
+     *
+     * @param sender
+     *     The FrameSender to send the frame with.
+     *
+     * @throws IOException
+     *     If an I/O error prevents the frame from being sent.
+     *
+     * @throws GuacamoleException
+     *     If the FrameSender refuses to send the frame.
+     */
+    private void flush(FrameSender sender)
+            throws IOException, GuacamoleException {
+
+        int length = buffer.length();
+        if (length == 0)
+            return;
+
+        sender.sendFrame(buffer.toString());
+        frameCount++;
+        characterCount += length;
+
+        // Reuse buffer unless an unusually large frame has grown it
+        if (buffer.capacity() > maxFrameLength * 4)
+            buffer = new StringBuilder(maxFrameLength);
+        else
+            buffer.setLength(0);
+
+    }
+
+    /**
+     * Reads instructions from the given reader until a single coalesced frame
+     * has been sent using the given FrameSender, or until the end of the
+     * stream is reached. This allows the caller to decide between frames
+     * whether the transfer should continue.
+     *
+     * @param reader
+     *     The reader to read instructions from.
+     *
+     * @param sender
+     *     The FrameSender to send frames with.
+     *
+     * @return
+     *     true if a frame was sent and further instructions may be
+     *     available, false if the end of the stream has been reached (in
+     *     which case any remaining data has been sent).
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while reading instructions, or if the
+     *     FrameSender refuses to send a frame.
+     *
+     * @throws IOException
+     *     If an I/O error prevents a frame from being sent.
+     */
+    public boolean transferFrame(GuacamoleReader reader, FrameSender sender)
+            throws GuacamoleException, IOException {
+
+        char[] data;
+        while ((data = reader.read()) != null) {
+
+            // Add instructions to current frame
+            if (buffer.length() == 0)
+                frameStart = System.nanoTime();
+            buffer.append(data);
+
+            // Stop once a frame has been sent
+            if (shouldFlush(reader, scan(data))) {
+                flush(sender);
+                return true;
+            }
+
+        }
+
+        // Send any remaining data
+        flush(sender);
+        return false;
+
+    }
+
+    /**
+     * Reads all instructions from the given reader until the end of the
+     * stream is reached, sending them in coalesced frames using the given
+     * FrameSender.
+     *
+     * @param reader
+     *     The reader to read instructions from.
+     *
+     * @param sender
+     *     The FrameSender to send frames with.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while reading instructions, or if the
+     *     FrameSender refuses to send a frame.
+     *
+     * @throws IOException
+     *     If an I/O error prevents a frame from being sent.
+     */
+    public void transfer(GuacamoleReader reader, FrameSender sender)
+            throws GuacamoleException, IOException {
+
+        // Send frames until end of stream
+        boolean more;
+        do {
+            more = transferFrame(reader, sender);
+        } while (more);
+
+    }
+
+    /**
+     * Returns the total number of frames sent.
+     *
+     * @return
+     *     The total number of frames sent.
+     */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Returns the total number of instructions read, including any not yet
+     * sent.
+     *
+     * @return
+     *     The total number of instructions read.
+     */
+    public long getInstructionCount() {
+        return instructionCount;
+    }
+
+    /**
+     * Returns the total number of characters sent.
+     *
+     * @return
+     *     The total number of characters sent.
+     */
+    public long getCharacterCount() {
+        return characterCount;
+    }
+
+}
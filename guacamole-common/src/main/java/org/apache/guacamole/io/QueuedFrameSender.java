@@ -0,0 +1,414 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.guacamole.io;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.LinkedList;
+import java.util.Queue;
+import org.apache.guacamole.GuacamoleClientTimeoutException;
+import org.apache.guacamole.GuacamoleException;
+
+/**
+ * FrameSender which queues frames for asynchronous sending, such that the
+ * thread producing frames is not blocked while each frame is sent. At most
+ * one frame is sent at a time, in the order queued. The amount of queued
+ * data is bounded by a high-water mark: once reached, further frames are
+ * handled according to the configured OverflowPolicy.
+ *
+ * Subclasses implement sendAsync() using the asynchronous API of the
+ * underlying transport, invoking frameSent() once each frame has been sent
+ * or has failed.
+ */
+public abstract class QueuedFrameSender
+        implements InstructionCoalescer.FrameSender {
+
+    /**
+     * The action taken when a frame is sent while the high-water mark has
+     * been reached. Queued frames are never dropped or replaced with
+     * lower-quality data, as each instruction may depend on state
+     * established by the instructions before it.
+     */
+    public enum OverflowPolicy {
+
+        /**
+         * Block the sending thread until enough queued data has been sent,
+         * which in turn pauses reading from the source of that data. If no
+         * queued data is sent within the timeout, the recipient is
+         * considered to have timed out.
+         */
+        BLOCK,
+
+        /**
+         * Consider the recipient to have timed out immediately.
+         */
+        DISCONNECT
+
+    }
+
+    /**
+     * The default high-water mark, in characters.
+     */
+    public static final int DEFAULT_HIGH_WATER_MARK = 262144;
+
+    /**
+     * The default number of milliseconds to wait for queued data to be sent
+     * before considering the recipient to have timed out.
+     */
+    public static final long DEFAULT_TIMEOUT = 15000;
+
+    /**
+     * The maximum number of characters which may be queued before the
+     * OverflowPolicy applies.
+     */
+    private final int highWaterMark;
+
+    /**
+     * The action taken when the high-water mark is reached.
+     */
+    private final OverflowPolicy policy;
+
+    /**
+     * The number of milliseconds to wait for queued data to be sent before
+     * considering the recipient to have timed out, or zero to wait
+     * indefinitely.
+     */
+    private final long timeout;
+
+    /**
+     * Lock which must be held while accessing the queue or any state
+     * related to sending. The lock is notified whenever a frame is sent or
+     * sending fails.
+     */
+    private final Object lock = new Object();
+
+    /**
+     * All frames which have been queued but not yet passed to sendAsync().
+     */
+    private final Queue<String> queue = new LinkedList<String>();
+
+    /**
+     * The total length of all queued frames, including the frame currently
+     * being sent, in characters.
+     */
+    private int queuedLength = 0;
+
+    /**
+     * The length of the frame currently being sent, or zero if no frame is
+     * being sent.
+     */
+    private int sendingLength = 0;
+
+    /**
+     * The number of frames sent thus far, used to detect whether progress
+     * has been made while waiting.
+     */
+    private long sentCount = 0;
+
+    /**
+     * The error which caused sending to fail, if any. Once set, all further
+     * frames are refused.
+     */
+    private IOException failure = null;
+
+    /**
+     * Creates a new QueuedFrameSender having the given limits.
+     *
+     * @param highWaterMark
+     *     The maximum number of characters which may be queued before the
+     *     given OverflowPolicy applies.
+     *
+     * @param policy
+     *     The action taken when the high-water mark is reached.
+     *
+     * @param timeout
+     *     The number of milliseconds to wait for queued data to be sent
+     *     before considering the recipient to have timed out, or zero to wait
+     *     indefinitely.
+     */
+    public QueuedFrameSender(int highWaterMark, OverflowPolicy policy,
+            long timeout) {
+        this.highWaterMark = highWaterMark;
+        this.policy = policy;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Creates a new QueuedFrameSender having the default high-water mark and
+     * timeout, blocking when the high-water mark is reached.
+     */
+    public QueuedFrameSender() {
+        this(DEFAULT_HIGH_WATER_MARK, OverflowPolicy.BLOCK, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Begins sending the given frame using the asynchronous API of the
+     * underlying transport. This function must not block. Once the frame
+     * has been sent, or sending has failed, frameSent() must be invoked,
+     * possibly before this function returns. This function is never invoked
+     * again until frameSent() has been invoked for the previous frame.
+     *
+     * @param frame
+     *     The frame to send.
+     */
+    protected abstract void sendAsync(String frame);
+
+    /**
+     * Notifies this QueuedFrameSender that the frame most recently passed to
+     * sendAsync() has been sent, or that sending has failed. If successful,
+     * the next queued frame, if any, is sent.
+     *
+     * @param error
+     *     The error which prevented the frame from being sent, or null if
+     *     the frame was sent successfully.
+     */
+    protected final void frameSent(Throwable error) {
+
+        String next;
+        synchronized (lock) {
+
+            queuedLength -= sendingLength;
+            sendingLength = 0;
+            sentCount++;
+            lock.notifyAll();
+
+            // Refuse all further frames if sending fails
+            if (error != null) {
+
+                if (error instanceof IOException)
+                    failure = (IOException) error;
+                else
+                    failure = new IOException(error);
+
+                queue.clear();
+                queuedLength = 0;
+                return;
+
+            }
+
+            // Stop if nothing further to send
+            next = queue.poll();
+            if (next == null)
+                return;
+
+            sendingLength = next.length();
+
+        }
+
+        sendAsync(next);
+
+    }
+
+    /**
+     * Throws the error which caused sending to fail, if any. The lock must
+     * be held.
+     *
+     * @throws IOException
+     *     If sending has failed.
+     */
+    private void checkFailure() throws IOException {
+        if (failure != null)
+            throw new IOException("Unable to send data.", failure);
+    }
+
+    /**
+     * Waits for queued data to be sent, or for the timeout to elapse. The
+     * timeout applies only to periods in which no data is sent at all. The
+     * lock must be held.
+     *
+     * @param deadline
+     *     The time after which waiting times out, in milliseconds since the
+     *     epoch, as calculated when data was last seen to be sent.
+     *
+     * @throws IOException
+     *     If the current thread is interrupted while waiting.
+     *
+     * @throws GuacamoleException
+     *     If no data is sent before the deadline.
+     */
+    private void await(long deadline)
+            throws IOException, GuacamoleException {
+
+        long remaining = 0;
+        if (timeout > 0) {
+
+            remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0)
+                throw new GuacamoleClientTimeoutException("Client did not "
+                        + "receive queued data in time.");
+
+        }
+
+        try {
+            lock.wait(Math.max(remaining, 0));
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+
+    }
+
+    /**
+     * Adds the given frame to the queue, sending it immediately if no other
+     * frame is currently being sent. The lock must be held.
+     *
+     * @param frame
+     *     The frame to queue.
+     *
+     * @return
+     *     true if the frame should be passed to sendAsync() by the caller
+     *     once the lock is released, false if the frame will be sent after
+     *     currently-queued frames.
+     */
+    private boolean enqueue(String frame) {
+
+        queuedLength += frame.length();
+
+        if (sendingLength > 0 || !queue.isEmpty()) {
+            queue.add(frame);
+            return false;
+        }
+
+        sendingLength = frame.length();
+        return true;
+
+    }
+
+    @Override
+    public void sendFrame(String frame)
+            throws IOException, GuacamoleException {
+
+        if (frame.length() == 0)
+            return;
+
+        synchronized (lock) {
+
+            long lastSentCount = sentCount;
+            long deadline = System.currentTimeMillis() + timeout;
+
+            // Wait for space below the high-water mark, always accepting at
+            // least one frame regardless of length
+            checkFailure();
+            while (queuedLength > 0
+                    && queuedLength + frame.length() > highWaterMark) {
+
+                if (policy == OverflowPolicy.DISCONNECT)
+                    throw new GuacamoleClientTimeoutException("Client is "
+                            + "not receiving data quickly enough.");
+
+                // Restart timeout whenever data is sent
+                if (sentCount != lastSentCount) {
+                    lastSentCount = sentCount;
+                    deadline = System.currentTimeMillis() + timeout;
+                }
+
+                await(deadline);
+                checkFailure();
+
+            }
+
+            if (!enqueue(frame))
+                return;
+
+        }
+
+        sendAsync(frame);
+
+    }
+
+    /**
+     * Queues the given frame for sending regardless of the high-water mark,
+     * without blocking. This is intended for small, infrequent frames which
+     * must not be delayed, such as responses to pings.
+     *
+     * @param frame
+     *     The frame to send.
+     *
+     * @throws IOException
+     *     If sending has already failed.
+     */
+    public void sendFrameNow(String frame) throws IOException {
+
+        if (frame.length() == 0)
+            return;
+
+        synchronized (lock) {
+            checkFailure();
+            if (!enqueue(frame))
+                return;
+        }
+
+        sendAsync(frame);
+
+    }
+
+    /**
+     * Waits until all queued frames have been sent, or until sending fails.
+     * The timeout applies as for sendFrame().
+     *
+     * @throws IOException
+     *     If sending fails, or if the current thread is interrupted while
+     *     waiting.
+     *
+     * @throws GuacamoleException
+     *     If queued data is not sent in time.
+     */
+    public void drain() throws IOException, GuacamoleException {
+
+        synchronized (lock) {
+
+            long lastSentCount = sentCount;
+            long deadline = System.currentTimeMillis() + timeout;
+
+            checkFailure();
+            while (queuedLength > 0) {
+
+                // Restart timeout whenever data is sent
+                if (sentCount != lastSentCount) {
+                    lastSentCount = sentCount;
+                    deadline = System.currentTimeMillis() + timeout;
+                }
+
+                await(deadline);
+                checkFailure();
+
+            }
+
+        }
+
+    }
+
+    /**
+     * Returns the total length of all queued frames which have not yet been
+     * sent, in characters.
+     *
+     * @return
+     *     The total length of all queued frames which have not yet been
+     *     sent.
+     */
+    public int getQueuedLength() {
+        synchronized (lock) {
+            return queuedLength;
+        }
+    }
+
+}
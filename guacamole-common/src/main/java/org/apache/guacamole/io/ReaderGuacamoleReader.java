@@ -22,10 +22,9 @@ package org.apache.guacamole.io;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.nio.CharBuffer;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
-import java.util.Deque;
-import java.util.LinkedList;
 import org.apache.guacamole.GuacamoleConnectionClosedException;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.GuacamoleServerException;
@@ -59,33 +58,109 @@ public class ReaderGuacamoleReader implements GuacamoleReader {
      */
     private int parseStart;
 
+    /**
+     * The location within the received data buffer of the first character of
+     * the next instruction which has not yet been returned. All data prior to
+     * this location has already been consumed and may be discarded when the
+     * buffer is compacted.
+     */
+    private int instructionStart = 0;
+
+    /**
+     * The location within the received data buffer of the first character of
+     * the instruction most recently consumed by consumeInstruction().
+     */
+    private int consumedStart = 0;
+
     /**
      * The buffer holding all received, unparsed data.
      */
     private char[] buffer = new char[20480];
 
     /**
-     * The number of characters currently used within the data buffer. All
-     * other characters within the buffer are free space available for
-     * future reads.
+     * The location within the data buffer of the first character beyond the
+     * received data. All characters within the buffer beyond this point are
+     * free space available for future reads.
      */
     private int usedLength = 0;
 
+    /**
+     * Reusable view of the data buffer, as returned by readSlice(). This view
+     * is recreated only if the underlying buffer is replaced.
+     */
+    private CharBuffer slice = CharBuffer.wrap(buffer);
+
     @Override
     public boolean available() throws GuacamoleException {
         try {
-            return input.ready() || usedLength != 0;
+            return input.ready() || usedLength != instructionStart;
         }
         catch (IOException e) {
             throw new GuacamoleServerException(e);
         }
     }
 
-    @Override
-    public char[] read() throws GuacamoleException {
+    /**
+     * Ensures space is available at the end of the data buffer for further
+     * reads. Received data is shifted to the beginning of the buffer only if
+     * no space remains after the end of the received data, and the buffer is
+     * replaced with a larger buffer only if more than half of the buffer is
+     * occupied by a single incomplete instruction.
+     */
+    private void reserveSpace() {
+
+        int pendingLength = usedLength - instructionStart;
+
+        // If past threshold, resize buffer before reading
+        if (pendingLength > buffer.length/2) {
+            char[] biggerBuffer = new char[buffer.length*2];
+            System.arraycopy(buffer, instructionStart, biggerBuffer, 0, pendingLength);
+            buffer = biggerBuffer;
+            slice = CharBuffer.wrap(buffer);
+        }
+
+        // Otherwise, compact buffer only if no space remains at the end
+        else if (usedLength == buffer.length)
+            System.arraycopy(buffer, instructionStart, buffer, 0, pendingLength);
+
+        // Leave buffer untouched if space remains
+        else
+            return;
+
+        parseStart -= instructionStart;
+        usedLength = pendingLength;
+        instructionStart = 0;
+
+    }
+
+    /**
+     * Reads data from the wrapped Reader until at least one complete
+     * instruction is available within the data buffer, consuming that
+     * instruction. The consumed instruction begins at consumedStart and ends
+     * (exclusively) at the returned location. The contents of the consumed instruction remain
+     * valid within the buffer until the next call to this function.
+     *
+     * @return
+     *     The location within the data buffer immediately after the final
+     *     character of the consumed instruction, or -1 if the end of the
+     *     stream has been reached.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while reading from the stream, or if the
+     *     received data is not valid Guacamole protocol data.
+     */
+    private int consumeInstruction() throws GuacamoleException {
 
         try {
 
+            // Data from any previously-consumed instruction is no longer
+            // needed
+            if (instructionStart == usedLength) {
+                instructionStart = 0;
+                parseStart = 0;
+                usedLength = 0;
+            }
+
             // While we're blocking, or input is available
             for (;;) {
 
@@ -124,20 +199,12 @@ public class ReaderGuacamoleReader implements GuacamoleReader {
                             parseStart = i;
 
                             // If terminator is semicolon, we have a full
-                            // instruction.
+                            // instruction. The consumed data is left in place
+                            // until the buffer must be compacted.
                             if (terminator == ';') {
-
-                                // Copy instruction data
-                                char[] instruction = new char[i];
-                                System.arraycopy(buffer, 0, instruction, 0, i);
-
-                                // Update buffer
-                                usedLength -= i;
-                                parseStart = 0;
-                                System.arraycopy(buffer, i, buffer, 0, usedLength);
-
-                                return instruction;
-
+                                consumedStart = instructionStart;
+                                instructionStart = i;
+                                return i;
                             }
 
                             // Handle invalid terminator characters
@@ -158,17 +225,13 @@ public class ReaderGuacamoleReader implements GuacamoleReader {
 
                 }
 
-                // If past threshold, resize buffer before reading
-                if (usedLength > buffer.length/2) {
-                    char[] biggerBuffer = new char[buffer.length*2];
-                    System.arraycopy(buffer, 0, biggerBuffer, 0, usedLength);
-                    buffer = biggerBuffer;
-                }
+                // Make room for more data, if necessary
+                reserveSpace();
 
                 // Attempt to fill buffer
                 int numRead = input.read(buffer, usedLength, buffer.length - usedLength);
                 if (numRead == -1)
-                    return null;
+                    return -1;
 
                 // Update used length
                 usedLength += numRead;
@@ -189,78 +252,89 @@ public class ReaderGuacamoleReader implements GuacamoleReader {
     }
 
     @Override
-    public GuacamoleInstruction readInstruction() throws GuacamoleException {
-
-        // Get instruction
-        char[] instructionBuffer = read();
+    public char[] read() throws GuacamoleException {
 
-        // If EOF, return EOF
-        if (instructionBuffer == null)
+        // Read next instruction
+        int end = consumeInstruction();
+        if (end == -1)
             return null;
 
-        // Start of element
-        int elementStart = 0;
+        // Copy instruction data
+        char[] instruction = new char[end - consumedStart];
+        System.arraycopy(buffer, consumedStart, instruction, 0, instruction.length);
+        return instruction;
 
-        // Build list of elements
-        Deque<String> elements = new LinkedList<String>();
-        while (elementStart < instructionBuffer.length) {
+    }
 
-            // Find end of length
-            int lengthEnd = -1;
-            for (int i=elementStart; i<instructionBuffer.length; i++) {
-                if (instructionBuffer[i] == '.') {
-                    lengthEnd = i;
-                    break;
-                }
-            }
+    /**
+     * Reads exactly one complete Guacamole instruction, returning a view of
+     * that instruction within this reader's internal buffer rather than a
+     * copy. This function will block until a complete instruction is
+     * available. Unlike read(), no data is copied, and no memory is allocated
+     * unless the internal buffer must grow.
+     *
+     * The returned CharBuffer is reused by each call to this function, and its
+     * contents are valid only until release() is called or until this reader
+     * is read from again. Callers which need the instruction data beyond that
+     * point must copy it.
+     *
+     * @return
+     *     A CharBuffer whose remaining characters are exactly one complete
+     *     Guacamole instruction, or null if no more instructions are
+     *     available for reading.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while reading from the stream.
+     */
+    public CharBuffer readSlice() throws GuacamoleException {
 
-            // read() is required to return a complete instruction. If it does
-            // not, this is a severe internal error.
-            if (lengthEnd == -1)
-                throw new GuacamoleServerException("Read returned incomplete instruction.");
+        // Read next instruction
+        int end = consumeInstruction();
+        if (end == -1)
+            return null;
 
-            // Parse length
-            int length = Integer.parseInt(new String(
-                    instructionBuffer,
-                    elementStart,
-                    lengthEnd - elementStart
-            ));
+        // Point reusable view at instruction data
+        slice.limit(end);
+        slice.position(consumedStart);
+        return slice;
 
-            // Parse element from just after period
-            elementStart = lengthEnd + 1;
-            String element = new String(
-                    instructionBuffer,
-                    elementStart,
-                    length
-            );
+    }
 
-            // Append element to list of elements
-            elements.addLast(element);
+    /**
+     * Releases the view returned by the most recent call to readSlice(),
+     * signalling that its contents are no longer needed. The released view
+     * will contain no remaining characters. Calling this function when no
+     * view is held has no effect.
+     */
+    public void release() {
 
-            // Read terminator after element
-            elementStart += length;
-            char terminator = instructionBuffer[elementStart];
+        // Invalidate view
+        slice.limit(0);
 
-            // Continue reading instructions after terminator
-            elementStart++;
+        // Start over at the beginning of the buffer if no unconsumed data
+        // remains, avoiding the need to compact later
+        if (instructionStart == usedLength) {
+            instructionStart = 0;
+            parseStart = 0;
+            usedLength = 0;
+        }
 
-            // If we've reached the end of the instruction
-            if (terminator == ';')
-                break;
+    }
 
-        }
+    @Override
+    public GuacamoleInstruction readInstruction() throws GuacamoleException {
 
-        // Pull opcode off elements list
-        String opcode = elements.removeFirst();
+        // Read next instruction
+        int instructionEnd = consumeInstruction();
 
-        // Create instruction
-        GuacamoleInstruction instruction = new GuacamoleInstruction(
-                opcode,
-                elements.toArray(new String[elements.size()])
-        );
+        // If EOF, return EOF
+        if (instructionEnd == -1)
+            return null;
 
-        // Return parsed instruction
-        return instruction;
+        // Create instruction directly from received data, deferring parsing
+        // of arguments until needed
+        return new GuacamoleInstruction(buffer, consumedStart,
+                instructionEnd - consumedStart);
 
     }
 
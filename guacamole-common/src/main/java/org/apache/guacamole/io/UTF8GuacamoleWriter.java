@@ -0,0 +1,276 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.guacamole.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import org.apache.guacamole.GuacamoleConnectionClosedException;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
+import org.apache.guacamole.GuacamoleUpstreamTimeoutException;
+import org.apache.guacamole.protocol.GuacamoleInstruction;
+
+/**
+ * A GuacamoleWriter which writes UTF-8 encoded Guacamole instructions to a
+ * standard Java OutputStream. Characters are encoded into a reusable buffer,
+ * and data which is already UTF-8 encoded may be written directly via
+ * write(ByteBuffer) without being decoded.
+ */
+public class UTF8GuacamoleWriter implements GuacamoleWriter {
+
+    /**
+     * The byte written in place of any unpaired surrogate, matching the
+     * replacement behavior of the standard UTF-8 encoder.
+     */
+    private static final byte REPLACEMENT = '?';
+
+    /**
+     * Wrapped OutputStream to be used for all output.
+     */
+    private final OutputStream output;
+
+    /**
+     * Reusable buffer into which characters are encoded prior to being
+     * written.
+     */
+    private final byte[] encodeBuffer = new byte[8192];
+
+    /**
+     * The high surrogate which ended the characters most recently written,
+     * and which will be paired with the low surrogate expected to begin the
+     * next write, or 0 if there is no such surrogate. Access to this value
+     * is guarded by encodeBuffer.
+     */
+    private char pendingHighSurrogate = 0;
+
+    /**
+     * Creates a new UTF8GuacamoleWriter which will use the given OutputStream
+     * as the Guacamole instruction stream.
+     *
+     * @param output
+     *     The OutputStream to use as the Guacamole instruction stream.
+     */
+    public UTF8GuacamoleWriter(OutputStream output) {
+        this.output = output;
+    }
+
+    /**
+     * Encodes the given supplementary code point as a four-byte UTF-8
+     * sequence, storing the result within the given buffer.
+     *
+     * @param encoded
+     *     The buffer to store the encoded sequence within.
+     *
+     * @param length
+     *     The offset within the buffer at which to store the sequence.
+     *
+     * @param codePoint
+     *     The supplementary code point to encode.
+     *
+     * @return
+     *     The offset within the buffer immediately following the stored
+     *     sequence.
+     */
+    private static int encodeSupplementary(byte[] encoded, int length,
+            int codePoint) {
+        encoded[length++] = (byte) (0xF0 | (codePoint >> 18));
+        encoded[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+        encoded[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+        encoded[length++] = (byte) (0x80 | (codePoint & 0x3F));
+        return length;
+    }
+
+    /**
+     * Encodes the given characters as UTF-8, writing the encoded data to the
+     * wrapped OutputStream in chunks no larger than the encoding buffer. A
+     * high surrogate ending the given characters is retained until the next
+     * call, such that surrogate pairs split across calls are encoded
+     * correctly.
+     *
+     * @param chunk
+     *     The buffer containing the characters to encode.
+     *
+     * @param off
+     *     The offset within the buffer of the first character to encode.
+     *
+     * @param len
+     *     The number of characters to encode.
+     *
+     * @throws IOException
+     *     If an error occurs while writing the encoded data.
+     */
+    private void encode(char[] chunk, int off, int len) throws IOException {
+
+        byte[] encoded = encodeBuffer;
+        int length = 0;
+
+        int i = off;
+        int end = off + len;
+
+        // Complete any surrogate pair split across calls
+        if (pendingHighSurrogate != 0 && len > 0) {
+
+            if (Character.isLowSurrogate(chunk[i]))
+                length = encodeSupplementary(encoded, length,
+                        Character.toCodePoint(pendingHighSurrogate, chunk[i++]));
+            else
+                encoded[length++] = REPLACEMENT;
+
+            pendingHighSurrogate = 0;
+
+        }
+
+        for (; i < end; i++) {
+
+            // Flush if there may be insufficient space for the next character
+            if (length > encoded.length - 4) {
+                output.write(encoded, 0, length);
+                length = 0;
+            }
+
+            char c = chunk[i];
+
+            // ASCII
+            if (c < 0x80)
+                encoded[length++] = (byte) c;
+
+            // Two-byte sequence
+            else if (c < 0x800) {
+                encoded[length++] = (byte) (0xC0 | (c >> 6));
+                encoded[length++] = (byte) (0x80 | (c & 0x3F));
+            }
+
+            // Four-byte sequence (surrogate pair)
+            else if (Character.isHighSurrogate(c) && i + 1 < end
+                    && Character.isLowSurrogate(chunk[i + 1]))
+                length = encodeSupplementary(encoded, length,
+                        Character.toCodePoint(c, chunk[++i]));
+
+            // Retain trailing high surrogate until its pair is written
+            else if (Character.isHighSurrogate(c) && i + 1 == end)
+                pendingHighSurrogate = c;
+
+            // Unpaired surrogates cannot be encoded
+            else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE)
+                encoded[length++] = REPLACEMENT;
+
+            // Three-byte sequence
+            else {
+                encoded[length++] = (byte) (0xE0 | (c >> 12));
+                encoded[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                encoded[length++] = (byte) (0x80 | (c & 0x3F));
+            }
+
+        }
+
+        // Write any remaining data
+        output.write(encoded, 0, length);
+
+    }
+
+    @Override
+    public void write(char[] chunk, int off, int len) throws GuacamoleException {
+        try {
+            synchronized (encodeBuffer) {
+                encode(chunk, off, len);
+            }
+            output.flush();
+        }
+        catch (SocketTimeoutException e) {
+            throw new GuacamoleUpstreamTimeoutException("Connection to guacd timed out.", e);
+        }
+        catch (SocketException e) {
+            throw new GuacamoleConnectionClosedException("Connection to guacd is closed.", e);
+        }
+        catch (IOException e) {
+            throw new GuacamoleServerException(e);
+        }
+    }
+
+    @Override
+    public void write(char[] chunk) throws GuacamoleException {
+        write(chunk, 0, chunk.length);
+    }
+
+    /**
+     * Writes the remaining bytes of the given buffer, which must contain only
+     * complete, UTF-8 encoded Guacamole instructions, without decoding or
+     * re-encoding that data. The position of the buffer is advanced to its
+     * limit.
+     *
+     * @param frame
+     *     The buffer containing the UTF-8 encoded instructions to write.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while writing the data.
+     */
+    public void write(ByteBuffer frame) throws GuacamoleException {
+        try {
+
+            // A high surrogate cannot be paired with already-encoded data
+            synchronized (encodeBuffer) {
+                if (pendingHighSurrogate != 0) {
+                    pendingHighSurrogate = 0;
+                    output.write(REPLACEMENT);
+                }
+            }
+
+            // Write backing array directly, if available
+            if (frame.hasArray()) {
+                output.write(frame.array(), frame.arrayOffset() + frame.position(),
+                        frame.remaining());
+                frame.position(frame.limit());
+            }
+
+            // Otherwise, copy through encoding buffer
+            else {
+                synchronized (encodeBuffer) {
+                    while (frame.hasRemaining()) {
+                        int length = Math.min(frame.remaining(), encodeBuffer.length);
+                        frame.get(encodeBuffer, 0, length);
+                        output.write(encodeBuffer, 0, length);
+                    }
+                }
+            }
+
+            output.flush();
+
+        }
+        catch (SocketTimeoutException e) {
+            throw new GuacamoleUpstreamTimeoutException("Connection to guacd timed out.", e);
+        }
+        catch (SocketException e) {
+            throw new GuacamoleConnectionClosedException("Connection to guacd is closed.", e);
+        }
+        catch (IOException e) {
+            throw new GuacamoleServerException(e);
+        }
+    }
+
+    @Override
+    public void writeInstruction(GuacamoleInstruction instruction) throws GuacamoleException {
+        write(instruction.toString().toCharArray());
+    }
+
+}
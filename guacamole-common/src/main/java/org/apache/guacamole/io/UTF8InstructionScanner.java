@@ -0,0 +1,247 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.io;
+
+import org.apache.guacamole.GuacamoleClientException;
+import org.apache.guacamole.GuacamoleClientOverrunException;
+import org.apache.guacamole.protocol.GuacamoleParser;
+
+/**
+ * Streaming scanner which locates the boundaries of complete Guacamole
+ * instructions within UTF-8 encoded data, without decoding that data or
+ * building instructions from it. Data may be provided in arbitrarily-sized
+ * pieces, and each byte is examined only once, the state of any partial
+ * instruction being retained between calls to scan(). Element lengths are
+ * counted in UTF-16 code units, as they are by GuacamoleParser and by the
+ * JavaScript client, and the same limits as GuacamoleParser are enforced.
+ */
+public class UTF8InstructionScanner {
+
+    /**
+     * All possible states of the scanner.
+     */
+    private enum State {
+
+        /**
+         * The scanner is currently reading the length prefix of an element.
+         */
+        PARSING_LENGTH,
+
+        /**
+         * The scanner is currently skipping the content of an element, or
+         * is expecting the terminator following that content.
+         */
+        PARSING_CONTENT
+
+    }
+
+    /**
+     * The current state of the scanner.
+     */
+    private State state = State.PARSING_LENGTH;
+
+    /**
+     * The length of the current element, as parsed thus far.
+     */
+    private int elementLength = 0;
+
+    /**
+     * The number of digits of the current element's length read thus far.
+     */
+    private int digits = 0;
+
+    /**
+     * The number of elements of the current instruction read thus far.
+     */
+    private int elementCount = 0;
+
+    /**
+     * The number of UTF-16 code units of the current element not yet
+     * skipped.
+     */
+    private int remaining = 0;
+
+    /**
+     * The number of continuation bytes still expected for the current
+     * character.
+     */
+    private int continuationBytes = 0;
+
+    /**
+     * Scans the given data, which must immediately follow any data
+     * previously scanned, returning the location immediately after the last
+     * complete instruction within that data.
+     *
+     * @param data
+     *     The buffer containing the UTF-8 encoded data to scan.
+     *
+     * @param offset
+     *     The offset within the buffer of the first byte to scan.
+     *
+     * @param end
+     *     The offset within the buffer immediately after the final byte to
+     *     scan.
+     *
+     * @return
+     *     The offset within the buffer immediately after the terminating
+     *     semicolon of the last instruction completed within the given
+     *     data, or -1 if no instruction was completed.
+     *
+     * @throws GuacamoleClientException
+     *     If the data is not valid Guacamole protocol data, or exceeds the
+     *     limits enforced by GuacamoleParser.
+     */
+    public int scan(byte[] data, int offset, int end)
+            throws GuacamoleClientException {
+
+        int instructionEnd = -1;
+
+        int i = offset;
+        while (i < end) {
+
+            // Parse element length
+            if (state == State.PARSING_LENGTH) {
+
+                byte b = data[i++];
+
+                // If digit, add to length
+                if (b >= '0' && b <= '9') {
+                    if (++digits > GuacamoleParser.INSTRUCTION_MAX_DIGITS)
+                        throw new GuacamoleClientOverrunException("Instruction exceeds maximum length.");
+                    elementLength = elementLength * 10 + b - '0';
+                }
+
+                // If period, switch to skipping content
+                else if (b == '.') {
+
+                    if (elementLength > GuacamoleParser.INSTRUCTION_MAX_LENGTH)
+                        throw new GuacamoleClientOverrunException("Instruction exceeds maximum length.");
+
+                    if (++elementCount > GuacamoleParser.INSTRUCTION_MAX_ELEMENTS)
+                        throw new GuacamoleClientOverrunException("Instruction contains too many elements.");
+
+                    state = State.PARSING_CONTENT;
+                    remaining = elementLength;
+                    elementLength = 0;
+                    digits = 0;
+
+                }
+
+                // If not digit, parse error
+                else
+                    throw new GuacamoleClientException("Non-numeric character in element length.");
+
+            }
+
+            // Skip remaining continuation bytes of current character
+            else if (continuationBytes > 0) {
+                if ((data[i++] & 0xC0) != 0x80)
+                    throw new GuacamoleClientException("Invalid UTF-8 within instruction.");
+                continuationBytes--;
+            }
+
+            // Skip element content
+            else if (remaining > 0) {
+
+                byte b = data[i++];
+
+                // Single-byte characters are by far the most common, and are
+                // skipped in bulk
+                if ((b & 0x80) == 0) {
+                    remaining--;
+                    while (remaining > 0 && i < end && data[i] >= 0) {
+                        remaining--;
+                        i++;
+                    }
+                }
+
+                // Two and three byte sequences are a single UTF-16 code unit
+                else if ((b & 0xE0) == 0xC0) {
+                    continuationBytes = 1;
+                    remaining--;
+                }
+                else if ((b & 0xF0) == 0xE0) {
+                    continuationBytes = 2;
+                    remaining--;
+                }
+
+                // Four byte sequences are a surrogate pair
+                else if ((b & 0xF8) == 0xF0) {
+                    continuationBytes = 3;
+                    remaining -= 2;
+                    if (remaining < 0)
+                        throw new GuacamoleClientException("Element length of instruction splits a surrogate pair.");
+                }
+
+                else
+                    throw new GuacamoleClientException("Invalid UTF-8 within instruction.");
+
+            }
+
+            // Read terminator following element
+            else {
+
+                byte terminator = data[i++];
+
+                // If semicolon, instruction is complete
+                if (terminator == ';') {
+                    instructionEnd = i;
+                    elementCount = 0;
+                }
+
+                // Otherwise, must be comma
+                else if (terminator != ',')
+                    throw new GuacamoleClientException("Element terminator of instruction was not ';' nor ','");
+
+                state = State.PARSING_LENGTH;
+
+            }
+
+        }
+
+        return instructionEnd;
+
+    }
+
+    /**
+     * Returns whether all data scanned thus far consisted only of complete
+     * instructions.
+     *
+     * @return
+     *     true if no partial instruction has been scanned, false otherwise.
+     */
+    public boolean isComplete() {
+        return state == State.PARSING_LENGTH && digits == 0 && elementCount == 0;
+    }
+
+    /**
+     * Resets this scanner, discarding the state of any partial instruction
+     * such that new, unrelated data may be scanned.
+     */
+    public void reset() {
+        state = State.PARSING_LENGTH;
+        elementLength = 0;
+        digits = 0;
+        elementCount = 0;
+        remaining = 0;
+        continuationBytes = 0;
+    }
+
+}
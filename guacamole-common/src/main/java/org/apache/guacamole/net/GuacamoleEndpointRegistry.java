@@ -0,0 +1,438 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.guacamole.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.apache.guacamole.GuacamoleUpstreamUnavailableException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registry of the health of guacd endpoints, tracking the outcome and latency
+ * of recent connection attempts for each hostname and port. Once a number of
+ * consecutive attempts to connect to an endpoint have failed, the circuit for
+ * that endpoint is opened: further attempts fail immediately rather than
+ * waiting for the connection to time out, while the endpoint is probed in the
+ * background. The circuit is closed again as soon as a probe succeeds.
+ */
+public class GuacamoleEndpointRegistry {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger logger =
+            LoggerFactory.getLogger(GuacamoleEndpointRegistry.class);
+
+    /**
+     * The default number of consecutive connection failures after which the
+     * circuit for an endpoint is opened.
+     */
+    public static final int DEFAULT_FAILURE_THRESHOLD = 3;
+
+    /**
+     * The default interval between background probes of an endpoint whose
+     * circuit is open, in milliseconds.
+     */
+    public static final long DEFAULT_PROBE_INTERVAL = 5000;
+
+    /**
+     * The amount of time to wait for a probe to connect before considering
+     * the probe failed, in milliseconds.
+     */
+    private static final int PROBE_TIMEOUT = 5000;
+
+    /**
+     * The weight given to each new latency measurement when updating the
+     * smoothed latency of an endpoint.
+     */
+    private static final double LATENCY_WEIGHT = 0.25;
+
+    /**
+     * The registry shared by all connections within this JVM.
+     */
+    private static final GuacamoleEndpointRegistry defaultRegistry =
+            new GuacamoleEndpointRegistry(DEFAULT_FAILURE_THRESHOLD,
+                    DEFAULT_PROBE_INTERVAL);
+
+    /**
+     * The health of a single guacd endpoint. All access to the mutable state
+     * of an Endpoint must be synchronized on that Endpoint.
+     */
+    private class Endpoint implements Runnable {
+
+        /**
+         * The hostname of the endpoint.
+         */
+        private final String hostname;
+
+        /**
+         * The port of the endpoint.
+         */
+        private final int port;
+
+        /**
+         * The number of consecutive connection attempts which have failed.
+         */
+        private int failures = 0;
+
+        /**
+         * Whether the circuit for this endpoint is open, such that
+         * connection attempts should fail immediately.
+         */
+        private boolean open = false;
+
+        /**
+         * The smoothed time taken to connect to this endpoint, in
+         * milliseconds, or -1 if no connection has yet succeeded.
+         */
+        private double latency = -1;
+
+        /**
+         * Creates a new Endpoint for the given hostname and port, initially
+         * considered healthy.
+         *
+         * @param hostname
+         *     The hostname of the endpoint.
+         *
+         * @param port
+         *     The port of the endpoint.
+         */
+        public Endpoint(String hostname, int port) {
+            this.hostname = hostname;
+            this.port = port;
+        }
+
+        /**
+         * Probes this endpoint, closing its circuit if the probe succeeds
+         * and scheduling another probe otherwise.
+         */
+        @Override
+        public void run() {
+
+            boolean reachable = probe(hostname, port);
+
+            synchronized (this) {
+
+                // Stop probing if circuit was closed by a successful connection
+                if (!open)
+                    return;
+
+                if (reachable) {
+                    logger.info("guacd at {}:{} is reachable again.", hostname, port);
+                    open = false;
+                    failures = 0;
+                    return;
+                }
+
+            }
+
+            schedule(this);
+
+        }
+
+    }
+
+    /**
+     * The number of consecutive connection failures after which the circuit
+     * for an endpoint is opened.
+     */
+    private final int failureThreshold;
+
+    /**
+     * The interval between background probes of an endpoint whose circuit is
+     * open, in milliseconds.
+     */
+    private final long probeInterval;
+
+    /**
+     * All endpoints for which connection attempts have been recorded, keyed
+     * by "hostname:port".
+     */
+    private final ConcurrentMap<String, Endpoint> endpoints =
+            new ConcurrentHashMap<String, Endpoint>();
+
+    /**
+     * The executor which probes endpoints whose circuits are open, or null
+     * if no endpoint has yet needed to be probed.
+     */
+    private ScheduledExecutorService executor = null;
+
+    /**
+     * Creates a new GuacamoleEndpointRegistry which opens the circuit for an
+     * endpoint after the given number of consecutive failures.
+     *
+     * @param failureThreshold
+     *     The number of consecutive connection failures after which the
+     *     circuit for an endpoint is opened.
+     *
+     * @param probeInterval
+     *     The interval between background probes of an endpoint whose circuit
+     *     is open, in milliseconds.
+     */
+    public GuacamoleEndpointRegistry(int failureThreshold, long probeInterval) {
+        this.failureThreshold = failureThreshold;
+        this.probeInterval = probeInterval;
+    }
+
+    /**
+     * Returns the registry shared by all connections within this JVM.
+     *
+     * @return
+     *     The shared GuacamoleEndpointRegistry.
+     */
+    public static GuacamoleEndpointRegistry getDefault() {
+        return defaultRegistry;
+    }
+
+    /**
+     * Returns the Endpoint tracking the health of the given hostname and
+     * port, creating a new Endpoint if necessary.
+     *
+     * @param hostname
+     *     The hostname of the endpoint.
+     *
+     * @param port
+     *     The port of the endpoint.
+     *
+     * @return
+     *     The Endpoint for the given hostname and port.
+     */
+    private Endpoint getEndpoint(String hostname, int port) {
+
+        String key = hostname + ":" + port;
+
+        Endpoint endpoint = endpoints.get(key);
+        if (endpoint == null) {
+            Endpoint newEndpoint = new Endpoint(hostname, port);
+            endpoint = endpoints.putIfAbsent(key, newEndpoint);
+            if (endpoint == null)
+                endpoint = newEndpoint;
+        }
+
+        return endpoint;
+
+    }
+
+    /**
+     * Schedules the given endpoint to be probed after the probe interval has
+     * elapsed.
+     *
+     * @param endpoint
+     *     The endpoint to probe.
+     */
+    private synchronized void schedule(Endpoint endpoint) {
+
+        if (executor == null)
+            executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable task) {
+                    Thread thread = new Thread(task, "guacamole-endpoint-probe");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+
+            });
+
+        if (!executor.isShutdown())
+            executor.schedule(endpoint, probeInterval, TimeUnit.MILLISECONDS);
+
+    }
+
+    /**
+     * Tests whether the given endpoint is accepting connections. By default,
+     * this attempts to open and then immediately close a TCP connection.
+     *
+     * @param hostname
+     *     The hostname of the endpoint.
+     *
+     * @param port
+     *     The port of the endpoint.
+     *
+     * @return
+     *     true if the endpoint accepted a connection, false otherwise.
+     */
+    protected boolean probe(String hostname, int port) {
+
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(hostname, port), PROBE_TIMEOUT);
+            return true;
+        }
+        catch (IOException e) {
+            logger.debug("Probe of guacd at {}:{} failed.", hostname, port);
+            return false;
+        }
+        finally {
+            try {
+                socket.close();
+            }
+            catch (IOException e) {
+                logger.debug("Unable to close probe socket.", e);
+            }
+        }
+
+    }
+
+    /**
+     * Returns whether connections to the given endpoint may be attempted,
+     * which is the case unless its circuit is open.
+     *
+     * @param hostname
+     *     The hostname of the endpoint.
+     *
+     * @param port
+     *     The port of the endpoint.
+     *
+     * @return
+     *     true if connections to the given endpoint may be attempted, false
+     *     if the endpoint has recently and repeatedly failed.
+     */
+    public boolean isAvailable(String hostname, int port) {
+        Endpoint endpoint = getEndpoint(hostname, port);
+        synchronized (endpoint) {
+            return !endpoint.open;
+        }
+    }
+
+    /**
+     * Verifies that connections to the given endpoint may be attempted,
+     * failing immediately if its circuit is open.
+     *
+     * @param hostname
+     *     The hostname of the endpoint.
+     *
+     * @param port
+     *     The port of the endpoint.
+     *
+     * @throws GuacamoleUpstreamUnavailableException
+     *     If the endpoint has recently and repeatedly failed.
+     */
+    public void checkAvailable(String hostname, int port)
+            throws GuacamoleUpstreamUnavailableException {
+
+        if (!isAvailable(hostname, port))
+            throw new GuacamoleUpstreamUnavailableException("guacd at "
+                    + hostname + ":" + port + " is currently unreachable.");
+
+    }
+
+    /**
+     * Records that a connection to the given endpoint succeeded, closing its
+     * circuit if open.
+     *
+     * @param hostname
+     *     The hostname of the endpoint.
+     *
+     * @param port
+     *     The port of the endpoint.
+     *
+     * @param latency
+     *     The amount of time taken to connect, in milliseconds.
+     */
+    public void connected(String hostname, int port, long latency) {
+
+        Endpoint endpoint = getEndpoint(hostname, port);
+        synchronized (endpoint) {
+
+            endpoint.open = false;
+            endpoint.failures = 0;
+
+            if (endpoint.latency < 0)
+                endpoint.latency = latency;
+            else
+                endpoint.latency += LATENCY_WEIGHT * (latency - endpoint.latency);
+
+        }
+
+    }
+
+    /**
+     * Records that a connection to the given endpoint failed, opening its
+     * circuit and beginning background probes if the failure threshold has
+     * been reached.
+     *
+     * @param hostname
+     *     The hostname of the endpoint.
+     *
+     * @param port
+     *     The port of the endpoint.
+     */
+    public void failed(String hostname, int port) {
+
+        Endpoint endpoint = getEndpoint(hostname, port);
+        synchronized (endpoint) {
+
+            endpoint.failures++;
+            if (endpoint.open || endpoint.failures < failureThreshold)
+                return;
+
+            logger.warn("Connections to guacd at {}:{} have failed {} times "
+                    + "in a row. Further connections will fail immediately "
+                    + "until guacd is reachable again.",
+                    hostname, port, endpoint.failures);
+
+            endpoint.open = true;
+
+        }
+
+        schedule(endpoint);
+
+    }
+
+    /**
+     * Returns the smoothed time taken to connect to the given endpoint.
+     *
+     * @param hostname
+     *     The hostname of the endpoint.
+     *
+     * @param port
+     *     The port of the endpoint.
+     *
+     * @return
+     *     The smoothed time taken to connect to the given endpoint, in
+     *     milliseconds, or -1 if no connection has yet succeeded.
+     */
+    public long getLatency(String hostname, int port) {
+        Endpoint endpoint = getEndpoint(hostname, port);
+        synchronized (endpoint) {
+            return Math.round(endpoint.latency);
+        }
+    }
+
+    /**
+     * Stops all background probes. Circuits which are currently open will
+     * remain open until a connection is recorded as having succeeded.
+     */
+    public synchronized void shutdown() {
+        if (executor != null)
+            executor.shutdownNow();
+    }
+
+}
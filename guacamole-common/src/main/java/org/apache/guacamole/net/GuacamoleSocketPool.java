@@ -0,0 +1,405 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.net;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.guacamole.GuacamoleException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pool of connected, idle GuacamoleSockets which have not yet been used for
+ * any handshake, opened ahead of demand such that the latency of connecting
+ * to guacd is not incurred when a connection is requested. Idle sockets are
+ * replenished in the background whenever a socket is taken from the pool.
+ *
+ * guacd closes connections which do not begin the handshake within 15
+ * seconds. Idle sockets are therefore discarded and replaced once they
+ * exceed a maximum idle time, which is never allowed to reach that limit.
+ * Each socket which is not taken in time is thus a connection which guacd
+ * accepts and then closes, typically logging that the handshake failed to
+ * begin. While the pool is otherwise unused, this churn amounts to one
+ * connection per idle socket per maximum idle time, and should be weighed
+ * against the latency saved when choosing the size of the pool.
+ *
+ * Only closure by guacd due to its timeout is anticipated. Whether an idle
+ * socket has been closed by guacd for any other reason, such as guacd being
+ * restarted, cannot be determined without reading from that socket, thus
+ * such failures become apparent only once the handshake is attempted.
+ */
+public abstract class GuacamoleSocketPool {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger logger =
+            LoggerFactory.getLogger(GuacamoleSocketPool.class);
+
+    /**
+     * The default maximum amount of time that a socket may remain idle
+     * within the pool, in milliseconds. guacd closes connections which have
+     * not begun the handshake within 15 seconds.
+     */
+    public static final long DEFAULT_MAX_IDLE_TIME = 10000;
+
+    /**
+     * The largest maximum idle time permitted, in milliseconds. This is less
+     * than the 15 seconds that guacd waits for the handshake to begin,
+     * leaving time for the handshake to begin after a socket is taken from
+     * the pool.
+     */
+    public static final long MAX_IDLE_TIME_LIMIT = 12000;
+
+    /**
+     * The interval at which stale sockets are discarded and the pool is
+     * replenished, in milliseconds.
+     */
+    private static final long MAINTENANCE_INTERVAL = 1000;
+
+    /**
+     * A connected socket within the pool, along with the time that it was
+     * connected.
+     */
+    private static class IdleSocket {
+
+        /**
+         * The connected socket.
+         */
+        private final GuacamoleSocket socket;
+
+        /**
+         * The time that the socket was connected, in milliseconds since
+         * midnight, January 1, 1970 UTC.
+         */
+        private final long connectedTime = System.currentTimeMillis();
+
+        /**
+         * Creates a new IdleSocket wrapping the given, newly-connected
+         * socket.
+         *
+         * @param socket
+         *     The newly-connected socket.
+         */
+        public IdleSocket(GuacamoleSocket socket) {
+            this.socket = socket;
+        }
+
+    }
+
+    /**
+     * The number of idle sockets which should be maintained.
+     */
+    private final int size;
+
+    /**
+     * The maximum amount of time that a socket may remain idle within the
+     * pool, in milliseconds.
+     */
+    private final long maxIdleTime;
+
+    /**
+     * All idle sockets, in the order they were connected.
+     */
+    private final Queue<IdleSocket> idleSockets =
+            new ConcurrentLinkedQueue<IdleSocket>();
+
+    /**
+     * The executor which replenishes the pool, or null if maintenance has
+     * not yet been started.
+     */
+    private ScheduledExecutorService executor = null;
+
+    /**
+     * Task which discards stale sockets and replenishes the pool.
+     */
+    private final Runnable maintenanceTask = new Runnable() {
+
+        @Override
+        public void run() {
+            maintain();
+        }
+
+    };
+
+    /**
+     * The number of sockets which were taken from the pool.
+     */
+    private final AtomicLong hitCount = new AtomicLong();
+
+    /**
+     * The number of sockets which had to be connected on demand because the
+     * pool was empty.
+     */
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * The number of idle sockets which were discarded because they had been
+     * idle for too long or had been closed.
+     */
+    private final AtomicLong evictedCount = new AtomicLong();
+
+    /**
+     * Creates a new GuacamoleSocketPool which maintains the given number of
+     * idle sockets. The pool is not filled until start() or getSocket() is
+     * first called.
+     *
+     * @param size
+     *     The number of idle sockets which should be maintained.
+     *
+     * @param maxIdleTime
+     *     The maximum amount of time that a socket may remain idle within the
+     *     pool, in milliseconds. Values greater than MAX_IDLE_TIME_LIMIT are
+     *     reduced to that limit.
+     */
+    public GuacamoleSocketPool(int size, long maxIdleTime) {
+
+        // Never hand out sockets which guacd may have closed
+        if (maxIdleTime > MAX_IDLE_TIME_LIMIT) {
+            logger.warn("Maximum idle time of pooled sockets ({} ms) must be "
+                    + "less than the time guacd waits for the handshake to "
+                    + "begin. {} ms will be used instead.", maxIdleTime,
+                    MAX_IDLE_TIME_LIMIT);
+            maxIdleTime = MAX_IDLE_TIME_LIMIT;
+        }
+
+        this.size = size;
+        this.maxIdleTime = maxIdleTime;
+
+    }
+
+    /**
+     * Creates and connects a new socket. This function is invoked both to
+     * replenish the pool and when the pool is empty.
+     *
+     * @return
+     *     A newly-connected GuacamoleSocket.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while connecting the socket.
+     */
+    protected abstract GuacamoleSocket createSocket() throws GuacamoleException;
+
+    /**
+     * Starts filling the pool in the background, if not already started.
+     */
+    public synchronized void start() {
+
+        if (executor != null)
+            return;
+
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "guacamole-socket-pool");
+                thread.setDaemon(true);
+                return thread;
+            }
+
+        });
+
+        executor.scheduleWithFixedDelay(maintenanceTask, 0,
+                MAINTENANCE_INTERVAL, TimeUnit.MILLISECONDS);
+
+    }
+
+    /**
+     * Stops filling the pool and closes all idle sockets.
+     */
+    public synchronized void shutdown() {
+
+        if (executor != null)
+            executor.shutdownNow();
+
+        IdleSocket idle;
+        while ((idle = idleSockets.poll()) != null)
+            close(idle);
+
+    }
+
+    /**
+     * Returns whether the given idle socket may still be used.
+     *
+     * @param idle
+     *     The idle socket to test.
+     *
+     * @return
+     *     true if the socket is open and has not exceeded the maximum idle
+     *     time, false otherwise.
+     */
+    private boolean isHealthy(IdleSocket idle) {
+        return idle.socket.isOpen()
+            && System.currentTimeMillis() - idle.connectedTime < maxIdleTime;
+    }
+
+    /**
+     * Closes the given idle socket, logging any error.
+     *
+     * @param idle
+     *     The idle socket to close.
+     */
+    private void close(IdleSocket idle) {
+        try {
+            idle.socket.close();
+        }
+        catch (GuacamoleException e) {
+            logger.debug("Unable to close idle socket.", e);
+        }
+    }
+
+    /**
+     * Discards all stale sockets and connects new sockets until the pool is
+     * full. If a socket cannot be connected, the pool will be replenished
+     * during the next maintenance interval. This function is invoked only
+     * by the single thread of the pool's executor.
+     */
+    void maintain() {
+
+        // Discard stale sockets
+        for (IdleSocket idle : idleSockets) {
+            if (!isHealthy(idle) && idleSockets.remove(idle)) {
+                evictedCount.incrementAndGet();
+                close(idle);
+            }
+        }
+
+        // Replenish pool
+        while (idleSockets.size() < size) {
+            try {
+                idleSockets.add(new IdleSocket(createSocket()));
+            }
+            catch (GuacamoleException e) {
+                logger.debug("Unable to connect socket for pool.", e);
+                break;
+            }
+        }
+
+    }
+
+    /**
+     * Returns a connected socket, taken from the pool if possible. If the
+     * pool is empty, a new socket is connected. In either case, the pool is
+     * replenished in the background.
+     *
+     * @return
+     *     A connected GuacamoleSocket which has not been used for any
+     *     handshake.
+     *
+     * @throws GuacamoleException
+     *     If the pool is empty and an error occurs while connecting a new
+     *     socket.
+     */
+    public GuacamoleSocket getSocket() throws GuacamoleException {
+
+        start();
+
+        try {
+
+            // Use first healthy socket, discarding any stale sockets
+            IdleSocket idle;
+            while ((idle = idleSockets.poll()) != null) {
+
+                if (isHealthy(idle)) {
+                    hitCount.incrementAndGet();
+                    return idle.socket;
+                }
+
+                evictedCount.incrementAndGet();
+                close(idle);
+
+            }
+
+            // Connect on demand if pool is exhausted
+            missCount.incrementAndGet();
+            return createSocket();
+
+        }
+
+        // Replenish pool immediately rather than waiting for next interval
+        finally {
+            synchronized (this) {
+                if (!executor.isShutdown())
+                    executor.execute(maintenanceTask);
+            }
+        }
+
+    }
+
+    /**
+     * Returns the maximum amount of time that a socket may remain idle within
+     * the pool, in milliseconds.
+     *
+     * @return
+     *     The maximum amount of time that a socket may remain idle within the
+     *     pool, in milliseconds.
+     */
+    public long getMaxIdleTime() {
+        return maxIdleTime;
+    }
+
+    /**
+     * Returns the number of idle sockets currently within the pool.
+     *
+     * @return
+     *     The number of idle sockets currently within the pool.
+     */
+    public int getIdleCount() {
+        return idleSockets.size();
+    }
+
+    /**
+     * Returns the number of sockets which were taken from the pool.
+     *
+     * @return
+     *     The number of sockets which were taken from the pool.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Returns the number of sockets which had to be connected on demand
+     * because the pool was empty.
+     *
+     * @return
+     *     The number of sockets which were connected on demand.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Returns the number of idle sockets which were discarded because they
+     * had been idle for too long or had been closed.
+     *
+     * @return
+     *     The number of idle sockets which were discarded.
+     */
+    public long getEvictedCount() {
+        return evictedCount.get();
+    }
+
+}
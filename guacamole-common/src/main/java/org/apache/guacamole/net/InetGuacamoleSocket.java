@@ -22,7 +22,7 @@ package org.apache.guacamole.net;
 
 import org.apache.guacamole.io.GuacamoleReader;
 import org.apache.guacamole.io.ReaderGuacamoleReader;
-import org.apache.guacamole.io.WriterGuacamoleWriter;
+import org.apache.guacamole.io.UTF8GuacamoleWriter;
 import org.apache.guacamole.io.GuacamoleWriter;
 import java.io.IOException;
 import java.net.InetAddress;
@@ -30,7 +30,6 @@ import java.net.Socket;
 
 import java.io.InputStreamReader;
 
-import java.io.OutputStreamWriter;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.net.SocketTimeoutException;
@@ -104,7 +103,7 @@ public class InetGuacamoleSocket implements GuacamoleSocket {
 
             // On successful connect, retrieve I/O streams
             reader = new ReaderGuacamoleReader(new InputStreamReader(sock.getInputStream(),   "UTF-8"));
-            writer = new WriterGuacamoleWriter(new OutputStreamWriter(sock.getOutputStream(), "UTF-8"));
+            writer = new UTF8GuacamoleWriter(sock.getOutputStream());
 
         }
         catch (SocketTimeoutException e) {
@@ -22,7 +22,6 @@ package org.apache.guacamole.net;
 
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
@@ -34,7 +33,7 @@ import org.apache.guacamole.GuacamoleServerException;
 import org.apache.guacamole.io.GuacamoleReader;
 import org.apache.guacamole.io.GuacamoleWriter;
 import org.apache.guacamole.io.ReaderGuacamoleReader;
-import org.apache.guacamole.io.WriterGuacamoleWriter;
+import org.apache.guacamole.io.UTF8GuacamoleWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -106,7 +105,7 @@ public class SSLGuacamoleSocket implements GuacamoleSocket {
 
             // On successful connect, retrieve I/O streams
             reader = new ReaderGuacamoleReader(new InputStreamReader(sock.getInputStream(),   "UTF-8"));
-            writer = new WriterGuacamoleWriter(new OutputStreamWriter(sock.getOutputStream(), "UTF-8"));
+            writer = new UTF8GuacamoleWriter(sock.getOutputStream());
 
         }
         catch (IOException e) {
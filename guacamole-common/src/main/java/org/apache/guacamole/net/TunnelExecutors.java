@@ -0,0 +1,232 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.guacamole.net;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
+import org.apache.guacamole.GuacamoleUnsupportedException;
+
+/**
+ * Factory methods for the executors which run the long-lived tasks that pump
+ * data from a tunnel to its client, such as those used by the WebSocket
+ * tunnel implementations. Each such task occupies its thread for the life of
+ * the tunnel, thus the executors created here never queue tasks: a task
+ * either begins running immediately or is rejected.
+ */
+public final class TunnelExecutors {
+
+    /**
+     * The number of seconds that an idle platform thread is kept alive for
+     * reuse by a later tunnel before terminating.
+     */
+    private static final long KEEP_ALIVE = 60;
+
+    /**
+     * The shared executor used by tunnel implementations which have not been
+     * given an executor explicitly.
+     */
+    private static ExecutorService defaultExecutor = null;
+
+    /**
+     * This class is a utility class and may not be instantiated.
+     */
+    private TunnelExecutors() {}
+
+    /**
+     * ThreadFactory which creates daemon platform threads having sequentially
+     * numbered names with a common prefix, such that tunnel threads are
+     * readily identifiable within thread dumps.
+     */
+    private static class NamedThreadFactory implements ThreadFactory {
+
+        /**
+         * The prefix to include in the name of each thread.
+         */
+        private final String prefix;
+
+        /**
+         * The number to include in the name of the next thread.
+         */
+        private final AtomicInteger nextNumber = new AtomicInteger(1);
+
+        /**
+         * Creates a new NamedThreadFactory which names all threads using
+         * the given prefix.
+         *
+         * @param prefix
+         *     The prefix to include in the name of each thread.
+         */
+        public NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, prefix + "-" + nextNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    }
+
+    /**
+     * Returns whether the running JVM supports virtual threads. Virtual
+     * threads are available in Java 21 and later.
+     *
+     * @return
+     *     true if virtual threads are supported, false otherwise.
+     */
+    public static boolean isVirtualThreadSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        }
+        catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Creates a new executor which runs each task within its own daemon
+     * platform thread. Threads are named using the given prefix and are
+     * reused by later tasks after becoming idle. If the given maximum number
+     * of threads are already busy, further tasks are rejected with a
+     * RejectedExecutionException.
+     *
+     * @param prefix
+     *     The prefix to include in the name of each thread.
+     *
+     * @param maxThreads
+     *     The maximum number of tasks which may run concurrently, or zero if
+     *     there is no limit.
+     *
+     * @return
+     *     A new executor which runs tasks within platform threads.
+     */
+    public static ExecutorService newPlatformExecutor(String prefix,
+            int maxThreads) {
+
+        return new ThreadPoolExecutor(0,
+                maxThreads > 0 ? maxThreads : Integer.MAX_VALUE,
+                KEEP_ALIVE, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(),
+                new NamedThreadFactory(prefix));
+
+    }
+
+    /**
+     * Creates a new executor which runs each task within its own newly
+     * created virtual thread, named using the given prefix. Virtual threads
+     * are available only in Java 21 and later, and are created via
+     * reflection so that this class remains usable on older versions of
+     * Java.
+     *
+     * @param prefix
+     *     The prefix to include in the name of each thread.
+     *
+     * @return
+     *     A new executor which runs tasks within virtual threads.
+     *
+     * @throws GuacamoleException
+     *     If the running JVM does not support virtual threads.
+     */
+    public static ExecutorService newVirtualExecutor(String prefix)
+            throws GuacamoleException {
+
+        try {
+
+            // Equivalent to Thread.ofVirtual().name(prefix + "-", 1).factory()
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, Long.TYPE)
+                    .invoke(builder, prefix + "-", 1L);
+            ThreadFactory factory = (ThreadFactory) builderClass
+                    .getMethod("factory").invoke(builder);
+
+            // Equivalent to Executors.newThreadPerTaskExecutor(factory)
+            Method newExecutor = Executors.class
+                    .getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) newExecutor.invoke(null, factory);
+
+        }
+        catch (ClassNotFoundException e) {
+            throw new GuacamoleUnsupportedException("Virtual threads are not "
+                    + "supported by this version of Java.", e);
+        }
+        catch (NoSuchMethodException e) {
+            throw new GuacamoleUnsupportedException("Virtual threads are not "
+                    + "supported by this version of Java.", e);
+        }
+        catch (IllegalAccessException e) {
+            throw new GuacamoleServerException("Unable to create virtual "
+                    + "thread executor.", e);
+        }
+        catch (InvocationTargetException e) {
+            throw new GuacamoleServerException("Unable to create virtual "
+                    + "thread executor.", e.getCause());
+        }
+
+    }
+
+    /**
+     * Returns the shared executor used by tunnel implementations which have
+     * not been given an executor explicitly. This executor runs each task
+     * within its own platform thread, without limit, named with the prefix
+     * "guacamole-tunnel".
+     *
+     * @return
+     *     The shared default executor.
+     */
+    public static synchronized ExecutorService getDefault() {
+
+        if (defaultExecutor == null)
+            defaultExecutor = newPlatformExecutor("guacamole-tunnel", 0);
+
+        return defaultExecutor;
+
+    }
+
+    /**
+     * Shuts down the shared executor returned by getDefault(), interrupting
+     * any tasks which are still running. If the shared executor has not been
+     * created, this function has no effect. A later call to getDefault() will
+     * create a new shared executor. This function should be invoked when the
+     * web application using the shared executor is being unloaded.
+     */
+    public static synchronized void shutdownDefault() {
+
+        if (defaultExecutor != null) {
+            defaultExecutor.shutdownNow();
+            defaultExecutor = null;
+        }
+
+    }
+
+}
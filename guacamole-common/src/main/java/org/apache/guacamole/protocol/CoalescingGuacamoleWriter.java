@@ -0,0 +1,355 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.protocol;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
+import org.apache.guacamole.io.GuacamoleWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * GuacamoleWriter which coalesces consecutive "mouse" and "touch" position
+ * updates written within a short window, such that only the most recent
+ * position of each pointer within that window is written. Button state and
+ * touch press/release transitions are never coalesced and are written
+ * immediately, as are all other instructions, with any held position
+ * updates written first such that ordering relative to other instructions
+ * is preserved.
+ */
+public class CoalescingGuacamoleWriter implements GuacamoleWriter {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger logger =
+            LoggerFactory.getLogger(CoalescingGuacamoleWriter.class);
+
+    /**
+     * The wrapped GuacamoleWriter.
+     */
+    private final GuacamoleWriter writer;
+
+    /**
+     * The minimum number of milliseconds between writes of position updates.
+     */
+    private final long window;
+
+    /**
+     * The executor used to write held position updates once the window has
+     * elapsed, or null if held updates are written only when further
+     * instructions are written or flush() is called.
+     */
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Parser for reading instructions prior to writing, such that position
+     * updates can be recognized.
+     */
+    private final GuacamoleParser parser = new GuacamoleParser();
+
+    /**
+     * All held position updates, keyed by the pointer they describe, in the
+     * order that each pointer was first held.
+     */
+    private final Map<String, GuacamoleInstruction> pending =
+            new LinkedHashMap<String, GuacamoleInstruction>();
+
+    /**
+     * The most recent button or touch state of each pointer, as written or
+     * held, keyed by the pointer it describes.
+     */
+    private final Map<String, String> states = new HashMap<String, String>();
+
+    /**
+     * The time that a position update was last written, in milliseconds
+     * since midnight, January 1, 1970 UTC.
+     */
+    private long lastWriteTime = 0;
+
+    /**
+     * Whether a task which writes held position updates has been scheduled
+     * and has not yet run.
+     */
+    private boolean flushScheduled = false;
+
+    /**
+     * The total number of position updates which were replaced by a more
+     * recent update and were thus never written.
+     */
+    private long coalescedCount = 0;
+
+    /**
+     * Task which writes all held position updates once the window has
+     * elapsed.
+     */
+    private final Runnable flushTask = new Runnable() {
+
+        @Override
+        public void run() {
+            try {
+                scheduledFlush();
+            }
+            catch (GuacamoleException e) {
+                logger.debug("Unable to write coalesced input events.", e);
+            }
+        }
+
+    };
+
+    /**
+     * Wraps the given GuacamoleWriter, coalescing position updates written
+     * within the given window. If an executor is given, held position
+     * updates are written once the window has elapsed. If no executor is
+     * given, held position updates are written only when a further
+     * instruction is written or flush() is called.
+     *
+     * @param writer
+     *     The GuacamoleWriter to wrap.
+     *
+     * @param window
+     *     The minimum number of milliseconds between writes of position
+     *     updates.
+     *
+     * @param executor
+     *     The executor to use to write held position updates once the window
+     *     has elapsed, or null if held position updates should only be
+     *     written when further instructions are written or flush() is
+     *     called.
+     */
+    public CoalescingGuacamoleWriter(GuacamoleWriter writer, long window,
+            ScheduledExecutorService executor) {
+        this.writer = writer;
+        this.window = window;
+        this.executor = executor;
+    }
+
+    /**
+     * Returns a key uniquely identifying the pointer whose position is
+     * updated by the given instruction.
+     *
+     * @param instruction
+     *     The instruction to inspect.
+     *
+     * @return
+     *     A key uniquely identifying the pointer whose position is updated by
+     *     the given instruction, or null if the instruction is not a
+     *     well-formed "mouse" or "touch" instruction.
+     */
+    private static String getPointer(GuacamoleInstruction instruction) {
+
+        GuacamoleOpcode opcode = instruction.getKnownOpcode();
+        List<String> args = instruction.getArgs();
+
+        // mouse: x, y, button mask
+        if (opcode == GuacamoleOpcode.MOUSE && args.size() >= 3)
+            return "mouse";
+
+        // touch: id, x, y, x radius, y radius, angle, force
+        if (opcode == GuacamoleOpcode.TOUCH && args.size() >= 7)
+            return "touch:" + args.get(0);
+
+        return null;
+
+    }
+
+    /**
+     * Returns the button or touch state described by the given "mouse" or
+     * "touch" instruction. Position updates are coalesced only while this
+     * state is unchanged.
+     *
+     * @param instruction
+     *     The "mouse" or "touch" instruction to inspect.
+     *
+     * @return
+     *     The button mask of a "mouse" instruction, or whether the touch of a
+     *     "touch" instruction is pressed.
+     */
+    private static String getState(GuacamoleInstruction instruction) {
+
+        List<String> args = instruction.getArgs();
+
+        // The state of the mouse is its button mask
+        if (instruction.getKnownOpcode() == GuacamoleOpcode.MOUSE)
+            return args.get(2);
+
+        // A touch is pressed only while it has non-zero force
+        try {
+            return Double.parseDouble(args.get(6)) > 0 ? "pressed" : "released";
+        }
+        catch (NumberFormatException e) {
+            return args.get(6);
+        }
+
+    }
+
+    /**
+     * Returns a copy of the given instruction which does not share any
+     * storage with the parser that produced it, and thus may be held
+     * while further instructions are parsed.
+     *
+     * @param instruction
+     *     The instruction to copy.
+     *
+     * @return
+     *     A copy of the given instruction.
+     */
+    private static GuacamoleInstruction copy(GuacamoleInstruction instruction) {
+        List<String> args = instruction.getArgs();
+        return new GuacamoleInstruction(instruction.getOpcode(),
+                args.toArray(new String[args.size()]));
+    }
+
+    /**
+     * Writes all held position updates immediately.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while writing the held position updates.
+     */
+    public synchronized void flush() throws GuacamoleException {
+
+        if (pending.isEmpty())
+            return;
+
+        // Write and remove each held update in order
+        Iterator<GuacamoleInstruction> instructions = pending.values().iterator();
+        while (instructions.hasNext()) {
+            writer.writeInstruction(instructions.next());
+            instructions.remove();
+        }
+
+        lastWriteTime = System.currentTimeMillis();
+
+    }
+
+    /**
+     * Writes all held position updates once the window has elapsed. This
+     * function is invoked by the executor given at construction, and not by
+     * the thread writing instructions. Subclasses which wrap a writer that
+     * must only be used while some lock is held, such as the writer of a
+     * GuacamoleTunnel, should override this function to acquire that lock
+     * before invoking the superclass implementation, such that the lock is
+     * always acquired before this writer's own lock.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while writing the held position updates.
+     */
+    protected void scheduledFlush() throws GuacamoleException {
+        synchronized (this) {
+            flushScheduled = false;
+            flush();
+        }
+    }
+
+    /**
+     * Returns the total number of position updates which were replaced by a
+     * more recent update and were thus never written.
+     *
+     * @return
+     *     The total number of position updates coalesced by this writer.
+     */
+    public synchronized long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    @Override
+    public void write(char[] chunk, int offset, int length) throws GuacamoleException {
+
+        // Write all data in chunk
+        while (length > 0) {
+
+            // Pass as much data through the parser as possible
+            int parsed;
+            while ((parsed = parser.append(chunk, offset, length)) != 0) {
+                offset += parsed;
+                length -= parsed;
+            }
+
+            // If no instruction is available, it must be incomplete
+            if (!parser.hasNext())
+                throw new GuacamoleServerException("Coalesced write() contained an incomplete instruction.");
+
+            // Write single instruction, coalescing if possible
+            writeInstruction(parser.next());
+
+        }
+
+    }
+
+    @Override
+    public void write(char[] chunk) throws GuacamoleException {
+        write(chunk, 0, chunk.length);
+    }
+
+    @Override
+    public synchronized void writeInstruction(GuacamoleInstruction instruction)
+            throws GuacamoleException {
+
+        // Write all other instructions immediately, after any held updates
+        String pointer = getPointer(instruction);
+        if (pointer == null) {
+            flush();
+            writer.writeInstruction(instruction);
+            return;
+        }
+
+        // Write state transitions immediately, after any held updates
+        String state = getState(instruction);
+        String previousState = states.put(pointer, state);
+        if (!state.equals(previousState)) {
+            flush();
+            writer.writeInstruction(instruction);
+            lastWriteTime = System.currentTimeMillis();
+            return;
+        }
+
+        // Replace any held update for the same pointer
+        if (pending.containsKey(pointer)) {
+            pending.put(pointer, copy(instruction));
+            coalescedCount++;
+            return;
+        }
+
+        // Write immediately if the window has already elapsed
+        long elapsed = System.currentTimeMillis() - lastWriteTime;
+        if (elapsed >= window) {
+            flush();
+            writer.writeInstruction(instruction);
+            lastWriteTime = System.currentTimeMillis();
+            return;
+        }
+
+        // Otherwise, hold until the window has elapsed
+        pending.put(pointer, copy(instruction));
+        if (executor != null && !flushScheduled) {
+            executor.schedule(flushTask, window - elapsed, TimeUnit.MILLISECONDS);
+            flushScheduled = true;
+        }
+
+    }
+
+}
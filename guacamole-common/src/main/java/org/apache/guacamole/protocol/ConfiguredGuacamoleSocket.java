@@ -19,12 +19,16 @@
 
 package org.apache.guacamole.protocol;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.GuacamoleServerException;
 import org.apache.guacamole.io.GuacamoleReader;
 import org.apache.guacamole.io.GuacamoleWriter;
 import org.apache.guacamole.net.GuacamoleSocket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * A GuacamoleSocket which pre-configures the connection based on a given
@@ -38,6 +42,12 @@ import org.apache.guacamole.net.GuacamoleSocket;
  */
 public class ConfiguredGuacamoleSocket implements GuacamoleSocket {
 
+    /**
+     * Logger for this class.
+     */
+    private static final Logger logger =
+            LoggerFactory.getLogger(ConfiguredGuacamoleSocket.class);
+
     /**
      * The wrapped socket.
      */
@@ -63,6 +73,18 @@ public class ConfiguredGuacamoleSocket implements GuacamoleSocket {
      */
     private GuacamoleProtocolVersion protocolVersion =
             GuacamoleProtocolVersion.VERSION_1_0_0;
+
+    /**
+     * The number of milliseconds between sending the "select" instruction
+     * and receiving the "args" response.
+     */
+    private long selectDuration;
+
+    /**
+     * The number of milliseconds between sending the "connect" instruction
+     * and receiving the "ready" response.
+     */
+    private long connectDuration;
     
     /**
      * Waits for the instruction having the given opcode, returning that
@@ -90,6 +112,30 @@ public class ConfiguredGuacamoleSocket implements GuacamoleSocket {
         return instruction;
 
     }
+
+    /**
+     * Writes all given instructions using a single write, such that the
+     * instructions are flushed together rather than individually.
+     *
+     * @param writer
+     *     The writer to write the instructions to.
+     *
+     * @param instructions
+     *     The instructions to write.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while writing the instructions.
+     */
+    private void writeInstructions(GuacamoleWriter writer,
+            List<GuacamoleInstruction> instructions) throws GuacamoleException {
+
+        StringBuilder buffer = new StringBuilder();
+        for (GuacamoleInstruction instruction : instructions)
+            buffer.append(instruction.toString());
+
+        writer.write(buffer.toString().toCharArray());
+
+    }
  
     /**
      * Creates a new ConfiguredGuacamoleSocket which uses the given
@@ -138,10 +184,12 @@ public class ConfiguredGuacamoleSocket implements GuacamoleSocket {
             select_arg = config.getProtocol();
 
         // Send requested protocol or connection ID
+        long selectTime = System.nanoTime();
         writer.writeInstruction(new GuacamoleInstruction("select", select_arg));
 
         // Wait for server args
         GuacamoleInstruction args = expect(reader, "args");
+        selectDuration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - selectTime);
 
         // Build args list off provided names and config
         List<String> arg_names = args.getArgs();
@@ -179,8 +227,11 @@ public class ConfiguredGuacamoleSocket implements GuacamoleSocket {
 
         }
 
+        // Send all remaining handshake instructions together
+        List<GuacamoleInstruction> instructions = new ArrayList<GuacamoleInstruction>();
+
         // Send size
-        writer.writeInstruction(
+        instructions.add(
             new GuacamoleInstruction(
                 "size",
                 Integer.toString(info.getOptimalScreenWidth()),
@@ -190,35 +241,38 @@ public class ConfiguredGuacamoleSocket implements GuacamoleSocket {
         );
 
         // Send supported audio formats
-        writer.writeInstruction(
+        instructions.add(
                 new GuacamoleInstruction(
                     "audio",
                     info.getAudioMimetypes().toArray(new String[0])
                 ));
 
         // Send supported video formats
-        writer.writeInstruction(
+        instructions.add(
                 new GuacamoleInstruction(
                     "video",
                     info.getVideoMimetypes().toArray(new String[0])
                 ));
 
         // Send supported image formats
-        writer.writeInstruction(
+        instructions.add(
                 new GuacamoleInstruction(
                     "image",
                     info.getImageMimetypes().toArray(new String[0])
                 ));
-        
+
         // Send client timezone, if supported and available
         if (GuacamoleProtocolCapability.TIMEZONE_HANDSHAKE.isSupported(protocolVersion)) {
             String timezone = info.getTimezone();
             if (timezone != null)
-                writer.writeInstruction(new GuacamoleInstruction("timezone", info.getTimezone()));
+                instructions.add(new GuacamoleInstruction("timezone", info.getTimezone()));
         }
 
         // Send args
-        writer.writeInstruction(new GuacamoleInstruction("connect", arg_values));
+        instructions.add(new GuacamoleInstruction("connect", arg_values));
+
+        long connectTime = System.nanoTime();
+        writeInstructions(writer, instructions);
 
         // Wait for ready, store ID
         GuacamoleInstruction ready = expect(reader, "ready");
@@ -228,6 +282,11 @@ public class ConfiguredGuacamoleSocket implements GuacamoleSocket {
             throw new GuacamoleServerException("No connection ID received");
 
         id = ready.getArgs().get(0);
+        connectDuration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - connectTime);
+
+        logger.debug("Handshake for connection \"{}\" completed: \"args\" "
+                + "received after {} ms, \"ready\" received after {} ms.",
+                id, selectDuration, connectDuration);
 
     }
 
@@ -267,6 +326,30 @@ public class ConfiguredGuacamoleSocket implements GuacamoleSocket {
         return protocolVersion;
     }
 
+    /**
+     * Returns the number of milliseconds between sending the "select"
+     * instruction and receiving the "args" response during the handshake.
+     *
+     * @return
+     *     The duration of the "select" phase of the handshake, in
+     *     milliseconds.
+     */
+    public long getSelectDuration() {
+        return selectDuration;
+    }
+
+    /**
+     * Returns the number of milliseconds between sending the "connect"
+     * instruction and receiving the "ready" response during the handshake.
+     *
+     * @return
+     *     The duration of the "connect" phase of the handshake, in
+     *     milliseconds.
+     */
+    public long getConnectDuration() {
+        return connectDuration;
+    }
+
     @Override
     public GuacamoleWriter getWriter() {
         return socket.getWriter();
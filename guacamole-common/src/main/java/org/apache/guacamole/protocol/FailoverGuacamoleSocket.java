@@ -19,10 +19,10 @@
 
 package org.apache.guacamole.protocol;
 
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Queue;
 import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
 import org.apache.guacamole.GuacamoleUpstreamException;
 import org.apache.guacamole.GuacamoleUpstreamNotFoundException;
 import org.apache.guacamole.GuacamoleUpstreamTimeoutException;
@@ -54,17 +54,41 @@ public class FailoverGuacamoleSocket implements GuacamoleSocket {
      */
     private static final int DEFAULT_INSTRUCTION_QUEUE_LIMIT = 131072;
 
+    /**
+     * The initial size of the buffer of instruction data read while this
+     * FailoverGuacamoleSocket was being constructed, in characters. The
+     * buffer grows as needed.
+     */
+    private static final int INITIAL_BUFFER_SIZE = 8192;
+
     /**
      * The wrapped socket being used.
      */
     private final GuacamoleSocket socket;
 
     /**
-     * Queue of all instructions read while this FailoverGuacamoleSocket was
-     * being constructed.
+     * The raw data of all instructions read while this
+     * FailoverGuacamoleSocket was being constructed, exactly as received, or
+     * null if all such data has been read.
+     */
+    private char[] buffer = new char[INITIAL_BUFFER_SIZE];
+
+    /**
+     * The number of characters of instruction data within the buffer.
      */
-    private final Queue<GuacamoleInstruction> instructionQueue =
-            new LinkedList<GuacamoleInstruction>();
+    private int bufferLength = 0;
+
+    /**
+     * The offset within the buffer of the first character of instruction
+     * data which has not yet been read.
+     */
+    private int bufferOffset = 0;
+
+    /**
+     * Parser used to parse individual instructions from the buffer as
+     * needed. The buffer is otherwise only scanned for opcodes.
+     */
+    private final GuacamoleParser parser = new GuacamoleParser();
 
     /**
      * Parses the given "error" instruction, throwing an exception if the
@@ -127,6 +151,127 @@ public class FailoverGuacamoleSocket implements GuacamoleSocket {
 
     }
 
+    /**
+     * Appends the given instruction data to the buffer, growing the buffer
+     * if necessary.
+     *
+     * @param chunk
+     *     The instruction data to append.
+     */
+    private void append(char[] chunk) {
+
+        // Grow buffer to fit new data
+        if (bufferLength + chunk.length > buffer.length)
+            buffer = Arrays.copyOf(buffer,
+                    Math.max(buffer.length * 2, bufferLength + chunk.length));
+
+        System.arraycopy(chunk, 0, buffer, bufferLength, chunk.length);
+        bufferLength += chunk.length;
+
+    }
+
+    /**
+     * Returns the offset of the terminator of the element beginning at the
+     * given offset within the buffer, without parsing the element's content.
+     *
+     * @param offset
+     *     The offset within the buffer of the first character of the
+     *     element's length prefix.
+     *
+     * @return
+     *     The offset within the buffer of the element's terminator.
+     *
+     * @throws GuacamoleServerException
+     *     If the element is malformed or is not complete within the buffer.
+     */
+    private int skipElement(int offset) throws GuacamoleServerException {
+
+        // Parse length prefix up to the period
+        int length = 0;
+        char c;
+        while (offset < bufferLength && (c = buffer[offset++]) != '.') {
+
+            if (c < '0' || c > '9')
+                throw new GuacamoleServerException("Non-numeric character in element length.");
+
+            length = length * 10 + c - '0';
+            if (length > GuacamoleParser.INSTRUCTION_MAX_LENGTH)
+                throw new GuacamoleServerException("Instruction exceeds maximum length.");
+
+        }
+
+        // Skip content, stopping at the terminator
+        offset += length;
+        if (offset >= bufferLength)
+            throw new GuacamoleServerException("Incomplete instruction.");
+
+        return offset;
+
+    }
+
+    /**
+     * Returns the offset immediately following the instruction beginning at
+     * the given offset within the buffer, without parsing the content of any
+     * of the instruction's elements.
+     *
+     * @param offset
+     *     The offset within the buffer of the first character of the
+     *     instruction.
+     *
+     * @return
+     *     The offset within the buffer of the first character following the
+     *     instruction.
+     *
+     * @throws GuacamoleServerException
+     *     If the instruction is malformed or is not complete within the
+     *     buffer.
+     */
+    private int skipInstruction(int offset) throws GuacamoleServerException {
+
+        // Skip each element until the final element is reached
+        offset = skipElement(offset);
+        while (buffer[offset] == ',')
+            offset = skipElement(offset + 1);
+
+        if (buffer[offset] != ';')
+            throw new GuacamoleServerException("Element terminator of instruction was not ';' nor ','");
+
+        return offset + 1;
+
+    }
+
+    /**
+     * Parses the complete instruction beginning at the given offset within
+     * the buffer.
+     *
+     * @param offset
+     *     The offset within the buffer of the first character of the
+     *     instruction.
+     *
+     * @return
+     *     The parsed instruction.
+     *
+     * @throws GuacamoleException
+     *     If the instruction is malformed or is not complete within the
+     *     buffer.
+     */
+    private GuacamoleInstruction parseInstruction(int offset)
+            throws GuacamoleException {
+
+        while (!parser.hasNext()) {
+
+            int parsed = parser.append(buffer, offset, bufferLength - offset);
+            if (parsed == 0)
+                throw new GuacamoleServerException("Incomplete instruction.");
+
+            offset += parsed;
+
+        }
+
+        return parser.next();
+
+    }
+
     /**
      * Creates a new FailoverGuacamoleSocket which reads Guacamole instructions
      * from the given socket, searching for errors from the upstream remote
@@ -158,37 +303,59 @@ public class FailoverGuacamoleSocket implements GuacamoleSocket {
             final int instructionQueueLimit)
             throws GuacamoleException, GuacamoleUpstreamException {
 
-        int totalQueueSize = 0;
-
-        GuacamoleInstruction instruction;
+        char[] chunk;
         GuacamoleReader reader = socket.getReader();
 
-        // Continuously read instructions, searching for errors
-        while ((instruction = reader.readInstruction()) != null) {
+        // Continuously read instruction data, searching for errors
+        read:
+        while ((chunk = reader.read()) != null) {
 
-            // Add instruction to tail of instruction queue
-            instructionQueue.add(instruction);
+            int offset = bufferLength;
+            append(chunk);
 
-            // If instruction is a "sync" instruction, stop reading
-            String opcode = instruction.getOpcode();
-            if (opcode.equals("sync"))
-                break;
+            // Scan only the opcode of each newly-read instruction
+            while (offset < bufferLength) {
+
+                int start = offset;
+
+                // Locate opcode, which follows the length prefix of the
+                // first element
+                int opcodeEnd = skipElement(offset);
+                int opcodeStart = offset;
+                while (buffer[opcodeStart++] != '.') {
+                    // Skip length prefix
+                }
+
+                GuacamoleOpcode opcode = GuacamoleOpcode.fromChars(buffer,
+                        opcodeStart, opcodeEnd - opcodeStart);
+
+                // Skip remainder of instruction
+                offset = skipInstruction(start);
+
+                // If instruction is a "sync" instruction, stop reading
+                if (opcode == GuacamoleOpcode.SYNC)
+                    break read;
+
+                // If instruction is an "error" instruction, parse its
+                // contents and stop reading
+                if (opcode == GuacamoleOpcode.ERROR) {
+                    handleUpstreamErrors(parseInstruction(start));
+                    break read;
+                }
 
-            // If instruction is an "error" instruction, parse its contents and
-            // stop reading
-            if (opcode.equals("error")) {
-                handleUpstreamErrors(instruction);
-                break;
             }
 
-            // Otherwise, track total data parsed, and assume connection is
-            // successful if no error encountered within reasonable space
-            totalQueueSize += instruction.toString().length();
-            if (totalQueueSize >= instructionQueueLimit)
+            // Otherwise, assume connection is successful if no error
+            // encountered within reasonable space
+            if (bufferLength >= instructionQueueLimit)
                 break;
 
         }
 
+        // Release buffer immediately if nothing was read
+        if (bufferLength == 0)
+            buffer = null;
+
         this.socket = socket;
 
     }
@@ -221,8 +388,8 @@ public class FailoverGuacamoleSocket implements GuacamoleSocket {
     }
 
     /**
-     * GuacamoleReader which reads instructions from the queue populated when
-     * the FailoverGuacamoleSocket was constructed. Once the queue has been
+     * GuacamoleReader which reads instructions from the buffer populated when
+     * the FailoverGuacamoleSocket was constructed. Once the buffer has been
      * emptied, reads are delegated directly to the reader of the wrapped
      * socket.
      */
@@ -230,18 +397,28 @@ public class FailoverGuacamoleSocket implements GuacamoleSocket {
 
         @Override
         public boolean available() throws GuacamoleException {
-            return !instructionQueue.isEmpty() || socket.getReader().available();
+            return buffer != null || socket.getReader().available();
         }
 
         @Override
         public char[] read() throws GuacamoleException {
 
-            // Read instructions from queue before finally delegating to
-            // underlying reader (received when FailoverGuacamoleSocket was
+            // Read all buffered instruction data before finally delegating
+            // to underlying reader (received when FailoverGuacamoleSocket was
             // being constructed)
-            if (!instructionQueue.isEmpty()) {
-                GuacamoleInstruction instruction = instructionQueue.remove();
-                return instruction.toString().toCharArray();
+            if (buffer != null) {
+
+                char[] remaining;
+
+                // Avoid copying if entire buffer is unread and fully used
+                if (bufferOffset == 0 && bufferLength == buffer.length)
+                    remaining = buffer;
+                else
+                    remaining = Arrays.copyOfRange(buffer, bufferOffset, bufferLength);
+
+                buffer = null;
+                return remaining;
+
             }
 
             return socket.getReader().read();
@@ -252,11 +429,22 @@ public class FailoverGuacamoleSocket implements GuacamoleSocket {
         public GuacamoleInstruction readInstruction()
                 throws GuacamoleException {
 
-            // Read instructions from queue before finally delegating to
+            // Parse buffered instructions before finally delegating to
             // underlying reader (received when FailoverGuacamoleSocket was
             // being constructed)
-            if (!instructionQueue.isEmpty())
-                return instructionQueue.remove();
+            if (buffer != null) {
+
+                GuacamoleInstruction instruction = parseInstruction(bufferOffset);
+
+                // Track position of next instruction, releasing the buffer
+                // once all instructions have been read
+                bufferOffset = skipInstruction(bufferOffset);
+                if (bufferOffset >= bufferLength)
+                    buffer = null;
+
+                return instruction;
+
+            }
 
             return socket.getReader().readInstruction();
 
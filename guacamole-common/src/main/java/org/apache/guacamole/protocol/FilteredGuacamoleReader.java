@@ -19,13 +19,17 @@
 
 package org.apache.guacamole.protocol;
 
+import java.util.Set;
 import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
 import org.apache.guacamole.io.GuacamoleReader;
 
 /**
  * GuacamoleReader which applies a given GuacamoleFilter to observe or alter all
  * read instructions. Instructions may also be dropped or denied by the the
- * filter.
+ * filter. If the filter is a SelectiveGuacamoleFilter, data read via read()
+ * which does not contain any instruction affected by the filter is passed
+ * through untouched, without being parsed.
  */
 public class FilteredGuacamoleReader implements GuacamoleReader {
 
@@ -39,6 +43,19 @@ public class FilteredGuacamoleReader implements GuacamoleReader {
      */
     private final GuacamoleFilter filter;
 
+    /**
+     * The filter to apply when reading instructions, if that filter declares
+     * the opcodes of the instructions it may affect. If the filter does not
+     * declare its opcodes, this will be null.
+     */
+    private final SelectiveGuacamoleFilter selectiveFilter;
+
+    /**
+     * The opcodes of all instructions which may be affected by the filter, as
+     * character arrays, or null if the filter does not declare its opcodes.
+     */
+    private final char[][] filteredOpcodes;
+
     /**
      * Wraps the given GuacamoleReader, applying the given filter to all read
      * instructions. Future reads will return only instructions which pass
@@ -51,8 +68,236 @@ public class FilteredGuacamoleReader implements GuacamoleReader {
     public FilteredGuacamoleReader(GuacamoleReader reader, GuacamoleFilter filter) {
         this.reader = reader;
         this.filter = filter;
+
+        // Store declared opcodes in a form that can be compared directly
+        // against received data
+        if (filter instanceof SelectiveGuacamoleFilter) {
+
+            selectiveFilter = (SelectiveGuacamoleFilter) filter;
+            Set<String> opcodes = selectiveFilter.getFilteredOpcodes();
+
+            int i = 0;
+            filteredOpcodes = new char[opcodes.size()][];
+            for (String opcode : opcodes)
+                filteredOpcodes[i++] = opcode.toCharArray();
+
+        }
+
+        // Filters which do not declare their opcodes must see everything
+        else {
+            selectiveFilter = null;
+            filteredOpcodes = null;
+        }
+
+    }
+
+    /**
+     * Returns whether the opcode of the instruction beginning at the given
+     * offset within the given buffer is one of the opcodes declared by the
+     * filter.
+     *
+     * @param buffer
+     *     The buffer containing the instruction.
+     *
+     * @param offset
+     *     The offset within the buffer of the first character of the
+     *     instruction. The instruction must already be known to be complete.
+     *
+     * @return
+     *     true if the instruction may be affected by the filter, false
+     *     otherwise.
+     *
+     * @throws GuacamoleException
+     *     If the opcode of the instruction is not valid.
+     */
+    private boolean isFiltered(char[] buffer, int offset)
+            throws GuacamoleException {
+
+        // Parse length of opcode
+        int length = 0;
+        int i = offset;
+        for (;;) {
+
+            if (i >= buffer.length)
+                throw new GuacamoleServerException("Instruction is incomplete.");
+
+            char c = buffer[i++];
+            if (c >= '0' && c <= '9')
+                length = length * 10 + c - '0';
+            else if (c == '.')
+                break;
+            else
+                throw new GuacamoleServerException("Non-numeric character in element length.");
+
+        }
+
+        // Compare opcode against each declared opcode
+        for (char[] opcode : filteredOpcodes) {
+
+            if (opcode.length != length)
+                continue;
+
+            int j = 0;
+            while (j < length && opcode[j] == buffer[i + j])
+                j++;
+
+            if (j == length)
+                return true;
+
+        }
+
+        return false;
+
+    }
+
+    /**
+     * Returns the offset of the first character after the end of the
+     * instruction beginning at the given offset within the given buffer.
+     *
+     * @param buffer
+     *     The buffer containing the instruction.
+     *
+     * @param offset
+     *     The offset within the buffer of the first character of the
+     *     instruction.
+     *
+     * @return
+     *     The offset of the first character after the instruction's
+     *     terminating semicolon.
+     *
+     * @throws GuacamoleException
+     *     If the instruction is not valid or is incomplete.
+     */
+    private static int skipInstruction(char[] buffer, int offset)
+            throws GuacamoleException {
+
+        int length = 0;
+        int i = offset;
+        while (i < buffer.length) {
+
+            char c = buffer[i++];
+
+            // Parse length of element
+            if (c >= '0' && c <= '9')
+                length = length * 10 + c - '0';
+
+            // Skip element, stopping after the terminating semicolon
+            else if (c == '.') {
+
+                i += length;
+                if (i >= buffer.length)
+                    break;
+
+                char terminator = buffer[i++];
+                if (terminator == ';')
+                    return i;
+                else if (terminator != ',')
+                    throw new GuacamoleServerException("Element terminator of instruction was not ';' nor ','");
+
+                length = 0;
+
+            }
+
+            else
+                throw new GuacamoleServerException("Non-numeric character in element length.");
+
+        }
+
+        throw new GuacamoleServerException("Instruction is incomplete.");
+
+    }
+
+    /**
+     * Returns whether any instruction within the given buffer may be affected
+     * by the filter.
+     *
+     * @param buffer
+     *     The buffer containing one or more complete instructions.
+     *
+     * @return
+     *     true if any instruction within the buffer may be affected by the
+     *     filter, false otherwise.
+     *
+     * @throws GuacamoleException
+     *     If the buffer does not contain only valid, complete instructions.
+     */
+    private boolean containsFiltered(char[] buffer) throws GuacamoleException {
+
+        int offset = 0;
+        while (offset < buffer.length) {
+
+            // Verify instruction is complete before inspecting its opcode
+            int end = skipInstruction(buffer, offset);
+            if (isFiltered(buffer, offset))
+                return true;
+
+            offset = end;
+
+        }
+
+        return false;
+
     }
-    
+
+    /**
+     * Applies the filter to each instruction within the given buffer,
+     * returning the resulting instruction data. Instructions which are allowed
+     * through untouched are copied directly from the buffer without being
+     * re-serialized.
+     *
+     * @param buffer
+     *     The buffer containing one or more complete instructions.
+     *
+     * @return
+     *     The instruction data which results from applying the filter, or
+     *     null if all instructions were dropped.
+     *
+     * @throws GuacamoleException
+     *     If the buffer does not contain only valid, complete instructions,
+     *     or if the filter denies an instruction.
+     */
+    private char[] applyFilter(char[] buffer) throws GuacamoleException {
+
+        StringBuilder filtered = new StringBuilder(buffer.length);
+
+        int offset = 0;
+        while (offset < buffer.length) {
+
+            int end = skipInstruction(buffer, offset);
+
+            // Pass through instructions which cannot be affected
+            if (!isFiltered(buffer, offset))
+                filtered.append(buffer, offset, end - offset);
+
+            // Filter all others
+            else {
+
+                GuacamoleInstruction instruction =
+                        new GuacamoleInstruction(buffer, offset, end - offset);
+
+                GuacamoleInstruction filteredInstruction = filter.filter(instruction);
+                if (filteredInstruction == instruction)
+                    filtered.append(buffer, offset, end - offset);
+                else if (filteredInstruction != null)
+                    filtered.append(filteredInstruction.toString());
+
+            }
+
+            offset = end;
+
+        }
+
+        // Entire buffer may have been dropped
+        if (filtered.length() == 0)
+            return null;
+
+        char[] result = new char[filtered.length()];
+        filtered.getChars(0, result.length, result, 0);
+        return result;
+
+    }
+
+
     @Override
     public boolean available() throws GuacamoleException {
         return reader.available();
@@ -61,6 +306,32 @@ public class FilteredGuacamoleReader implements GuacamoleReader {
     @Override
     public char[] read() throws GuacamoleException {
 
+        // Pass through unaffected data untouched if the filter declares the
+        // instructions it may affect
+        if (selectiveFilter != null) {
+
+            // Read and filter data until not all instructions are dropped
+            for (;;) {
+
+                // Read next instruction(s)
+                char[] unfiltered = reader.read();
+                if (unfiltered == null)
+                    return null;
+
+                // Pass through without parsing if the filter would not
+                // affect any of the received instructions
+                if (!selectiveFilter.isActive() || !containsFiltered(unfiltered))
+                    return unfiltered;
+
+                // Otherwise, apply filter
+                char[] filtered = applyFilter(unfiltered);
+                if (filtered != null)
+                    return filtered;
+
+            }
+
+        }
+
         GuacamoleInstruction filteredInstruction = readInstruction();
         if (filteredInstruction == null)
             return null;
@@ -45,24 +45,85 @@ public class FilteredGuacamoleWriter implements GuacamoleWriter {
      * passed on to the filter.
      */
     private final GuacamoleParser parser = new GuacamoleParser();
+
+    /**
+     * Whether a write() may end within an instruction, the remainder of that
+     * instruction being provided by the following write().
+     */
+    private final boolean partialAllowed;
+
+    /**
+     * Buffer containing any characters of an incomplete instruction which
+     * could not yet be passed to the parser, or null if no such buffer has
+     * yet been needed.
+     */
+    private char[] remainder = null;
+
+    /**
+     * The number of characters within the remainder buffer.
+     */
+    private int remainderLength = 0;
     
     /**
      * Wraps the given GuacamoleWriter, applying the given filter to all written 
      * instructions. Future writes will only write instructions which pass
-     * the filter.
+     * the filter. Each write() must contain only complete instructions.
      *
      * @param writer The GuacamoleWriter to wrap.
      * @param filter The filter which dictates which instructions are written,
      *               and how.
      */
     public FilteredGuacamoleWriter(GuacamoleWriter writer, GuacamoleFilter filter) {
+        this(writer, filter, false);
+    }
+
+    /**
+     * Wraps the given GuacamoleWriter, applying the given filter to all
+     * written instructions. Future writes will only write instructions which
+     * pass the filter. If partial instructions are allowed, any incomplete
+     * instruction at the end of a write() is retained until the remainder of
+     * that instruction is written, allowing a single FilteredGuacamoleWriter
+     * to be reused for the life of a connection whose data is not divided
+     * along instruction boundaries.
+     *
+     * @param writer
+     *     The GuacamoleWriter to wrap.
+     *
+     * @param filter
+     *     The filter which dictates which instructions are written, and how.
+     *
+     * @param partialAllowed
+     *     true if a write() may end within an instruction, false if each
+     *     write() must contain only complete instructions.
+     */
+    public FilteredGuacamoleWriter(GuacamoleWriter writer,
+            GuacamoleFilter filter, boolean partialAllowed) {
         this.writer = writer;
         this.filter = filter;
+        this.partialAllowed = partialAllowed;
     }
  
     @Override
     public void write(char[] chunk, int offset, int length) throws GuacamoleException {
 
+        // Prepend any characters remaining from the previous write
+        if (remainderLength > 0) {
+
+            if (remainder.length < remainderLength + length) {
+                char[] newRemainder = new char[remainderLength + length];
+                System.arraycopy(remainder, 0, newRemainder, 0, remainderLength);
+                remainder = newRemainder;
+            }
+
+            System.arraycopy(chunk, offset, remainder, remainderLength, length);
+
+            chunk = remainder;
+            offset = 0;
+            length += remainderLength;
+            remainderLength = 0;
+
+        }
+
         // Write all data in chunk
         while (length > 0) {
 
@@ -73,9 +134,23 @@ public class FilteredGuacamoleWriter implements GuacamoleWriter {
                 length -= parsed;
             }
 
-            // If no instruction is available, it must be incomplete
-            if (!parser.hasNext())
-                throw new GuacamoleServerException("Filtered write() contained an incomplete instruction.");
+            // If no instruction is available, it must be incomplete, in which
+            // case the remainder will be provided by a later write() (if
+            // allowed)
+            if (!parser.hasNext()) {
+
+                if (!partialAllowed)
+                    throw new GuacamoleServerException("Filtered write() contained an incomplete instruction.");
+
+                // Retain any characters not yet accepted by the parser
+                if (remainder == null || remainder.length < length)
+                    remainder = new char[Math.max(length, 1024)];
+
+                System.arraycopy(chunk, offset, remainder, 0, length);
+                remainderLength = length;
+                return;
+
+            }
 
             // Write single instruction through filter
             writeInstruction(parser.next());
@@ -20,9 +20,13 @@
 package org.apache.guacamole.protocol;
 
 
+import java.util.AbstractList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.RandomAccess;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
 
 /**
  * An abstract representation of a Guacamole instruction, as defined by the
@@ -35,6 +39,13 @@ public class GuacamoleInstruction {
      */
     private final String opcode;
 
+    /**
+     * The known opcode corresponding to the opcode of this instruction, if
+     * that opcode is a known Guacamole protocol opcode and has already been
+     * resolved.
+     */
+    private GuacamoleOpcode knownOpcode = null;
+
     /**
      * All arguments of this instruction, in order.
      */
@@ -46,6 +57,99 @@ public class GuacamoleInstruction {
      */
     private String protocolForm = null;
 
+    /**
+     * The raw Guacamole protocol data of this instruction, if this
+     * GuacamoleInstruction was created from received protocol data. If this
+     * GuacamoleInstruction was created from an opcode and arguments, this
+     * will be null.
+     */
+    private final char[] rawData;
+
+    /**
+     * The offset within the raw protocol data of each element, in order,
+     * including the opcode. If this GuacamoleInstruction was not created from
+     * received protocol data, this will be null.
+     */
+    private final int[] rawOffsets;
+
+    /**
+     * The length of each element within the raw protocol data, in order,
+     * including the opcode. If this GuacamoleInstruction was not created from
+     * received protocol data, this will be null.
+     */
+    private final int[] rawLengths;
+
+    /**
+     * List of argument values which decodes each value from the raw protocol
+     * data of the instruction only when that value is first requested.
+     */
+    private static class RawArgumentList extends AbstractList<String>
+            implements RandomAccess {
+
+        /**
+         * The raw Guacamole protocol data of the instruction.
+         */
+        private final char[] data;
+
+        /**
+         * The offset within the raw data of each element, in order, including
+         * the opcode.
+         */
+        private final int[] offsets;
+
+        /**
+         * The length of each element, in order, including the opcode.
+         */
+        private final int[] lengths;
+
+        /**
+         * All argument values which have been decoded thus far. Values which
+         * have not yet been requested will be null.
+         */
+        private final String[] values;
+
+        /**
+         * Creates a new RawArgumentList which decodes argument values from
+         * the given raw protocol data as they are requested.
+         *
+         * @param data
+         *     The raw Guacamole protocol data of the instruction.
+         *
+         * @param offsets
+         *     The offset within the raw data of each element, in order,
+         *     including the opcode.
+         *
+         * @param lengths
+         *     The length of each element, in order, including the opcode.
+         */
+        public RawArgumentList(char[] data, int[] offsets, int[] lengths) {
+            this.data = data;
+            this.offsets = offsets;
+            this.lengths = lengths;
+            this.values = new String[offsets.length - 1];
+        }
+
+        @Override
+        public String get(int index) {
+
+            // Decode value only if not yet decoded
+            String value = values[index];
+            if (value == null) {
+                value = new String(data, offsets[index + 1], lengths[index + 1]);
+                values[index] = value;
+            }
+
+            return value;
+
+        }
+
+        @Override
+        public int size() {
+            return values.length;
+        }
+
+    }
+
     /**
      * Creates a new GuacamoleInstruction having the given Operation and
      * list of arguments values.
@@ -57,6 +161,9 @@ public class GuacamoleInstruction {
     public GuacamoleInstruction(String opcode, String... args) {
         this.opcode = opcode;
         this.args = Collections.unmodifiableList(Arrays.asList(args));
+        this.rawData = null;
+        this.rawOffsets = null;
+        this.rawLengths = null;
     }
 
     /**
@@ -71,6 +178,150 @@ public class GuacamoleInstruction {
     public GuacamoleInstruction(String opcode, List<String> args) {
         this.opcode = opcode;
         this.args = Collections.unmodifiableList(args);
+        this.rawData = null;
+        this.rawOffsets = null;
+        this.rawLengths = null;
+    }
+
+    /**
+     * Creates a new GuacamoleInstruction from the given raw Guacamole
+     * protocol data, which must contain exactly one complete instruction.
+     * Only the opcode is decoded immediately. The given data is copied, and
+     * each argument value is decoded from that copy only when first
+     * requested through the List returned by getArgs(). The copied data is
+     * used as-is for the protocol form returned by toString().
+     *
+     * @param buffer
+     *     The buffer containing the raw protocol data of the instruction.
+     *
+     * @param offset
+     *     The offset within the buffer of the first character of the
+     *     instruction.
+     *
+     * @param length
+     *     The number of characters in the instruction, including its
+     *     terminating semicolon.
+     *
+     * @throws GuacamoleException
+     *     If the given data is not exactly one complete, valid Guacamole
+     *     instruction.
+     */
+    public GuacamoleInstruction(char[] buffer, int offset, int length)
+            throws GuacamoleException {
+
+        // Copy instruction data
+        char[] data = new char[length];
+        System.arraycopy(buffer, offset, data, 0, length);
+
+        // Count elements, validating structure
+        int elementCount = 0;
+        int position = 0;
+        boolean complete = false;
+        while (!complete) {
+            position = parseElement(data, position, null, null, elementCount);
+            complete = data[position++] == ';';
+            elementCount++;
+        }
+
+        // Data must end with the instruction
+        if (position != length)
+            throw new GuacamoleServerException("Data contains more than one instruction.");
+
+        // Build index of element locations
+        int[] offsets = new int[elementCount];
+        int[] lengths = new int[elementCount];
+        position = 0;
+        for (int i = 0; i < elementCount; i++)
+            position = parseElement(data, position, offsets, lengths, i) + 1;
+
+        // Decode opcode now, leaving arguments for later. Known opcodes are
+        // resolved directly from the received data without decoding.
+        this.knownOpcode = GuacamoleOpcode.fromChars(data, offsets[0], lengths[0]);
+        if (knownOpcode != null)
+            this.opcode = knownOpcode.getValue();
+        else
+            this.opcode = new String(data, offsets[0], lengths[0]);
+        this.args = Collections.unmodifiableList(
+                new RawArgumentList(data, offsets, lengths));
+        this.rawData = data;
+        this.rawOffsets = offsets;
+        this.rawLengths = lengths;
+
+    }
+
+    /**
+     * Parses the length prefix of the element beginning at the given position
+     * within the given raw instruction data, optionally storing the offset
+     * and length of the element's value.
+     *
+     * @param data
+     *     The raw instruction data.
+     *
+     * @param position
+     *     The position within the data of the first character of the
+     *     element's length prefix.
+     *
+     * @param offsets
+     *     The array which should receive the offset of the element's value,
+     *     or null if the offset need not be stored.
+     *
+     * @param lengths
+     *     The array which should receive the length of the element's value,
+     *     or null if the length need not be stored.
+     *
+     * @param index
+     *     The index within the offsets and lengths arrays at which the
+     *     element's offset and length should be stored.
+     *
+     * @return
+     *     The position within the data of the terminator character following
+     *     the element.
+     *
+     * @throws GuacamoleException
+     *     If the element is not valid, or extends beyond the given data.
+     */
+    private static int parseElement(char[] data, int position, int[] offsets,
+            int[] lengths, int index) throws GuacamoleException {
+
+        // Parse length prefix, limiting its digits such that the length
+        // cannot overflow
+        int elementLength = 0;
+        int digits = 0;
+        for (;;) {
+
+            if (position >= data.length)
+                throw new GuacamoleServerException("Instruction is incomplete.");
+
+            char c = data[position++];
+            if (c >= '0' && c <= '9') {
+                if (++digits > GuacamoleParser.INSTRUCTION_MAX_DIGITS)
+                    throw new GuacamoleServerException("Element length has too many digits.");
+                elementLength = elementLength * 10 + c - '0';
+            }
+            else if (c == '.')
+                break;
+            else
+                throw new GuacamoleServerException("Non-numeric character in element length.");
+
+        }
+
+        // Element value and terminator must be present
+        int terminator = position + elementLength;
+        if (terminator >= data.length)
+            throw new GuacamoleServerException("Instruction is incomplete.");
+
+        char c = data[terminator];
+        if (c != ',' && c != ';')
+            throw new GuacamoleServerException("Element terminator of instruction was not ';' nor ','");
+
+        // Store location of value, if requested
+        if (offsets != null) {
+            offsets[index] = position;
+            lengths[index] = elementLength;
+        }
+
+        return terminator;
+
     }
 
     /**
@@ -81,6 +332,29 @@ public class GuacamoleInstruction {
         return opcode;
     }
 
+    /**
+     * Returns the known Guacamole protocol opcode corresponding to the opcode
+     * of this GuacamoleInstruction. This allows instructions to be handled
+     * with a switch statement rather than by comparing opcode Strings.
+     *
+     * @return
+     *     The known Guacamole protocol opcode corresponding to the opcode of
+     *     this GuacamoleInstruction, or null if the opcode is not a known
+     *     Guacamole protocol opcode.
+     */
+    public GuacamoleOpcode getKnownOpcode() {
+
+        // Resolve opcode only if not already resolved
+        GuacamoleOpcode resolved = knownOpcode;
+        if (resolved == null) {
+            resolved = GuacamoleOpcode.fromValue(opcode);
+            knownOpcode = resolved;
+        }
+
+        return resolved;
+
+    }
+
     /**
      * Returns a List of all argument values specified for this
      * GuacamoleInstruction. Note that the List returned is immutable.
@@ -93,6 +367,101 @@ public class GuacamoleInstruction {
         return args;
     }
 
+    /**
+     * Returns the raw Guacamole protocol data from which this
+     * GuacamoleInstruction was created, if any. The value of each argument
+     * occupies the range of this data described by getArgOffset() and
+     * getArgLength(), allowing argument values to be processed without first
+     * being decoded into Strings. The returned array is shared with this
+     * GuacamoleInstruction and must not be modified.
+     *
+     * @return
+     *     The raw Guacamole protocol data of this GuacamoleInstruction, or
+     *     null if this GuacamoleInstruction was created from an opcode and
+     *     arguments rather than from received protocol data.
+     */
+    public char[] getRawData() {
+        return rawData;
+    }
+
+    /**
+     * Returns the offset of the value of the argument having the given index
+     * within the array returned by getRawData(). This function may only be
+     * used if getRawData() does not return null.
+     *
+     * @param index
+     *     The index of the argument, where the first argument has index 0.
+     *
+     * @return
+     *     The offset of the first character of the argument's value within
+     *     the raw Guacamole protocol data of this GuacamoleInstruction.
+     *
+     * @throws IllegalStateException
+     *     If this GuacamoleInstruction was not created from received protocol
+     *     data.
+     *
+     * @throws IndexOutOfBoundsException
+     *     If no argument having the given index exists.
+     */
+    public int getArgOffset(int index) {
+
+        if (rawOffsets == null)
+            throw new IllegalStateException("Instruction has no raw data.");
+
+        return rawOffsets[checkArgIndex(index) + 1];
+
+    }
+
+    /**
+     * Returns the length of the value of the argument having the given index
+     * within the array returned by getRawData(). This function may only be
+     * used if getRawData() does not return null.
+     *
+     * @param index
+     *     The index of the argument, where the first argument has index 0.
+     *
+     * @return
+     *     The number of characters in the argument's value within the raw
+     *     Guacamole protocol data of this GuacamoleInstruction.
+     *
+     * @throws IllegalStateException
+     *     If this GuacamoleInstruction was not created from received protocol
+     *     data.
+     *
+     * @throws IndexOutOfBoundsException
+     *     If no argument having the given index exists.
+     */
+    public int getArgLength(int index) {
+
+        if (rawLengths == null)
+            throw new IllegalStateException("Instruction has no raw data.");
+
+        return rawLengths[checkArgIndex(index) + 1];
+
+    }
+
+    /**
+     * Verifies that an argument having the given index exists.
+     *
+     * @param index
+     *     The index of the argument to verify.
+     *
+     * @return
+     *     The given index.
+     *
+     * @throws IndexOutOfBoundsException
+     *     If no argument having the given index exists.
+     */
+    private int checkArgIndex(int index) {
+
+        if (index < 0 || index >= args.size())
+            throw new IndexOutOfBoundsException("No argument at index "
+                    + index + ".");
+
+        return index;
+
+    }
+
     /**
      * Returns this GuacamoleInstruction in the form it would be sent over the
      * Guacamole protocol.
@@ -108,6 +477,12 @@ public class GuacamoleInstruction {
         // known
         if (protocolForm == null) {
 
+            // Use received protocol data directly, if available
+            if (rawData != null) {
+                protocolForm = new String(rawData);
+                return protocolForm;
+            }
+
             StringBuilder buff = new StringBuilder();
 
             // Write opcode
@@ -0,0 +1,451 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.guacamole.protocol;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * All opcodes defined by the Guacamole protocol. Known opcodes can be
+ * resolved directly from received protocol data without allocating a new
+ * String, and the resulting values can be used within switch statements
+ * rather than comparing opcode Strings one at a time.
+ */
+public enum GuacamoleOpcode {
+
+    /**
+     * Acknowledges the receipt of a stream or of data along a stream, reporting
+     * success or failure.
+     */
+    ACK("ack"),
+
+    /**
+     * Adds an arc to the current path of a layer.
+     */
+    ARC("arc"),
+
+    /**
+     * Lists the connection parameters accepted by the selected protocol during
+     * the handshake.
+     */
+    ARGS("args"),
+
+    /**
+     * Opens a stream for updating the value of a connection parameter.
+     */
+    ARGV("argv"),
+
+    /**
+     * Opens an audio stream, or declares the audio mimetypes supported by the
+     * client during the handshake.
+     */
+    AUDIO("audio"),
+
+    /**
+     * Sends a chunk of base64-encoded data along a stream.
+     */
+    BLOB("blob"),
+
+    /**
+     * Opens a stream containing the body of an object.
+     */
+    BODY("body"),
+
+    /**
+     * Fills the current path of a layer with a color.
+     */
+    CFILL("cfill"),
+
+    /**
+     * Restricts further drawing operations on a layer to the current path.
+     */
+    CLIP("clip"),
+
+    /**
+     * Opens a stream containing clipboard data.
+     */
+    CLIPBOARD("clipboard"),
+
+    /**
+     * Closes the current path of a layer.
+     */
+    CLOSE("close"),
+
+    /**
+     * Requests that the connection begin, providing the values of all
+     * connection parameters.
+     */
+    CONNECT("connect"),
+
+    /**
+     * Copies image data from one layer to another.
+     */
+    COPY("copy"),
+
+    /**
+     * Strokes the current path of a layer with a color.
+     */
+    CSTROKE("cstroke"),
+
+    /**
+     * Sets the mouse cursor to image data from a layer.
+     */
+    CURSOR("cursor"),
+
+    /**
+     * Adds a cubic bezier curve to the current path of a layer.
+     */
+    CURVE("curve"),
+
+    /**
+     * Notifies the other side of the connection that the connection is being
+     * closed.
+     */
+    DISCONNECT("disconnect"),
+
+    /**
+     * Removes a layer or buffer.
+     */
+    DISPOSE("dispose"),
+
+    /**
+     * Applies an arbitrary transform matrix to a layer.
+     */
+    DISTORT("distort"),
+
+    /**
+     * Ends a stream.
+     */
+    END("end"),
+
+    /**
+     * Reports an error, providing a human-readable message and status code.
+     */
+    ERROR("error"),
+
+    /**
+     * Opens a stream containing the contents of a named file.
+     */
+    FILE("file"),
+
+    /**
+     * Declares the availability of a filesystem object.
+     */
+    FILESYSTEM("filesystem"),
+
+    /**
+     * Requests the contents of a stream within an object.
+     */
+    GET("get"),
+
+    /**
+     * Resets the transform matrix of a layer to the identity matrix.
+     */
+    IDENTITY("identity"),
+
+    /**
+     * Declares the image mimetypes supported by the client during the
+     * handshake.
+     */
+    IMAGE("image"),
+
+    /**
+     * Opens a stream containing image data to be drawn to a layer.
+     */
+    IMG("img"),
+
+    /**
+     * Sends a key press or release event.
+     */
+    KEY("key"),
+
+    /**
+     * Fills the current path of a layer with image data from another layer.
+     */
+    LFILL("lfill"),
+
+    /**
+     * Adds a line segment to the current path of a layer.
+     */
+    LINE("line"),
+
+    /**
+     * Strokes the current path of a layer with image data from another layer.
+     */
+    LSTROKE("lstroke"),
+
+    /**
+     * Sends the current mouse position and button state.
+     */
+    MOUSE("mouse"),
+
+    /**
+     * Moves a layer relative to its parent.
+     */
+    MOVE("move"),
+
+    /**
+     * Provides a human-readable name for the connection.
+     */
+    NAME("name"),
+
+    /**
+     * Sends a portion of a nested, independent instruction stream. Deprecated
+     * within the Guacamole protocol, but still recognized.
+     */
+    NEST("nest"),
+
+    /**
+     * Does nothing. Used to keep the connection alive.
+     */
+    NOP("nop"),
+
+    /**
+     * Opens a stream for arbitrary named pipe data.
+     */
+    PIPE("pipe"),
+
+    /**
+     * Restores the most recently saved drawing state of a layer.
+     */
+    POP("pop"),
+
+    /**
+     * Saves the current drawing state of a layer.
+     */
+    PUSH("push"),
+
+    /**
+     * Opens a stream for writing to a stream within an object.
+     */
+    PUT("put"),
+
+    /**
+     * Notifies the client that the connection has been established during the
+     * handshake, providing the connection ID.
+     */
+    READY("ready"),
+
+    /**
+     * Adds a rectangle to the current path of a layer.
+     */
+    RECT("rect"),
+
+    /**
+     * Resets the drawing state stack of a layer.
+     */
+    RESET("reset"),
+
+    /**
+     * Selects the protocol or existing connection to connect to during the
+     * handshake.
+     */
+    SELECT("select"),
+
+    /**
+     * Sets a property of a layer.
+     */
+    SET("set"),
+
+    /**
+     * Sets the opacity of a layer.
+     */
+    SHADE("shade"),
+
+    /**
+     * Sets the size of a layer, or the optimal display size during the
+     * handshake.
+     */
+    SIZE("size"),
+
+    /**
+     * Begins a new subpath of the current path of a layer.
+     */
+    START("start"),
+
+    /**
+     * Marks the end of a logical frame, and acknowledges a frame when sent by
+     * the client.
+     */
+    SYNC("sync"),
+
+    /**
+     * Declares the timezone of the client during the handshake.
+     */
+    TIMEZONE("timezone"),
+
+    /**
+     * Sends the current position and state of a single touch.
+     */
+    TOUCH("touch"),
+
+    /**
+     * Transfers image data from one layer to another using a specified
+     * transfer function.
+     */
+    TRANSFER("transfer"),
+
+    /**
+     * Applies a transform matrix to the current transform of a layer.
+     */
+    TRANSFORM("transform"),
+
+    /**
+     * Undefines an object.
+     */
+    UNDEFINE("undefine"),
+
+    /**
+     * Opens a video stream, or declares the video mimetypes supported by the
+     * client during the handshake.
+     */
+    VIDEO("video");
+
+    /**
+     * All known opcodes, indexed first by the length of the opcode value.
+     */
+    private static final GuacamoleOpcode[][] OPCODES_BY_LENGTH;
+
+    /**
+     * All known opcodes, mapped by opcode value.
+     */
+    private static final Map<String, GuacamoleOpcode> OPCODES_BY_VALUE;
+
+    static {
+
+        // Group opcodes by length
+        List<List<GuacamoleOpcode>> opcodesByLength = new ArrayList<List<GuacamoleOpcode>>();
+        OPCODES_BY_VALUE = new HashMap<String, GuacamoleOpcode>();
+        for (GuacamoleOpcode opcode : values()) {
+
+            int length = opcode.value.length();
+            while (opcodesByLength.size() <= length)
+                opcodesByLength.add(new ArrayList<GuacamoleOpcode>());
+
+            opcodesByLength.get(length).add(opcode);
+            OPCODES_BY_VALUE.put(opcode.value, opcode);
+
+        }
+
+        // Convert grouped opcodes to arrays for fast lookup
+        OPCODES_BY_LENGTH = new GuacamoleOpcode[opcodesByLength.size()][];
+        for (int i = 0; i < OPCODES_BY_LENGTH.length; i++) {
+            List<GuacamoleOpcode> opcodes = opcodesByLength.get(i);
+            OPCODES_BY_LENGTH[i] = opcodes.toArray(new GuacamoleOpcode[opcodes.size()]);
+        }
+
+    }
+
+    /**
+     * The value of this opcode, exactly as it appears within the Guacamole
+     * protocol.
+     */
+    private final String value;
+
+    /**
+     * The value of this opcode as a character array, for direct comparison
+     * against received protocol data.
+     */
+    private final char[] chars;
+
+    /**
+     * Creates a new GuacamoleOpcode having the given value.
+     *
+     * @param value
+     *     The value of the opcode, exactly as it appears within the Guacamole
+     *     protocol.
+     */
+    private GuacamoleOpcode(String value) {
+        this.value = value;
+        this.chars = value.toCharArray();
+    }
+
+    /**
+     * Returns the value of this opcode, exactly as it appears within the
+     * Guacamole protocol. The same String instance is returned by every call
+     * to this function.
+     *
+     * @return
+     *     The value of this opcode.
+     */
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * Returns the known opcode having the given value.
+     *
+     * @param value
+     *     The opcode value to look up.
+     *
+     * @return
+     *     The known opcode having the given value, or null if the value is
+     *     not a known Guacamole protocol opcode.
+     */
+    public static GuacamoleOpcode fromValue(String value) {
+        return OPCODES_BY_VALUE.get(value);
+    }
+
+    /**
+     * Returns the known opcode whose value is the given range of characters,
+     * without allocating any memory.
+     *
+     * @param buffer
+     *     The buffer containing the opcode value.
+     *
+     * @param offset
+     *     The offset within the buffer of the first character of the opcode
+     *     value.
+     *
+     * @param length
+     *     The number of characters in the opcode value.
+     *
+     * @return
+     *     The known opcode whose value is the given range of characters, or
+     *     null if the characters are not a known Guacamole protocol opcode.
+     */
+    public static GuacamoleOpcode fromChars(char[] buffer, int offset, int length) {
+
+        // No known opcodes are that long
+        if (length >= OPCODES_BY_LENGTH.length)
+            return null;
+
+        // Compare against each opcode having the same length
+        for (GuacamoleOpcode opcode : OPCODES_BY_LENGTH[length]) {
+
+            char[] chars = opcode.chars;
+
+            int i = 0;
+            while (i < length && chars[i] == buffer[offset + i])
+                i++;
+
+            if (i == length)
+                return opcode;
+
+        }
+
+        return null;
+
+    }
+
+}
@@ -163,8 +163,18 @@ public class GuacamoleParser implements Iterator<GuacamoleInstruction> {
         // Parse element content, if available
         if (state == State.PARSING_CONTENT && charsParsed + elementLength + 1 <= length) {
 
-            // Read element
-            String element = new String(chunk, offset + charsParsed, elementLength);
+            // Read element, reusing the value of any known opcode
+            String element = null;
+            if (elementCount == 0) {
+                GuacamoleOpcode opcode = GuacamoleOpcode.fromChars(chunk,
+                        offset + charsParsed, elementLength);
+                if (opcode != null)
+                    element = opcode.getValue();
+            }
+
+            if (element == null)
+                element = new String(chunk, offset + charsParsed, elementLength);
+
             charsParsed += elementLength;
             elementLength = 0;
 
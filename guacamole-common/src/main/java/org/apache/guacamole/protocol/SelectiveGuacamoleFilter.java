@@ -0,0 +1,58 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.guacamole.protocol;
+
+import java.util.Set;
+
+/**
+ * GuacamoleFilter which declares the opcodes of the instructions it may
+ * affect. Instructions having any other opcode are guaranteed to be allowed
+ * through untouched by the filter, and thus need not be parsed or passed to
+ * filter() at all. Readers and writers which apply a SelectiveGuacamoleFilter
+ * may take advantage of this to pass unaffected data through without parsing
+ * or re-serializing it.
+ */
+public interface SelectiveGuacamoleFilter extends GuacamoleFilter {
+
+    /**
+     * Returns the opcodes of all instructions which may be affected by this
+     * filter. The returned set must not change over the lifetime of the
+     * filter.
+     *
+     * @return
+     *     The opcodes of all instructions which must be passed to filter().
+     */
+    public Set<String> getFilteredOpcodes();
+
+    /**
+     * Returns whether this filter may currently affect any instruction. If
+     * false, all instructions, including those having opcodes returned by
+     * getFilteredOpcodes(), would currently be allowed through untouched
+     * and need not be passed to filter().
+     *
+     * @return
+     *     true if instructions having the opcodes returned by
+     *     getFilteredOpcodes() must currently be passed to filter(), false
+     *     if all instructions may be allowed through untouched.
+     */
+    public boolean isActive();
+
+}
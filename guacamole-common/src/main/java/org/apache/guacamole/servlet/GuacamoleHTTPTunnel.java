@@ -37,7 +37,7 @@ class GuacamoleHTTPTunnel extends DelegatingGuacamoleTunnel {
     /**
      * The last time this tunnel was accessed.
      */
-    private long lastAccessedTime;
+    private volatile long lastAccessedTime;
 
     /**
      * Creates a new GuacamoleHTTPTunnel which wraps the given tunnel.
@@ -52,10 +52,14 @@ class GuacamoleHTTPTunnel extends DelegatingGuacamoleTunnel {
     }
 
     /**
-     * Updates this tunnel, marking it as recently accessed.
+     * Updates this tunnel, marking it as accessed at the given time.
+     *
+     * @param time
+     *     The time this tunnel was accessed, as the number of milliseconds
+     *     since midnight January 1, 1970 GMT.
      */
-    public void access() {
-        lastAccessedTime = System.currentTimeMillis();
+    public void access(long time) {
+        lastAccessedTime = time;
     }
 
     /**
@@ -19,13 +19,14 @@
 
 package org.apache.guacamole.servlet;
 
-import java.util.Iterator;
-import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.net.GuacamoleTunnel;
 import org.slf4j.Logger;
@@ -36,6 +37,14 @@ import org.slf4j.LoggerFactory;
  * and closing tunnels which have not been used recently. This class is
  * intended for use only within the GuacamoleHTTPTunnelServlet implementation,
  * and has no real utility outside that implementation.
+ *
+ * Expiry is tracked using a hashed timer wheel: each tunnel is placed within
+ * the slot of the tick at which it would expire if not accessed again, and
+ * each tick examines only the tunnels within its own slot. Tunnels which have
+ * been accessed since being placed are moved to the slot of their new expiry
+ * time rather than closed. Accessing a tunnel therefore only updates its
+ * timestamp, and the work of each tick is proportional to the number of
+ * tunnels due at that tick rather than the number of all tunnels.
  */
 class GuacamoleHTTPTunnelMap {
 
@@ -45,17 +54,24 @@ class GuacamoleHTTPTunnelMap {
     private static final Logger logger = LoggerFactory.getLogger(GuacamoleHTTPTunnelMap.class);
 
     /**
-     * The number of seconds to wait between tunnel accesses before timing out
-     * Note that this will be enforced only within a factor of 2. If a tunnel
-     * is unused, it will take between TUNNEL_TIMEOUT and TUNNEL_TIMEOUT*2
-     * seconds before that tunnel is closed and removed.
+     * The number of seconds to wait between tunnel accesses before timing
+     * out. Note that this will be enforced only within one tick. If a tunnel
+     * is unused, it will take between TUNNEL_TIMEOUT seconds and
+     * TUNNEL_TIMEOUT seconds plus TICK_INTERVAL milliseconds before that
+     * tunnel is closed and removed.
      */
     private static final int TUNNEL_TIMEOUT = 15;
 
     /**
-     * Executor service which runs the periodic tunnel timeout task.
+     * The number of milliseconds between each tick of the timer wheel.
+     */
+    private static final long TICK_INTERVAL = 1000;
+
+    /**
+     * Executor service which runs the periodic tunnel timeout task, or null
+     * if ticks are driven manually.
      */
-    private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(1);
+    private final ScheduledExecutorService executor;
 
     /**
      * Map of all tunnels that are using HTTP, indexed by tunnel UUID.
@@ -63,80 +79,213 @@ class GuacamoleHTTPTunnelMap {
     private final ConcurrentMap<String, GuacamoleHTTPTunnel> tunnelMap =
             new ConcurrentHashMap<String, GuacamoleHTTPTunnel>();
 
+    /**
+     * The maximum amount of time to allow between accesses to any one HTTP
+     * tunnel, in milliseconds.
+     */
+    private final long tunnelTimeout;
+
+    /**
+     * The number of milliseconds between each tick of the timer wheel.
+     */
+    private final long tickInterval;
+
+    /**
+     * The slots of the timer wheel. The slot for a given tick is the tick
+     * number modulo the number of slots. There are enough slots that every
+     * tunnel's expiry time is less than one full turn of the wheel away.
+     */
+    private final Queue<GuacamoleHTTPTunnel>[] wheel;
+
+    /**
+     * The number of the tick most recently processed, or -1 if no tick has
+     * yet been processed. Only the thread running the timeout task modifies
+     * this value.
+     */
+    private volatile long currentTick = -1;
+
+    /**
+     * The total number of tunnels which have been closed and removed due to
+     * timing out.
+     */
+    private final AtomicLong expiredCount = new AtomicLong();
+
     /**
      * Creates a new GuacamoleHTTPTunnelMap which automatically closes and
      * removes HTTP tunnels which are no longer in use.
      */
     public GuacamoleHTTPTunnelMap() {
+        this(TUNNEL_TIMEOUT * 1000l, TICK_INTERVAL,
+                Executors.newScheduledThreadPool(1));
+    }
 
-        // Check for unused tunnels every few seconds
-        executor.scheduleAtFixedRate(
-            new TunnelTimeoutTask(TUNNEL_TIMEOUT * 1000l),
-            TUNNEL_TIMEOUT, TUNNEL_TIMEOUT, TimeUnit.SECONDS);
+    /**
+     * Creates a new GuacamoleHTTPTunnelMap having the given timeout and tick
+     * interval. If no executor is provided, expired tunnels are closed and
+     * removed only when tick() is invoked, as may be useful for testing.
+     *
+     * @param tunnelTimeout
+     *     The maximum amount of time to allow between separate tunnel
+     *     read/write requests, in milliseconds.
+     *
+     * @param tickInterval
+     *     The number of milliseconds between each tick of the timer wheel.
+     *
+     * @param executor
+     *     The executor which should advance the timer wheel once per tick,
+     *     or null if tick() will be invoked manually.
+     */
+    @SuppressWarnings("unchecked")
+    GuacamoleHTTPTunnelMap(long tunnelTimeout, long tickInterval,
+            ScheduledExecutorService executor) {
+
+        this.tunnelTimeout = tunnelTimeout;
+        this.tickInterval = tickInterval;
+        this.executor = executor;
+
+        // Allocate enough slots to cover the full timeout, plus the slot
+        // currently being processed
+        int slots = (int) ((tunnelTimeout + tickInterval - 1) / tickInterval) + 2;
+        this.wheel = new Queue[slots];
+        for (int i = 0; i < slots; i++)
+            wheel[i] = new ConcurrentLinkedQueue<GuacamoleHTTPTunnel>();
+
+        // Advance the timer wheel once per tick
+        if (executor != null)
+            executor.scheduleAtFixedRate(new TunnelTimeoutTask(),
+                    tickInterval, tickInterval, TimeUnit.MILLISECONDS);
 
     }
 
     /**
-     * Task which iterates through all registered tunnels, removing and those
-     * tunnels which have not been accessed for a given number of milliseconds.
+     * Task which advances the timer wheel to the current time.
      */
     private class TunnelTimeoutTask implements Runnable {
 
-        /**
-         * The maximum amount of time to allow between accesses to any one
-         * HTTP tunnel, in milliseconds.
-         */
-        private final long tunnelTimeout;
-
-        /**
-         * Creates a new task which automatically closes and removes tunnels
-         * which have not been accessed for at least the given number of
-         * milliseconds.
-         *
-         * @param tunnelTimeout
-         *     The maximum amount of time to allow between separate tunnel
-         *     read/write requests, in milliseconds.
-         */
-        public TunnelTimeoutTask(long tunnelTimeout) {
-            this.tunnelTimeout = tunnelTimeout;
-        }
-
         @Override
         public void run() {
+            tick(currentTimeMillis());
+        }
+
+    }
+
+    /**
+     * Returns the current time, as used to record tunnel accesses and to
+     * advance the timer wheel. By default, this is the system time, but it
+     * may be overridden for testing.
+     *
+     * @return
+     *     The current time, in milliseconds.
+     */
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Places the given tunnel within the slot of the timer wheel
+     * corresponding to the tick at which it will expire if not accessed
+     * again, but never within a slot which has already been processed.
+     *
+     * @param tunnel
+     *     The tunnel to schedule.
+     */
+    private void schedule(GuacamoleHTTPTunnel tunnel) {
+
+        // Round expiry time up to the next tick
+        long expiry = tunnel.getLastAccessedTime() + tunnelTimeout;
+        long tick = (expiry + tickInterval - 1) / tickInterval;
 
-            // Get current time
-            long now = System.currentTimeMillis();
+        // Never place tunnels behind the wheel
+        long minimumTick = currentTick + 1;
+        if (tick < minimumTick)
+            tick = minimumTick;
 
-            // For each tunnel, close and remove any tunnels which have expired
-            Iterator<Map.Entry<String, GuacamoleHTTPTunnel>> entries = tunnelMap.entrySet().iterator();
-            while (entries.hasNext()) {
+        wheel[(int) (tick % wheel.length)].add(tunnel);
 
-                Map.Entry<String, GuacamoleHTTPTunnel> entry = entries.next();
-                GuacamoleHTTPTunnel tunnel = entry.getValue();
+    }
+
+    /**
+     * Advances the timer wheel to the given time, closing and removing all
+     * tunnels which have expired and rescheduling all tunnels within the
+     * processed slots which have since been accessed.
+     *
+     * @param now
+     *     The current time, in milliseconds.
+     */
+    void tick(long now) {
+
+        long lastTick = now / tickInterval;
 
-                // Get elapsed time since last access
-                long age = now - tunnel.getLastAccessedTime();
+        // Process each tick since the last, but never more than one full
+        // turn of the wheel
+        long tick = currentTick + 1;
+        if (currentTick < 0 || lastTick - tick >= wheel.length)
+            tick = lastTick - wheel.length + 1;
 
-                // If tunnel is too old, close and remove it
-                if (age >= tunnelTimeout) {
+        int expired = 0;
+        for (; tick <= lastTick; tick++) {
 
-                    // Remove old entry
-                    logger.debug("HTTP tunnel \"{}\" has timed out.", entry.getKey());
-                    entries.remove();
+            currentTick = tick;
+            Queue<GuacamoleHTTPTunnel> slot = wheel[(int) (tick % wheel.length)];
 
-                    // Attempt to close tunnel
-                    try {
-                        tunnel.close();
-                    }
-                    catch (GuacamoleException e) {
-                        logger.debug("Unable to close expired HTTP tunnel.", e);
-                    }
+            // Process only tunnels present at the start of the tick, as
+            // rescheduled tunnels may be added to this same slot if the wheel
+            // is small
+            int count = slot.size();
+            for (int i = 0; i < count; i++) {
 
+                GuacamoleHTTPTunnel tunnel = slot.poll();
+                if (tunnel == null)
+                    break;
+
+                // Ignore tunnels which have been removed
+                String uuid = tunnel.getUUID().toString();
+                if (tunnelMap.get(uuid) != tunnel)
+                    continue;
+
+                // Reschedule tunnels accessed since being scheduled
+                if (now - tunnel.getLastAccessedTime() < tunnelTimeout) {
+                    schedule(tunnel);
+                    continue;
                 }
 
-            } // end for each tunnel
+                // Otherwise, remove and close the expired tunnel
+                if (tunnelMap.remove(uuid, tunnel)) {
+                    expire(uuid, tunnel);
+                    expired++;
+                }
+
+            }
+
+        }
+
+        if (expired > 0)
+            logger.debug("{} HTTP tunnel(s) timed out. {} HTTP tunnel(s) "
+                    + "remain.", expired, tunnelMap.size());
+
+    }
+
+    /**
+     * Closes the given tunnel, which has been removed due to timing out.
+     *
+     * @param uuid
+     *     The UUID of the tunnel.
+     *
+     * @param tunnel
+     *     The tunnel to close.
+     */
+    private void expire(String uuid, GuacamoleHTTPTunnel tunnel) {
+
+        logger.debug("HTTP tunnel \"{}\" has timed out.", uuid);
+        expiredCount.incrementAndGet();
 
-        } // end timeout task run()
+        // Attempt to close tunnel
+        try {
+            tunnel.close();
+        }
+        catch (GuacamoleException e) {
+            logger.debug("Unable to close expired HTTP tunnel.", e);
+        }
 
     }
 
@@ -158,7 +307,7 @@ class GuacamoleHTTPTunnelMap {
         // Update the last access time
         GuacamoleHTTPTunnel tunnel = tunnelMap.get(uuid);
         if (tunnel != null)
-            tunnel.access();
+            tunnel.access(currentTimeMillis());
 
         // Return tunnel, if any
         return tunnel;
@@ -177,7 +326,13 @@ class GuacamoleHTTPTunnelMap {
      *     having just been established via HTTP.
      */
     public void put(String uuid, GuacamoleTunnel tunnel) {
-        tunnelMap.put(uuid, new GuacamoleHTTPTunnel(tunnel));
+
+        GuacamoleHTTPTunnel httpTunnel = new GuacamoleHTTPTunnel(tunnel);
+        httpTunnel.access(currentTimeMillis());
+
+        tunnelMap.put(uuid, httpTunnel);
+        schedule(httpTunnel);
+
     }
 
     /**
@@ -194,7 +349,32 @@ class GuacamoleHTTPTunnelMap {
      *     exists and no removal was performed.
      */
     public GuacamoleHTTPTunnel remove(String uuid) {
+
+        // The tunnel remains within the timer wheel until its slot is next
+        // processed, at which point it is discarded
         return tunnelMap.remove(uuid);
+
+    }
+
+    /**
+     * Returns the number of tunnels currently registered.
+     *
+     * @return
+     *     The number of tunnels currently registered.
+     */
+    public int size() {
+        return tunnelMap.size();
+    }
+
+    /**
+     * Returns the total number of tunnels which have been closed and removed
+     * due to timing out.
+     *
+     * @return
+     *     The total number of tunnels which have timed out.
+     */
+    public long getExpiredCount() {
+        return expiredCount.get();
     }
 
     /**
@@ -202,7 +382,8 @@ class GuacamoleHTTPTunnelMap {
      * registered and reclaiming any resources.
      */
     public void shutdown() {
-        executor.shutdownNow();
+        if (executor != null)
+            executor.shutdownNow();
     }
 
 }
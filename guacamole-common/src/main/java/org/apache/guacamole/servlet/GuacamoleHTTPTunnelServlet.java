@@ -21,10 +21,15 @@ package org.apache.guacamole.servlet;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
-import java.io.Reader;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -36,6 +41,9 @@ import org.apache.guacamole.GuacamoleResourceNotFoundException;
 import org.apache.guacamole.GuacamoleServerException;
 import org.apache.guacamole.io.GuacamoleReader;
 import org.apache.guacamole.io.GuacamoleWriter;
+import org.apache.guacamole.io.InstructionCoalescer;
+import org.apache.guacamole.io.UTF8GuacamoleWriter;
+import org.apache.guacamole.io.UTF8InstructionScanner;
 import org.apache.guacamole.net.GuacamoleTunnel;
 import org.apache.guacamole.protocol.GuacamoleStatus;
 import org.slf4j.Logger;
@@ -57,6 +65,14 @@ public abstract class GuacamoleHTTPTunnelServlet extends HttpServlet {
      */
     private final GuacamoleHTTPTunnelMap tunnels = new GuacamoleHTTPTunnelMap();
 
+    /**
+     * Pool of buffers available for use by write requests. The size of this
+     * pool is naturally bounded by the maximum number of concurrent write
+     * requests.
+     */
+    private final Queue<GuacamoleHTTPWriteBuffer> writeBuffers =
+            new ConcurrentLinkedQueue<GuacamoleHTTPWriteBuffer>();
+
     /**
      * The prefix of the query string which denotes a tunnel read operation.
      */
@@ -106,6 +122,28 @@ public abstract class GuacamoleHTTPTunnelServlet extends HttpServlet {
         logger.debug("Deregistered tunnel \"{}\".", tunnel.getUUID());
     }
 
+    /**
+     * Returns the number of tunnels currently registered with this servlet.
+     *
+     * @return
+     *     The number of tunnels currently registered.
+     */
+    public int getTunnelCount() {
+        return tunnels.size();
+    }
+
+    /**
+     * Returns the total number of tunnels which have been automatically
+     * deregistered and closed by this servlet due to not being accessed
+     * within the tunnel timeout.
+     *
+     * @return
+     *     The total number of tunnels which have timed out.
+     */
+    public long getExpiredTunnelCount() {
+        return tunnels.getExpiredCount();
+    }
+
     /**
      * Returns the tunnel with the given UUID, if it has been registered with
      * registerTunnel() and not yet deregistered with deregisterTunnel().
@@ -295,6 +333,115 @@ public abstract class GuacamoleHTTPTunnelServlet extends HttpServlet {
     protected abstract GuacamoleTunnel doConnect(HttpServletRequest request)
             throws GuacamoleException;
 
+    /**
+     * Returns a new OutputStream which should be used to compress the data
+     * sent in response to a read request using the "deflate" content coding,
+     * or null if that data should not be compressed. Each chunk of the
+     * response is flushed as it is sent, so each flush of the returned stream
+     * must make all data written thus far decodable by the client. This
+     * function is only invoked if the client accepts the "deflate" content
+     * coding. By default, null is returned, and data is never compressed.
+     *
+     * @param out
+     *     The stream to which compressed data should be written.
+     *
+     * @return
+     *     A new OutputStream which compresses data written to it before
+     *     writing that data to the given stream, or null if data should not
+     *     be compressed.
+     */
+    protected OutputStream createCompressingStream(OutputStream out) {
+        return null;
+    }
+
+    /**
+     * Returns a new InstructionCoalescer which should be used to batch the
+     * instructions read from a tunnel into the chunks of each read response.
+     * By default, an InstructionCoalescer having the default limits is
+     * returned, thus sending a chunk whenever no further data is immediately
+     * available.
+     *
+     * @return
+     *     A new InstructionCoalescer for a read response.
+     */
+    protected InstructionCoalescer createCoalescer() {
+        return new InstructionCoalescer();
+    }
+
+    /**
+     * Returns the minimum amount of time that each read response should
+     * remain open, in milliseconds, even if another read request is waiting
+     * to take over. If non-zero, this value is sent to the client within the
+     * "Guacamole-Read-Duration" header of each read response, allowing
+     * clients which understand that header to issue the next read request
+     * only when it will be needed. By default, zero is returned, and each
+     * read response ends as soon as another read request is waiting.
+     *
+     * @return
+     *     The minimum lifetime of each read response, in milliseconds, or
+     *     zero if responses should end as soon as another read request is
+     *     waiting.
+     */
+    protected long getMinimumResponseDuration() {
+        return 0;
+    }
+
+    /**
+     * Returns the number of characters after which each read response should
+     * end as soon as another read request is waiting, regardless of the
+     * minimum response duration. This value is sent to the client within the
+     * "Guacamole-Read-Length" header of each read response if a minimum
+     * response duration is also set. By default, zero is returned, and the
+     * length of responses is not limited.
+     *
+     * @return
+     *     The maximum length of each read response, in characters, or zero
+     *     if the length of responses should not be limited.
+     */
+    protected long getMaximumResponseLength() {
+        return 0;
+    }
+
+    /**
+     * Returns whether the client which sent the given request accepts
+     * responses using the "deflate" content coding, as declared by the
+     * request's "Accept-Encoding" header.
+     *
+     * @param request
+     *     The HttpServletRequest to test.
+     *
+     * @return
+     *     true if the client accepts the "deflate" content coding, false
+     *     otherwise.
+     */
+    private static boolean acceptsDeflate(HttpServletRequest request) {
+
+        String header = request.getHeader("Accept-Encoding");
+        if (header == null)
+            return false;
+
+        // Search for "deflate", ignoring codings explicitly refused with a
+        // zero quality value
+        for (String coding : header.split(",")) {
+
+            String[] parameters = coding.split(";");
+            if (!parameters[0].trim().equalsIgnoreCase("deflate"))
+                continue;
+
+            for (int i = 1; i < parameters.length; i++) {
+                String parameter = parameters[i].replace(" ", "");
+                if (parameter.matches("q=0(\\.0*)?"))
+                    return false;
+            }
+
+            return true;
+
+        }
+
+        return false;
+
+    }
+
     /**
      * Called whenever the JavaScript Guacamole client makes a read request.
      * This function should in general not be overridden, as it already
@@ -338,39 +485,72 @@ public abstract class GuacamoleHTTPTunnelServlet extends HttpServlet {
             response.setContentType("application/octet-stream");
             response.setHeader("Cache-Control", "no-cache");
 
+            // Inform the client of when the next read request will be
+            // needed, if responses are long-lived
+            long minimumDuration = getMinimumResponseDuration();
+            long maximumLength = getMaximumResponseLength();
+            if (minimumDuration > 0) {
+                response.setHeader("Guacamole-Read-Duration", Long.toString(minimumDuration));
+                if (maximumLength > 0)
+                    response.setHeader("Guacamole-Read-Length", Long.toString(maximumLength));
+            }
+
+            // Compress response if possible, flushing compressed data
+            // whenever the response would otherwise be flushed
+            OutputStream stream = response.getOutputStream();
+            if (acceptsDeflate(request)) {
+                OutputStream compressed = createCompressingStream(stream);
+                if (compressed != null) {
+                    response.setHeader("Content-Encoding", "deflate");
+                    stream = compressed;
+                }
+            }
+
             // Get writer for response
-            Writer out = new BufferedWriter(new OutputStreamWriter(
-                    response.getOutputStream(), "UTF-8"));
+            final Writer out = new BufferedWriter(new OutputStreamWriter(stream, "UTF-8"));
+            final HttpServletResponse chunkedResponse = response;
+
+            // Send each batch of instructions as a single flushed chunk
+            InstructionCoalescer coalescer = createCoalescer();
+            InstructionCoalescer.FrameSender sender = new InstructionCoalescer.FrameSender() {
+
+                @Override
+                public void sendFrame(String frame) throws IOException {
+                    out.write(frame);
+                    out.flush();
+                    chunkedResponse.flushBuffer();
+                }
+
+            };
+
+            long start = System.currentTimeMillis();
 
             // Stream data to response, ensuring output stream is closed
             try {
 
                 // Deregister tunnel and throw error if we reach EOF without
                 // having ever sent any data
-                char[] message = reader.read();
-                if (message == null)
+                boolean more = coalescer.transferFrame(reader, sender);
+                if (!more && coalescer.getInstructionCount() == 0)
                     throw new GuacamoleConnectionClosedException("Tunnel reached end of stream.");
 
-                // For all messages, until another stream is ready (we send at least one message)
-                do {
+                // For all chunks, until another stream is ready and this
+                // response has lasted long enough or sent enough data (we
+                // send at least one chunk)
+                while (more && tunnel.isOpen()) {
 
-                    // Get message output bytes
-                    out.write(message, 0, message.length);
-
-                    // Flush if we expect to wait
-                    if (!reader.available()) {
-                        out.flush();
-                        response.flushBuffer();
-                    }
-
-                    // No more messages another stream can take over
-                    if (tunnel.hasQueuedReaderThreads())
+                    // Allow another stream to take over
+                    if (tunnel.hasQueuedReaderThreads()
+                            && (System.currentTimeMillis() - start >= minimumDuration
+                                || (maximumLength > 0 && coalescer.getCharacterCount() >= maximumLength)))
                         break;
 
-                } while (tunnel.isOpen() && (message = reader.read()) != null);
+                    more = coalescer.transferFrame(reader, sender);
+
+                }
 
                 // Close tunnel immediately upon EOF
-                if (message == null) {
+                if (!more) {
                     deregisterTunnel(tunnel);
                     tunnel.close();
                 }
@@ -406,7 +586,13 @@ public abstract class GuacamoleHTTPTunnelServlet extends HttpServlet {
 
             // Always close output stream
             finally {
+
                 out.close();
+
+                logger.debug("HTTP tunnel read sent {} instructions in {} chunks "
+                        + "({} characters).", coalescer.getInstructionCount(),
+                        coalescer.getFrameCount(), coalescer.getCharacterCount());
+
             }
 
         }
@@ -426,6 +612,80 @@ public abstract class GuacamoleHTTPTunnelServlet extends HttpServlet {
 
     }
 
+    /**
+     * Returns a GuacamoleHTTPWriteBuffer from the pool of available buffers,
+     * creating a new buffer only if no buffer is available.
+     *
+     * @return
+     *     A GuacamoleHTTPWriteBuffer which is not in use by any other write
+     *     request.
+     */
+    private GuacamoleHTTPWriteBuffer acquireWriteBuffer() {
+
+        GuacamoleHTTPWriteBuffer buffer = writeBuffers.poll();
+        if (buffer == null)
+            buffer = new GuacamoleHTTPWriteBuffer();
+
+        return buffer;
+
+    }
+
+    /**
+     * Resets the given GuacamoleHTTPWriteBuffer and returns it to the pool of
+     * available buffers.
+     *
+     * @param buffer
+     *     The GuacamoleHTTPWriteBuffer to release, which must no longer be
+     *     used by the caller.
+     */
+    private void releaseWriteBuffer(GuacamoleHTTPWriteBuffer buffer) {
+        buffer.reset();
+        writeBuffers.offer(buffer);
+    }
+
+    /**
+     * Writes the complete instructions at the beginning of the byte buffer of
+     * the given GuacamoleHTTPWriteBuffer to the given writer. If the writer
+     * accepts UTF-8 directly, the bytes are written without decoding.
+     * Otherwise, the bytes are decoded into the character buffer of the
+     * GuacamoleHTTPWriteBuffer, which is then written.
+     *
+     * @param writer
+     *     The writer to write the instructions to.
+     *
+     * @param buffer
+     *     The GuacamoleHTTPWriteBuffer containing the instructions to write.
+     *
+     * @param length
+     *     The number of bytes to write, which must consist only of complete
+     *     instructions.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while writing the instructions.
+     */
+    private void writeInstructions(GuacamoleWriter writer,
+            GuacamoleHTTPWriteBuffer buffer, int length)
+            throws GuacamoleException {
+
+        ByteBuffer bytes = ByteBuffer.wrap(buffer.getBytes(), 0, length);
+
+        // Pass bytes directly through to UTF-8 writers
+        if (writer instanceof UTF8GuacamoleWriter) {
+            ((UTF8GuacamoleWriter) writer).write(bytes);
+            return;
+        }
+
+        // Otherwise, decode into characters (the character buffer is always
+        // at least as large as the byte buffer)
+        CharBuffer chars = CharBuffer.wrap(buffer.getChars());
+        CharsetDecoder decoder = buffer.getDecoder().reset();
+        decoder.decode(bytes, chars, true);
+        decoder.flush(chars);
+
+        writer.write(buffer.getChars(), 0, chars.position());
+
+    }
+
     /**
      * Called whenever the JavaScript Guacamole client makes a write request.
      * This function should in general not be overridden, as it already
@@ -462,27 +722,53 @@ public abstract class GuacamoleHTTPTunnelServlet extends HttpServlet {
         response.setContentLength(0);
 
         // Send data
+        GuacamoleHTTPWriteBuffer buffer = acquireWriteBuffer();
         try {
 
             // Get writer from tunnel
             GuacamoleWriter writer = tunnel.acquireWriter();
 
-            // Get input reader for HTTP stream
-            Reader input = new InputStreamReader(
-                    request.getInputStream(), "UTF-8");
+            // Get input stream for HTTP request body
+            InputStream input = request.getInputStream();
 
             // Transfer data from input stream to tunnel output, ensuring
             // input is always closed
             try {
 
-                // Buffer
-                int length;
-                char[] buffer = new char[8192];
+                UTF8InstructionScanner scanner = buffer.getScanner();
+
+                // Number of bytes currently buffered, all of which have been
+                // scanned
+                int length = 0;
+
+                // Transfer only complete instructions, retaining any partial
+                // instruction until the remainder has been received
+                int read = 0;
+                while (tunnel.isOpen() && (read = input.read(buffer.getBytes(),
+                        length, buffer.getBytes().length - length)) != -1) {
+
+                    int end = scanner.scan(buffer.getBytes(), length, length + read);
+                    length += read;
+
+                    // Write all complete instructions, moving any remaining
+                    // partial instruction to the start of the buffer
+                    if (end != -1) {
+                        writeInstructions(writer, buffer, end);
+                        System.arraycopy(buffer.getBytes(), end,
+                                buffer.getBytes(), 0, length - end);
+                        length -= end;
+                    }
+
+                    // Grow buffer if a single instruction does not fit
+                    if (length == buffer.getBytes().length)
+                        buffer.grow();
+
+                }
 
-                // Transfer data using buffer
-                while (tunnel.isOpen() &&
-                        (length = input.read(buffer, 0, buffer.length)) != -1)
-                    writer.write(buffer, 0, length);
+                // The request body must not end within an instruction
+                if (read == -1 && !scanner.isComplete())
+                    throw new GuacamoleClientException("Write request ended "
+                            + "with an incomplete instruction.");
 
             }
 
@@ -505,6 +791,7 @@ public abstract class GuacamoleHTTPTunnelServlet extends HttpServlet {
         }
         finally {
             tunnel.releaseWriter();
+            releaseWriteBuffer(buffer);
         }
 
     }
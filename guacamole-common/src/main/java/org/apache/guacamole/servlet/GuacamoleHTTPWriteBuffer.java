@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.servlet;
+
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import org.apache.guacamole.io.UTF8InstructionScanner;
+
+/**
+ * Reusable set of buffers used to transfer the body of a single HTTP tunnel
+ * write request to the tunnel. Instances are pooled by
+ * GuacamoleHTTPTunnelServlet such that write requests, which are extremely
+ * frequent and typically tiny, do not allocate new buffers each time.
+ */
+class GuacamoleHTTPWriteBuffer {
+
+    /**
+     * The initial size of each buffer, in bytes or characters. Buffers may
+     * temporarily grow beyond this size if a single instruction does not fit
+     * within the buffer.
+     */
+    public static final int BUFFER_SIZE = 8192;
+
+    /**
+     * The UTF-8 character set.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Buffer containing the UTF-8 data received from the client.
+     */
+    private byte[] bytes = new byte[BUFFER_SIZE];
+
+    /**
+     * Buffer receiving decoded characters, always at least as large as the
+     * byte buffer.
+     */
+    private char[] chars = new char[BUFFER_SIZE];
+
+    /**
+     * Decoder used to convert complete instructions to characters when the
+     * tunnel's writer cannot accept UTF-8 directly.
+     */
+    private final CharsetDecoder decoder = UTF8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    /**
+     * Scanner used to locate the boundaries of complete instructions within
+     * the received data.
+     */
+    private final UTF8InstructionScanner scanner = new UTF8InstructionScanner();
+
+    /**
+     * Returns the buffer which should receive UTF-8 data from the client.
+     *
+     * @return
+     *     The byte buffer of this GuacamoleHTTPWriteBuffer.
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns the buffer which should receive decoded characters. This
+     * buffer is always at least as large as the byte buffer.
+     *
+     * @return
+     *     The character buffer of this GuacamoleHTTPWriteBuffer.
+     */
+    public char[] getChars() {
+        return chars;
+    }
+
+    /**
+     * Returns the decoder which should be used to decode the contents of the
+     * byte buffer. The decoder must be reset prior to each use.
+     *
+     * @return
+     *     The UTF-8 decoder of this GuacamoleHTTPWriteBuffer.
+     */
+    public CharsetDecoder getDecoder() {
+        return decoder;
+    }
+
+    /**
+     * Returns the scanner which should be used to locate instruction
+     * boundaries within the byte buffer.
+     *
+     * @return
+     *     The instruction scanner of this GuacamoleHTTPWriteBuffer.
+     */
+    public UTF8InstructionScanner getScanner() {
+        return scanner;
+    }
+
+    /**
+     * Doubles the size of both buffers, preserving the contents of the byte
+     * buffer. This is necessary only if a single instruction does not fit
+     * within the current buffer.
+     */
+    public void grow() {
+
+        byte[] newBytes = new byte[bytes.length * 2];
+        System.arraycopy(bytes, 0, newBytes, 0, bytes.length);
+
+        bytes = newBytes;
+        chars = new char[newBytes.length];
+
+    }
+
+    /**
+     * Resets this GuacamoleHTTPWriteBuffer such that it may be reused for
+     * another write request, discarding any oversized buffers.
+     */
+    public void reset() {
+
+        if (bytes.length > BUFFER_SIZE) {
+            bytes = new byte[BUFFER_SIZE];
+            chars = new char[BUFFER_SIZE];
+        }
+
+        scanner.reset();
+
+    }
+
+}
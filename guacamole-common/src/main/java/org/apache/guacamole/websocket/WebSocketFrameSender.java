@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.guacamole.websocket;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+import org.apache.guacamole.io.QueuedFrameSender;
+
+/**
+ * QueuedFrameSender which sends frames using the asynchronous remote endpoint
+ * of a JSR-356 WebSocket session. Frames are sent as text messages unless the
+ * binary subprotocol was negotiated for the session, in which case each frame
+ * is sent as a binary message containing its UTF-8 encoding.
+ */
+public class WebSocketFrameSender extends QueuedFrameSender {
+
+    /**
+     * The asynchronous remote endpoint of the WebSocket session.
+     */
+    private final RemoteEndpoint.Async remote;
+
+    /**
+     * The character set used to encode frames sent as binary messages.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Whether frames are sent as binary messages rather than text messages.
+     */
+    private final boolean binary;
+
+    /**
+     * Handler which is notified once each frame has been sent.
+     */
+    private final SendHandler handler = new SendHandler() {
+
+        @Override
+        public void onResult(SendResult result) {
+            frameSent(result.isOK() ? null : result.getException());
+        }
+
+    };
+
+    /**
+     * Creates a new WebSocketFrameSender which sends frames over the given
+     * WebSocket session, having the given limits.
+     *
+     * @param session
+     *     The WebSocket session to send frames over.
+     *
+     * @param highWaterMark
+     *     The maximum number of characters which may be queued before the
+     *     given OverflowPolicy applies.
+     *
+     * @param policy
+     *     The action taken when the high-water mark is reached.
+     *
+     * @param timeout
+     *     The number of milliseconds to wait for queued data to be sent
+     *     before considering the client to have timed out, or zero to wait
+     *     indefinitely.
+     */
+    public WebSocketFrameSender(Session session, int highWaterMark,
+            OverflowPolicy policy, long timeout) {
+        super(highWaterMark, policy, timeout);
+        this.remote = session.getAsyncRemote();
+        this.binary = isBinary(session);
+    }
+
+    /**
+     * Creates a new WebSocketFrameSender which sends frames over the given
+     * WebSocket session, having the default limits.
+     *
+     * @param session
+     *     The WebSocket session to send frames over.
+     */
+    public WebSocketFrameSender(Session session) {
+        this.remote = session.getAsyncRemote();
+        this.binary = isBinary(session);
+    }
+
+    /**
+     * Returns whether the binary subprotocol was negotiated for the given
+     * WebSocket session.
+     *
+     * @param session
+     *     The WebSocket session to test.
+     *
+     * @return
+     *     true if frames sent over the given session should be sent as binary
+     *     messages, false otherwise.
+     */
+    private static boolean isBinary(Session session) {
+        return GuacamoleWebSocketTunnelEndpoint.BINARY_SUBPROTOCOL.equals(
+                session.getNegotiatedSubprotocol());
+    }
+
+    @Override
+    protected void sendAsync(String frame) {
+
+        // Send UTF-8 encoding of frame if using the binary subprotocol
+        if (binary)
+            remote.sendBinary(ByteBuffer.wrap(frame.getBytes(UTF8)), handler);
+
+        // Otherwise, send frame as text
+        else
+            remote.sendText(frame, handler);
+
+    }
+
+}
@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.guacamole.io;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests Base64Codec, validating encoding and decoding against the test
+ * vectors of RFC 4648.
+ */
+public class Base64CodecTest {
+
+    /**
+     * The UTF-8 character set.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * The unencoded test vectors of RFC 4648, section 10.
+     */
+    private static final String[] DECODED = {
+        "", "f", "fo", "foo", "foob", "fooba", "foobar"
+    };
+
+    /**
+     * The encoded test vectors of RFC 4648, section 10, in the same order as
+     * DECODED.
+     */
+    private static final String[] ENCODED = {
+        "", "Zg==", "Zm8=", "Zm9v", "Zm9vYg==", "Zm9vYmE=", "Zm9vYmFy"
+    };
+
+    /**
+     * Decodes the given base64 string using Base64Codec.
+     *
+     * @param encoded
+     *     The base64 string to decode.
+     *
+     * @return
+     *     The decoded bytes.
+     */
+    private static byte[] decode(String encoded) {
+        char[] chars = encoded.toCharArray();
+        byte[] buffer = new byte[Base64Codec.getMaxDecodedLength(chars.length)];
+        int length = Base64Codec.decode(chars, 0, chars.length, buffer, 0);
+        return Arrays.copyOf(buffer, length);
+    }
+
+    /**
+     * Verifies that the RFC 4648 test vectors are encoded and decoded
+     * correctly, with and without padding.
+     */
+    @Test
+    public void testVectors() {
+
+        for (int i = 0; i < DECODED.length; i++) {
+
+            byte[] decoded = DECODED[i].getBytes(UTF8);
+            assertEquals(ENCODED[i], Base64Codec.encode(decoded, 0, decoded.length));
+            assertArrayEquals(decoded, decode(ENCODED[i]));
+
+            // Padding is optional when decoding
+            assertArrayEquals(decoded, decode(ENCODED[i].replace("=", "")));
+
+        }
+
+    }
+
+    /**
+     * Verifies that arbitrary binary data survives being encoded and decoded
+     * at every length up to several groups, and at nonzero offsets.
+     */
+    @Test
+    public void testRoundTrip() {
+
+        Random random = new Random(4822);
+        for (int length = 0; length < 64; length++) {
+
+            byte[] data = new byte[length + 3];
+            random.nextBytes(data);
+
+            char[] encoded = new char[Base64Codec.getEncodedLength(length) + 1];
+            int encodedLength = Base64Codec.encode(data, 3, length, encoded, 1);
+            assertEquals(Base64Codec.getEncodedLength(length), encodedLength);
+
+            byte[] decoded = new byte[Base64Codec.getMaxDecodedLength(encodedLength) + 2];
+            int decodedLength = Base64Codec.decode(encoded, 1, encodedLength, decoded, 2);
+
+            assertEquals(length, decodedLength);
+            assertArrayEquals(Arrays.copyOfRange(data, 3, data.length),
+                    Arrays.copyOfRange(decoded, 2, 2 + decodedLength));
+
+        }
+
+    }
+
+    /**
+     * Verifies that invalid base64 is rejected.
+     */
+    @Test
+    public void testInvalid() {
+
+        String[] invalid = { "Z", "Zm9v\n", "Zm=v", "Zm9v====", "Zm9\u00e9" };
+        for (String encoded : invalid) {
+            try {
+                decode(encoded);
+                fail("Invalid base64 \"" + encoded + "\" was accepted.");
+            }
+            catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+
+    }
+
+}
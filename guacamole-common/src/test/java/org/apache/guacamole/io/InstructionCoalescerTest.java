@@ -0,0 +1,232 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.guacamole.io;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.guacamole.protocol.GuacamoleInstruction;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests InstructionCoalescer, validating that instructions are batched into
+ * frames according to its configured limits.
+ */
+public class InstructionCoalescerTest {
+
+    /**
+     * Test data consisting of two display frames, each ending with "sync".
+     */
+    private static final String TEST =
+            "4.size,1.0,4.1024,3.768;4.sync,1.1;3.nop;4.sync,1.2;";
+
+    /**
+     * Transfers all test data through the given InstructionCoalescer,
+     * returning the frames sent.
+     *
+     * @param coalescer
+     *     The InstructionCoalescer to test.
+     *
+     * @return
+     *     All frames sent by the given InstructionCoalescer.
+     *
+     * @throws Exception
+     *     If an error occurs while reading the test data.
+     */
+    private List<String> transfer(InstructionCoalescer coalescer)
+            throws Exception {
+
+        final List<String> frames = new ArrayList<String>();
+        GuacamoleReader reader = new ReaderGuacamoleReader(new StringReader(TEST));
+
+        coalescer.transfer(reader, new InstructionCoalescer.FrameSender() {
+
+            @Override
+            public void sendFrame(String frame) throws IOException {
+                frames.add(frame);
+            }
+
+        });
+
+        return frames;
+
+    }
+
+    /**
+     * Verifies that all data is sent in a single frame when the data is
+     * available at once and fits within the maximum frame length.
+     *
+     * @throws Exception
+     *     If an error occurs while reading the test data.
+     */
+    @Test
+    public void testSingleFrame() throws Exception {
+
+        InstructionCoalescer coalescer = new InstructionCoalescer();
+        List<String> frames = transfer(coalescer);
+
+        assertEquals(1, frames.size());
+        assertEquals(TEST, frames.get(0));
+
+        assertEquals(1, coalescer.getFrameCount());
+        assertEquals(4, coalescer.getInstructionCount());
+        assertEquals(TEST.length(), coalescer.getCharacterCount());
+
+    }
+
+    /**
+     * Verifies that frames end at "sync" instructions when requested.
+     *
+     * @throws Exception
+     *     If an error occurs while reading the test data.
+     */
+    @Test
+    public void testFlushOnSync() throws Exception {
+
+        InstructionCoalescer coalescer = new InstructionCoalescer(
+                InstructionCoalescer.DEFAULT_MAX_FRAME_LENGTH, 0, true);
+        List<String> frames = transfer(coalescer);
+
+        assertEquals(2, frames.size());
+        assertEquals("4.size,1.0,4.1024,3.768;4.sync,1.1;", frames.get(0));
+        assertEquals("3.nop;4.sync,1.2;", frames.get(1));
+        assertEquals(2, coalescer.getFrameCount());
+
+    }
+
+    /**
+     * Verifies that frames do not exceed the maximum frame length unless a
+     * single instruction does.
+     *
+     * @throws Exception
+     *     If an error occurs while reading the test data.
+     */
+    @Test
+    public void testMaxFrameLength() throws Exception {
+
+        InstructionCoalescer coalescer = new InstructionCoalescer(10, 0, false);
+        List<String> frames = transfer(coalescer);
+
+        assertEquals(3, frames.size());
+        assertEquals("4.size,1.0,4.1024,3.768;", frames.get(0));
+        assertEquals("4.sync,1.1;", frames.get(1));
+        assertEquals("3.nop;4.sync,1.2;", frames.get(2));
+
+    }
+
+    /**
+     * Verifies that transferFrame() sends exactly one frame per call,
+     * reporting the end of the stream once all data has been sent.
+     *
+     * @throws Exception
+     *     If an error occurs while reading the test data.
+     */
+    @Test
+    public void testTransferFrame() throws Exception {
+
+        final List<String> frames = new ArrayList<String>();
+        InstructionCoalescer.FrameSender sender = new InstructionCoalescer.FrameSender() {
+
+            @Override
+            public void sendFrame(String frame) throws IOException {
+                frames.add(frame);
+            }
+
+        };
+
+        InstructionCoalescer coalescer = new InstructionCoalescer(
+                InstructionCoalescer.DEFAULT_MAX_FRAME_LENGTH, 0, true);
+        GuacamoleReader reader = new ReaderGuacamoleReader(new StringReader(TEST));
+
+        assertTrue(coalescer.transferFrame(reader, sender));
+        assertEquals(1, frames.size());
+
+        assertTrue(coalescer.transferFrame(reader, sender));
+        assertEquals(2, frames.size());
+
+        assertFalse(coalescer.transferFrame(reader, sender));
+        assertEquals(2, frames.size());
+        assertEquals(4, coalescer.getInstructionCount());
+
+    }
+
+    /**
+     * Verifies that "sync" instructions are detected, and instructions
+     * counted, even when a single read returns several instructions.
+     *
+     * @throws Exception
+     *     If an error occurs while reading the test data.
+     */
+    @Test
+    public void testMultipleInstructionsPerRead() throws Exception {
+
+        final String[] chunks = {
+            "4.size,1.0,4.1024,3.768;4.sync,1.1;3.nop;",
+            "4.sync,1.2;"
+        };
+
+        // Return each chunk in its entirety from a single read()
+        GuacamoleReader reader = new GuacamoleReader() {
+
+            private int index = 0;
+
+            @Override
+            public boolean available() {
+                return index < chunks.length;
+            }
+
+            @Override
+            public char[] read() {
+                if (index < chunks.length)
+                    return chunks[index++].toCharArray();
+                return null;
+            }
+
+            @Override
+            public GuacamoleInstruction readInstruction() {
+                throw new UnsupportedOperationException();
+            }
+
+        };
+
+        final List<String> frames = new ArrayList<String>();
+        InstructionCoalescer coalescer = new InstructionCoalescer(
+                InstructionCoalescer.DEFAULT_MAX_FRAME_LENGTH, 0, true);
+
+        coalescer.transfer(reader, new InstructionCoalescer.FrameSender() {
+
+            @Override
+            public void sendFrame(String frame) throws IOException {
+                frames.add(frame);
+            }
+
+        });
+
+        assertEquals(2, frames.size());
+        assertEquals(chunks[0], frames.get(0));
+        assertEquals(chunks[1], frames.get(1));
+        assertEquals(4, coalescer.getInstructionCount());
+
+    }
+
+}
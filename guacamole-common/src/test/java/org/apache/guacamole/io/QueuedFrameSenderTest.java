@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.guacamole.io;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.guacamole.GuacamoleClientTimeoutException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests QueuedFrameSender, validating that frames are sent in order, one at
+ * a time, and that the high-water mark is enforced.
+ */
+public class QueuedFrameSenderTest {
+
+    /**
+     * QueuedFrameSender which records each frame passed to sendAsync(),
+     * completing sends only when explicitly requested.
+     */
+    private static class TestFrameSender extends QueuedFrameSender {
+
+        /**
+         * All frames passed to sendAsync(), in order.
+         */
+        public final List<String> started = new ArrayList<String>();
+
+        /**
+         * Creates a new TestFrameSender having the given limits.
+         *
+         * @param highWaterMark
+         *     The maximum number of characters which may be queued.
+         *
+         * @param policy
+         *     The action taken when the high-water mark is reached.
+         *
+         * @param timeout
+         *     The number of milliseconds to wait for queued data to be sent.
+         */
+        public TestFrameSender(int highWaterMark, OverflowPolicy policy,
+                long timeout) {
+            super(highWaterMark, policy, timeout);
+        }
+
+        @Override
+        protected void sendAsync(String frame) {
+            started.add(frame);
+        }
+
+        /**
+         * Completes the send of the frame most recently passed to
+         * sendAsync().
+         */
+        public void complete() {
+            frameSent(null);
+        }
+
+    }
+
+    /**
+     * Verifies that frames are sent one at a time, in the order queued.
+     *
+     * @throws Exception
+     *     If sending fails.
+     */
+    @Test
+    public void testOrdering() throws Exception {
+
+        TestFrameSender sender = new TestFrameSender(100,
+                QueuedFrameSender.OverflowPolicy.BLOCK, 1000);
+
+        sender.sendFrame("1.a;");
+        sender.sendFrame("1.b;");
+        sender.sendFrameNow("1.c;");
+
+        // Only first frame may be in progress
+        assertEquals(1, sender.started.size());
+        assertEquals(12, sender.getQueuedLength());
+
+        sender.complete();
+        sender.complete();
+        assertEquals(3, sender.started.size());
+        assertEquals("1.a;", sender.started.get(0));
+        assertEquals("1.b;", sender.started.get(1));
+        assertEquals("1.c;", sender.started.get(2));
+
+        sender.complete();
+        assertEquals(0, sender.getQueuedLength());
+        sender.drain();
+
+    }
+
+    /**
+     * Verifies that the DISCONNECT policy refuses frames once the high-water
+     * mark is reached.
+     *
+     * @throws Exception
+     *     If sending fails unexpectedly.
+     */
+    @Test(expected = GuacamoleClientTimeoutException.class)
+    public void testDisconnect() throws Exception {
+
+        TestFrameSender sender = new TestFrameSender(6,
+                QueuedFrameSender.OverflowPolicy.DISCONNECT, 1000);
+
+        sender.sendFrame("1.a;");
+        sender.sendFrame("1.b;");
+
+    }
+
+    /**
+     * Verifies that the BLOCK policy times out if queued data is never sent.
+     *
+     * @throws Exception
+     *     If sending fails unexpectedly.
+     */
+    @Test(expected = GuacamoleClientTimeoutException.class)
+    public void testBlockTimeout() throws Exception {
+
+        TestFrameSender sender = new TestFrameSender(6,
+                QueuedFrameSender.OverflowPolicy.BLOCK, 50);
+
+        sender.sendFrame("1.a;");
+        sender.sendFrame("1.b;");
+
+    }
+
+    /**
+     * Verifies that frames are refused once sending has failed.
+     *
+     * @throws Exception
+     *     If sending fails unexpectedly.
+     */
+    @Test(expected = IOException.class)
+    public void testFailure() throws Exception {
+
+        TestFrameSender sender = new TestFrameSender(100,
+                QueuedFrameSender.OverflowPolicy.BLOCK, 1000);
+
+        sender.sendFrame("1.a;");
+        sender.frameSent(new IOException("Test failure."));
+        sender.sendFrame("1.b;");
+
+    }
+
+}
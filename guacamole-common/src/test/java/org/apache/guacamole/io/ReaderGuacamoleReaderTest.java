@@ -20,6 +20,7 @@
 package org.apache.guacamole.io;
 
 import java.io.StringReader;
+import java.nio.CharBuffer;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.protocol.GuacamoleInstruction;
 import org.junit.Test;
@@ -82,5 +83,60 @@ public class ReaderGuacamoleReaderTest {
     }
 
 
+    /**
+     * Test of ReaderGuacamoleReader slice reading, including instructions
+     * which span the point at which the internal buffer must be compacted.
+     *
+     * @throws GuacamoleException If a parse error occurs while parsing the
+     *                            known-good test string.
+     */
+    @Test
+    public void testReadSlice() throws GuacamoleException {
+
+        // Build enough instruction data to require compaction of the buffer
+        StringBuilder test = new StringBuilder();
+        for (int i = 0; i < 5000; i++)
+            test.append("4.sync,").append(Integer.toString(i).length())
+                .append('.').append(i).append(';');
+
+        ReaderGuacamoleReader reader = new ReaderGuacamoleReader(new StringReader(test.toString()));
+
+        // Alternate between slices, copies, and parsed instructions,
+        // verifying each is read in order
+        for (int i = 0; i < 5000; i++) {
+
+            String value = Integer.toString(i);
+            String expected = "4.sync," + value.length() + "." + value + ";";
+
+            switch (i % 3) {
+
+                case 0:
+                    CharBuffer slice = reader.readSlice();
+                    assertNotNull(slice);
+                    assertEquals(expected, slice.toString());
+                    reader.release();
+                    assertEquals(0, slice.remaining());
+                    break;
+
+                case 1:
+                    assertEquals(expected, new String(reader.read()));
+                    break;
+
+                default:
+                    GuacamoleInstruction instruction = reader.readInstruction();
+                    assertNotNull(instruction);
+                    assertEquals("sync", instruction.getOpcode());
+                    assertEquals(value, instruction.getArgs().get(0));
+
+            }
+
+        }
+
+        // There should be no more instructions
+        assertNull(reader.readSlice());
+
+    }
+
+
    
 }
@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.guacamole.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.protocol.GuacamoleInstruction;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the UTF8GuacamoleWriter implementation, validating that instructions
+ * containing multi-byte characters are encoded correctly.
+ */
+public class UTF8GuacamoleWriterTest {
+
+    /**
+     * Test data containing one-, two-, three-, and four-byte UTF-8 sequences.
+     * Element lengths are in Unicode code points.
+     */
+    private static final String TEST =
+            "1.a,2.bc,3.déf,1.€;4.test,2.😀!;0.;3.foo;";
+
+    /**
+     * Returns the given string encoded as UTF-8.
+     *
+     * @param value
+     *     The string to encode.
+     *
+     * @return
+     *     The given string encoded as UTF-8.
+     */
+    private static byte[] utf8(String value) {
+        try {
+            return value.getBytes("UTF-8");
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Test of UTF8GuacamoleWriter encoding.
+     *
+     * @throws GuacamoleException If an error occurs while writing.
+     */
+    @Test
+    public void testWriter() throws GuacamoleException {
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        GuacamoleWriter writer = new UTF8GuacamoleWriter(output);
+
+        writer.write(TEST.toCharArray());
+        assertArrayEquals(utf8(TEST), output.toByteArray());
+
+    }
+
+    /**
+     * Test of writing already-encoded UTF-8 data, verifying that the data is
+     * passed through unchanged.
+     *
+     * @throws GuacamoleException If an error occurs while writing.
+     */
+    @Test
+    public void testFrames() throws GuacamoleException {
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        UTF8GuacamoleWriter writer = new UTF8GuacamoleWriter(output);
+
+        ByteBuffer frame = ByteBuffer.wrap(utf8(TEST));
+        writer.write(frame);
+        assertFalse(frame.hasRemaining());
+        assertArrayEquals(utf8(TEST), output.toByteArray());
+
+    }
+
+    /**
+     * Test that instructions written by UTF8GuacamoleWriter are read back
+     * unchanged through the standard UTF-8 decoder.
+     *
+     * @throws Exception If an error occurs while writing or reading.
+     */
+    @Test
+    public void testRoundTrip() throws Exception {
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        GuacamoleWriter writer = new UTF8GuacamoleWriter(output);
+
+        writer.writeInstruction(new GuacamoleInstruction("a", "bc", "déf", "€"));
+        writer.writeInstruction(new GuacamoleInstruction("test", "😀!"));
+
+        GuacamoleReader reader = new ReaderGuacamoleReader(new InputStreamReader(
+                new ByteArrayInputStream(output.toByteArray()), "UTF-8"));
+
+        GuacamoleInstruction instruction;
+
+        // Validate first test instruction
+        instruction = reader.readInstruction();
+        assertNotNull(instruction);
+        assertEquals("a", instruction.getOpcode());
+        assertEquals(3, instruction.getArgs().size());
+        assertEquals("bc", instruction.getArgs().get(0));
+        assertEquals("déf", instruction.getArgs().get(1));
+        assertEquals("€", instruction.getArgs().get(2));
+
+        // Validate second test instruction (contains supplementary character)
+        instruction = reader.readInstruction();
+        assertNotNull(instruction);
+        assertEquals("test", instruction.getOpcode());
+        assertEquals(1, instruction.getArgs().size());
+        assertEquals("😀!", instruction.getArgs().get(0));
+
+        // There should be no more instructions
+        assertNull(reader.readInstruction());
+
+    }
+
+    /**
+     * Test of UTF8GuacamoleWriter encoding of a surrogate pair which is split
+     * across two separate writes.
+     *
+     * @throws GuacamoleException If an error occurs while writing.
+     */
+    @Test
+    public void testSplitSurrogatePair() throws GuacamoleException {
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        GuacamoleWriter writer = new UTF8GuacamoleWriter(output);
+
+        String value = "4.test,2.\ud83d\ude00!;";
+        int split = value.indexOf('\ude00');
+
+        writer.write(value.substring(0, split).toCharArray());
+        writer.write(value.substring(split).toCharArray());
+        assertArrayEquals(utf8(value), output.toByteArray());
+
+    }
+
+}
@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.io;
+
+import java.nio.charset.Charset;
+import org.apache.guacamole.GuacamoleClientException;
+import org.apache.guacamole.GuacamoleException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests UTF8InstructionScanner, validating that instruction boundaries are
+ * located correctly regardless of how the scanned data is divided.
+ */
+public class UTF8InstructionScannerTest {
+
+    /**
+     * The UTF-8 character set.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Test of scanning data containing multibyte characters, including
+     * characters outside the Basic Multilingual Plane, one byte at a time.
+     *
+     * @throws GuacamoleException
+     *     If the known-good test data is rejected as invalid.
+     */
+    @Test
+    public void testByteByByte() throws GuacamoleException {
+
+        // Test string
+        final String first = "4.test,4.\u00e9\u4e16\ud83d\ude00;";
+        final String second = "3.foo,0.;";
+        byte[] data = (first + second).getBytes(UTF8);
+        int firstEnd = first.getBytes(UTF8).length;
+
+        UTF8InstructionScanner scanner = new UTF8InstructionScanner();
+
+        // Only the terminating semicolon of each instruction should be
+        // reported as the end of an instruction
+        for (int i = 0; i < data.length; i++) {
+
+            int end = scanner.scan(data, i, i + 1);
+
+            if (i == firstEnd - 1 || i == data.length - 1)
+                assertEquals(i + 1, end);
+            else {
+                assertEquals(-1, end);
+                assertFalse(scanner.isComplete());
+            }
+
+        }
+
+        assertTrue(scanner.isComplete());
+
+    }
+
+    /**
+     * Test of scanning data which ends within an instruction.
+     *
+     * @throws GuacamoleException
+     *     If the known-good test data is rejected as invalid.
+     */
+    @Test
+    public void testPartial() throws GuacamoleException {
+
+        byte[] data = "4.test;3.foo,1.".getBytes(UTF8);
+
+        UTF8InstructionScanner scanner = new UTF8InstructionScanner();
+        assertEquals(7, scanner.scan(data, 0, data.length));
+        assertFalse(scanner.isComplete());
+
+        scanner.reset();
+        assertTrue(scanner.isComplete());
+
+    }
+
+    /**
+     * Test that invalid data is rejected.
+     */
+    @Test
+    public void testInvalid() {
+
+        String[] invalid = {
+            "4.test:",
+            "a.test;",
+            "123456.test;",
+            "9999.test;",
+            "1.\ud83d\ude00;"
+        };
+
+        for (String test : invalid) {
+            byte[] data = test.getBytes(UTF8);
+            try {
+                new UTF8InstructionScanner().scan(data, 0, data.length);
+                fail("Invalid data accepted: " + test);
+            }
+            catch (GuacamoleClientException e) {
+                // Expected
+            }
+        }
+
+    }
+
+}
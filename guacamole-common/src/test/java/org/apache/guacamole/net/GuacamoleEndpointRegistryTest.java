@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.guacamole.net;
+
+import org.apache.guacamole.GuacamoleUpstreamUnavailableException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests GuacamoleEndpointRegistry, validating that circuits are opened after
+ * repeated failures and closed again once the endpoint is reachable.
+ */
+public class GuacamoleEndpointRegistryTest {
+
+    /**
+     * GuacamoleEndpointRegistry whose probes succeed only once the endpoint
+     * has been marked as reachable.
+     */
+    private static class TestRegistry extends GuacamoleEndpointRegistry {
+
+        /**
+         * Whether probes should succeed.
+         */
+        private volatile boolean reachable = false;
+
+        /**
+         * Creates a new TestRegistry which opens circuits after two failures
+         * and probes every 10 milliseconds.
+         */
+        public TestRegistry() {
+            super(2, 10);
+        }
+
+        @Override
+        protected boolean probe(String hostname, int port) {
+            return reachable;
+        }
+
+    }
+
+    /**
+     * Verifies that the circuit for an endpoint opens only once the failure
+     * threshold is reached, that other endpoints are unaffected, and that a
+     * successful probe closes the circuit.
+     *
+     * @throws Exception
+     *     If the test is interrupted.
+     */
+    @Test
+    public void testCircuit() throws Exception {
+
+        TestRegistry registry = new TestRegistry();
+
+        try {
+
+            // A single failure does not open the circuit
+            registry.failed("guacd1", 4822);
+            assertTrue(registry.isAvailable("guacd1", 4822));
+
+            // Reaching the threshold does
+            registry.failed("guacd1", 4822);
+            assertFalse(registry.isAvailable("guacd1", 4822));
+            assertTrue(registry.isAvailable("guacd2", 4822));
+
+            try {
+                registry.checkAvailable("guacd1", 4822);
+                fail("Connection attempt should fail while circuit is open.");
+            }
+            catch (GuacamoleUpstreamUnavailableException e) {
+                // Expected
+            }
+
+            // Circuit remains open while probes fail
+            Thread.sleep(50);
+            assertFalse(registry.isAvailable("guacd1", 4822));
+
+            // Circuit closes once a probe succeeds
+            registry.reachable = true;
+            for (int i = 0; i < 100 && !registry.isAvailable("guacd1", 4822); i++)
+                Thread.sleep(10);
+
+            assertTrue(registry.isAvailable("guacd1", 4822));
+
+        }
+        finally {
+            registry.shutdown();
+        }
+
+    }
+
+    /**
+     * Verifies that successful connections reset the failure count and are
+     * reflected in the smoothed latency.
+     */
+    @Test
+    public void testConnected() {
+
+        TestRegistry registry = new TestRegistry();
+
+        assertEquals(-1, registry.getLatency("guacd", 4822));
+
+        registry.failed("guacd", 4822);
+        registry.connected("guacd", 4822, 100);
+        registry.failed("guacd", 4822);
+        assertTrue(registry.isAvailable("guacd", 4822));
+
+        assertEquals(100, registry.getLatency("guacd", 4822));
+        registry.connected("guacd", 4822, 200);
+        assertEquals(125, registry.getLatency("guacd", 4822));
+
+        registry.shutdown();
+
+    }
+
+}
@@ -0,0 +1,176 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.net;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.io.GuacamoleReader;
+import org.apache.guacamole.io.GuacamoleWriter;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests GuacamoleSocketPool, validating that idle sockets are created,
+ * reused, and discarded as expected.
+ */
+public class GuacamoleSocketPoolTest {
+
+    /**
+     * GuacamoleSocket which performs no I/O, but tracks whether it has been
+     * closed.
+     */
+    private static class TestSocket implements GuacamoleSocket {
+
+        /**
+         * Whether this socket has been closed.
+         */
+        private volatile boolean closed = false;
+
+        @Override
+        public GuacamoleReader getReader() {
+            return null;
+        }
+
+        @Override
+        public GuacamoleWriter getWriter() {
+            return null;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return !closed;
+        }
+
+    }
+
+    /**
+     * GuacamoleSocketPool which creates TestSockets, recording each socket
+     * created.
+     */
+    private static class TestPool extends GuacamoleSocketPool {
+
+        /**
+         * All sockets created by this pool, in order of creation.
+         */
+        private final List<TestSocket> created = new ArrayList<TestSocket>();
+
+        /**
+         * Creates a new TestPool which maintains the given number of idle
+         * sockets for at most the given amount of time.
+         *
+         * @param size
+         *     The number of idle sockets which should be maintained.
+         *
+         * @param maxIdleTime
+         *     The maximum amount of time that a socket may remain idle within
+         *     the pool, in milliseconds.
+         */
+        public TestPool(int size, long maxIdleTime) {
+            super(size, maxIdleTime);
+        }
+
+        /**
+         * Creates a new TestPool which maintains the given number of idle
+         * sockets for the default maximum idle time.
+         *
+         * @param size
+         *     The number of idle sockets which should be maintained.
+         */
+        public TestPool(int size) {
+            this(size, DEFAULT_MAX_IDLE_TIME);
+        }
+
+        @Override
+        protected synchronized GuacamoleSocket createSocket() {
+            TestSocket socket = new TestSocket();
+            created.add(socket);
+            return socket;
+        }
+
+    }
+
+    /**
+     * Test that the pool is filled and that closed idle sockets are replaced.
+     */
+    @Test
+    public void testMaintain() {
+
+        TestPool pool = new TestPool(2);
+
+        // Pool should be filled
+        pool.maintain();
+        assertEquals(2, pool.getIdleCount());
+        assertEquals(2, pool.created.size());
+
+        // Closed sockets should be discarded and replaced
+        pool.created.get(0).close();
+        pool.maintain();
+        assertEquals(2, pool.getIdleCount());
+        assertEquals(3, pool.created.size());
+        assertEquals(1, pool.getEvictedCount());
+
+        // All idle sockets should be closed on shutdown
+        pool.shutdown();
+        assertEquals(0, pool.getIdleCount());
+        for (TestSocket socket : pool.created)
+            assertFalse(socket.isOpen());
+
+    }
+
+    /**
+     * Test that sockets are taken from the pool when available.
+     *
+     * @throws GuacamoleException
+     *     If a socket cannot be retrieved from the pool.
+     */
+    @Test
+    public void testGetSocket() throws GuacamoleException {
+
+        TestPool pool = new TestPool(1);
+        pool.maintain();
+
+        // The idle socket should be used
+        GuacamoleSocket socket = pool.getSocket();
+        assertSame(pool.created.get(0), socket);
+        assertEquals(1, pool.getHitCount());
+        assertEquals(0, pool.getMissCount());
+
+        pool.shutdown();
+
+    }
+
+    /**
+     * Test that the maximum idle time is never allowed to reach the time
+     * that guacd waits for the handshake to begin.
+     */
+    @Test
+    public void testMaxIdleTimeLimit() {
+        assertEquals(5000, new TestPool(1, 5000).getMaxIdleTime());
+        assertEquals(GuacamoleSocketPool.MAX_IDLE_TIME_LIMIT,
+                new TestPool(1, 15000).getMaxIdleTime());
+    }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.protocol;
+
+import java.io.StringWriter;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.io.WriterGuacamoleWriter;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Test which validates coalescing of "mouse" and "touch" instructions with
+ * CoalescingGuacamoleWriter.
+ */
+public class CoalescingGuacamoleWriterTest {
+
+    /**
+     * Test that consecutive position updates are coalesced, while button
+     * state transitions and other instructions are written in order.
+     *
+     * @throws Exception
+     *     If an error occurs while writing the known-good test data.
+     */
+    @Test
+    public void testCoalesce() throws Exception {
+
+        StringWriter stringWriter = new StringWriter();
+        CoalescingGuacamoleWriter writer = new CoalescingGuacamoleWriter(
+                new WriterGuacamoleWriter(stringWriter), 60000, null);
+
+        // Movement with no buttons pressed
+        writer.write("5.mouse,2.10,2.10,1.0;5.mouse,2.11,2.11,1.0;".toCharArray());
+        writer.write("5.mouse,2.12,2.12,1.0;".toCharArray());
+
+        // Button press followed by dragging
+        writer.write("5.mouse,2.13,2.13,1.1;5.mouse,2.14,2.14,1.1;".toCharArray());
+
+        // Touch movement followed by an unrelated instruction
+        writer.write("5.touch,1.0,1.5,1.5,1.1,1.1,1.0,1.1;".toCharArray());
+        writer.write("5.touch,1.0,1.6,1.6,1.1,1.1,1.0,1.1;".toCharArray());
+        writer.write("5.touch,1.0,1.7,1.7,1.1,1.1,1.0,1.1;".toCharArray());
+        writer.write("3.key,5.65307,1.1;".toCharArray());
+
+        // Touch release
+        writer.write("5.touch,1.0,1.7,1.7,1.1,1.1,1.0,1.0;".toCharArray());
+
+        assertEquals(
+                "5.mouse,2.10,2.10,1.0;"
+              + "5.mouse,2.12,2.12,1.0;"
+              + "5.mouse,2.13,2.13,1.1;"
+              + "5.mouse,2.14,2.14,1.1;"
+              + "5.touch,1.0,1.5,1.5,1.1,1.1,1.0,1.1;"
+              + "5.touch,1.0,1.7,1.7,1.1,1.1,1.0,1.1;"
+              + "3.key,5.65307,1.1;"
+              + "5.touch,1.0,1.7,1.7,1.1,1.1,1.0,1.0;",
+                stringWriter.toString());
+
+        assertEquals(2, writer.getCoalescedCount());
+
+    }
+
+    /**
+     * Test that held position updates are written once the window has
+     * elapsed, by way of scheduledFlush(), such that subclasses can acquire
+     * any lock guarding the wrapped writer.
+     *
+     * @throws Exception
+     *     If an error occurs while writing the test data, or if the test is
+     *     interrupted while waiting for held updates to be written.
+     */
+    @Test
+    public void testScheduledFlush() throws Exception {
+
+        final StringWriter stringWriter = new StringWriter();
+        final CountDownLatch flushed = new CountDownLatch(1);
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+        CoalescingGuacamoleWriter writer = new CoalescingGuacamoleWriter(
+                new WriterGuacamoleWriter(stringWriter), 50, executor) {
+
+            @Override
+            protected void scheduledFlush() throws GuacamoleException {
+                super.scheduledFlush();
+                flushed.countDown();
+            }
+
+        };
+
+        try {
+
+            // Second update is held within the window
+            writer.write("5.mouse,2.10,2.10,1.0;5.mouse,2.11,2.11,1.0;".toCharArray());
+            assertEquals("5.mouse,2.10,2.10,1.0;", stringWriter.toString());
+
+            // Held update is written once the window has elapsed
+            assertTrue(flushed.await(10, TimeUnit.SECONDS));
+            assertEquals(
+                    "5.mouse,2.10,2.10,1.0;"
+                  + "5.mouse,2.11,2.11,1.0;",
+                    stringWriter.toString());
+
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+    }
+
+}
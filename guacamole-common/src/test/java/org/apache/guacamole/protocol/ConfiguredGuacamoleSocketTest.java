@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.protocol;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.io.GuacamoleReader;
+import org.apache.guacamole.io.GuacamoleWriter;
+import org.apache.guacamole.io.ReaderGuacamoleReader;
+import org.apache.guacamole.io.WriterGuacamoleWriter;
+import org.apache.guacamole.net.GuacamoleSocket;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests ConfiguredGuacamoleSocket, validating the instructions sent during
+ * the handshake.
+ */
+public class ConfiguredGuacamoleSocketTest {
+
+    /**
+     * The instructions sent by the test server during the handshake.
+     */
+    private static final String SERVER_HANDSHAKE =
+            "4.args,13.VERSION_1_1_0,8.hostname;5.ready,4.$abc;";
+
+    /**
+     * The instructions which should be sent to the test server during the
+     * handshake.
+     */
+    private static final String CLIENT_HANDSHAKE =
+            "6.select,3.vnc;"
+          + "4.size,4.1024,3.768,2.96;"
+          + "5.audio;5.video;5.image;"
+          + "7.connect,13.VERSION_1_1_0,9.localhost;";
+
+    /**
+     * GuacamoleSocket which reads from a fixed string and records all data
+     * written, including the data written prior to each read.
+     */
+    private static class TestSocket implements GuacamoleSocket {
+
+        /**
+         * All data written to this socket.
+         */
+        private final StringWriter written = new StringWriter();
+
+        /**
+         * The data which had been written to this socket at the time of each
+         * read.
+         */
+        private final List<String> writtenBeforeRead = new ArrayList<String>();
+
+        /**
+         * The reader providing the test server's instructions.
+         */
+        private final GuacamoleReader source =
+                new ReaderGuacamoleReader(new StringReader(SERVER_HANDSHAKE));
+
+        /**
+         * Reader which records the data written prior to each read.
+         */
+        private final GuacamoleReader reader = new GuacamoleReader() {
+
+            @Override
+            public boolean available() throws GuacamoleException {
+                return source.available();
+            }
+
+            @Override
+            public char[] read() throws GuacamoleException {
+                writtenBeforeRead.add(written.toString());
+                return source.read();
+            }
+
+            @Override
+            public GuacamoleInstruction readInstruction() throws GuacamoleException {
+                writtenBeforeRead.add(written.toString());
+                return source.readInstruction();
+            }
+
+        };
+
+        /**
+         * Writer which writes to the written buffer.
+         */
+        private final GuacamoleWriter writer = new WriterGuacamoleWriter(written);
+
+        @Override
+        public GuacamoleReader getReader() {
+            return reader;
+        }
+
+        @Override
+        public GuacamoleWriter getWriter() {
+            return writer;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+    }
+
+    /**
+     * Test that only "select" is sent before "args" is received, and that
+     * all remaining instructions are sent together once "args" is received.
+     *
+     * @throws GuacamoleException
+     *     If the handshake fails.
+     */
+    @Test
+    public void testHandshake() throws GuacamoleException {
+
+        GuacamoleConfiguration config = new GuacamoleConfiguration();
+        config.setProtocol("vnc");
+        config.setParameter("hostname", "localhost");
+
+        TestSocket socket = new TestSocket();
+        ConfiguredGuacamoleSocket configured = new ConfiguredGuacamoleSocket(
+                socket, config, new GuacamoleClientInformation());
+
+        assertEquals("$abc", configured.getConnectionID());
+        assertEquals(GuacamoleProtocolVersion.VERSION_1_1_0, configured.getProtocolVersion());
+        assertEquals(CLIENT_HANDSHAKE, socket.written.toString());
+
+        // Only "select" may precede "args"
+        assertEquals("6.select,3.vnc;", socket.writtenBeforeRead.get(0));
+
+    }
+
+}
@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.guacamole.protocol;
+
+import java.io.StringReader;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleUpstreamNotFoundException;
+import org.apache.guacamole.io.GuacamoleReader;
+import org.apache.guacamole.io.GuacamoleWriter;
+import org.apache.guacamole.io.ReaderGuacamoleReader;
+import org.apache.guacamole.net.GuacamoleSocket;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests FailoverGuacamoleSocket, validating that upstream errors are detected
+ * and that all buffered instruction data is replayed exactly as received.
+ */
+public class FailoverGuacamoleSocketTest {
+
+    /**
+     * GuacamoleSocket which reads from a fixed string.
+     */
+    private static class TestSocket implements GuacamoleSocket {
+
+        /**
+         * The reader providing the fixed string.
+         */
+        private final GuacamoleReader reader;
+
+        /**
+         * Creates a new TestSocket which reads the given instruction data.
+         *
+         * @param data
+         *     The instruction data to read.
+         */
+        public TestSocket(String data) {
+            reader = new ReaderGuacamoleReader(new StringReader(data));
+        }
+
+        @Override
+        public GuacamoleReader getReader() {
+            return reader;
+        }
+
+        @Override
+        public GuacamoleWriter getWriter() {
+            return null;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+    }
+
+    /**
+     * Instruction data preceding the first "sync" instruction, including
+     * multi-byte characters.
+     */
+    private static final String INITIAL_DATA =
+            "4.name,4.\u00e9t\u00e9!;4.size,1.0,4.1024,3.768;4.sync,4.1234;";
+
+    /**
+     * Instruction data following the first "sync" instruction.
+     */
+    private static final String LATER_DATA = "4.sync,4.5678;";
+
+    /**
+     * Verifies that instruction data read while searching for errors is
+     * replayed via read() exactly as received, followed by any further data.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while reading instructions.
+     */
+    @Test
+    public void testRead() throws GuacamoleException {
+
+        FailoverGuacamoleSocket socket = new FailoverGuacamoleSocket(
+                new TestSocket(INITIAL_DATA + LATER_DATA));
+
+        GuacamoleReader reader = socket.getReader();
+
+        StringBuilder data = new StringBuilder();
+        char[] chunk;
+        while ((chunk = reader.read()) != null)
+            data.append(chunk);
+
+        assertEquals(INITIAL_DATA + LATER_DATA, data.toString());
+
+    }
+
+    /**
+     * Verifies that instructions read while searching for errors are
+     * replayed via readInstruction() in order, followed by any further
+     * instructions.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while reading instructions.
+     */
+    @Test
+    public void testReadInstruction() throws GuacamoleException {
+
+        FailoverGuacamoleSocket socket = new FailoverGuacamoleSocket(
+                new TestSocket(INITIAL_DATA + LATER_DATA));
+
+        GuacamoleReader reader = socket.getReader();
+
+        GuacamoleInstruction instruction = reader.readInstruction();
+        assertEquals("name", instruction.getOpcode());
+        assertEquals("\u00e9t\u00e9!", instruction.getArgs().get(0));
+
+        assertEquals("size", reader.readInstruction().getOpcode());
+        assertEquals("1234", reader.readInstruction().getArgs().get(0));
+        assertEquals("5678", reader.readInstruction().getArgs().get(0));
+        assertNull(reader.readInstruction());
+
+    }
+
+    /**
+     * Verifies that upstream errors received before the first "sync"
+     * instruction are thrown as the corresponding exceptions.
+     *
+     * @throws GuacamoleException
+     *     If an unexpected error occurs while reading instructions.
+     */
+    @Test(expected = GuacamoleUpstreamNotFoundException.class)
+    public void testUpstreamError() throws GuacamoleException {
+        new FailoverGuacamoleSocket(new TestSocket(
+                "4.name,4.test;5.error,9.Not found,3.519;"));
+    }
+
+}
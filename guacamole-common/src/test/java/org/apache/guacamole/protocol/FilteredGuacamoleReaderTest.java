@@ -20,6 +20,9 @@
 package org.apache.guacamole.protocol;
 
 import java.io.StringReader;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.io.GuacamoleReader;
 import org.apache.guacamole.io.ReaderGuacamoleReader;
@@ -48,6 +51,73 @@ public class FilteredGuacamoleReaderTest {
         }
 
     }
+
+    /**
+     * Filter which drops "no" instructions, replaces "change" instructions,
+     * and declares that it affects only those instructions. Other
+     * instructions are explicitly denied if they reach the filter. The
+     * filter is active only while the "active" flag is set.
+     */
+    private static class TestSelectiveFilter implements SelectiveGuacamoleFilter {
+
+        /**
+         * Whether the filter is currently active.
+         */
+        private boolean active = true;
+
+        @Override
+        public GuacamoleInstruction filter(GuacamoleInstruction instruction) throws GuacamoleException {
+
+            // Instructions having undeclared opcodes should never be filtered
+            if (!getFilteredOpcodes().contains(instruction.getOpcode()))
+                throw new GuacamoleException("Undeclared opcode filtered.");
+
+            // Replace "change" instructions
+            if (instruction.getOpcode().equals("change"))
+                return new GuacamoleInstruction("changed", instruction.getArgs());
+
+            // Drop "no" instructions
+            return null;
+
+        }
+
+        @Override
+        public Set<String> getFilteredOpcodes() {
+            return new HashSet<String>(Arrays.asList("no", "change"));
+        }
+
+        @Override
+        public boolean isActive() {
+            return active;
+        }
+
+    }
+
+    @Test
+    public void testSelectiveFilter() throws Exception {
+
+        // Test string
+        final String test = "3.yes,1.A;2.no,1.B;6.change,1.C;3.yes,1.D;2.no,1.E;6.change,1.F;";
+
+        TestSelectiveFilter filter = new TestSelectiveFilter();
+        GuacamoleReader reader = new FilteredGuacamoleReader(new ReaderGuacamoleReader(new StringReader(test)),
+                                                             filter);
+
+        // Unaffected instructions pass through, affected instructions are
+        // filtered
+        assertEquals("3.yes,1.A;", new String(reader.read()));
+        assertEquals("7.changed,1.C;", new String(reader.read()));
+        assertEquals("3.yes,1.D;", new String(reader.read()));
+
+        // Nothing is filtered while inactive
+        filter.active = false;
+        assertEquals("2.no,1.E;", new String(reader.read()));
+        assertEquals("6.change,1.F;", new String(reader.read()));
+
+        // Should be done now
+        assertNull(reader.read());
+
+    }
     
     @Test
     public void testFilter() throws Exception {
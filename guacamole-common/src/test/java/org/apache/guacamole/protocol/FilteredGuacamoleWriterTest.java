@@ -64,5 +64,32 @@ public class FilteredGuacamoleWriterTest {
         assertEquals("3.yes,1.A;3.yes,1.C;3.yes,1.D;3.yes,5.hello;3.yes,5.world;", stringWriter.toString());
 
     }
+
+    /**
+     * Test that instructions split across writes are written once complete,
+     * if partial instructions are allowed.
+     *
+     * @throws Exception
+     *     If an error occurs while writing the known-good test data.
+     */
+    @Test
+    public void testPartial() throws Exception {
+
+        StringWriter stringWriter = new StringWriter();
+        GuacamoleWriter writer = new FilteredGuacamoleWriter(new WriterGuacamoleWriter(stringWriter),
+                                                             new TestFilter(), true);
+
+        // Write instructions split at arbitrary points
+        writer.write("3.yes,1.A;3.y".toCharArray());
+        assertEquals("3.yes,1.A;", stringWriter.toString());
+
+        writer.write("es,5.hel".toCharArray());
+        writer.write("lo;2.no,1.B;3.yes".toCharArray());
+        writer.write(",5.world;".toCharArray());
+
+        // Validate filtered results
+        assertEquals("3.yes,1.A;3.yes,5.hello;3.yes,5.world;", stringWriter.toString());
+
+    }
     
 }
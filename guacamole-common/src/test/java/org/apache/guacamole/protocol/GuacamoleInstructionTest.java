@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.guacamole.protocol;
+
+import java.util.List;
+import org.apache.guacamole.GuacamoleException;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Unit test for GuacamoleInstruction. Verifies that instructions created from
+ * raw Guacamole protocol data are decoded correctly.
+ */
+public class GuacamoleInstructionTest {
+
+    /**
+     * Test of creating a GuacamoleInstruction from a range of raw protocol
+     * data.
+     *
+     * @throws GuacamoleException If a parse error occurs while parsing the
+     *                            known-good test string.
+     */
+    @Test
+    public void testRawInstruction() throws GuacamoleException {
+
+        // Test instruction surrounded by unrelated data
+        char buffer[] = "junk4.test,2.bc,0.,10.helloworld;junk".toCharArray();
+
+        GuacamoleInstruction instruction = new GuacamoleInstruction(buffer, 4, 29);
+
+        // Clobber original buffer (instruction must not depend on it)
+        for (int i = 0; i < buffer.length; i++)
+            buffer[i] = 'X';
+
+        assertEquals("test", instruction.getOpcode());
+
+        List<String> args = instruction.getArgs();
+        assertEquals(3, args.size());
+        assertEquals("bc", args.get(0));
+        assertEquals("", args.get(1));
+        assertEquals("helloworld", args.get(2));
+
+        // Protocol form must be the original data
+        assertEquals("4.test,2.bc,0.,10.helloworld;", instruction.toString());
+
+    }
+
+    /**
+     * Test that the raw protocol data of each argument can be located without
+     * decoding, and is unavailable for instructions not created from raw
+     * protocol data.
+     *
+     * @throws GuacamoleException If a parse error occurs while parsing the
+     *                            known-good test string.
+     */
+    @Test
+    public void testRawArguments() throws GuacamoleException {
+
+        char buffer[] = "junk4.blob,1.0,8.AAECAw==;".toCharArray();
+        GuacamoleInstruction instruction = new GuacamoleInstruction(buffer, 4, 22);
+
+        char[] data = instruction.getRawData();
+        assertNotNull(data);
+        assertEquals("0", new String(data, instruction.getArgOffset(0),
+                instruction.getArgLength(0)));
+        assertEquals("AAECAw==", new String(data, instruction.getArgOffset(1),
+                instruction.getArgLength(1)));
+
+        try {
+            instruction.getArgOffset(2);
+            fail("Offset of nonexistent argument returned.");
+        }
+        catch (IndexOutOfBoundsException e) {
+            // Expected
+        }
+
+        // Constructed instructions have no raw data
+        GuacamoleInstruction constructed = new GuacamoleInstruction("blob", "0", "AAECAw==");
+        assertNull(constructed.getRawData());
+        try {
+            constructed.getArgLength(1);
+            fail("Length of argument without raw data returned.");
+        }
+        catch (IllegalStateException e) {
+            // Expected
+        }
+
+    }
+
+    /**
+     * Test that creating a GuacamoleInstruction from raw protocol data which
+     * is not exactly one complete instruction fails.
+     */
+    @Test
+    public void testInvalidRawInstruction() {
+
+        String[] invalid = {
+            "4.test,2.bc",
+            "4.test,2.bc;3.foo;",
+            "4.test,2x.bc;",
+            "4.test,2.bcd;",
+            "10.test;",
+            "99999.test;",
+            "4294967300.test;",
+            "2147483648.test,1.a;"
+        };
+
+        for (String data : invalid) {
+            try {
+                char[] buffer = data.toCharArray();
+                new GuacamoleInstruction(buffer, 0, buffer.length);
+                fail("Invalid instruction accepted: " + data);
+            }
+            catch (GuacamoleException e) {
+                // Expected
+            }
+        }
+
+    }
+
+}
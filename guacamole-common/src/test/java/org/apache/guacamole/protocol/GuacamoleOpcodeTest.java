@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.guacamole.protocol;
+
+import org.apache.guacamole.GuacamoleException;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Unit test for GuacamoleOpcode. Verifies that known opcodes are resolved
+ * correctly from both Strings and ranges of raw protocol data.
+ */
+public class GuacamoleOpcodeTest {
+
+    /**
+     * Test of resolving every known opcode from its value, both as a String
+     * and as a range of characters.
+     */
+    @Test
+    public void testKnownOpcodes() {
+
+        for (GuacamoleOpcode opcode : GuacamoleOpcode.values()) {
+
+            String value = opcode.getValue();
+            char[] buffer = ("4.test," + value + ";").toCharArray();
+
+            assertSame(opcode, GuacamoleOpcode.fromValue(value));
+            assertSame(opcode, GuacamoleOpcode.fromChars(buffer, 7, value.length()));
+
+        }
+
+    }
+
+    /**
+     * Test that opcodes which are not part of the Guacamole protocol are not
+     * resolved.
+     */
+    @Test
+    public void testUnknownOpcodes() {
+
+        char[] buffer = "syncs,blo,,verylongopcode".toCharArray();
+
+        assertNull(GuacamoleOpcode.fromValue("syncs"));
+        assertNull(GuacamoleOpcode.fromChars(buffer, 0, 5));
+        assertNull(GuacamoleOpcode.fromChars(buffer, 6, 3));
+        assertNull(GuacamoleOpcode.fromChars(buffer, 10, 0));
+        assertNull(GuacamoleOpcode.fromChars(buffer, 11, 14));
+
+    }
+
+    /**
+     * Test that parsed instructions resolve their known opcodes, reusing the
+     * String value of the opcode.
+     *
+     * @throws GuacamoleException If a parse error occurs while parsing the
+     *                            known-good test string.
+     */
+    @Test
+    public void testParsedOpcodes() throws GuacamoleException {
+
+        char[] buffer = "4.blob,1.0,0.;".toCharArray();
+
+        // Parse entire buffer
+        GuacamoleParser parser = new GuacamoleParser();
+        int offset = 0;
+        int parsed;
+        while (offset < buffer.length
+                && (parsed = parser.append(buffer, offset, buffer.length - offset)) != 0)
+            offset += parsed;
+
+        assertTrue(parser.hasNext());
+
+        GuacamoleInstruction instruction = parser.next();
+        assertSame(GuacamoleOpcode.BLOB.getValue(), instruction.getOpcode());
+        assertSame(GuacamoleOpcode.BLOB, instruction.getKnownOpcode());
+
+        GuacamoleInstruction raw = new GuacamoleInstruction(buffer, 0, buffer.length);
+        assertSame(GuacamoleOpcode.BLOB.getValue(), raw.getOpcode());
+        assertSame(GuacamoleOpcode.BLOB, raw.getKnownOpcode());
+
+        assertNull(new GuacamoleInstruction("unknown").getKnownOpcode());
+
+    }
+
+}
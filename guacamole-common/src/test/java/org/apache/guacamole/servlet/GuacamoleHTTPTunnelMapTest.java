@@ -0,0 +1,197 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.servlet;
+
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.io.GuacamoleReader;
+import org.apache.guacamole.io.GuacamoleWriter;
+import org.apache.guacamole.net.GuacamoleSocket;
+import org.apache.guacamole.net.GuacamoleTunnel;
+import org.apache.guacamole.net.SimpleGuacamoleTunnel;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests GuacamoleHTTPTunnelMap, validating that tunnels expire only once they
+ * have not been accessed within the timeout.
+ */
+public class GuacamoleHTTPTunnelMapTest {
+
+    /**
+     * The tunnel timeout used by each test, in milliseconds.
+     */
+    private static final long TIMEOUT = 15000;
+
+    /**
+     * The tick interval used by each test, in milliseconds.
+     */
+    private static final long TICK = 1000;
+
+    /**
+     * The time at which each test starts, in milliseconds since midnight
+     * January 1, 1970 GMT.
+     */
+    private static final long START = 1500000000000l;
+
+    /**
+     * GuacamoleSocket which does nothing other than track whether it has
+     * been closed.
+     */
+    private static class TestSocket implements GuacamoleSocket {
+
+        /**
+         * Whether this socket has been closed.
+         */
+        private boolean open = true;
+
+        @Override
+        public GuacamoleReader getReader() {
+            return null;
+        }
+
+        @Override
+        public GuacamoleWriter getWriter() {
+            return null;
+        }
+
+        @Override
+        public void close() throws GuacamoleException {
+            open = false;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+    }
+
+    /**
+     * GuacamoleHTTPTunnelMap whose current time is set manually rather than
+     * read from the system clock, and whose timer wheel is advanced only
+     * through calls to tick().
+     */
+    private static class TestTunnelMap extends GuacamoleHTTPTunnelMap {
+
+        /**
+         * The current time, in milliseconds.
+         */
+        private long now = START;
+
+        /**
+         * Creates a new TestTunnelMap having the given timeout and tick
+         * interval.
+         *
+         * @param tunnelTimeout
+         *     The maximum amount of time to allow between tunnel accesses,
+         *     in milliseconds.
+         *
+         * @param tickInterval
+         *     The number of milliseconds between each tick of the timer
+         *     wheel.
+         */
+        public TestTunnelMap(long tunnelTimeout, long tickInterval) {
+            super(tunnelTimeout, tickInterval, null);
+        }
+
+        @Override
+        long currentTimeMillis() {
+            return now;
+        }
+
+        /**
+         * Sets the current time to the given value and advances the timer
+         * wheel to that time.
+         *
+         * @param time
+         *     The new current time, in milliseconds.
+         */
+        public void advanceTo(long time) {
+            now = time;
+            tick(time);
+        }
+
+    }
+
+    /**
+     * Verifies that an unused tunnel is removed and closed once the timeout
+     * has elapsed, and not before.
+     */
+    @Test
+    public void testExpiry() {
+
+        TestTunnelMap map = new TestTunnelMap(TIMEOUT, TICK);
+
+        GuacamoleTunnel tunnel = new SimpleGuacamoleTunnel(new TestSocket());
+        String uuid = tunnel.getUUID().toString();
+        map.put(uuid, tunnel);
+        assertEquals(1, map.size());
+
+        // Tunnel must survive until timeout
+        map.advanceTo(START + TIMEOUT - TICK);
+        assertEquals(1, map.size());
+        assertTrue(tunnel.isOpen());
+
+        // Tunnel must be removed and closed after timeout
+        map.advanceTo(START + TIMEOUT + TICK);
+        assertEquals(0, map.size());
+        assertFalse(tunnel.isOpen());
+        assertEquals(1, map.getExpiredCount());
+
+    }
+
+    /**
+     * Verifies that accessing a tunnel postpones its expiry, and that
+     * tunnels which have been removed are ignored.
+     */
+    @Test
+    public void testAccess() {
+
+        TestTunnelMap map = new TestTunnelMap(TIMEOUT, TICK);
+
+        GuacamoleTunnel accessed = new SimpleGuacamoleTunnel(new TestSocket());
+        GuacamoleTunnel removed = new SimpleGuacamoleTunnel(new TestSocket());
+        map.put(accessed.getUUID().toString(), accessed);
+        map.put(removed.getUUID().toString(), removed);
+
+        // Removed tunnels are not closed by the map
+        assertNotNull(map.remove(removed.getUUID().toString()));
+
+        // Access tunnel partway through the timeout
+        long accessTime = START + TIMEOUT / 2;
+        map.advanceTo(accessTime);
+        assertNotNull(map.get(accessed.getUUID().toString()));
+
+        // Accessed tunnel must survive past the original timeout
+        map.advanceTo(START + TIMEOUT + TICK);
+        assertEquals(1, map.size());
+        assertTrue(accessed.isOpen());
+        assertTrue(removed.isOpen());
+        assertEquals(0, map.getExpiredCount());
+
+        // Tunnel must expire once the timeout elapses after its last access
+        map.advanceTo(accessTime + TIMEOUT + TICK);
+        assertEquals(0, map.size());
+        assertFalse(accessed.isOpen());
+        assertEquals(1, map.getExpiredCount());
+
+    }
+
+}
@@ -26,6 +26,7 @@ import org.apache.guacamole.net.auth.GuacamoleProxyConfiguration;
 import org.apache.guacamole.properties.BooleanGuacamoleProperty;
 import org.apache.guacamole.properties.GuacamoleProperty;
 import org.apache.guacamole.properties.IntegerGuacamoleProperty;
+import org.apache.guacamole.properties.LongGuacamoleProperty;
 import org.apache.guacamole.properties.StringGuacamoleProperty;
 import org.apache.guacamole.protocols.ProtocolInfo;
 
@@ -66,6 +67,56 @@ public interface Environment {
 
     };
 
+    /**
+     * The number of connected, idle sockets to guacd which should be kept
+     * ready ahead of demand. Zero, the default, disables pooling.
+     */
+    public static final IntegerGuacamoleProperty GUACD_POOL_SIZE = new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "guacd-pool-size"; }
+
+    };
+
+    /**
+     * The maximum amount of time, in milliseconds, that an idle socket to
+     * guacd may be kept ready before being replaced. Values of 12000 or
+     * more are reduced to 12000, as this must be less than the 15 seconds
+     * that guacd waits for the handshake to begin.
+     */
+    public static final LongGuacamoleProperty GUACD_POOL_MAX_IDLE = new LongGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "guacd-pool-max-idle"; }
+
+    };
+
+    /**
+     * A comma-separated list of interchangeable guacd instances, each of the
+     * form "HOSTNAME", "HOSTNAME:PORT", or "HOSTNAME:PORT/WEIGHT". If
+     * specified, each connection which does not explicitly specify its own
+     * guacd is assigned to one of these instances, and the "guacd-hostname"
+     * and "guacd-port" properties are ignored.
+     */
+    public static final StringGuacamoleProperty GUACD_HOSTS = new StringGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "guacd-hosts"; }
+
+    };
+
+    /**
+     * The strategy used to assign connections to the guacd instances listed
+     * by the "guacd-hosts" property: "least-active" (the default),
+     * "weighted", or "consistent-hash".
+     */
+    public static final StringGuacamoleProperty GUACD_HOSTS_SELECTION = new StringGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "guacd-hosts-selection"; }
+
+    };
+
     /**
      * Returns the Guacamole home directory as determined when this Environment
      * object was created. The Guacamole home directory is found by checking, in
@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.io;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe counters describing the effect of compression on data sent
+ * to clients. A single CompressionStatistics may be shared by any number of
+ * compressing streams, thus providing totals across all tunnels.
+ */
+public class CompressionStatistics {
+
+    /**
+     * The total number of bytes provided for compression.
+     */
+    private final AtomicLong uncompressedLength = new AtomicLong();
+
+    /**
+     * The total number of bytes produced by compression.
+     */
+    private final AtomicLong compressedLength = new AtomicLong();
+
+    /**
+     * Records that the given number of bytes were compressed, producing the
+     * given number of bytes of output.
+     *
+     * @param uncompressed
+     *     The number of bytes provided for compression.
+     *
+     * @param compressed
+     *     The number of bytes produced by compression.
+     */
+    public void record(long uncompressed, long compressed) {
+        uncompressedLength.addAndGet(uncompressed);
+        compressedLength.addAndGet(compressed);
+    }
+
+    /**
+     * Returns the total number of bytes provided for compression.
+     *
+     * @return
+     *     The total number of bytes provided for compression.
+     */
+    public long getUncompressedLength() {
+        return uncompressedLength.get();
+    }
+
+    /**
+     * Returns the total number of bytes produced by compression.
+     *
+     * @return
+     *     The total number of bytes produced by compression.
+     */
+    public long getCompressedLength() {
+        return compressedLength.get();
+    }
+
+    /**
+     * Returns the ratio of the number of bytes provided for compression to
+     * the number of bytes produced. A ratio of 4.0, for example, indicates
+     * that compressed data was a quarter the size of the original data. If
+     * nothing has yet been compressed, this will be 1.0.
+     *
+     * @return
+     *     The compression ratio achieved thus far.
+     */
+    public double getRatio() {
+
+        long compressed = getCompressedLength();
+        if (compressed == 0)
+            return 1.0;
+
+        return (double) getUncompressedLength() / compressed;
+
+    }
+
+}
@@ -0,0 +1,296 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.io;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * OutputStream which compresses all data written using deflate with zlib
+ * framing (the "deflate" HTTP content coding), performing a sync flush each
+ * time the stream is flushed such that the recipient can decompress all data
+ * written thus far without waiting for the stream to end. All data written
+ * between flushes is buffered, and is stored without compression if shorter
+ * than a given threshold, as compressing small amounts of data rarely
+ * justifies the processing required.
+ */
+public class DeflatingOutputStream extends FilterOutputStream {
+
+    /**
+     * The default minimum number of bytes which must be written between
+     * flushes for those bytes to be compressed.
+     */
+    public static final int DEFAULT_THRESHOLD = 128;
+
+    /**
+     * The initial size of the buffer of data written between flushes, in
+     * bytes. The buffer grows as needed.
+     */
+    private static final int INITIAL_BUFFER_SIZE = 8192;
+
+    /**
+     * The size of the buffer receiving compressed data, in bytes.
+     */
+    private static final int OUTPUT_BUFFER_SIZE = 8192;
+
+    /**
+     * The Deflater performing compression.
+     */
+    private final Deflater deflater;
+
+    /**
+     * The compression level to use for data which meets the threshold.
+     */
+    private final int level;
+
+    /**
+     * The minimum number of bytes which must be written between flushes for
+     * those bytes to be compressed.
+     */
+    private final int threshold;
+
+    /**
+     * The statistics to update with the effect of compression, or null if
+     * no statistics should be kept.
+     */
+    private final CompressionStatistics statistics;
+
+    /**
+     * The compression level currently set on the Deflater.
+     */
+    private int currentLevel;
+
+    /**
+     * Data written since the last flush.
+     */
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+
+    /**
+     * The number of bytes of data within the buffer.
+     */
+    private int length = 0;
+
+    /**
+     * Buffer receiving compressed data from the Deflater.
+     */
+    private final byte[] output = new byte[OUTPUT_BUFFER_SIZE];
+
+    /**
+     * The total number of bytes compressed by this stream.
+     */
+    private long uncompressedLength = 0;
+
+    /**
+     * The total number of bytes produced by compression within this stream.
+     */
+    private long compressedLength = 0;
+
+    /**
+     * Whether this stream has been closed.
+     */
+    private boolean closed = false;
+
+    /**
+     * Creates a new DeflatingOutputStream which writes compressed data to
+     * the given stream.
+     *
+     * @param out
+     *     The stream to write compressed data to.
+     *
+     * @param level
+     *     The compression level to use, from Deflater.BEST_SPEED (1) to
+     *     Deflater.BEST_COMPRESSION (9), or Deflater.DEFAULT_COMPRESSION.
+     *
+     * @param threshold
+     *     The minimum number of bytes which must be written between flushes
+     *     for those bytes to be compressed.
+     *
+     * @param statistics
+     *     The statistics to update with the effect of compression, or null
+     *     if no statistics should be kept.
+     */
+    public DeflatingOutputStream(OutputStream out, int level, int threshold,
+            CompressionStatistics statistics) {
+        super(out);
+        this.deflater = new Deflater(level);
+        this.level = level;
+        this.currentLevel = level;
+        this.threshold = threshold;
+        this.statistics = statistics;
+    }
+
+    /**
+     * Creates a new DeflatingOutputStream which writes compressed data to
+     * the given stream using the default compression level and threshold,
+     * without keeping statistics.
+     *
+     * @param out
+     *     The stream to write compressed data to.
+     */
+    public DeflatingOutputStream(OutputStream out) {
+        this(out, Deflater.DEFAULT_COMPRESSION, DEFAULT_THRESHOLD, null);
+    }
+
+    /**
+     * Throws an IOException if this stream has been closed.
+     *
+     * @throws IOException
+     *     If this stream has been closed.
+     */
+    private void ensureOpen() throws IOException {
+        if (closed)
+            throw new IOException("Stream closed.");
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int count) throws IOException {
+
+        ensureOpen();
+
+        // Grow buffer as necessary
+        if (length + count > buffer.length) {
+            byte[] grown = new byte[Math.max(buffer.length * 2, length + count)];
+            System.arraycopy(buffer, 0, grown, 0, length);
+            buffer = grown;
+        }
+
+        // Buffer data until flush
+        System.arraycopy(data, offset, buffer, length, count);
+        length += count;
+
+    }
+
+    /**
+     * Compresses all buffered data, writing the compressed result to the
+     * underlying stream.
+     *
+     * @param finish
+     *     true if the compressed stream should be ended after the buffered
+     *     data, false if a sync flush should be performed instead.
+     *
+     * @throws IOException
+     *     If an error occurs while writing to the underlying stream.
+     */
+    private void deflate(boolean finish) throws IOException {
+
+        // Store small amounts of data without compression
+        int requiredLevel = length >= threshold ? level : Deflater.NO_COMPRESSION;
+        if (requiredLevel != currentLevel) {
+            deflater.setLevel(requiredLevel);
+            currentLevel = requiredLevel;
+        }
+
+        deflater.setInput(buffer, 0, length);
+        if (finish)
+            deflater.finish();
+
+        // Write all output, continuing until all input is consumed and the
+        // output buffer is no longer being filled (the flush has completed),
+        // or until the end of the stream if finishing
+        long compressed = 0;
+        int count;
+        do {
+
+            if (finish)
+                count = deflater.deflate(output);
+            else
+                count = deflater.deflate(output, 0, output.length, Deflater.SYNC_FLUSH);
+
+            out.write(output, 0, count);
+            compressed += count;
+
+        } while (finish ? !deflater.finished()
+                : count == output.length || !deflater.needsInput());
+
+        // Update statistics
+        uncompressedLength += length;
+        compressedLength += compressed;
+        if (statistics != null)
+            statistics.record(length, compressed);
+
+        length = 0;
+
+    }
+
+    /**
+     * Returns the total number of bytes compressed by this stream. Data
+     * written but not yet flushed is not included.
+     *
+     * @return
+     *     The total number of bytes compressed by this stream.
+     */
+    public long getUncompressedLength() {
+        return uncompressedLength;
+    }
+
+    /**
+     * Returns the total number of bytes produced by compression within this
+     * stream and written to the underlying stream.
+     *
+     * @return
+     *     The total number of bytes produced by compression.
+     */
+    public long getCompressedLength() {
+        return compressedLength;
+    }
+
+    @Override
+    public void flush() throws IOException {
+
+        ensureOpen();
+
+        // Compress and send all buffered data
+        if (length > 0)
+            deflate(false);
+
+        out.flush();
+
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        if (closed)
+            return;
+
+        closed = true;
+
+        // End the compressed stream, sending all buffered data
+        try {
+            deflate(true);
+            out.flush();
+        }
+
+        // Always release resources
+        finally {
+            deflater.end();
+            out.close();
+        }
+
+    }
+
+}
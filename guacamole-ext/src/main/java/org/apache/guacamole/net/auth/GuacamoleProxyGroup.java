@@ -0,0 +1,580 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.guacamole.net.auth;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
+import org.apache.guacamole.environment.Environment;
+import org.apache.guacamole.io.GuacamoleReader;
+import org.apache.guacamole.io.GuacamoleWriter;
+import org.apache.guacamole.net.GuacamoleEndpointRegistry;
+import org.apache.guacamole.net.GuacamoleSocket;
+import org.apache.guacamole.net.auth.GuacamoleProxyConfiguration.EncryptionMethod;
+
+/**
+ * A group of interchangeable guacd instances, any of which may be used to
+ * establish a connection. Each new connection is assigned to a single guacd
+ * within the group according to the group's selection strategy, skipping
+ * any guacd which is currently known to be unreachable. This allows the
+ * guacd tier to be scaled independently of the connections defined.
+ */
+public class GuacamoleProxyGroup {
+
+    /**
+     * The port assumed for any guacd whose port is not specified.
+     */
+    public static final int DEFAULT_PORT = 4822;
+
+    /**
+     * The number of points on the hash ring used by the CONSISTENT_HASH
+     * strategy for each unit of weight of a guacd.
+     */
+    private static final int HASH_POINTS = 100;
+
+    /**
+     * All strategies which may be used to select a guacd from a group.
+     */
+    public enum SelectionStrategy {
+
+        /**
+         * The guacd with the fewest active connections relative to its weight
+         * is selected.
+         */
+        LEAST_ACTIVE,
+
+        /**
+         * Connections are distributed across all guacd in proportion to
+         * their weights.
+         */
+        WEIGHTED,
+
+        /**
+         * Connections having the same key (typically the username of the
+         * user connecting) are consistently assigned to the same guacd, with
+         * the load of each guacd proportional to its weight. If no key is
+         * available, LEAST_ACTIVE is used instead.
+         */
+        CONSISTENT_HASH
+
+    }
+
+    /**
+     * A single guacd within the group.
+     */
+    private static class Member {
+
+        /**
+         * The configuration describing how to connect to this guacd.
+         */
+        private final GuacamoleProxyConfiguration config;
+
+        /**
+         * The relative share of connections which should be assigned to this
+         * guacd.
+         */
+        private final int weight;
+
+        /**
+         * The number of active connections assigned to this guacd.
+         */
+        private int active = 0;
+
+        /**
+         * The current weight of this guacd within the smooth weighted
+         * round-robin used by the WEIGHTED strategy.
+         */
+        private int currentWeight = 0;
+
+        /**
+         * Creates a new Member representing the guacd described by the given
+         * configuration.
+         *
+         * @param config
+         *     The configuration describing how to connect to the guacd.
+         *
+         * @param weight
+         *     The relative share of connections which should be assigned to
+         *     the guacd.
+         */
+        public Member(GuacamoleProxyConfiguration config, int weight) {
+            this.config = config;
+            this.weight = weight;
+        }
+
+        /**
+         * Returns whether the guacd represented by this Member is not known
+         * to be unreachable.
+         *
+         * @return
+         *     true if connections to this guacd may be attempted, false if
+         *     this guacd has recently and repeatedly failed.
+         */
+        public boolean isAvailable() {
+            return GuacamoleEndpointRegistry.getDefault().isAvailable(
+                    config.getHostname(), config.getPort());
+        }
+
+    }
+
+    /**
+     * The strategy used to select a guacd for each new connection.
+     */
+    private final SelectionStrategy strategy;
+
+    /**
+     * All guacd within this group, in the order they were added.
+     */
+    private final List<Member> members = new ArrayList<Member>();
+
+    /**
+     * The hash ring used by the CONSISTENT_HASH strategy, mapping points on
+     * the ring to the guacd owning the portion of the ring preceding each
+     * point.
+     */
+    private final SortedMap<Integer, Member> ring = new TreeMap<Integer, Member>();
+
+    /**
+     * Creates a new, empty GuacamoleProxyGroup which selects guacd using the
+     * given strategy.
+     *
+     * @param strategy
+     *     The strategy to use to select a guacd for each new connection.
+     */
+    public GuacamoleProxyGroup(SelectionStrategy strategy) {
+        this.strategy = strategy;
+    }
+
+    /**
+     * Parses the given comma-separated list of guacd, each of the form
+     * "HOSTNAME", "HOSTNAME:PORT", or "HOSTNAME:PORT/WEIGHT", returning a new
+     * GuacamoleProxyGroup containing those guacd. If omitted, the port is
+     * 4822 and the weight is 1.
+     *
+     * @param value
+     *     The comma-separated list of guacd to parse.
+     *
+     * @param strategy
+     *     The strategy to use to select a guacd for each new connection.
+     *
+     * @param encryptionMethod
+     *     The type of encryption required by all guacd within the group.
+     *
+     * @return
+     *     A new GuacamoleProxyGroup containing all guacd within the list.
+     *
+     * @throws GuacamoleException
+     *     If the list does not contain any guacd, or any guacd within the
+     *     list is not in the expected format.
+     */
+    public static GuacamoleProxyGroup parse(String value,
+            SelectionStrategy strategy, EncryptionMethod encryptionMethod)
+            throws GuacamoleException {
+
+        GuacamoleProxyGroup group = new GuacamoleProxyGroup(strategy);
+
+        for (String entry : value.split(",")) {
+
+            entry = entry.trim();
+            if (entry.isEmpty())
+                continue;
+
+            String hostname = entry;
+            int port = DEFAULT_PORT;
+            int weight = 1;
+
+            try {
+
+                // Parse weight, if present
+                int slash = hostname.lastIndexOf('/');
+                if (slash != -1) {
+                    weight = Integer.parseInt(hostname.substring(slash + 1));
+                    hostname = hostname.substring(0, slash);
+                }
+
+                // Parse port, if present
+                int colon = hostname.lastIndexOf(':');
+                if (colon != -1) {
+                    port = Integer.parseInt(hostname.substring(colon + 1));
+                    hostname = hostname.substring(0, colon);
+                }
+
+            }
+            catch (NumberFormatException e) {
+                throw new GuacamoleServerException("Invalid guacd \"" + entry
+                        + "\": port and weight must be integers.", e);
+            }
+
+            if (hostname.isEmpty() || weight <= 0)
+                throw new GuacamoleServerException("Invalid guacd \"" + entry
+                        + "\": a hostname and positive weight are required.");
+
+            group.add(new GuacamoleProxyConfiguration(hostname, port,
+                    encryptionMethod), weight);
+
+        }
+
+        if (group.members.isEmpty())
+            throw new GuacamoleServerException("At least one guacd must be specified.");
+
+        return group;
+
+    }
+
+    /**
+     * Mixes the bits of the given hash code such that similar values are
+     * distributed evenly around the hash ring.
+     *
+     * @param hash
+     *     The hash code to mix.
+     *
+     * @return
+     *     The mixed hash code.
+     */
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+
+    /**
+     * Adds the guacd described by the given configuration to this group.
+     *
+     * @param config
+     *     The configuration describing how to connect to the guacd.
+     *
+     * @param weight
+     *     The relative share of connections which should be assigned to the
+     *     guacd. This must be positive.
+     */
+    public synchronized void add(GuacamoleProxyConfiguration config, int weight) {
+
+        Member member = new Member(config, weight);
+        members.add(member);
+
+        // Place guacd on hash ring in proportion to its weight
+        String id = config.getHostname() + ":" + config.getPort() + "#";
+        for (int i = 0; i < weight * HASH_POINTS; i++)
+            ring.put(mix((id + i).hashCode()), member);
+
+    }
+
+    /**
+     * Returns the member of this group representing the given guacd.
+     *
+     * @param config
+     *     The configuration of the guacd to find.
+     *
+     * @return
+     *     The member representing the given guacd, or null if the guacd is
+     *     not part of this group.
+     */
+    private Member getMember(GuacamoleProxyConfiguration config) {
+
+        for (Member member : members) {
+            if (member.config == config)
+                return member;
+        }
+
+        return null;
+
+    }
+
+    /**
+     * Returns the available guacd having the fewest active connections
+     * relative to its weight.
+     *
+     * @param all
+     *     Whether guacd known to be unreachable should be considered.
+     *
+     * @return
+     *     The least active guacd, or null if no guacd may be considered.
+     */
+    private Member selectLeastActive(boolean all) {
+
+        Member selected = null;
+        for (Member member : members) {
+
+            if (!all && !member.isAvailable())
+                continue;
+
+            // Compare active/weight ratios without division
+            if (selected == null || (long) member.active * selected.weight
+                    < (long) selected.active * member.weight)
+                selected = member;
+
+        }
+
+        return selected;
+
+    }
+
+    /**
+     * Returns the next available guacd according to a smooth weighted
+     * round-robin, such that each guacd is selected in proportion to its
+     * weight without selecting any one guacd in long runs.
+     *
+     * @param all
+     *     Whether guacd known to be unreachable should be considered.
+     *
+     * @return
+     *     The next guacd, or null if no guacd may be considered.
+     */
+    private Member selectWeighted(boolean all) {
+
+        Member selected = null;
+        int totalWeight = 0;
+
+        for (Member member : members) {
+
+            if (!all && !member.isAvailable())
+                continue;
+
+            member.currentWeight += member.weight;
+            totalWeight += member.weight;
+
+            if (selected == null || member.currentWeight > selected.currentWeight)
+                selected = member;
+
+        }
+
+        if (selected != null)
+            selected.currentWeight -= totalWeight;
+
+        return selected;
+
+    }
+
+    /**
+     * Returns the first available guacd within the given points of the hash
+     * ring, examining only as many points as necessary.
+     *
+     * @param points
+     *     The guacd owning each point of the portion of the hash ring to
+     *     examine, in clockwise order.
+     *
+     * @param all
+     *     Whether guacd known to be unreachable should be considered.
+     *
+     * @return
+     *     The first guacd which may be considered, or null if no such guacd
+     *     owns any of the given points.
+     */
+    private static Member selectFirst(Collection<Member> points, boolean all) {
+
+        for (Member member : points) {
+            if (all || member.isAvailable())
+                return member;
+        }
+
+        return null;
+
+    }
+
+    /**
+     * Returns the available guacd owning the given key on the hash ring.
+     *
+     * @param key
+     *     The key to locate on the hash ring.
+     *
+     * @param all
+     *     Whether guacd known to be unreachable should be considered.
+     *
+     * @return
+     *     The guacd owning the given key, or null if no guacd may be
+     *     considered.
+     */
+    private Member selectConsistentHash(String key, boolean all) {
+
+        int hash = mix(key.hashCode());
+
+        // Walk clockwise from the key, wrapping around the ring once
+        Member selected = selectFirst(ring.tailMap(hash).values(), all);
+        if (selected == null)
+            selected = selectFirst(ring.headMap(hash).values(), all);
+
+        return selected;
+
+    }
+
+    /**
+     * Selects the guacd which should be used for a new connection, skipping
+     * any guacd known to be unreachable unless no other guacd remain. The
+     * selected guacd is considered to have one additional active connection
+     * until release() is invoked.
+     *
+     * @param key
+     *     A key identifying the connection for the CONSISTENT_HASH strategy,
+     *     such as the username of the user connecting, or null if no such
+     *     key is available.
+     *
+     * @return
+     *     The configuration of the selected guacd.
+     */
+    public synchronized GuacamoleProxyConfiguration select(String key) {
+
+        // Fall back to LEAST_ACTIVE if there is no key to hash
+        SelectionStrategy effectiveStrategy = strategy;
+        if (effectiveStrategy == SelectionStrategy.CONSISTENT_HASH && key == null)
+            effectiveStrategy = SelectionStrategy.LEAST_ACTIVE;
+
+        Member selected = null;
+
+        // Prefer guacd which are not known to be unreachable, falling back
+        // to all guacd (which will fail fast) if none remain
+        for (int pass = 0; selected == null && pass < 2; pass++) {
+
+            boolean all = (pass == 1);
+
+            switch (effectiveStrategy) {
+
+                case WEIGHTED:
+                    selected = selectWeighted(all);
+                    break;
+
+                case CONSISTENT_HASH:
+                    selected = selectConsistentHash(key, all);
+                    break;
+
+                default:
+                    selected = selectLeastActive(all);
+
+            }
+
+        }
+
+        selected.active++;
+        return selected.config;
+
+    }
+
+    /**
+     * Records that a connection assigned to the given guacd by select() has
+     * ended.
+     *
+     * @param config
+     *     The configuration of the guacd, as returned by select().
+     */
+    public synchronized void release(GuacamoleProxyConfiguration config) {
+
+        Member member = getMember(config);
+        if (member != null && member.active > 0)
+            member.active--;
+
+    }
+
+    /**
+     * Returns the number of active connections assigned to the given guacd.
+     *
+     * @param config
+     *     The configuration of the guacd, as returned by select().
+     *
+     * @return
+     *     The number of active connections assigned to the given guacd, or
+     *     zero if the guacd is not part of this group.
+     */
+    public synchronized int getActiveCount(GuacamoleProxyConfiguration config) {
+        Member member = getMember(config);
+        return member != null ? member.active : 0;
+    }
+
+    /**
+     * Selects a guacd for a new connection and returns a connected,
+     * unconfigured socket to that guacd. The guacd is released automatically
+     * when the returned socket is closed, or if the socket cannot be
+     * connected.
+     *
+     * @param environment
+     *     The environment providing the guacd pooling configuration.
+     *
+     * @param key
+     *     A key identifying the connection for the CONSISTENT_HASH strategy,
+     *     or null if no such key is available.
+     *
+     * @return
+     *     A connected, unconfigured socket to the selected guacd.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while connecting to the selected guacd.
+     */
+    public GuacamoleSocket getSocket(Environment environment, String key)
+            throws GuacamoleException {
+
+        final GuacamoleProxyConfiguration config = select(key);
+
+        final GuacamoleSocket socket;
+        try {
+            socket = GuacamoleProxySockets.getSocket(environment, config);
+        }
+        catch (GuacamoleException e) {
+            release(config);
+            throw e;
+        }
+
+        return new GuacamoleSocket() {
+
+            /**
+             * Whether the guacd has been released.
+             */
+            private boolean released = false;
+
+            @Override
+            public GuacamoleReader getReader() {
+                return socket.getReader();
+            }
+
+            @Override
+            public GuacamoleWriter getWriter() {
+                return socket.getWriter();
+            }
+
+            @Override
+            public void close() throws GuacamoleException {
+
+                // Release guacd only once, regardless of number of closes
+                synchronized (this) {
+                    if (!released) {
+                        released = true;
+                        release(config);
+                    }
+                }
+
+                socket.close();
+
+            }
+
+            @Override
+            public boolean isOpen() {
+                return socket.isOpen();
+            }
+
+        };
+
+    }
+
+}
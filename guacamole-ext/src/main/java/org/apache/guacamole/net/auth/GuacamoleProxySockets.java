@@ -0,0 +1,260 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.net.auth;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
+import org.apache.guacamole.environment.Environment;
+import org.apache.guacamole.net.GuacamoleEndpointRegistry;
+import org.apache.guacamole.net.GuacamoleSocket;
+import org.apache.guacamole.net.GuacamoleSocketPool;
+import org.apache.guacamole.net.InetGuacamoleSocket;
+import org.apache.guacamole.net.SSLGuacamoleSocket;
+import org.apache.guacamole.net.auth.GuacamoleProxyConfiguration.EncryptionMethod;
+
+/**
+ * Utility class which provides connected, unconfigured sockets to guacd,
+ * taken from a pool of idle sockets opened ahead of demand if pooling is
+ * enabled via the "guacd-pool-size" property. A separate pool is maintained
+ * for each distinct guacd, and is created upon first use. Any group of
+ * interchangeable guacd defined via the "guacd-hosts" property is likewise
+ * created upon first use. All pools are retained until shutdown() is
+ * invoked.
+ */
+public final class GuacamoleProxySockets {
+
+    /**
+     * All socket pools, keyed by the hostname, port, and encryption method
+     * of the guacd they connect to.
+     */
+    private static final ConcurrentMap<String, GuacamoleSocketPool> pools =
+            new ConcurrentHashMap<String, GuacamoleSocketPool>();
+
+    /**
+     * All groups of guacd instances, keyed by the values of the properties
+     * from which they were parsed.
+     */
+    private static final ConcurrentMap<String, GuacamoleProxyGroup> groups =
+            new ConcurrentHashMap<String, GuacamoleProxyGroup>();
+
+    /**
+     * This class is a utility class and may not be instantiated.
+     */
+    private GuacamoleProxySockets() {}
+
+    /**
+     * Creates and connects a new socket to the guacd described by the given
+     * configuration.
+     *
+     * @param config
+     *     The configuration of the guacd to connect to.
+     *
+     * @return
+     *     A newly-connected, unconfigured socket to guacd.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while connecting to guacd, if guacd has recently
+     *     and repeatedly been unreachable, or if the encryption method
+     *     required by guacd is not supported.
+     */
+    public static GuacamoleSocket createSocket(GuacamoleProxyConfiguration config)
+            throws GuacamoleException {
+
+        String hostname = config.getHostname();
+        int port = config.getPort();
+
+        // Abort if encryption method is unknown
+        EncryptionMethod method = config.getEncryptionMethod();
+        if (method != EncryptionMethod.SSL && method != EncryptionMethod.NONE)
+            throw new GuacamoleServerException("Unimplemented encryption method.");
+
+        // Fail immediately if guacd has recently and repeatedly failed
+        GuacamoleEndpointRegistry registry = GuacamoleEndpointRegistry.getDefault();
+        registry.checkAvailable(hostname, port);
+
+        long startTime = System.currentTimeMillis();
+        GuacamoleSocket socket;
+
+        try {
+
+            // If guacd requires SSL, use it
+            if (method == EncryptionMethod.SSL)
+                socket = new SSLGuacamoleSocket(hostname, port);
+
+            // Connect directly via TCP if encryption is not enabled
+            else
+                socket = new InetGuacamoleSocket(hostname, port);
+
+        }
+
+        // Record failure such that repeated failures open the circuit
+        catch (GuacamoleException e) {
+            registry.failed(hostname, port);
+            throw e;
+        }
+
+        registry.connected(hostname, port, System.currentTimeMillis() - startTime);
+        return socket;
+
+    }
+
+    /**
+     * Returns a connected, unconfigured socket to the guacd described by the
+     * given configuration. If pooling is enabled, the socket is taken from
+     * the pool for that guacd where possible. Otherwise, a new socket is
+     * connected.
+     *
+     * @param environment
+     *     The environment providing the pooling configuration.
+     *
+     * @param config
+     *     The configuration of the guacd to connect to.
+     *
+     * @return
+     *     A connected, unconfigured socket to guacd.
+     *
+     * @throws GuacamoleException
+     *     If the pooling configuration cannot be read, if an error occurs
+     *     while connecting to guacd, or if the encryption method required by
+     *     guacd is not supported.
+     */
+    public static GuacamoleSocket getSocket(Environment environment,
+            final GuacamoleProxyConfiguration config) throws GuacamoleException {
+
+        // Connect directly if pooling is disabled
+        int size = environment.getProperty(Environment.GUACD_POOL_SIZE, 0);
+        if (size <= 0)
+            return createSocket(config);
+
+        String key = config.getHostname() + ":" + config.getPort() + ":"
+                + config.getEncryptionMethod();
+
+        // Create pool for guacd if not yet created
+        GuacamoleSocketPool pool = pools.get(key);
+        if (pool == null) {
+
+            long maxIdleTime = environment.getProperty(Environment.GUACD_POOL_MAX_IDLE,
+                    GuacamoleSocketPool.DEFAULT_MAX_IDLE_TIME);
+
+            GuacamoleSocketPool newPool = new GuacamoleSocketPool(size, maxIdleTime) {
+
+                @Override
+                protected GuacamoleSocket createSocket() throws GuacamoleException {
+                    return GuacamoleProxySockets.createSocket(config);
+                }
+
+            };
+
+            // Use existing pool if created concurrently
+            pool = pools.putIfAbsent(key, newPool);
+            if (pool == null)
+                pool = newPool;
+
+        }
+
+        return pool.getSocket();
+
+    }
+
+    /**
+     * Returns the group of interchangeable guacd instances defined by the
+     * "guacd-hosts" and "guacd-hosts-selection" properties, if any. The same
+     * group is returned for as long as those properties remain unchanged,
+     * such that active connections are tracked across all callers.
+     *
+     * @param environment
+     *     The environment providing the guacd configuration.
+     *
+     * @return
+     *     The group of guacd instances defined within the given environment,
+     *     or null if no such group is defined.
+     *
+     * @throws GuacamoleException
+     *     If the guacd configuration cannot be read or is invalid.
+     */
+    public static GuacamoleProxyGroup getProxyGroup(Environment environment)
+            throws GuacamoleException {
+
+        String hosts = environment.getProperty(Environment.GUACD_HOSTS);
+        if (hosts == null)
+            return null;
+
+        String selection = environment.getProperty(
+                Environment.GUACD_HOSTS_SELECTION, "least-active");
+
+        // All guacd within the group share the default encryption method
+        EncryptionMethod encryptionMethod =
+                environment.getDefaultGuacamoleProxyConfiguration().getEncryptionMethod();
+
+        String key = hosts + "|" + selection + "|" + encryptionMethod;
+
+        GuacamoleProxyGroup group = groups.get(key);
+        if (group == null) {
+
+            // Translate strategy name (ie: "least-active") to strategy
+            GuacamoleProxyGroup.SelectionStrategy strategy;
+            try {
+                strategy = GuacamoleProxyGroup.SelectionStrategy.valueOf(
+                        selection.trim().toUpperCase(Locale.ENGLISH).replace('-', '_'));
+            }
+            catch (IllegalArgumentException e) {
+                throw new GuacamoleServerException("Property \""
+                        + Environment.GUACD_HOSTS_SELECTION.getName()
+                        + "\" must be \"least-active\", \"weighted\", or "
+                        + "\"consistent-hash\".", e);
+            }
+
+            GuacamoleProxyGroup newGroup = GuacamoleProxyGroup.parse(hosts,
+                    strategy, encryptionMethod);
+
+            // Use existing group if created concurrently
+            group = groups.putIfAbsent(key, newGroup);
+            if (group == null)
+                group = newGroup;
+
+        }
+
+        return group;
+
+    }
+
+    /**
+     * Shuts down all socket pools, closing their idle sockets, and stops the
+     * background probes of the default GuacamoleEndpointRegistry. Groups of
+     * guacd and pools created prior to shutdown are forgotten, such that
+     * any later request creates them anew. This function should be invoked
+     * when the web application is being unloaded.
+     */
+    public static void shutdown() {
+
+        for (GuacamoleSocketPool pool : pools.values())
+            pool.shutdown();
+
+        pools.clear();
+        groups.clear();
+
+        GuacamoleEndpointRegistry.getDefault().shutdown();
+
+    }
+
+}
@@ -24,17 +24,16 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import org.apache.guacamole.GuacamoleException;
-import org.apache.guacamole.GuacamoleServerException;
 import org.apache.guacamole.environment.Environment;
 import org.apache.guacamole.environment.LocalEnvironment;
 import org.apache.guacamole.net.GuacamoleSocket;
 import org.apache.guacamole.net.GuacamoleTunnel;
-import org.apache.guacamole.net.InetGuacamoleSocket;
-import org.apache.guacamole.net.SSLGuacamoleSocket;
 import org.apache.guacamole.net.SimpleGuacamoleTunnel;
 import org.apache.guacamole.net.auth.AbstractConnection;
 import org.apache.guacamole.net.auth.ConnectionRecord;
 import org.apache.guacamole.net.auth.GuacamoleProxyConfiguration;
+import org.apache.guacamole.net.auth.GuacamoleProxyGroup;
+import org.apache.guacamole.net.auth.GuacamoleProxySockets;
 import org.apache.guacamole.protocol.ConfiguredGuacamoleSocket;
 import org.apache.guacamole.protocol.GuacamoleClientInformation;
 import org.apache.guacamole.protocol.GuacamoleConfiguration;
@@ -79,6 +78,20 @@ public class SimpleConnection extends AbstractConnection {
 
     };
 
+    /**
+     * The name of the parameter token containing the username of the user
+     * connecting, as supplied to connect() by the web application.
+     */
+    private static final String USERNAME_TOKEN = "GUAC_USERNAME";
+
+    /**
+     * The username of the user connecting via the current call to
+     * {@link #connect(org.apache.guacamole.protocol.GuacamoleClientInformation, java.util.Map)},
+     * if known. This is used to consistently assign each user to the same
+     * guacd if a group of guacd is defined via the "guacd-hosts" property.
+     */
+    private final ThreadLocal<String> currentUsername = new ThreadLocal<String>();
+
     /**
      * Creates a completely uninitialized SimpleConnection. The name,
      * identifier, and configuration of this SimpleConnection must eventually
@@ -201,43 +214,37 @@ public class SimpleConnection extends AbstractConnection {
     public GuacamoleTunnel connect(GuacamoleClientInformation info)
             throws GuacamoleException {
 
-        // Retrieve proxy configuration from environment
         Environment environment = new LocalEnvironment();
-        GuacamoleProxyConfiguration proxyConfig = environment.getDefaultGuacamoleProxyConfiguration();
-
-        // Get guacd connection parameters
-        String hostname = proxyConfig.getHostname();
-        int port = proxyConfig.getPort();
 
         // Apply tokens to config parameters
         GuacamoleConfiguration filteredConfig = new GuacamoleConfiguration(getFullConfiguration());
         new TokenFilter(currentTokens.get()).filterValues(filteredConfig.getParameters());
 
-        GuacamoleSocket socket;
+        // Connect to guacd (using a pooled socket, if enabled), selecting a
+        // guacd from the defined group of guacd, if any
+        GuacamoleSocket unconfiguredSocket;
+        GuacamoleProxyGroup proxyGroup = GuacamoleProxySockets.getProxyGroup(environment);
+        if (proxyGroup != null) {
+            String key = currentUsername.get();
+            unconfiguredSocket = proxyGroup.getSocket(environment,
+                    key != null ? key : getIdentifier());
+        }
 
-        // Determine socket type based on required encryption method
-        switch (proxyConfig.getEncryptionMethod()) {
-
-            // If guacd requires SSL, use it
-            case SSL:
-                socket = new ConfiguredGuacamoleSocket(
-                    new SSLGuacamoleSocket(hostname, port),
-                    filteredConfig, info
-                );
-                break;
-
-            // Connect directly via TCP if encryption is not enabled
-            case NONE:
-                socket = new ConfiguredGuacamoleSocket(
-                    new InetGuacamoleSocket(hostname, port),
-                    filteredConfig, info
-                );
-                break;
-
-            // Abort if encryption method is unknown
-            default:
-                throw new GuacamoleServerException("Unimplemented encryption method.");
+        // Otherwise, use proxy configuration from environment
+        else {
+            GuacamoleProxyConfiguration proxyConfig = environment.getDefaultGuacamoleProxyConfiguration();
+            unconfiguredSocket = GuacamoleProxySockets.getSocket(environment, proxyConfig);
+        }
 
+        // Complete the handshake, releasing the selected guacd on failure
+        GuacamoleSocket socket;
+        try {
+            socket = new ConfiguredGuacamoleSocket(unconfiguredSocket,
+                    filteredConfig, info);
+        }
+        catch (GuacamoleException e) {
+            unconfiguredSocket.close();
+            throw e;
         }
 
         return new SimpleGuacamoleTunnel(socket);
@@ -250,7 +257,8 @@ public class SimpleConnection extends AbstractConnection {
      * <p>This implementation will connect using the GuacamoleConfiguration
      * returned by {@link #getFullConfiguration()}, honoring the
      * "guacd-hostname", "guacd-port", and "guacd-ssl" properties set within
-     * guacamole.properties. Parameter tokens will be taken into account if
+     * guacamole.properties, or the "guacd-hosts" property if a group of guacd
+     * is defined. Parameter tokens will be taken into account if
      * the SimpleConnection was explicitly requested to do so when created.
      *
      * <p>Implementations requiring more complex behavior should consider using
@@ -270,11 +278,15 @@ public class SimpleConnection extends AbstractConnection {
             if (interpretTokens)
                 currentTokens.set(tokens);
 
+            if (tokens != null)
+                currentUsername.set(tokens.get(USERNAME_TOKEN));
+
             return connect(info);
 
         }
         finally {
             currentTokens.remove();
+            currentUsername.remove();
         }
         
     }
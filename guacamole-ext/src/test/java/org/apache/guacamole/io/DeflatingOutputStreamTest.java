@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.io;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests DeflatingOutputStream, validating that all data written is available
+ * to the recipient after each flush.
+ */
+public class DeflatingOutputStreamTest {
+
+    /**
+     * Test data consisting of repetitive instructions.
+     */
+    private static final String TEST =
+            "4.sync,1.1;4.sync,1.2;4.sync,1.3;4.sync,1.4;4.sync,1.5;4.sync,1.6;"
+          + "4.sync,1.7;4.sync,1.8;4.sync,1.9;4.sync,1.1;4.sync,1.2;4.sync,1.3;";
+
+    /**
+     * Decompresses all data currently within the given buffer.
+     *
+     * @param inflater
+     *     The Inflater to use, which must not yet have been given any of the
+     *     data within the buffer.
+     *
+     * @param compressed
+     *     The buffer containing compressed data.
+     *
+     * @param offset
+     *     The offset of the first byte of compressed data not yet given to
+     *     the Inflater.
+     *
+     * @return
+     *     All data which could be decompressed.
+     *
+     * @throws Exception
+     *     If the compressed data is invalid.
+     */
+    private String inflate(Inflater inflater, ByteArrayOutputStream compressed,
+            int offset) throws Exception {
+
+        byte[] data = compressed.toByteArray();
+        inflater.setInput(data, offset, data.length - offset);
+
+        StringBuilder result = new StringBuilder();
+        byte[] buffer = new byte[1024];
+        int length;
+        while ((length = inflater.inflate(buffer)) > 0)
+            result.append(new String(buffer, 0, length, "UTF-8"));
+
+        return result.toString();
+
+    }
+
+    /**
+     * Verifies that each flush makes all data written thus far available for
+     * decompression, and that statistics reflect the compression achieved.
+     *
+     * @throws Exception
+     *     If an error occurs while compressing or decompressing.
+     */
+    @Test
+    public void testFlush() throws Exception {
+
+        CompressionStatistics statistics = new CompressionStatistics();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        DeflatingOutputStream out = new DeflatingOutputStream(compressed,
+                Deflater.BEST_COMPRESSION, 0, statistics);
+
+        Inflater inflater = new Inflater();
+
+        // Data must be available after first flush
+        out.write(TEST.getBytes("UTF-8"));
+        out.flush();
+        int offset = compressed.size();
+        assertEquals(TEST, inflate(inflater, compressed, 0));
+
+        // Data must be available after second flush
+        out.write(TEST.getBytes("UTF-8"));
+        out.flush();
+        assertEquals(TEST, inflate(inflater, compressed, offset));
+
+        // Repetitive data must compress
+        assertEquals(TEST.length() * 2, statistics.getUncompressedLength());
+        assertEquals(compressed.size(), statistics.getCompressedLength());
+        assertTrue(statistics.getRatio() > 1.0);
+
+        // Stream must end cleanly
+        offset = compressed.size();
+        out.close();
+        assertEquals("", inflate(inflater, compressed, offset));
+        assertTrue(inflater.finished());
+        inflater.end();
+
+    }
+
+    /**
+     * Verifies that data shorter than the threshold is stored without
+     * compression, yet is still decompressed correctly.
+     *
+     * @throws Exception
+     *     If an error occurs while compressing or decompressing.
+     */
+    @Test
+    public void testThreshold() throws Exception {
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        DeflatingOutputStream out = new DeflatingOutputStream(compressed,
+                Deflater.BEST_COMPRESSION, TEST.length() + 1, null);
+
+        out.write(TEST.getBytes("UTF-8"));
+        out.flush();
+
+        // Stored data is never smaller than the original
+        assertTrue(compressed.size() >= TEST.length());
+
+        Inflater inflater = new Inflater();
+        assertEquals(TEST, inflate(inflater, compressed, 0));
+        inflater.end();
+
+        out.close();
+
+    }
+
+}
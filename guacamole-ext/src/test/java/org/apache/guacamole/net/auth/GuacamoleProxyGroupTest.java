@@ -0,0 +1,390 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.guacamole.net.auth;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.Map;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
+import org.apache.guacamole.environment.Environment;
+import org.apache.guacamole.net.GuacamoleEndpointRegistry;
+import org.apache.guacamole.net.GuacamoleSocket;
+import org.apache.guacamole.net.auth.GuacamoleProxyConfiguration.EncryptionMethod;
+import org.apache.guacamole.net.auth.GuacamoleProxyGroup.SelectionStrategy;
+import org.apache.guacamole.properties.GuacamoleProperty;
+import org.apache.guacamole.protocols.ProtocolInfo;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests GuacamoleProxyGroup, validating each selection strategy, the
+ * avoidance of guacd known to be unreachable, and the accounting of active
+ * connections.
+ */
+public class GuacamoleProxyGroupTest {
+
+    /**
+     * Environment which defines no properties, such that the default value
+     * of each property is always used.
+     */
+    private static final Environment EMPTY_ENVIRONMENT = new Environment() {
+
+        @Override
+        public File getGuacamoleHome() {
+            return null;
+        }
+
+        @Override
+        public Map<String, ProtocolInfo> getProtocols() {
+            return null;
+        }
+
+        @Override
+        public ProtocolInfo getProtocol(String name) {
+            return null;
+        }
+
+        @Override
+        public <Type> Type getProperty(GuacamoleProperty<Type> property) {
+            return null;
+        }
+
+        @Override
+        public <Type> Type getProperty(GuacamoleProperty<Type> property,
+                Type defaultValue) {
+            return defaultValue;
+        }
+
+        @Override
+        public <Type> Type getRequiredProperty(GuacamoleProperty<Type> property)
+                throws GuacamoleException {
+            throw new GuacamoleServerException("No properties are defined.");
+        }
+
+        @Override
+        public GuacamoleProxyConfiguration getDefaultGuacamoleProxyConfiguration() {
+            return null;
+        }
+
+    };
+
+    /**
+     * Returns a new configuration describing an unencrypted guacd at the
+     * given hostname, listening on the default port.
+     *
+     * @param hostname
+     *     The hostname of the guacd.
+     *
+     * @return
+     *     A new configuration describing the given guacd.
+     */
+    private static GuacamoleProxyConfiguration guacd(String hostname) {
+        return new GuacamoleProxyConfiguration(hostname,
+                GuacamoleProxyGroup.DEFAULT_PORT, EncryptionMethod.NONE);
+    }
+
+    /**
+     * Marks the given guacd as unreachable within the default
+     * GuacamoleEndpointRegistry.
+     *
+     * @param config
+     *     The configuration of the guacd to mark as unreachable.
+     */
+    private static void markUnavailable(GuacamoleProxyConfiguration config) {
+        GuacamoleEndpointRegistry registry = GuacamoleEndpointRegistry.getDefault();
+        for (int i = 0; i < GuacamoleEndpointRegistry.DEFAULT_FAILURE_THRESHOLD; i++)
+            registry.failed(config.getHostname(), config.getPort());
+    }
+
+    /**
+     * Marks the given guacd as reachable within the default
+     * GuacamoleEndpointRegistry.
+     *
+     * @param config
+     *     The configuration of the guacd to mark as reachable.
+     */
+    private static void markAvailable(GuacamoleProxyConfiguration config) {
+        GuacamoleEndpointRegistry.getDefault().connected(config.getHostname(),
+                config.getPort(), 0);
+    }
+
+    /**
+     * Verifies that the LEAST_ACTIVE strategy selects the guacd with the
+     * fewest active connections relative to its weight, and that released
+     * connections are no longer counted.
+     */
+    @Test
+    public void testLeastActive() {
+
+        GuacamoleProxyConfiguration a = guacd("least-active-a");
+        GuacamoleProxyConfiguration b = guacd("least-active-b");
+
+        GuacamoleProxyGroup group = new GuacamoleProxyGroup(SelectionStrategy.LEAST_ACTIVE);
+        group.add(a, 1);
+        group.add(b, 2);
+
+        // Connections are assigned in proportion to weight
+        assertSame(a, group.select(null));
+        assertSame(b, group.select(null));
+        assertSame(b, group.select(null));
+        assertEquals(1, group.getActiveCount(a));
+        assertEquals(2, group.getActiveCount(b));
+
+        // Released connections free capacity
+        group.release(b);
+        group.release(b);
+        assertEquals(0, group.getActiveCount(b));
+        assertSame(b, group.select(null));
+
+        // Releasing more connections than were selected has no effect
+        group.release(a);
+        group.release(a);
+        assertEquals(0, group.getActiveCount(a));
+
+    }
+
+    /**
+     * Verifies that the WEIGHTED strategy distributes connections in
+     * proportion to weight, without selecting the same guacd repeatedly when
+     * others are due.
+     */
+    @Test
+    public void testWeighted() {
+
+        GuacamoleProxyConfiguration a = guacd("weighted-a");
+        GuacamoleProxyConfiguration b = guacd("weighted-b");
+
+        GuacamoleProxyGroup group = new GuacamoleProxyGroup(SelectionStrategy.WEIGHTED);
+        group.add(a, 1);
+        group.add(b, 3);
+
+        // Each full cycle selects each guacd in proportion to its weight,
+        // interleaving the lighter guacd rather than leaving it until last
+        assertSame(b, group.select(null));
+        assertSame(a, group.select(null));
+        assertSame(b, group.select(null));
+        assertSame(b, group.select(null));
+
+        assertSame(b, group.select(null));
+        assertSame(a, group.select(null));
+        assertSame(b, group.select(null));
+        assertSame(b, group.select(null));
+
+        assertEquals(2, group.getActiveCount(a));
+        assertEquals(6, group.getActiveCount(b));
+
+    }
+
+    /**
+     * Verifies that the CONSISTENT_HASH strategy assigns each key to the same
+     * guacd, spreads different keys across guacd, and falls back to
+     * LEAST_ACTIVE when no key is available.
+     */
+    @Test
+    public void testConsistentHash() {
+
+        GuacamoleProxyConfiguration a = guacd("hash-a");
+        GuacamoleProxyConfiguration b = guacd("hash-b");
+
+        GuacamoleProxyGroup group = new GuacamoleProxyGroup(SelectionStrategy.CONSISTENT_HASH);
+        group.add(a, 1);
+        group.add(b, 1);
+
+        // The same key is always assigned to the same guacd
+        for (int i = 0; i < 100; i++) {
+            String key = "user" + i;
+            GuacamoleProxyConfiguration selected = group.select(key);
+            for (int j = 0; j < 3; j++)
+                assertSame(selected, group.select(key));
+        }
+
+        // Different keys are spread across all guacd
+        assertTrue(group.getActiveCount(a) > 0);
+        assertTrue(group.getActiveCount(b) > 0);
+        assertEquals(400, group.getActiveCount(a) + group.getActiveCount(b));
+
+        // Without a key, the least active guacd is selected
+        GuacamoleProxyConfiguration leastActive =
+                group.getActiveCount(a) < group.getActiveCount(b) ? a : b;
+        assertSame(leastActive, group.select(null));
+
+    }
+
+    /**
+     * Verifies that guacd known to be unreachable are skipped by every
+     * strategy while other guacd remain, and are selected only if no other
+     * guacd remain.
+     */
+    @Test
+    public void testUnavailable() {
+
+        GuacamoleProxyConfiguration a = guacd("unavailable-a");
+        GuacamoleProxyConfiguration b = guacd("unavailable-b");
+
+        for (SelectionStrategy strategy : SelectionStrategy.values()) {
+
+            GuacamoleProxyGroup group = new GuacamoleProxyGroup(strategy);
+            group.add(a, 1);
+            group.add(b, 1);
+
+            // Find a key initially assigned to the guacd which will fail
+            String key = null;
+            for (int i = 0; key == null; i++) {
+                String candidate = "user" + i;
+                GuacamoleProxyConfiguration selected = group.select(candidate);
+                group.release(selected);
+                if (selected == a)
+                    key = candidate;
+            }
+
+            try {
+
+                // The unreachable guacd is skipped
+                markUnavailable(a);
+                for (int i = 0; i < 4; i++)
+                    assertSame(b, group.select(key));
+
+                // If all guacd are unreachable, any guacd may be selected
+                markUnavailable(b);
+                assertNotNull(group.select(key));
+
+                // The guacd is selected again once reachable
+                markAvailable(a);
+                markAvailable(b);
+                assertSame(a, group.select(key));
+
+            }
+            finally {
+                markAvailable(a);
+                markAvailable(b);
+            }
+
+        }
+
+    }
+
+    /**
+     * Verifies that parsing accepts the documented formats and rejects
+     * invalid entries.
+     *
+     * @throws GuacamoleException
+     *     If a valid list of guacd is rejected.
+     */
+    @Test
+    public void testParse() throws GuacamoleException {
+
+        // Weights are honored, with ports and weights optional
+        GuacamoleProxyGroup group = GuacamoleProxyGroup.parse(
+                " parse-a , parse-b:4823/3 ,", SelectionStrategy.WEIGHTED,
+                EncryptionMethod.NONE);
+
+        int a = 0;
+        int b = 0;
+        for (int i = 0; i < 8; i++) {
+
+            GuacamoleProxyConfiguration selected = group.select(null);
+            if ("parse-a".equals(selected.getHostname())) {
+                assertEquals(GuacamoleProxyGroup.DEFAULT_PORT, selected.getPort());
+                a++;
+            }
+            else {
+                assertEquals("parse-b", selected.getHostname());
+                assertEquals(4823, selected.getPort());
+                b++;
+            }
+
+        }
+
+        assertEquals(2, a);
+        assertEquals(6, b);
+
+        // Invalid entries are rejected
+        String[] invalid = { "", " , ", "parse-a:port", "parse-a/0", ":4822" };
+        for (String value : invalid) {
+            try {
+                GuacamoleProxyGroup.parse(value, SelectionStrategy.WEIGHTED,
+                        EncryptionMethod.NONE);
+                fail("Invalid list of guacd accepted: \"" + value + "\"");
+            }
+            catch (GuacamoleServerException e) {
+                // Expected
+            }
+        }
+
+    }
+
+    /**
+     * Verifies that the guacd selected by getSocket() is released exactly
+     * once when the returned socket is closed, and is released immediately
+     * if no socket can be connected.
+     *
+     * @throws Exception
+     *     If the local listening socket cannot be created, or if a socket
+     *     to that listening socket cannot be obtained.
+     */
+    @Test
+    public void testReleaseOnClose() throws Exception {
+
+        InetAddress localhost = InetAddress.getByName("127.0.0.1");
+        ServerSocket server = new ServerSocket(0, 1, localhost);
+
+        GuacamoleProxyConfiguration config = new GuacamoleProxyConfiguration(
+                "127.0.0.1", server.getLocalPort(), EncryptionMethod.NONE);
+
+        GuacamoleProxyGroup group = new GuacamoleProxyGroup(SelectionStrategy.LEAST_ACTIVE);
+        group.add(config, 1);
+
+        try {
+
+            // The guacd is active until the socket is closed
+            GuacamoleSocket socket = group.getSocket(EMPTY_ENVIRONMENT, null);
+            assertEquals(1, group.getActiveCount(config));
+
+            // Closing more than once releases the guacd only once
+            group.select(null);
+            socket.close();
+            socket.close();
+            assertEquals(1, group.getActiveCount(config));
+
+        }
+        finally {
+            server.close();
+        }
+
+        // A guacd which cannot be connected is released immediately
+        group.release(config);
+        try {
+            group.getSocket(EMPTY_ENVIRONMENT, null).close();
+            fail("Connected to closed port.");
+        }
+        catch (GuacamoleException e) {
+            assertEquals(0, group.getActiveCount(config));
+        }
+        finally {
+            markAvailable(config);
+        }
+
+    }
+
+}
@@ -20,6 +20,8 @@
 package org.apache.guacamole;
 
 import org.apache.guacamole.tunnel.TunnelModule;
+import org.apache.guacamole.tunnel.InputCoalescingService;
+import org.apache.guacamole.tunnel.TunnelThreadService;
 import com.google.inject.Guice;
 import com.google.inject.Inject;
 import com.google.inject.Injector;
@@ -32,6 +34,7 @@ import org.apache.guacamole.environment.LocalEnvironment;
 import org.apache.guacamole.extension.ExtensionModule;
 import org.apache.guacamole.log.LogModule;
 import org.apache.guacamole.net.auth.AuthenticationProvider;
+import org.apache.guacamole.net.auth.GuacamoleProxySockets;
 import org.apache.guacamole.rest.RESTServiceModule;
 import org.apache.guacamole.rest.auth.HashTokenSessionMap;
 import org.apache.guacamole.rest.auth.TokenSessionMap;
@@ -65,6 +68,19 @@ public class GuacamoleServletContextListener extends GuiceServletContextListener
     @Inject
     private List<AuthenticationProvider> authProviders;
 
+    /**
+     * Service providing the executor which runs WebSocket tunnel read tasks.
+     */
+    @Inject
+    private TunnelThreadService tunnelThreadService;
+
+    /**
+     * Service providing the executor which writes held position updates of
+     * tunnels which coalesce input.
+     */
+    @Inject
+    private InputCoalescingService inputCoalescingService;
+
     @Override
     public void contextInitialized(ServletContextEvent servletContextEvent) {
 
@@ -110,6 +126,17 @@ public class GuacamoleServletContextListener extends GuiceServletContextListener
         if (sessionMap != null)
             sessionMap.shutdown();
 
+        // Stop all tunnel read threads
+        if (tunnelThreadService != null)
+            tunnelThreadService.shutdown();
+
+        // Stop writing held position updates
+        if (inputCoalescingService != null)
+            inputCoalescingService.shutdown();
+
+        // Close all pooled guacd sockets and stop their threads
+        GuacamoleProxySockets.shutdown();
+
         // Unload all extensions
         if (authProviders != null) {
             for (AuthenticationProvider authProvider : authProviders)
@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.guacamole.rest.tunnel;
+
+import org.apache.guacamole.tunnel.SinkedFile;
+
+/**
+ * A file written directly to the server from an intercepted stream, as
+ * exposed through the REST API.
+ */
+public class APISinkedFile {
+
+    /**
+     * The unique name of the file, which may be used to retrieve the file
+     * once it has been fully written.
+     */
+    private final String name;
+
+    /**
+     * The filename originally provided for the stream.
+     */
+    private final String filename;
+
+    /**
+     * Creates a new APISinkedFile, copying the information from the given
+     * SinkedFile.
+     *
+     * @param file
+     *     The SinkedFile to copy data from.
+     */
+    public APISinkedFile(SinkedFile file) {
+        this.name     = file.getName();
+        this.filename = file.getFilename();
+    }
+
+    /**
+     * Returns the unique name of the file, which may be used to retrieve the
+     * file once it has been fully written.
+     *
+     * @return
+     *     The unique name of the file.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the filename originally provided for the stream.
+     *
+     * @return
+     *     The filename originally provided for the stream.
+     */
+    public String getFilename() {
+        return filename;
+    }
+
+}
@@ -24,6 +24,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.MediaType;
@@ -31,16 +32,45 @@ import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.StreamingOutput;
 import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleResourceNotFoundException;
+import org.apache.guacamole.tunnel.SpoolingOutputStream;
 import org.apache.guacamole.tunnel.StreamInterceptingTunnel;
+import org.apache.guacamole.tunnel.StreamSpool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * A REST resource providing access to a Guacamole protocol-level stream
- * within a tunnel.
+ * within a tunnel. If spooling is enabled, the data of intercepted output
+ * streams is retained such that interrupted downloads may be resumed through
+ * HTTP range requests.
  */
 @Produces(MediaType.APPLICATION_JSON)
 @Consumes(MediaType.APPLICATION_JSON)
 public class StreamResource {
 
+    /**
+     * Logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(StreamResource.class);
+
+    /**
+     * The prefix of all HTTP "Range" header values which request byte ranges.
+     */
+    private static final String BYTE_RANGE_PREFIX = "bytes=";
+
+    /**
+     * The HTTP status code of responses containing only the requested range
+     * of the stream data (206 Partial Content).
+     */
+    private static final int PARTIAL_CONTENT = 206;
+
+    /**
+     * The HTTP status code of responses to requests for ranges which lie
+     * outside the stream data (416 Range Not Satisfiable).
+     */
+    private static final int RANGE_NOT_SATISFIABLE = 416;
+
     /**
      * The tunnel whose stream is exposed through this StreamResource.
      */
@@ -56,9 +86,16 @@ public class StreamResource {
      */
     private final String mediaType;
 
+    /**
+     * The maximum number of bytes of intercepted output stream data to retain
+     * for resumed downloads, or 0 if no data should be retained.
+     */
+    private final long spoolLimit;
+
     /**
      * Creates a new StreamResource which provides access to the given
-     * stream.
+     * stream. Intercepted data is not retained, and range requests are not
+     * supported.
      *
      * @param tunnel
      *     The tunnel whose stream is being exposed.
@@ -71,45 +108,281 @@ public class StreamResource {
      */
     public StreamResource(StreamInterceptingTunnel tunnel, int streamIndex,
             String mediaType) {
+        this(tunnel, streamIndex, mediaType, 0);
+    }
+
+    /**
+     * Creates a new StreamResource which provides access to the given
+     * stream, retaining up to the given number of bytes of intercepted data
+     * such that interrupted downloads may be resumed.
+     *
+     * @param tunnel
+     *     The tunnel whose stream is being exposed.
+     *
+     * @param streamIndex
+     *     The index of the stream to expose via this StreamResource.
+     *
+     * @param mediaType
+     *     The media type of the data within the stream.
+     *
+     * @param spoolLimit
+     *     The maximum number of bytes of intercepted data to retain, or 0 if
+     *     no data should be retained.
+     */
+    public StreamResource(StreamInterceptingTunnel tunnel, int streamIndex,
+            String mediaType, long spoolLimit) {
         this.tunnel = tunnel;
         this.streamIndex = streamIndex;
         this.mediaType = mediaType;
+        this.spoolLimit = spoolLimit;
+    }
+
+    /**
+     * Adds the headers common to all responses containing stream data to the
+     * given ResponseBuilder.
+     *
+     * @param responseBuilder
+     *     The ResponseBuilder to add headers to.
+     *
+     * @param spool
+     *     The spool retaining the stream data, or null if the data is not
+     *     retained.
+     *
+     * @return
+     *     The given ResponseBuilder.
+     */
+    private ResponseBuilder addHeaders(ResponseBuilder responseBuilder,
+            StreamSpool spool) {
+
+        // Set Content-Disposition header for "application/octet-stream"
+        if (mediaType.equals(MediaType.APPLICATION_OCTET_STREAM))
+            responseBuilder.header("Content-Disposition", "attachment");
+
+        // Advertise support for resuming retained data
+        if (spool != null) {
+            responseBuilder.header("Accept-Ranges", "bytes");
+            responseBuilder.header("ETag", "\"" + spool.getETag() + "\"");
+        }
+
+        return responseBuilder;
+
+    }
+
+    /**
+     * Returns a response containing the requested range of the data retained
+     * within the given spool, waiting for the intercepted stream to end if
+     * necessary. If no range is requested, or the range is not a single
+     * valid byte range, the entire contents of the spool are returned.
+     *
+     * @param spool
+     *     The spool retaining the stream data.
+     *
+     * @param range
+     *     The value of the HTTP "Range" header of the request, or null if the
+     *     entire contents of the spool should be returned.
+     *
+     * @return
+     *     A response through which the requested range of the retained data
+     *     will be sent.
+     *
+     * @throws GuacamoleException
+     *     If the spool was discarded before the intercepted stream ended.
+     */
+    private Response getSpooledContents(final StreamSpool spool, String range)
+            throws GuacamoleException {
+
+        // Data can only be resumed if it was fully retained
+        if (!spool.waitForCompletion())
+            throw new GuacamoleResourceNotFoundException("Stream data is no "
+                    + "longer available.");
+
+        final long length = spool.getLength();
+        long start = 0;
+        long end = length - 1;
+        int status = Response.Status.OK.getStatusCode();
+
+        // Parse single byte range, ignoring any ranges not understood
+        if (range != null && range.startsWith(BYTE_RANGE_PREFIX)
+                && range.indexOf(',') == -1) {
+
+            String spec = range.substring(BYTE_RANGE_PREFIX.length()).trim();
+            int separator = spec.indexOf('-');
+
+            try {
+
+                // Suffix range ("bytes=-N") requests the final N bytes
+                if (separator == 0) {
+                    long suffix = Long.parseLong(spec.substring(1));
+                    if (suffix < 0)
+                        throw new NumberFormatException("Suffix length is negative.");
+                    start = suffix > 0 ? Math.max(0, length - suffix) : length;
+                    status = PARTIAL_CONTENT;
+                }
+
+                // Otherwise, range is "bytes=M-" or "bytes=M-N", where a
+                // range ending before it starts is invalid and is ignored
+                else if (separator > 0) {
+
+                    long first = Long.parseLong(spec.substring(0, separator));
+                    long last = end;
+                    if (separator < spec.length() - 1)
+                        last = Long.parseLong(spec.substring(separator + 1));
+
+                    if (first < 0 || last < first)
+                        throw new NumberFormatException("Range ends before it starts.");
+
+                    start = first;
+                    end = Math.min(end, last);
+                    status = PARTIAL_CONTENT;
+
+                }
+
+            }
+            catch (NumberFormatException e) {
+                logger.debug("Ignoring malformed range \"{}\".", range, e);
+                start = 0;
+                end = length - 1;
+                status = Response.Status.OK.getStatusCode();
+            }
+
+            // Reject valid ranges lying outside the retained data
+            if (status == PARTIAL_CONTENT && start >= length)
+                return Response.status(RANGE_NOT_SATISFIABLE)
+                        .header("Content-Range", "bytes */" + length)
+                        .build();
+
+        }
+
+        final long rangeStart = start;
+        final long rangeEnd = end;
+
+        // Send requested range from spool
+        StreamingOutput stream = new StreamingOutput() {
+
+            @Override
+            public void write(OutputStream output) throws IOException {
+                spool.writeTo(output, rangeStart, rangeEnd);
+            }
+
+        };
+
+        ResponseBuilder responseBuilder = Response.status(status)
+                .entity(stream)
+                .type(mediaType)
+                .header("Content-Length", Long.toString(rangeEnd - rangeStart + 1));
+
+        if (status == PARTIAL_CONTENT)
+            responseBuilder.header("Content-Range", "bytes " + rangeStart
+                    + "-" + rangeEnd + "/" + length);
+
+        return addHeaders(responseBuilder, spool).build();
+
     }
 
     /**
      * Intercepts and returns the entire contents the stream represented by
-     * this StreamResource.
+     * this StreamResource. If the request includes a "Range" header, any
+     * "If-Range" header matches the data retained by a previous request, and
+     * that data is still available, the requested range of the retained data
+     * is returned instead. As stream indices are reused once a stream ends,
+     * retained data is otherwise only returned while its stream is still in
+     * progress, and all other requests intercept the stream anew.
+     *
+     * @param range
+     *     The value of the HTTP "Range" header, or null if the entire contents
+     *     of the stream are requested.
+     *
+     * @param ifRange
+     *     The value of the HTTP "If-Range" header, or null if the requested
+     *     range should be returned regardless of the entity tag of the
+     *     retained data.
      *
      * @return
      *     A response through which the entire contents of the intercepted
      *     stream will be sent.
+     *
+     * @throws GuacamoleException
+     *     If the requested range was retained, but the retained data is no
+     *     longer available.
      */
     @GET
-    public Response getStreamContents() {
+    public Response getStreamContents(@HeaderParam("Range") String range,
+            @HeaderParam("If-Range") String ifRange)
+            throws GuacamoleException {
+
+        StreamSpool existingSpool = tunnel.getSpool(streamIndex);
+        if (existingSpool != null) {
+
+            // Resume from retained data only if a range of that same data is
+            // requested, as the index of an ended stream may since have been
+            // reused by a different stream
+            if (range != null && (ifRange == null
+                        || ifRange.equals("\"" + existingSpool.getETag() + "\"")))
+                return getSpooledContents(existingSpool, range);
+
+            // A stream still being retained cannot yet have been replaced,
+            // and cannot be intercepted a second time
+            if (!existingSpool.isDone())
+                return getSpooledContents(existingSpool, null);
+
+        }
+
+        // Retain intercepted data if enabled, continuing without if the
+        // spool cannot be created
+        StreamSpool newSpool = null;
+        if (spoolLimit > 0) {
+            try {
+                newSpool = tunnel.createSpool(streamIndex, spoolLimit);
+            }
+            catch (GuacamoleException e) {
+                logger.warn("Interrupted download will not be resumable: {}",
+                        e.getMessage());
+                logger.debug("Unable to spool intercepted stream.", e);
+            }
+        }
+
+        final StreamSpool spool = newSpool;
 
         // Intercept all output
         StreamingOutput stream = new StreamingOutput() {
 
             @Override
             public void write(OutputStream output) throws IOException {
+
+                // Intercept directly if not retaining data
+                if (spool == null) {
+                    try {
+                        tunnel.interceptStream(streamIndex, output);
+                    }
+                    catch (GuacamoleException e) {
+                        throw new IOException(e);
+                    }
+                    return;
+                }
+
+                // Retain data only if the entire stream was received
+                boolean complete = false;
                 try {
-                    tunnel.interceptStream(streamIndex, output);
+                    tunnel.interceptStream(streamIndex,
+                            new SpoolingOutputStream(output, spool));
+                    complete = true;
                 }
                 catch (GuacamoleException e) {
                     throw new IOException(e);
                 }
+                finally {
+                    if (complete)
+                        spool.complete();
+                    else
+                        spool.discard();
+                }
+
             }
 
         };
 
         // Begin successful response
-        ResponseBuilder responseBuilder = Response.ok(stream, mediaType);
-
-        // Set Content-Disposition header for "application/octet-stream"
-        if (mediaType.equals(MediaType.APPLICATION_OCTET_STREAM))
-            responseBuilder.header("Content-Disposition", "attachment");
-
-        return responseBuilder.build();
+        return addHeaders(Response.ok(stream, mediaType), spool).build();
 
     }
 
@@ -24,11 +24,14 @@ import com.google.inject.assistedinject.Assisted;
 import com.google.inject.assistedinject.AssistedInject;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.GuacamoleResourceNotFoundException;
 import org.apache.guacamole.net.auth.ActiveConnection;
@@ -36,6 +39,9 @@ import org.apache.guacamole.net.auth.UserContext;
 import org.apache.guacamole.rest.activeconnection.APIActiveConnection;
 import org.apache.guacamole.rest.directory.DirectoryObjectResource;
 import org.apache.guacamole.rest.directory.DirectoryObjectResourceFactory;
+import org.apache.guacamole.tunnel.FileSinkService;
+import org.apache.guacamole.tunnel.FileTransferService;
+import org.apache.guacamole.tunnel.SinkedFile;
 import org.apache.guacamole.tunnel.UserTunnel;
 
 /**
@@ -65,6 +71,18 @@ public class TunnelResource {
     private DirectoryObjectResourceFactory<ActiveConnection, APIActiveConnection>
             activeConnectionResourceFactory;
 
+    /**
+     * Service providing the configuration of intercepted file transfers.
+     */
+    @Inject
+    private FileTransferService fileTransferService;
+
+    /**
+     * Service which writes intercepted streams directly to the server.
+     */
+    @Inject
+    private FileSinkService fileSinkService;
+
     /**
      * Creates a new TunnelResource which exposes the operations and
      * subresources available for the given tunnel.
@@ -132,7 +150,64 @@ public class TunnelResource {
             @PathParam("filename") String filename)
             throws GuacamoleException {
 
-        return new StreamResource(tunnel, streamIndex, mediaType);
+        return new StreamResource(tunnel, streamIndex, mediaType,
+                fileTransferService.getSpoolLimit());
+
+    }
+
+    /**
+     * Writes the entire contents of a specific stream directly to the
+     * server's configured sink directory, rather than returning those
+     * contents. This function returns immediately; the returned file may be
+     * retrieved through getSinkedFile() once the stream has ended.
+     *
+     * @param streamIndex
+     *     The index of the stream to intercept.
+     *
+     * @param filename
+     *     The filename to use for the sake of identifying the data written.
+     *
+     * @return
+     *     The file which will receive the contents of the stream.
+     *
+     * @throws GuacamoleException
+     *     If server-side transfers are disabled, if the configured limits on
+     *     server-side transfers have been reached, or if the file cannot be
+     *     created.
+     */
+    @POST
+    @Path("streams/{index}/{filename}/sink")
+    public APISinkedFile sinkStream(@PathParam("index") int streamIndex,
+            @PathParam("filename") String filename)
+            throws GuacamoleException {
+
+        return new APISinkedFile(fileSinkService.sink(tunnel, streamIndex, filename));
+
+    }
+
+    /**
+     * Returns the contents of a file previously written directly to the
+     * server from a stream of this tunnel.
+     *
+     * @param name
+     *     The unique name of the file, as returned by sinkStream().
+     *
+     * @return
+     *     A response containing the contents of the file.
+     *
+     * @throws GuacamoleException
+     *     If no such file was written from a stream of this tunnel, or if the
+     *     file is still being written.
+     */
+    @GET
+    @Path("sinks/{name}")
+    public Response getSinkedFile(@PathParam("name") String name)
+            throws GuacamoleException {
+
+        SinkedFile file = fileSinkService.getSinkedFile(tunnel, name);
+        return Response.ok(file.getFile(), MediaType.APPLICATION_OCTET_STREAM)
+                .header("Content-Disposition", "attachment")
+                .build();
 
     }
 
@@ -0,0 +1,487 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.guacamole.tunnel;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.guacamole.GuacamoleClientTooManyException;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleResourceClosedException;
+import org.apache.guacamole.GuacamoleResourceConflictException;
+import org.apache.guacamole.GuacamoleResourceNotFoundException;
+import org.apache.guacamole.GuacamoleServerException;
+import org.apache.guacamole.GuacamoleUnsupportedException;
+import org.apache.guacamole.environment.Environment;
+import org.apache.guacamole.properties.FileGuacamoleProperty;
+import org.apache.guacamole.properties.IntegerGuacamoleProperty;
+import org.apache.guacamole.properties.LongGuacamoleProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Service which writes intercepted output streams directly to a directory on
+ * the server, rather than sending their contents to the browser. The total
+ * size of the directory and the number of concurrent transfers are limited
+ * as configured via guacamole.properties. Server-side transfers are disabled
+ * unless a directory is configured. Written files are accessible only through
+ * the tunnel whose stream they contain, and are deleted once that tunnel
+ * closes.
+ */
+@Singleton
+public class FileSinkService {
+
+    /**
+     * Logger for this class.
+     */
+    private final Logger logger = LoggerFactory.getLogger(FileSinkService.class);
+
+    /**
+     * The default maximum number of server-side transfers which may be in
+     * progress at any one time.
+     */
+    private static final int DEFAULT_MAX_TRANSFERS = 4;
+
+    /**
+     * The maximum number of characters of the original filename to retain
+     * within the name of each written file.
+     */
+    private static final int MAX_FILENAME_LENGTH = 128;
+
+    /**
+     * The directory to which server-side transfers should be written. If
+     * omitted, server-side transfers are disabled.
+     */
+    private final FileGuacamoleProperty FILE_TRANSFER_SINK_DIRECTORY =
+            new FileGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "file-transfer-sink-directory"; }
+
+    };
+
+    /**
+     * The maximum total number of bytes which may be stored within the sink
+     * directory. By default, the size of the directory is not limited.
+     */
+    private final LongGuacamoleProperty FILE_TRANSFER_SINK_QUOTA =
+            new LongGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "file-transfer-sink-quota"; }
+
+    };
+
+    /**
+     * The maximum number of server-side transfers which may be in progress
+     * at any one time.
+     */
+    private final IntegerGuacamoleProperty FILE_TRANSFER_SINK_MAX_TRANSFERS =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "file-transfer-sink-max-transfers"; }
+
+    };
+
+    /**
+     * The Guacamole server environment.
+     */
+    @Inject
+    private Environment environment;
+
+    /**
+     * All files written by this service, stored under their unique names.
+     */
+    private final ConcurrentMap<String, SinkedFile> files =
+            new ConcurrentHashMap<String, SinkedFile>();
+
+    /**
+     * The number of server-side transfers currently in progress.
+     */
+    private int activeTransfers = 0;
+
+    /**
+     * The total number of bytes stored within the sink directory.
+     */
+    private long usage = 0;
+
+    /**
+     * OutputStream which writes to a file within the sink directory, counting
+     * all data written against the configured quota.
+     */
+    private class QuotaOutputStream extends OutputStream {
+
+        /**
+         * The OutputStream of the file being written.
+         */
+        private final OutputStream output;
+
+        /**
+         * The maximum total number of bytes which may be stored within the
+         * sink directory, or 0 if the size of the directory is not limited.
+         */
+        private final long quota;
+
+        /**
+         * The number of bytes written to the file thus far.
+         */
+        private long written = 0;
+
+        /**
+         * Creates a new QuotaOutputStream which writes to the given
+         * OutputStream, failing if the given quota would be exceeded.
+         *
+         * @param output
+         *     The OutputStream of the file being written.
+         *
+         * @param quota
+         *     The maximum total number of bytes which may be stored within
+         *     the sink directory, or 0 if the size of the directory is not
+         *     limited.
+         */
+        public QuotaOutputStream(OutputStream output, long quota) {
+            this.output = output;
+            this.quota = quota;
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length)
+                throws IOException {
+
+            // Reserve space within the quota before writing
+            synchronized (FileSinkService.this) {
+                if (quota > 0 && usage + length > quota)
+                    throw new IOException("Server-side file transfer quota exceeded.");
+                usage += length;
+                written += length;
+            }
+
+            output.write(buffer, offset, length);
+
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            output.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            output.close();
+        }
+
+    }
+
+    /**
+     * Returns the total size, in bytes, of all files within the given
+     * directory.
+     *
+     * @param directory
+     *     The directory whose size should be determined.
+     *
+     * @return
+     *     The total size of all files within the given directory, in bytes.
+     */
+    private static long getDirectorySize(File directory) {
+
+        File[] contents = directory.listFiles();
+        if (contents == null)
+            return 0;
+
+        long size = 0;
+        for (File file : contents)
+            size += file.length();
+
+        return size;
+
+    }
+
+    /**
+     * Returns a version of the given filename which contains only characters
+     * which are safe within both file names and URLs.
+     *
+     * @param filename
+     *     The filename to sanitize.
+     *
+     * @return
+     *     A sanitized version of the given filename.
+     */
+    private static String sanitizeFilename(String filename) {
+
+        String sanitized = filename.replaceAll("[^A-Za-z0-9._-]", "_");
+        if (sanitized.length() > MAX_FILENAME_LENGTH)
+            sanitized = sanitized.substring(sanitized.length() - MAX_FILENAME_LENGTH);
+
+        return sanitized;
+
+    }
+
+    /**
+     * Returns whether server-side transfers have been enabled by configuring
+     * a sink directory.
+     *
+     * @return
+     *     true if server-side transfers are enabled, false otherwise.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public boolean isEnabled() throws GuacamoleException {
+        return environment.getProperty(FILE_TRANSFER_SINK_DIRECTORY) != null;
+    }
+
+    /**
+     * Finishes the given server-side transfer, releasing its slot among the
+     * concurrent transfers. If the transfer failed, the partially-written
+     * file is deleted and its space returned to the quota.
+     *
+     * @param file
+     *     The file being written.
+     *
+     * @param output
+     *     The OutputStream which was writing the file.
+     *
+     * @param error
+     *     The error which caused the transfer to fail, or null if the
+     *     transfer succeeded.
+     */
+    private void transferEnded(SinkedFile file, QuotaOutputStream output,
+            Throwable error) {
+
+        // Ensure file is closed even if the stream was never intercepted
+        try {
+            output.close();
+        }
+        catch (IOException e) {
+            logger.debug("Unable to close server-side transfer \"{}\".",
+                    file.getName(), e);
+        }
+
+        synchronized (this) {
+
+            activeTransfers--;
+
+            // Remove any trace of failed transfers
+            if (error != null) {
+                usage -= output.written;
+                files.remove(file.getName());
+                if (!file.getFile().delete())
+                    logger.debug("Incomplete server-side transfer \"{}\" "
+                            + "could not be deleted.", file.getFile());
+            }
+
+        }
+
+        if (error != null) {
+            logger.info("Server-side transfer of \"{}\" failed: {}",
+                    file.getFilename(), error.getMessage());
+            logger.debug("Server-side transfer failed.", error);
+        }
+        else
+            logger.info("Server-side transfer of \"{}\" completed.",
+                    file.getFilename());
+
+        file.complete(error == null);
+
+    }
+
+    /**
+     * Removes the given fully-transferred file, deleting it from the sink
+     * directory and returning its space to the quota. Files which are still
+     * being transferred, or which have already been removed, are not
+     * affected. Files of closed tunnels can no longer be retrieved, so they
+     * are removed once their tunnel closes.
+     *
+     * @param file
+     *     The file to remove.
+     */
+    private void removeFile(SinkedFile file) {
+
+        // Transfers still in progress remove themselves if they fail
+        if (!file.isDone())
+            return;
+
+        synchronized (this) {
+
+            if (!files.remove(file.getName(), file))
+                return;
+
+            usage = Math.max(0, usage - file.getFile().length());
+            if (file.getFile().exists() && !file.getFile().delete())
+                logger.warn("Server-side transfer \"{}\" of closed tunnel "
+                        + "could not be deleted.", file.getFile());
+
+        }
+
+        logger.debug("Removed server-side transfer \"{}\" of closed tunnel.",
+                file.getFile());
+
+    }
+
+    /**
+     * Begins writing the contents of the output stream having the given index
+     * to a new file within the sink directory, returning immediately. The
+     * returned SinkedFile will be marked as complete once the stream has
+     * ended. The file is deleted once the given tunnel closes. If the tunnel
+     * closes before the stream has ended, the transfer fails.
+     *
+     * @param tunnel
+     *     The tunnel whose output stream should be written.
+     *
+     * @param index
+     *     The index of the stream to write.
+     *
+     * @param filename
+     *     The filename provided for the stream.
+     *
+     * @return
+     *     The file which will receive the contents of the stream.
+     *
+     * @throws GuacamoleException
+     *     If server-side transfers are disabled, if the quota or the maximum
+     *     number of concurrent transfers has been reached, or if the file
+     *     cannot be created.
+     */
+    public SinkedFile sink(final StreamInterceptingTunnel tunnel, int index,
+            String filename) throws GuacamoleException {
+
+        File directory = environment.getProperty(FILE_TRANSFER_SINK_DIRECTORY);
+        if (directory == null)
+            throw new GuacamoleUnsupportedException("Server-side file "
+                    + "transfers are not enabled.");
+
+        // Streams of closed tunnels can no longer be intercepted
+        if (!tunnel.isOpen())
+            throw new GuacamoleResourceClosedException("Tunnel is closed.");
+
+        long quota = environment.getProperty(FILE_TRANSFER_SINK_QUOTA, 0L);
+        int maxTransfers = environment.getProperty(FILE_TRANSFER_SINK_MAX_TRANSFERS,
+                DEFAULT_MAX_TRANSFERS);
+
+        // Reserve a slot among the concurrent transfers
+        synchronized (this) {
+
+            if (activeTransfers >= maxTransfers)
+                throw new GuacamoleClientTooManyException("Too many "
+                        + "server-side file transfers are in progress.");
+
+            // Recalculate usage while idle, accounting for any files removed
+            // from the directory by the administrator
+            if (activeTransfers == 0)
+                usage = getDirectorySize(directory);
+
+            if (quota > 0 && usage >= quota)
+                throw new GuacamoleResourceConflictException("Server-side "
+                        + "file transfer quota has been reached.");
+
+            activeTransfers++;
+
+        }
+
+        String name = UUID.randomUUID() + "-" + sanitizeFilename(filename);
+        final SinkedFile file = new SinkedFile(name, filename,
+                new File(directory, name), tunnel.getUUID());
+
+        // Open file for writing, releasing the reserved slot on failure
+        final QuotaOutputStream output;
+        try {
+            output = new QuotaOutputStream(new FileOutputStream(file.getFile()), quota);
+        }
+        catch (FileNotFoundException e) {
+            synchronized (this) {
+                activeTransfers--;
+            }
+            throw new GuacamoleServerException("Unable to create file for "
+                    + "server-side transfer.", e);
+        }
+
+        files.put(name, file);
+
+        logger.info("Writing \"{}\" directly to \"{}\".", filename, file.getFile());
+
+        // Write stream contents to file without waiting for the stream to
+        // end. Intercepted streams are completed without error when their
+        // tunnel closes, so a closed tunnel means the stream did not finish.
+        tunnel.interceptStreamAsync(index, output).whenComplete((result, error) -> {
+            if (error == null && !tunnel.isOpen())
+                error = new GuacamoleResourceClosedException("Tunnel closed "
+                        + "before the stream ended.");
+            transferEnded(file, output, error);
+        });
+
+        // Files of closed tunnels can no longer be retrieved
+        tunnel.getClosure().thenRun(() -> removeFile(file));
+
+        return file;
+
+    }
+
+    /**
+     * Returns the fully-written file having the given name, which must have
+     * been written from a stream of the given tunnel.
+     *
+     * @param tunnel
+     *     The tunnel whose stream was written to the requested file.
+     *
+     * @param name
+     *     The unique name of the requested file.
+     *
+     * @return
+     *     The fully-written file having the given name.
+     *
+     * @throws GuacamoleException
+     *     If no such file was written from a stream of the given tunnel, or
+     *     if the file is still being written.
+     */
+    public SinkedFile getSinkedFile(StreamInterceptingTunnel tunnel,
+            String name) throws GuacamoleException {
+
+        // Files are only accessible through the tunnel that wrote them
+        SinkedFile file = files.get(name);
+        if (file == null || !file.getTunnelUUID().equals(tunnel.getUUID()))
+            throw new GuacamoleResourceNotFoundException("No such file.");
+
+        if (!file.isDone())
+            throw new GuacamoleResourceConflictException("File is still "
+                    + "being transferred.");
+
+        // Failed transfers are removed once complete
+        if (!file.getCompletion().join() || !file.getFile().exists())
+            throw new GuacamoleResourceNotFoundException("No such file.");
+
+        return file;
+
+    }
+
+}
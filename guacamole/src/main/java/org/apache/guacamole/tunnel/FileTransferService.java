@@ -0,0 +1,175 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.guacamole.tunnel;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.environment.Environment;
+import org.apache.guacamole.properties.IntegerGuacamoleProperty;
+import org.apache.guacamole.properties.LongGuacamoleProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Service which provides the configuration of file transfers performed
+ * through intercepted streams, as configured via guacamole.properties. By
+ * default, transfers acknowledge each blob individually.
+ */
+@Singleton
+public class FileTransferService {
+
+    /**
+     * Logger for this class.
+     */
+    private final Logger logger = LoggerFactory.getLogger(FileTransferService.class);
+
+    /**
+     * The number of blobs of an intercepted stream which may be in flight at
+     * any one time. The default of 1 waits for each blob to be acknowledged
+     * before the next is sent.
+     */
+    private final IntegerGuacamoleProperty FILE_TRANSFER_WINDOW =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "file-transfer-window"; }
+
+    };
+
+    /**
+     * The maximum number of bytes sent within each blob of an intercepted
+     * upload. Larger values cannot exceed InputStreamInterceptingFilter's
+     * maximum blob size.
+     */
+    private final IntegerGuacamoleProperty FILE_TRANSFER_BLOB_SIZE =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "file-transfer-blob-size"; }
+
+    };
+
+    /**
+     * The maximum number of bytes of each download which may be retained
+     * within a temporary file, allowing interrupted downloads to be resumed.
+     * By default, downloads are not retained.
+     */
+    private final LongGuacamoleProperty FILE_TRANSFER_SPOOL_LIMIT =
+            new LongGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "file-transfer-spool-limit"; }
+
+    };
+
+    /**
+     * The Guacamole server environment.
+     */
+    @Inject
+    private Environment environment;
+
+    /**
+     * The configured window size, or null if guacamole.properties has not
+     * yet been read.
+     */
+    private Integer windowSize = null;
+
+    /**
+     * The configured blob size, or null if guacamole.properties has not yet
+     * been read.
+     */
+    private Integer blobSize = null;
+
+    /**
+     * The configured spool limit, or null if guacamole.properties has not yet
+     * been read.
+     */
+    private Long spoolLimit = null;
+
+    /**
+     * Reads the file transfer configuration from guacamole.properties, if not
+     * already read. If guacamole.properties cannot be read, or contains
+     * invalid values, the defaults are used.
+     */
+    private synchronized void readConfiguration() {
+
+        if (windowSize != null)
+            return;
+
+        windowSize = 1;
+        blobSize = InputStreamInterceptingFilter.MAX_BLOB_SIZE;
+        spoolLimit = 0L;
+
+        try {
+            windowSize = Math.max(1, environment.getProperty(FILE_TRANSFER_WINDOW, 1));
+            blobSize = Math.max(1, Math.min(InputStreamInterceptingFilter.MAX_BLOB_SIZE,
+                    environment.getProperty(FILE_TRANSFER_BLOB_SIZE,
+                            InputStreamInterceptingFilter.MAX_BLOB_SIZE)));
+            spoolLimit = Math.max(0, environment.getProperty(FILE_TRANSFER_SPOOL_LIMIT, 0L));
+        }
+        catch (GuacamoleException e) {
+            logger.error("Unable to read file transfer configuration from "
+                    + "guacamole.properties: {}", e.getMessage());
+            logger.debug("Error reading file transfer configuration.", e);
+        }
+
+    }
+
+    /**
+     * Returns the number of blobs of an intercepted stream which may be in
+     * flight at any one time.
+     *
+     * @return
+     *     The number of blobs which may be in flight at any one time, where 1
+     *     requires each blob to be acknowledged before the next is sent.
+     */
+    public synchronized int getWindowSize() {
+        readConfiguration();
+        return windowSize;
+    }
+
+    /**
+     * Returns the maximum number of bytes to send within each blob of an
+     * intercepted upload.
+     *
+     * @return
+     *     The maximum number of bytes to send within each blob.
+     */
+    public synchronized int getBlobSize() {
+        readConfiguration();
+        return blobSize;
+    }
+
+    /**
+     * Returns the maximum number of bytes of each download which may be
+     * retained such that interrupted downloads can be resumed.
+     *
+     * @return
+     *     The maximum number of bytes of each download which may be retained,
+     *     or 0 if downloads should not be retained.
+     */
+    public synchronized long getSpoolLimit() {
+        readConfiguration();
+        return spoolLimit;
+    }
+
+}
@@ -0,0 +1,202 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.tunnel;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.environment.Environment;
+import org.apache.guacamole.io.GuacamoleWriter;
+import org.apache.guacamole.net.DelegatingGuacamoleTunnel;
+import org.apache.guacamole.net.GuacamoleTunnel;
+import org.apache.guacamole.properties.IntegerGuacamoleProperty;
+import org.apache.guacamole.protocol.CoalescingGuacamoleWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Service which optionally coalesces the "mouse" and "touch" position
+ * updates sent by each user before they reach guacd, as configured via
+ * guacamole.properties. Coalescing is disabled by default.
+ */
+@Singleton
+public class InputCoalescingService {
+
+    /**
+     * Logger for this class.
+     */
+    private final Logger logger = LoggerFactory.getLogger(InputCoalescingService.class);
+
+    /**
+     * The minimum number of milliseconds between position updates sent to
+     * guacd for any one pointer. Zero, the default, disables coalescing.
+     */
+    private final IntegerGuacamoleProperty INPUT_COALESCING_WINDOW =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "input-coalescing-window"; }
+
+    };
+
+    /**
+     * The Guacamole server environment.
+     */
+    @Inject
+    private Environment environment;
+
+    /**
+     * The configured coalescing window, in milliseconds, or null if
+     * guacamole.properties has not yet been read.
+     */
+    private Integer window = null;
+
+    /**
+     * The executor which writes held position updates once the coalescing
+     * window has elapsed, or null if not yet created.
+     */
+    private ScheduledExecutorService executor = null;
+
+    /**
+     * Returns the configured coalescing window, reading guacamole.properties
+     * if necessary. If guacamole.properties cannot be read, coalescing is
+     * disabled.
+     *
+     * @return
+     *     The minimum number of milliseconds between position updates, or
+     *     zero if coalescing is disabled.
+     */
+    private synchronized int getWindow() {
+
+        if (window == null) {
+            try {
+                window = environment.getProperty(INPUT_COALESCING_WINDOW, 0);
+            }
+            catch (GuacamoleException e) {
+                logger.error("Unable to read input coalescing configuration "
+                        + "from guacamole.properties: {}", e.getMessage());
+                logger.debug("Error reading input coalescing configuration.", e);
+                window = 0;
+            }
+        }
+
+        return window;
+
+    }
+
+    /**
+     * Returns the executor which writes held position updates once the
+     * coalescing window has elapsed, creating it if necessary.
+     *
+     * @return
+     *     The executor which writes held position updates.
+     */
+    private synchronized ScheduledExecutorService getExecutor() {
+
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable task) {
+                    Thread thread = new Thread(task, "guacamole-input-coalescing");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+
+            });
+        }
+
+        return executor;
+
+    }
+
+    /**
+     * Shuts down the executor which writes held position updates, discarding
+     * any updates which are still held. This function should be invoked when
+     * the web application is being unloaded.
+     */
+    public synchronized void shutdown() {
+
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+
+    }
+
+    /**
+     * Returns a tunnel which coalesces the position updates written to the
+     * given tunnel, if coalescing is enabled. If coalescing is disabled, the
+     * given tunnel is returned unchanged.
+     *
+     * @param tunnel
+     *     The tunnel whose written position updates should be coalesced.
+     *
+     * @return
+     *     A tunnel which delegates to the given tunnel while coalescing
+     *     written position updates, or the given tunnel if coalescing is
+     *     disabled.
+     */
+    public GuacamoleTunnel coalesce(final GuacamoleTunnel tunnel) {
+
+        final int coalescingWindow = getWindow();
+        if (coalescingWindow <= 0)
+            return tunnel;
+
+        // The coalescing writer retains the tunnel's writer rather than
+        // acquiring it for each write. Writes made through the returned
+        // tunnel hold the tunnel's writer already, while held updates written
+        // once the window elapses must acquire it explicitly, such that they
+        // cannot interleave with instructions written by other threads.
+        GuacamoleWriter tunnelWriter = tunnel.acquireWriter();
+        tunnel.releaseWriter();
+
+        final GuacamoleWriter writer = new CoalescingGuacamoleWriter(
+                tunnelWriter, coalescingWindow, getExecutor()) {
+
+            @Override
+            protected void scheduledFlush() throws GuacamoleException {
+                tunnel.acquireWriter();
+                try {
+                    super.scheduledFlush();
+                }
+                finally {
+                    tunnel.releaseWriter();
+                }
+            }
+
+        };
+
+        return new DelegatingGuacamoleTunnel(tunnel) {
+
+            @Override
+            public GuacamoleWriter acquireWriter() {
+                super.acquireWriter();
+                return writer;
+            }
+
+        };
+
+    }
+
+}
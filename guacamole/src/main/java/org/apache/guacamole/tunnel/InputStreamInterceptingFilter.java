@@ -19,14 +19,18 @@
 
 package org.apache.guacamole.tunnel;
 
-import com.google.common.io.BaseEncoding;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.io.Base64Codec;
 import org.apache.guacamole.net.GuacamoleTunnel;
 import org.apache.guacamole.protocol.GuacamoleInstruction;
+import org.apache.guacamole.protocol.GuacamoleOpcode;
 import org.apache.guacamole.protocol.GuacamoleStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,7 +39,8 @@ import org.slf4j.LoggerFactory;
  * Filter which selectively intercepts "ack" instructions, automatically reading
  * from or closing the stream given with interceptStream(). The required "blob"
  * and "end" instructions denoting the content and boundary of the stream are
- * sent automatically.
+ * sent automatically. Optionally, several blobs may be kept in flight, such
+ * that the rate of transfer is not bound by the round trip time to guacd.
  */
 public class InputStreamInterceptingFilter
         extends StreamInterceptingFilter<InputStream> {
@@ -46,6 +51,37 @@ public class InputStreamInterceptingFilter
     private static final Logger logger =
             LoggerFactory.getLogger(InputStreamInterceptingFilter.class);
 
+    /**
+     * The opcodes of all instructions which may be affected by this filter.
+     */
+    private static final Set<String> FILTERED_OPCODES =
+            Collections.singleton("ack");
+
+    /**
+     * The largest number of bytes which may be sent within each "blob"
+     * instruction, such that the encoded instruction remains within the
+     * instruction length limit of guacd.
+     */
+    public static final int MAX_BLOB_SIZE = 6048;
+
+    /**
+     * The number of blobs which may be sent before the first is
+     * acknowledged.
+     */
+    private final int windowSize;
+
+    /**
+     * The maximum number of bytes to send within each "blob" instruction.
+     */
+    private final int blobSize;
+
+    /**
+     * Buffers which may be reused to read the data of each blob. Blobs may be
+     * read concurrently for different streams, both in response to received
+     * "ack" instructions and as new streams are intercepted.
+     */
+    private final Queue<byte[]> blobBuffers = new ConcurrentLinkedQueue<byte[]>();
+
     /**
      * Creates a new InputStreamInterceptingFilter which selectively intercepts
      * "ack" instructions. The required "blob" and "end" instructions will
@@ -57,7 +93,34 @@ public class InputStreamInterceptingFilter
      *     instructions should be sent.
      */
     public InputStreamInterceptingFilter(GuacamoleTunnel tunnel) {
+        this(tunnel, 1, MAX_BLOB_SIZE);
+    }
+
+    /**
+     * Creates a new InputStreamInterceptingFilter which selectively intercepts
+     * "ack" instructions, keeping up to the given number of "blob"
+     * instructions in flight for each stream. The required "blob" and "end"
+     * instructions will automatically be sent over the given tunnel based on
+     * the content of provided InputStreams.
+     *
+     * @param tunnel
+     *     The GuacamoleTunnel over which any required "blob" and "end"
+     *     instructions should be sent.
+     *
+     * @param windowSize
+     *     The number of "blob" instructions which may be sent before the
+     *     first is acknowledged. A value of 1 waits for each blob to be
+     *     acknowledged before the next is sent.
+     *
+     * @param blobSize
+     *     The maximum number of bytes to send within each "blob" instruction.
+     *     This may not exceed MAX_BLOB_SIZE.
+     */
+    public InputStreamInterceptingFilter(GuacamoleTunnel tunnel,
+            int windowSize, int blobSize) {
         super(tunnel);
+        this.windowSize = windowSize;
+        this.blobSize = Math.min(blobSize, MAX_BLOB_SIZE);
     }
 
     /**
@@ -69,13 +132,17 @@ public class InputStreamInterceptingFilter
      *     The index of the stream that this "blob" instruction relates to.
      *
      * @param blob
-     *     The chunk of data to send within the "blob" instruction.
+     *     The buffer containing the chunk of data to send within the "blob"
+     *     instruction.
+     *
+     * @param length
+     *     The number of bytes within the buffer to send.
      */
-    private void sendBlob(String index, byte[] blob) {
+    private void sendBlob(String index, byte[] blob, int length) {
 
         // Send "blob" containing provided data
         sendInstruction(new GuacamoleInstruction("blob", index,
-           BaseEncoding.base64().encode(blob)));
+           Base64Codec.encode(blob, 0, length)));
 
     }
 
@@ -96,43 +163,69 @@ public class InputStreamInterceptingFilter
      * intercepted stream, sending that data as a "blob" instruction over the
      * GuacamoleTunnel associated with this filter. If the end of the
      * InputStream is reached, an "end" instruction will automatically be sent.
+     * As blobs may be requested concurrently when more than one blob is
+     * permitted in flight, each stream is read by only one thread at a time.
      *
      * @param stream
      *     The stream from which the next chunk of data should be read.
+     *
+     * @return
+     *     true if a blob was sent and further blobs may be read, false if the
+     *     stream has ended.
      */
-    private void readNextBlob(InterceptedStream<InputStream> stream) {
+    private boolean readNextBlob(InterceptedStream<InputStream> stream) {
 
-        // Read blob from stream if it exists
-        try {
+        synchronized (stream) {
 
-            // Read raw data from input stream
-            byte[] blob = new byte[6048];
-            int length = stream.getStream().read(blob);
+            // Ignore requests for blobs of streams which have since ended
+            if (getInterceptedStream(stream.getIndex()) != stream)
+                return false;
 
-            // End stream if no more data
-            if (length == -1) {
+            // Reuse any available buffer, returning it to the pool below
+            byte[] blob = blobBuffers.poll();
+            if (blob == null)
+                blob = new byte[MAX_BLOB_SIZE];
 
-                // Close stream, send end if the stream is still valid
-                if (closeInterceptedStream(stream))
-                    sendEnd(stream.getIndex());
+            // Read blob from stream if it exists
+            try {
+
+                // Read raw data from input stream
+                int length = stream.getStream().read(blob, 0, blobSize);
+
+                // End stream if no more data
+                if (length == -1) {
+
+                    // Close stream, send end if the stream is still valid
+                    if (closeInterceptedStream(stream))
+                        sendEnd(stream.getIndex());
+
+                    return false;
+
+                }
 
-                return;
+                // Inject corresponding "blob" instruction
+                sendBlob(stream.getIndex(), blob, length);
+                return true;
 
             }
 
-            // Inject corresponding "blob" instruction
-            sendBlob(stream.getIndex(), Arrays.copyOf(blob, length));
+            // Terminate stream if it cannot be read
+            catch (IOException e) {
 
-        }
+                logger.debug("Unable to read data of intercepted input stream.", e);
+
+                // Close stream, send end if the stream is still valid
+                if (closeInterceptedStream(stream))
+                    sendEnd(stream.getIndex());
 
-        // Terminate stream if it cannot be read
-        catch (IOException e) {
+                return false;
 
-            logger.debug("Unable to read data of intercepted input stream.", e);
+            }
 
-            // Close stream, send end if the stream is still valid
-            if (closeInterceptedStream(stream))
-                sendEnd(stream.getIndex());
+            // Buffer may be reused once its data has been encoded
+            finally {
+                blobBuffers.offer(blob);
+            }
 
         }
 
@@ -190,12 +283,17 @@ public class InputStreamInterceptingFilter
 
     }
 
+    @Override
+    public Set<String> getFilteredOpcodes() {
+        return FILTERED_OPCODES;
+    }
+
     @Override
     public GuacamoleInstruction filter(GuacamoleInstruction instruction)
             throws GuacamoleException {
 
         // Intercept "ack" instructions for in-progress streams
-        if (instruction.getOpcode().equals("ack"))
+        if (instruction.getKnownOpcode() == GuacamoleOpcode.ACK)
             handleAck(instruction);
 
         // Pass instruction through untouched
@@ -206,9 +304,12 @@ public class InputStreamInterceptingFilter
     @Override
     protected void handleInterceptedStream(InterceptedStream<InputStream> stream) {
 
-        // Read the first blob. Note that future blobs will be read in response
-        // to received "ack" instructions.
-        readNextBlob(stream);
+        // Fill the window with the first blobs. Note that future blobs will
+        // be read in response to received "ack" instructions.
+        for (int i = 0; i < windowSize; i++) {
+            if (!readNextBlob(stream))
+                break;
+        }
 
     }
 
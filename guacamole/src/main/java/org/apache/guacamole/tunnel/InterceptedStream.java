@@ -20,6 +20,7 @@
 package org.apache.guacamole.tunnel;
 
 import java.io.Closeable;
+import java.util.concurrent.CompletableFuture;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.protocol.GuacamoleStatus;
 
@@ -53,6 +54,14 @@ public class InterceptedStream<T extends Closeable> {
      */
     private GuacamoleException streamError = null;
 
+    /**
+     * Future which completes once the intercepted stream has ended and the
+     * stream object has been closed. If an error prevented the stream from
+     * completing successfully, this future completes exceptionally with that
+     * error.
+     */
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+
     /**
      * Creates a new InterceptedStream which associated the given Guacamole
      * stream index with the given stream object.
@@ -157,4 +166,30 @@ public class InterceptedStream<T extends Closeable> {
         return streamError;
     }
 
+    /**
+     * Marks this InterceptedStream as complete, completing the future
+     * returned by getCompletion(). If an error has been reported via
+     * setStreamError(), the future completes exceptionally with that error.
+     * Invoking this function more than once has no effect.
+     */
+    public void complete() {
+        if (streamError != null)
+            completion.completeExceptionally(streamError);
+        else
+            completion.complete(null);
+    }
+
+    /**
+     * Returns a future which completes once this InterceptedStream has ended
+     * and its stream object has been closed. If an error prevented the stream
+     * from completing successfully, the future completes exceptionally with
+     * the GuacamoleException returned by getStreamError().
+     *
+     * @return
+     *     A future which completes once this InterceptedStream has ended.
+     */
+    public CompletableFuture<Void> getCompletion() {
+        return completion;
+    }
+
 }
@@ -21,8 +21,10 @@ package org.apache.guacamole.tunnel;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import org.apache.guacamole.GuacamoleResourceClosedException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -41,12 +43,6 @@ public class InterceptedStreamMap<T extends Closeable> {
      */
     private static final Logger logger = LoggerFactory.getLogger(InterceptedStreamMap.class);
 
-    /**
-     * The maximum number of milliseconds to wait for notification that a
-     * stream has closed before explicitly checking for closure ourselves.
-     */
-    private static final long STREAM_WAIT_TIMEOUT = 1000;
-
     /**
      * Mapping of the indexes of all streams whose associated "blob" and "end"
      * instructions should be intercepted.
@@ -55,28 +51,28 @@ public class InterceptedStreamMap<T extends Closeable> {
             new ConcurrentHashMap<String, InterceptedStream<T>>();
 
     /**
-     * Closes the given stream, logging any errors that occur during closure.
-     * The monitor of the stream is notified via a single call to notify() once
-     * the attempt to close has been made.
+     * Closes the stream object of the given intercepted stream, logging any
+     * errors that occur during closure. The intercepted stream is marked as
+     * complete once the attempt to close has been made, unblocking any
+     * in-progress calls to waitFor() and completing the future returned by
+     * InterceptedStream.getCompletion().
      *
      * @param stream
-     *     The stream to close and notify.
+     *     The intercepted stream whose stream object should be closed.
      */
-    private void close(T stream) {
+    private void closeStream(InterceptedStream<T> stream) {
 
         // Attempt to close stream
         try {
-            stream.close();
+            stream.getStream().close();
         }
         catch (IOException e) {
             logger.warn("Unable to close intercepted stream: {}", e.getMessage());
             logger.debug("I/O error prevented closure of intercepted stream.", e);
         }
 
-        // Notify waiting threads that the stream has ended
-        synchronized (stream) {
-            stream.notify();
-        }
+        // Notify any waiting threads or callbacks that the stream has ended
+        stream.complete();
 
     }
 
@@ -103,7 +99,7 @@ public class InterceptedStreamMap<T extends Closeable> {
             return null;
 
         // Close stream if it exists
-        close(stream.getStream());
+        closeStream(stream);
         return stream;
 
     }
@@ -126,7 +122,7 @@ public class InterceptedStreamMap<T extends Closeable> {
         boolean wasRemoved = streams.remove(stream.getIndex(), stream);
 
         // Close provided stream
-        close(stream.getStream());
+        closeStream(stream);
 
         return wasRemoved;
 
@@ -135,13 +131,17 @@ public class InterceptedStreamMap<T extends Closeable> {
     /**
      * Removes and closes all streams stored within this map, logging any errors
      * that occur during closure, and unblocking any in-progress calls to
-     * waitFor().
+     * waitFor(). As the streams have not ended, each stream is marked as
+     * having failed with a GuacamoleResourceClosedException.
      */
     public void closeAll() {
 
-        // Close any active streams
-        for (InterceptedStream<T> stream : streams.values())
-            close(stream.getStream());
+        // Close any active streams, which have necessarily not finished
+        for (InterceptedStream<T> stream : streams.values()) {
+            stream.setStreamError(new GuacamoleResourceClosedException(
+                    "Stream closed before it ended."));
+            closeStream(stream);
+        }
 
         // Remove now-useless references
         streams.clear();
@@ -150,29 +150,35 @@ public class InterceptedStreamMap<T extends Closeable> {
 
     /**
      * Blocks until the given stream is closed, or until another stream with
-     * the same index replaces it.
+     * the same index replaces it. Callers which must not block should instead
+     * use the future returned by InterceptedStream.getCompletion().
      *
      * @param stream
      *     The stream to wait for.
      */
     public void waitFor(InterceptedStream<T> stream) {
 
-        T underlyingStream = stream.getStream();
-
-        // Wait for stream to close
-        synchronized (underlyingStream) {
-            while (streams.get(stream.getIndex()) == stream) {
-                try {
-                    underlyingStream.wait(STREAM_WAIT_TIMEOUT);
-                }
-                catch (InterruptedException e) {
-                    // Ignore
-                }
-            }
+        // Wait for stream to close, ignoring any reported error (errors are
+        // exposed through getStreamError())
+        try {
+            stream.getCompletion().join();
+        }
+        catch (CompletionException e) {
+            // Ignore
         }
 
     }
 
+    /**
+     * Returns whether this map contains no streams.
+     *
+     * @return
+     *     true if no streams are stored within this map, false otherwise.
+     */
+    public boolean isEmpty() {
+        return streams.isEmpty();
+    }
+
     /**
      * Returns the stream stored in this map under the given index.
      *
@@ -203,7 +209,7 @@ public class InterceptedStreamMap<T extends Closeable> {
 
         // If a previous stream DID exist, close it
         if (oldStream != null)
-            close(oldStream.getStream());
+            closeStream(oldStream);
 
     }
 
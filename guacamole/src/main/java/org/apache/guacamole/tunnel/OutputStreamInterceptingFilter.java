@@ -19,13 +19,19 @@
 
 package org.apache.guacamole.tunnel;
 
-import com.google.common.io.BaseEncoding;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.io.Base64Codec;
 import org.apache.guacamole.net.GuacamoleTunnel;
 import org.apache.guacamole.protocol.GuacamoleInstruction;
+import org.apache.guacamole.protocol.GuacamoleOpcode;
+import org.apache.guacamole.protocol.GuacamoleParser;
 import org.apache.guacamole.protocol.GuacamoleStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,7 +40,10 @@ import org.slf4j.LoggerFactory;
  * Filter which selectively intercepts "blob" and "end" instructions,
  * automatically writing to or closing the stream given with
  * interceptStream(). The required "ack" responses to received blobs are
- * sent automatically.
+ * sent automatically. Optionally, several blobs may be acknowledged on
+ * behalf of the client for each blob the client must acknowledge itself,
+ * such that the rate of transfer is not bound by the round trip time to the
+ * client.
  */
 public class OutputStreamInterceptingFilter
         extends StreamInterceptingFilter<OutputStream> {
@@ -45,6 +54,13 @@ public class OutputStreamInterceptingFilter
     private static final Logger logger =
             LoggerFactory.getLogger(OutputStreamInterceptingFilter.class);
 
+    /**
+     * The opcodes of all instructions which may be affected by this filter.
+     */
+    private static final Set<String> FILTERED_OPCODES =
+            Collections.unmodifiableSet(new HashSet<String>(
+                    Arrays.asList("blob", "end", "sync")));
+
     /**
      * Whether this OutputStreamInterceptingFilter should respond to received
      * blobs with "ack" messages on behalf of the client. If false, blobs will
@@ -53,6 +69,27 @@ public class OutputStreamInterceptingFilter
      */
     private boolean acknowledgeBlobs = true;
 
+    /**
+     * The number of blobs which may be acknowledged on behalf of the client
+     * before the client must itself confirm that it is keeping up with the
+     * graphical session.
+     */
+    private final int windowSize;
+
+    /**
+     * The number of blobs acknowledged on behalf of the client since the
+     * client last acknowledged a blob itself.
+     */
+    private int unconfirmedBlobs = 0;
+
+    /**
+     * Buffer which receives the decoded data of each intercepted blob. As
+     * instructions are filtered only by the thread reading from the tunnel,
+     * this buffer is reused for all blobs.
+     */
+    private byte[] blobBuffer = new byte[Base64Codec.getMaxDecodedLength(
+            GuacamoleParser.INSTRUCTION_MAX_LENGTH)];
+
     /**
      * Creates a new OutputStreamInterceptingFilter which selectively intercepts
      * "blob" and "end" instructions. The required "ack" responses will
@@ -63,7 +100,30 @@ public class OutputStreamInterceptingFilter
      *     should be sent.
      */
     public OutputStreamInterceptingFilter(GuacamoleTunnel tunnel) {
+        this(tunnel, 1);
+    }
+
+    /**
+     * Creates a new OutputStreamInterceptingFilter which selectively intercepts
+     * "blob" and "end" instructions, acknowledging up to the given number of
+     * blobs on behalf of the client before requiring the client to respond
+     * on its own. The required "ack" responses will automatically be sent
+     * over the given tunnel.
+     *
+     * @param tunnel
+     *     The GuacamoleTunnel over which any required "ack" instructions
+     *     should be sent.
+     *
+     * @param windowSize
+     *     The number of blobs which may be acknowledged on behalf of the
+     *     client before the client must respond on its own. A value of 1
+     *     requires the client to respond to the first blob following each
+     *     "sync" instruction.
+     */
+    public OutputStreamInterceptingFilter(GuacamoleTunnel tunnel,
+            int windowSize) {
         super(tunnel);
+        this.windowSize = windowSize;
     }
 
     /**
@@ -123,11 +183,31 @@ public class OutputStreamInterceptingFilter
         if (stream == null)
             return instruction;
 
-        // Decode blob
-        byte[] blob;
+        // Locate base64 data within the received instruction, falling back
+        // to the decoded argument only if the instruction was not received
+        // as raw protocol data
+        char[] data = instruction.getRawData();
+        int offset;
+        int length;
+        if (data != null) {
+            offset = instruction.getArgOffset(1);
+            length = instruction.getArgLength(1);
+        }
+        else {
+            data = args.get(1).toCharArray();
+            offset = 0;
+            length = data.length;
+        }
+
+        // Grow buffer if blob exceeds expected maximum length
+        int maxBlobLength = Base64Codec.getMaxDecodedLength(length);
+        if (maxBlobLength > blobBuffer.length)
+            blobBuffer = new byte[maxBlobLength];
+
+        // Decode blob directly into reusable buffer
+        int blobLength;
         try {
-            String data = args.get(1);
-            blob = BaseEncoding.base64().decode(data);
+            blobLength = Base64Codec.decode(data, offset, length, blobBuffer, 0);
         }
         catch (IllegalArgumentException e) {
             logger.warn("Received base64 data for intercepted stream was invalid.");
@@ -138,18 +218,21 @@ public class OutputStreamInterceptingFilter
         try {
 
             // Attempt to write data to stream
-            stream.getStream().write(blob);
+            stream.getStream().write(blobBuffer, 0, blobLength);
 
             // Force client to respond with their own "ack" if we need to
             // confirm that they are not falling behind with respect to the
-            // graphical session
-            if (!acknowledgeBlobs) {
+            // graphical session, once the window of blobs which may be
+            // acknowledged on the client's behalf has been used
+            if (!acknowledgeBlobs && unconfirmedBlobs >= windowSize - 1) {
                 acknowledgeBlobs = true;
+                unconfirmedBlobs = 0;
                 return new GuacamoleInstruction("blob", index, "");
             }
 
             // Otherwise, acknowledge the blob on the client's behalf
             sendAck(index, "OK", GuacamoleStatus.SUCCESS);
+            unconfirmedBlobs++;
 
         }
         catch (IOException e) {
@@ -193,29 +276,42 @@ public class OutputStreamInterceptingFilter
         acknowledgeBlobs = false;
     }
 
+    @Override
+    public Set<String> getFilteredOpcodes() {
+        return FILTERED_OPCODES;
+    }
+
     @Override
     public GuacamoleInstruction filter(GuacamoleInstruction instruction)
             throws GuacamoleException {
 
-        // Intercept "blob" instructions for in-progress streams
-        if (instruction.getOpcode().equals("blob"))
-            return handleBlob(instruction);
-
-        // Intercept "end" instructions for in-progress streams
-        if (instruction.getOpcode().equals("end")) {
-            handleEnd(instruction);
+        // Pass through instructions having unknown opcodes untouched
+        GuacamoleOpcode opcode = instruction.getKnownOpcode();
+        if (opcode == null)
             return instruction;
-        }
 
-        // Monitor "sync" instructions to ensure the client does not starve
-        // from lack of graphical updates
-        if (instruction.getOpcode().equals("sync")) {
-            handleSync(instruction);
-            return instruction;
-        }
+        switch (opcode) {
+
+            // Intercept "blob" instructions for in-progress streams
+            case BLOB:
+                return handleBlob(instruction);
 
-        // Pass instruction through untouched
-        return instruction;
+            // Intercept "end" instructions for in-progress streams
+            case END:
+                handleEnd(instruction);
+                return instruction;
+
+            // Monitor "sync" instructions to ensure the client does not starve
+            // from lack of graphical updates
+            case SYNC:
+                handleSync(instruction);
+                return instruction;
+
+            // Pass instruction through untouched
+            default:
+                return instruction;
+
+        }
 
     }
 
@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.guacamole.tunnel;
+
+import java.io.File;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A file being written, or which has been written, directly to the server's
+ * file system from an intercepted output stream, rather than being sent to
+ * the browser.
+ */
+public class SinkedFile {
+
+    /**
+     * The unique name of the file within the sink directory.
+     */
+    private final String name;
+
+    /**
+     * The filename originally provided for the stream.
+     */
+    private final String filename;
+
+    /**
+     * The file being written.
+     */
+    private final File file;
+
+    /**
+     * The UUID of the tunnel whose stream is being written to the file.
+     */
+    private final UUID tunnelUUID;
+
+    /**
+     * Future which completes once the intercepted stream has ended, with the
+     * value true if the file contains the full contents of the stream, or
+     * false if the transfer failed and the file has been deleted.
+     */
+    private final CompletableFuture<Boolean> completion = new CompletableFuture<>();
+
+    /**
+     * Creates a new SinkedFile representing the given file, which will
+     * receive the contents of a stream of the tunnel having the given UUID.
+     *
+     * @param name
+     *     The unique name of the file within the sink directory.
+     *
+     * @param filename
+     *     The filename originally provided for the stream.
+     *
+     * @param file
+     *     The file being written.
+     *
+     * @param tunnelUUID
+     *     The UUID of the tunnel whose stream is being written to the file.
+     */
+    public SinkedFile(String name, String filename, File file, UUID tunnelUUID) {
+        this.name = name;
+        this.filename = filename;
+        this.file = file;
+        this.tunnelUUID = tunnelUUID;
+    }
+
+    /**
+     * Returns the unique name of the file within the sink directory. This
+     * name may safely be used within URLs.
+     *
+     * @return
+     *     The unique name of the file within the sink directory.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the filename originally provided for the stream.
+     *
+     * @return
+     *     The filename originally provided for the stream.
+     */
+    public String getFilename() {
+        return filename;
+    }
+
+    /**
+     * Returns the file being written.
+     *
+     * @return
+     *     The file being written.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the UUID of the tunnel whose stream is being written to the
+     * file.
+     *
+     * @return
+     *     The UUID of the tunnel whose stream is being written to the file.
+     */
+    public UUID getTunnelUUID() {
+        return tunnelUUID;
+    }
+
+    /**
+     * Marks the transfer of this file as finished.
+     *
+     * @param success
+     *     true if the file contains the full contents of the stream, false if
+     *     the transfer failed.
+     */
+    void complete(boolean success) {
+        completion.complete(success);
+    }
+
+    /**
+     * Returns whether the transfer of this file has finished, successfully or
+     * otherwise.
+     *
+     * @return
+     *     true if the transfer of this file has finished, false if the
+     *     transfer is still in progress.
+     */
+    public boolean isDone() {
+        return completion.isDone();
+    }
+
+    /**
+     * Returns a future which completes once the intercepted stream has
+     * ended, with the value true if the file contains the full contents of
+     * the stream, or false if the transfer failed.
+     *
+     * @return
+     *     A future which completes once the transfer of this file finishes.
+     */
+    public CompletableFuture<Boolean> getCompletion() {
+        return completion;
+    }
+
+}
@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.guacamole.tunnel;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * OutputStream which copies all data written to it into a StreamSpool in
+ * addition to an underlying OutputStream. If the underlying OutputStream
+ * fails, for example because the client which requested the data has
+ * disconnected, data continues to be written to the spool alone such that
+ * the client may later resume. Errors are only reported once neither the
+ * underlying OutputStream nor the spool can accept further data.
+ */
+public class SpoolingOutputStream extends OutputStream {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger logger =
+            LoggerFactory.getLogger(SpoolingOutputStream.class);
+
+    /**
+     * The OutputStream to which data should be written, or null if that
+     * OutputStream has failed.
+     */
+    private OutputStream output;
+
+    /**
+     * The spool which should receive a copy of all data written.
+     */
+    private final StreamSpool spool;
+
+    /**
+     * Creates a new SpoolingOutputStream which writes all data to both the
+     * given OutputStream and the given StreamSpool.
+     *
+     * @param output
+     *     The OutputStream to which data should be written.
+     *
+     * @param spool
+     *     The spool which should receive a copy of all data written.
+     */
+    public SpoolingOutputStream(OutputStream output, StreamSpool spool) {
+        this.output = output;
+        this.spool = spool;
+    }
+
+    /**
+     * Handles failure of the underlying OutputStream, continuing with the
+     * spool alone if possible.
+     *
+     * @param e
+     *     The error which caused the underlying OutputStream to fail.
+     *
+     * @param spooled
+     *     Whether the spool is still receiving a copy of all data written.
+     *
+     * @throws IOException
+     *     If the data could not be written to the spool, and thus no
+     *     destination remains for the data.
+     */
+    private void outputFailed(IOException e, boolean spooled)
+            throws IOException {
+
+        output = null;
+
+        // Only fail once the spool cannot continue either
+        if (!spooled)
+            throw e;
+
+        logger.debug("Client stopped receiving intercepted stream. Continuing "
+                + "to spool remaining data.", e);
+
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length)
+            throws IOException {
+
+        boolean spooled = spool.write(buffer, offset, length);
+
+        // Fail immediately if there is nowhere left to write
+        if (output == null) {
+            if (!spooled)
+                throw new IOException("Intercepted stream can no longer be spooled.");
+            return;
+        }
+
+        try {
+            output.write(buffer, offset, length);
+        }
+        catch (IOException e) {
+            outputFailed(e, spooled);
+        }
+
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void flush() throws IOException {
+
+        if (output == null)
+            return;
+
+        try {
+            output.flush();
+        }
+        catch (IOException e) {
+            outputFailed(e, !spool.isDiscarded());
+        }
+
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        if (output == null)
+            return;
+
+        // Failure to close is irrelevant if the data is spooled
+        try {
+            output.close();
+        }
+        catch (IOException e) {
+            outputFailed(e, !spool.isDiscarded());
+        }
+
+    }
+
+}
@@ -20,19 +20,25 @@
 package org.apache.guacamole.tunnel;
 
 import java.io.Closeable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
 import org.apache.guacamole.io.GuacamoleWriter;
 import org.apache.guacamole.net.GuacamoleTunnel;
-import org.apache.guacamole.protocol.GuacamoleFilter;
 import org.apache.guacamole.protocol.GuacamoleInstruction;
+import org.apache.guacamole.protocol.SelectiveGuacamoleFilter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Filter which selectively intercepts stream-related instructions,
  * automatically writing to, reading from, or closing the stream given with
- * interceptStream(). Any instructions required by the Guacamole protocol to be
- * sent in response to intercepted instructions will be sent automatically.
+ * interceptStream() or interceptStreamAsync(). Any instructions required by
+ * the Guacamole protocol to be sent in response to intercepted instructions
+ * will be sent automatically. While no streams are being intercepted, the
+ * filter is inactive and all instructions may be passed through without
+ * being parsed.
  *
  * @param <T>
  *     The type of object which will produce or consume the data sent over the
@@ -40,7 +46,7 @@ import org.slf4j.LoggerFactory;
  *     or OutputStream.
  */
 public abstract class StreamInterceptingFilter<T extends Closeable>
-        implements GuacamoleFilter {
+        implements SelectiveGuacamoleFilter {
 
     /**
      * Logger for this class.
@@ -152,6 +158,11 @@ public abstract class StreamInterceptingFilter<T extends Closeable>
         streams.closeAll();
     }
 
+    @Override
+    public boolean isActive() {
+        return !streams.isEmpty();
+    }
+
     /**
      * Begins handling the data of the given intercepted stream. This function
      * will automatically be invoked by interceptStream() for any valid stream.
@@ -166,10 +177,9 @@ public abstract class StreamInterceptingFilter<T extends Closeable>
 
     /**
      * Intercept the stream having the given index, producing or consuming its
-     * data as appropriate. The given stream object will automatically be closed
-     * when the stream ends. If there is no stream having the given index, then
-     * the stream object will be closed immediately. This function will block
-     * until all data has been handled and the stream is ended.
+     * data as appropriate, without waiting for the stream to end. The given
+     * stream object will automatically be closed when the stream ends. If the
+     * tunnel is no longer open, the returned future will already be complete.
      *
      * @param index
      *     The index of the stream to intercept.
@@ -178,11 +188,12 @@ public abstract class StreamInterceptingFilter<T extends Closeable>
      *     The stream object which will produce or consume all data for the
      *     stream having the given index.
      *
-     * @throws GuacamoleException
-     *     If an error occurs while intercepting the stream, or if the stream
-     *     itself reports an error.
+     * @return
+     *     A future which completes once all data has been handled and the
+     *     stream is ended. If the stream itself reports an error, the future
+     *     completes exceptionally with a corresponding GuacamoleException.
      */
-    public void interceptStream(int index, T stream) throws GuacamoleException {
+    public CompletableFuture<Void> interceptStreamAsync(int index, T stream) {
 
         InterceptedStream<T> interceptedStream;
         String indexString = Integer.toString(index);
@@ -192,7 +203,7 @@ public abstract class StreamInterceptingFilter<T extends Closeable>
 
             // Do nothing if tunnel is not open
             if (!tunnel.isOpen())
-                return;
+                return CompletableFuture.completedFuture(null);
 
             // Wrap stream
             interceptedStream = new InterceptedStream<T>(indexString, stream);
@@ -202,15 +213,48 @@ public abstract class StreamInterceptingFilter<T extends Closeable>
 
         }
 
-        // Produce/consume all stream data
+        // Begin producing/consuming stream data
         handleInterceptedStream(interceptedStream);
 
+        return interceptedStream.getCompletion();
+
+    }
+
+    /**
+     * Intercept the stream having the given index, producing or consuming its
+     * data as appropriate. The given stream object will automatically be closed
+     * when the stream ends. If there is no stream having the given index, then
+     * the stream object will be closed immediately. This function will block
+     * until all data has been handled and the stream is ended.
+     *
+     * @param index
+     *     The index of the stream to intercept.
+     *
+     * @param stream
+     *     The stream object which will produce or consume all data for the
+     *     stream having the given index.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while intercepting the stream, or if the stream
+     *     itself reports an error.
+     */
+    public void interceptStream(int index, T stream) throws GuacamoleException {
+
         // Wait for stream to close
-        streams.waitFor(interceptedStream);
+        try {
+            interceptStreamAsync(index, stream).join();
+        }
 
         // Throw any asynchronously-provided exception
-        if (interceptedStream.hasStreamError())
-            throw interceptedStream.getStreamError();
+        catch (CompletionException e) {
+
+            Throwable cause = e.getCause();
+            if (cause instanceof GuacamoleException)
+                throw (GuacamoleException) cause;
+
+            throw new GuacamoleServerException("Intercepted stream failed.", cause);
+
+        }
 
     }
 
@@ -21,9 +21,15 @@ package org.apache.guacamole.tunnel;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
 import org.apache.guacamole.io.GuacamoleReader;
 import org.apache.guacamole.net.DelegatingGuacamoleTunnel;
 import org.apache.guacamole.net.GuacamoleTunnel;
@@ -45,6 +51,13 @@ public class StreamInterceptingTunnel extends DelegatingGuacamoleTunnel {
     private static final Logger logger =
             LoggerFactory.getLogger(StreamInterceptingTunnel.class);
 
+    /**
+     * The maximum number of spools which may be retained by a single tunnel
+     * after their streams have ended. Once exceeded, the oldest such spools
+     * are discarded.
+     */
+    public static final int MAX_RETAINED_SPOOLS = 4;
+
     /**
      * Creates a new StreamInterceptingTunnel which wraps the given tunnel,
      * reading and intercepting stream-related instructions as necessary to
@@ -55,20 +68,60 @@ public class StreamInterceptingTunnel extends DelegatingGuacamoleTunnel {
      *     interceptStream() is invoked.
      */
     public StreamInterceptingTunnel(GuacamoleTunnel tunnel) {
+        this(tunnel, 1, InputStreamInterceptingFilter.MAX_BLOB_SIZE);
+    }
+
+    /**
+     * Creates a new StreamInterceptingTunnel which wraps the given tunnel,
+     * reading and intercepting stream-related instructions as necessary to
+     * fulfill calls to interceptStream(), keeping up to the given number of
+     * blobs of each intercepted stream in flight.
+     *
+     * @param tunnel
+     *     The tunnel whose stream-related instruction should be intercepted if
+     *     interceptStream() is invoked.
+     *
+     * @param windowSize
+     *     The number of blobs of each intercepted stream which may be in
+     *     flight at any one time. A value of 1 waits for each blob to be
+     *     acknowledged before the next is sent.
+     *
+     * @param blobSize
+     *     The maximum number of bytes to send within each blob of an
+     *     intercepted InputStream.
+     */
+    public StreamInterceptingTunnel(GuacamoleTunnel tunnel, int windowSize,
+            int blobSize) {
         super(tunnel);
+        this.inputStreamFilter = new InputStreamInterceptingFilter(this,
+                windowSize, blobSize);
+        this.outputStreamFilter = new OutputStreamInterceptingFilter(this,
+                windowSize);
     }
 
     /**
      * The filter to use for providing stream data from InputStreams.
      */
-    private final InputStreamInterceptingFilter inputStreamFilter =
-            new InputStreamInterceptingFilter(this);
+    private final InputStreamInterceptingFilter inputStreamFilter;
 
     /**
      * The filter to use for rerouting received stream data to OutputStreams.
      */
-    private final OutputStreamInterceptingFilter outputStreamFilter =
-            new OutputStreamInterceptingFilter(this);
+    private final OutputStreamInterceptingFilter outputStreamFilter;
+
+    /**
+     * All spools retaining the data of intercepted output streams, stored
+     * under the index of their associated stream in the order they were
+     * created. Access to this map must be synchronized on the map.
+     */
+    private final Map<Integer, StreamSpool> spools =
+            new LinkedHashMap<Integer, StreamSpool>();
+
+    /**
+     * Future which completes once this tunnel has been closed and all
+     * intercepted streams and spools have been closed or discarded.
+     */
+    private final CompletableFuture<Void> closure = new CompletableFuture<>();
 
     /**
      * Intercept all data received along the stream having the given index,
@@ -144,6 +197,188 @@ public class StreamInterceptingTunnel extends DelegatingGuacamoleTunnel {
 
     }
 
+    /**
+     * Intercept all data received along the stream having the given index,
+     * writing that data to the given OutputStream, without waiting for the
+     * stream to end. The OutputStream will automatically be closed when the
+     * stream ends. If the tunnel is no longer open, the returned future will
+     * already be complete.
+     *
+     * @param index
+     *     The index of the stream to intercept.
+     *
+     * @param stream
+     *     The OutputStream to write all intercepted data to.
+     *
+     * @return
+     *     A future which completes once all received data has been written to
+     *     the OutputStream and the OutputStream has been closed. If the stream
+     *     reports an error, the future completes exceptionally with a
+     *     corresponding GuacamoleException.
+     */
+    public CompletableFuture<Void> interceptStreamAsync(int index,
+            OutputStream stream) {
+
+        // Log beginning of intercepted stream
+        logger.debug("Intercepting output stream #{} of tunnel \"{}\".",
+                index, getUUID());
+
+        // Log end of intercepted stream
+        return outputStreamFilter.interceptStreamAsync(index,
+                new BufferedOutputStream(stream)).whenComplete((result, error) -> {
+            logger.debug("Intercepted output stream #{} of tunnel \"{}\" ended.",
+                    index, getUUID());
+        });
+
+    }
+
+    /**
+     * Intercept the given stream, continuously writing the contents of the
+     * given InputStream as blobs, without waiting for the stream to end. The
+     * stream will automatically end when the end of the InputStream is
+     * reached. If the tunnel is no longer open, the returned future will
+     * already be complete.
+     *
+     * @param index
+     *     The index of the stream to intercept.
+     *
+     * @param stream
+     *     The InputStream to read all blobs data from.
+     *
+     * @return
+     *     A future which completes once all data from the InputStream has been
+     *     written to the given stream. If the stream reports an error, the
+     *     future completes exceptionally with a corresponding
+     *     GuacamoleException.
+     */
+    public CompletableFuture<Void> interceptStreamAsync(int index,
+            InputStream stream) {
+
+        // Log beginning of intercepted stream
+        logger.debug("Intercepting input stream #{} of tunnel \"{}\".",
+                index, getUUID());
+
+        // Log end of intercepted stream
+        return inputStreamFilter.interceptStreamAsync(index,
+                new BufferedInputStream(stream)).whenComplete((result, error) -> {
+            logger.debug("Intercepted input stream #{} of tunnel \"{}\" ended.",
+                    index, getUUID());
+        });
+
+    }
+
+    /**
+     * Creates a new StreamSpool which may retain the data of the output stream
+     * having the given index, such that the data can be sent again after the
+     * stream has ended. Any existing spool for a stream having the same index
+     * is discarded and replaced. If more than MAX_RETAINED_SPOOLS spools of
+     * ended streams would be retained, the oldest are discarded. The spool is
+     * discarded automatically when this tunnel is closed.
+     *
+     * @param index
+     *     The index of the stream whose data will be spooled.
+     *
+     * @param limit
+     *     The maximum number of bytes which may be spooled.
+     *
+     * @return
+     *     A new, empty StreamSpool associated with the given stream.
+     *
+     * @throws GuacamoleException
+     *     If the temporary file backing the spool cannot be created.
+     */
+    public StreamSpool createSpool(int index, long limit)
+            throws GuacamoleException {
+
+        StreamSpool spool;
+        try {
+            spool = new StreamSpool(limit);
+        }
+        catch (IOException e) {
+            throw new GuacamoleServerException("Unable to create spool for "
+                    + "intercepted stream.", e);
+        }
+
+        synchronized (spools) {
+
+            // Replace any spool from a previous stream having the same index,
+            // ordering the new spool after all others
+            StreamSpool oldSpool = spools.remove(index);
+            if (oldSpool != null)
+                oldSpool.discard();
+
+            spools.put(index, spool);
+
+            // Discard the oldest spools of ended streams beyond the limit.
+            // Spools of streams still in progress are bounded by the number
+            // of streams and are never discarded here.
+            int excess = spools.size() - MAX_RETAINED_SPOOLS;
+            Iterator<StreamSpool> oldest = spools.values().iterator();
+            while (excess > 0 && oldest.hasNext()) {
+                StreamSpool candidate = oldest.next();
+                if (candidate.isDone()) {
+                    candidate.discard();
+                    oldest.remove();
+                    excess--;
+                }
+            }
+
+        }
+
+        // Spools cannot outlive the tunnel
+        if (!isOpen())
+            discardSpools();
+
+        return spool;
+
+    }
+
+    /**
+     * Returns the spool retaining the data of the output stream having the
+     * given index, if any.
+     *
+     * @param index
+     *     The index of the stream whose spool should be returned.
+     *
+     * @return
+     *     The spool associated with the stream having the given index, or
+     *     null if no such spool exists.
+     */
+    public StreamSpool getSpool(int index) {
+        synchronized (spools) {
+            return spools.get(index);
+        }
+    }
+
+    /**
+     * Returns a future which completes once this tunnel has been closed. By
+     * the time the future completes, all intercepted streams have been closed
+     * and all spools discarded. If this tunnel is already closed, the
+     * returned future will already be complete.
+     *
+     * @return
+     *     A future which completes once this tunnel has been closed.
+     */
+    public CompletableFuture<Void> getClosure() {
+        return closure;
+    }
+
+    /**
+     * Discards and removes all spools associated with this tunnel.
+     */
+    private void discardSpools() {
+
+        synchronized (spools) {
+
+            for (StreamSpool spool : spools.values())
+                spool.discard();
+
+            spools.clear();
+
+        }
+
+    }
+
     @Override
     public GuacamoleReader acquireReader() {
 
@@ -170,6 +405,8 @@ public class StreamInterceptingTunnel extends DelegatingGuacamoleTunnel {
         finally {
             inputStreamFilter.closeAllInterceptedStreams();
             outputStreamFilter.closeAllInterceptedStreams();
+            discardSpools();
+            closure.complete(null);
         }
 
     }
@@ -0,0 +1,302 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.guacamole.tunnel;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded temporary file which retains a copy of the data received along an
+ * intercepted stream, such that the data can be sent again, in whole or in
+ * part, after the intercepted stream has ended. If the data exceeds the size
+ * limit of the spool, or cannot be written, the spool is discarded and its
+ * temporary file deleted.
+ */
+public class StreamSpool {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(StreamSpool.class);
+
+    /**
+     * The temporary file containing the spooled data.
+     */
+    private final File file;
+
+    /**
+     * OutputStream which writes to the temporary file.
+     */
+    private final OutputStream output;
+
+    /**
+     * The maximum number of bytes which may be spooled.
+     */
+    private final long limit;
+
+    /**
+     * Opaque value which uniquely identifies the data within this spool,
+     * suitable for use as an HTTP entity tag.
+     */
+    private final String etag = UUID.randomUUID().toString();
+
+    /**
+     * Future which completes once no further data will be spooled, with the
+     * value true if the spool contains the full contents of the intercepted
+     * stream, or false if the spool was discarded.
+     */
+    private final CompletableFuture<Boolean> completion = new CompletableFuture<>();
+
+    /**
+     * The number of bytes spooled thus far.
+     */
+    private long length = 0;
+
+    /**
+     * Whether this spool has been discarded.
+     */
+    private boolean discarded = false;
+
+    /**
+     * Creates a new StreamSpool backed by a new temporary file, which will
+     * retain at most the given number of bytes.
+     *
+     * @param limit
+     *     The maximum number of bytes which may be spooled.
+     *
+     * @throws IOException
+     *     If the temporary file cannot be created.
+     */
+    public StreamSpool(long limit) throws IOException {
+        this.limit = limit;
+        this.file = File.createTempFile("guacamole-stream-", ".spool");
+        this.output = new FileOutputStream(file);
+    }
+
+    /**
+     * Appends the given data to this spool. If the data would exceed the size
+     * limit of this spool, or cannot be written, this spool is discarded.
+     *
+     * @param buffer
+     *     The buffer containing the data to append.
+     *
+     * @param offset
+     *     The offset of the first byte of data within the buffer.
+     *
+     * @param length
+     *     The number of bytes of data to append.
+     *
+     * @return
+     *     true if the data was appended, false if this spool has been
+     *     discarded.
+     */
+    public synchronized boolean write(byte[] buffer, int offset, int length) {
+
+        if (discarded)
+            return false;
+
+        // Stop spooling entirely once the limit is exceeded
+        if (this.length + length > limit) {
+            logger.debug("Intercepted stream exceeds spool limit of {} bytes.", limit);
+            discard();
+            return false;
+        }
+
+        try {
+            output.write(buffer, offset, length);
+            this.length += length;
+            return true;
+        }
+
+        // Spooled data is useless if incomplete
+        catch (IOException e) {
+            logger.warn("Unable to spool intercepted stream: {}", e.getMessage());
+            logger.debug("I/O error prevented spooling of intercepted stream.", e);
+            discard();
+            return false;
+        }
+
+    }
+
+    /**
+     * Marks this spool as containing the full contents of the intercepted
+     * stream. If this spool has been discarded, this function has no effect.
+     */
+    public synchronized void complete() {
+
+        if (discarded)
+            return;
+
+        try {
+            output.close();
+            completion.complete(true);
+        }
+        catch (IOException e) {
+            logger.warn("Unable to finish spooling intercepted stream: {}", e.getMessage());
+            logger.debug("I/O error prevented spool from being closed.", e);
+            discard();
+        }
+
+    }
+
+    /**
+     * Discards this spool, deleting its temporary file. Any spooled data will
+     * no longer be available. Invoking this function more than once has no
+     * effect.
+     */
+    public synchronized void discard() {
+
+        if (discarded)
+            return;
+
+        discarded = true;
+
+        // Release and delete the temporary file
+        try {
+            output.close();
+        }
+        catch (IOException e) {
+            logger.debug("Unable to close discarded spool.", e);
+        }
+
+        if (!file.delete())
+            logger.debug("Spool file \"{}\" could not be deleted.", file);
+
+        completion.complete(false);
+
+    }
+
+    /**
+     * Returns whether this spool has been discarded and will no longer
+     * receive data.
+     *
+     * @return
+     *     true if this spool has been discarded, false otherwise.
+     */
+    public synchronized boolean isDiscarded() {
+        return discarded;
+    }
+
+    /**
+     * Returns whether no further data will be spooled, either because this
+     * spool contains the full contents of the intercepted stream or because
+     * this spool has been discarded.
+     *
+     * @return
+     *     true if no further data will be spooled, false if the intercepted
+     *     stream is still being spooled.
+     */
+    public boolean isDone() {
+        return completion.isDone();
+    }
+
+    /**
+     * Blocks until no further data will be spooled, returning whether this
+     * spool contains the full contents of the intercepted stream.
+     *
+     * @return
+     *     true if this spool contains the full contents of the intercepted
+     *     stream, false if this spool has been discarded.
+     */
+    public boolean waitForCompletion() {
+        return completion.join();
+    }
+
+    /**
+     * Returns the number of bytes spooled thus far.
+     *
+     * @return
+     *     The number of bytes spooled thus far.
+     */
+    public synchronized long getLength() {
+        return length;
+    }
+
+    /**
+     * Returns an opaque value which uniquely identifies the data within this
+     * spool, suitable for use as an HTTP entity tag.
+     *
+     * @return
+     *     An opaque value uniquely identifying the data within this spool.
+     */
+    public String getETag() {
+        return etag;
+    }
+
+    /**
+     * Writes the spooled data between the given offsets, inclusive, to the
+     * given OutputStream. This function should only be invoked once
+     * waitForCompletion() has returned true.
+     *
+     * @param out
+     *     The OutputStream to write the spooled data to.
+     *
+     * @param start
+     *     The offset of the first byte to write.
+     *
+     * @param end
+     *     The offset of the last byte to write.
+     *
+     * @throws IOException
+     *     If the spooled data cannot be read, or cannot be written to the
+     *     given OutputStream.
+     */
+    public void writeTo(OutputStream out, long start, long end)
+            throws IOException {
+
+        byte[] buffer = new byte[8192];
+
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+
+            input.seek(start);
+
+            // Copy requested range, stopping early if the spool is truncated
+            long remaining = end - start + 1;
+            while (remaining > 0) {
+
+                int length = input.read(buffer, 0,
+                        (int) Math.min(buffer.length, remaining));
+                if (length == -1)
+                    break;
+
+                out.write(buffer, 0, length);
+                remaining -= length;
+
+            }
+
+        }
+
+        // Always release the spool file
+        finally {
+            input.close();
+        }
+
+    }
+
+}
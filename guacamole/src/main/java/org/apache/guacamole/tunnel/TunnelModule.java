@@ -19,7 +19,9 @@
 
 package org.apache.guacamole.tunnel;
 
+import org.apache.guacamole.tunnel.http.HTTPTunnelService;
 import org.apache.guacamole.tunnel.http.RestrictedGuacamoleHTTPTunnelServlet;
+import org.apache.guacamole.tunnel.websocket.WebSocketTunnelService;
 import com.google.inject.servlet.ServletModule;
 import java.lang.reflect.InvocationTargetException;
 import org.slf4j.Logger;
@@ -89,6 +91,12 @@ public class TunnelModule extends ServletModule {
     protected void configureServlets() {
 
         bind(TunnelRequestService.class);
+        bind(InputCoalescingService.class);
+        bind(FileTransferService.class);
+        bind(FileSinkService.class);
+        bind(TunnelThreadService.class);
+        bind(WebSocketTunnelService.class);
+        bind(HTTPTunnelService.class);
 
         // Set up HTTP tunnel
         serve("/tunnel").with(RestrictedGuacamoleHTTPTunnelServlet.class);
@@ -67,6 +67,19 @@ public class TunnelRequestService {
     @Inject
     private ListenerService listenerService;
 
+    /**
+     * A service for coalescing the position updates sent to each tunnel.
+     */
+    @Inject
+    private InputCoalescingService inputCoalescingService;
+
+    /**
+     * A service for retrieving the windowing configuration of intercepted
+     * file transfers.
+     */
+    @Inject
+    private FileTransferService fileTransferService;
+
     /**
      * Notifies bound listeners that a new tunnel has been connected.
      * Listeners may veto a connected tunnel by throwing any GuacamoleException.
@@ -261,7 +274,9 @@ public class TunnelRequestService {
             final String id) throws GuacamoleException {
 
         // Monitor tunnel closure and data
-        UserTunnel monitoredTunnel = new UserTunnel(context, tunnel) {
+        UserTunnel monitoredTunnel = new UserTunnel(context, tunnel,
+                fileTransferService.getWindowSize(),
+                fileTransferService.getBlobSize()) {
 
             /**
              * The time the connection began, measured in milliseconds since
@@ -347,6 +362,9 @@ public class TunnelRequestService {
             GuacamoleTunnel tunnel = createConnectedTunnel(userContext, type,
                     id, info, new StandardTokenMap(authenticatedUser));
 
+            // Coalesce pointer position updates, if enabled
+            tunnel = inputCoalescingService.coalesce(tunnel);
+
             // Notify listeners to allow connection to be vetoed
             fireTunnelConnectEvent(authenticatedUser, authenticatedUser.getCredentials(), tunnel);
 
@@ -0,0 +1,191 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.guacamole.tunnel;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.environment.Environment;
+import org.apache.guacamole.net.TunnelExecutors;
+import org.apache.guacamole.properties.IntegerGuacamoleProperty;
+import org.apache.guacamole.properties.StringGuacamoleProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Service which provides the executor used to run the read task of each
+ * WebSocket tunnel, configured via guacamole.properties. Each read task
+ * occupies a thread for the life of its tunnel. Depending on configuration,
+ * these threads may be virtual threads (when supported by the JVM) or
+ * platform threads, optionally limited in number.
+ */
+@Singleton
+public class TunnelThreadService {
+
+    /**
+     * Logger for this class.
+     */
+    private final Logger logger = LoggerFactory.getLogger(TunnelThreadService.class);
+
+    /**
+     * The value of the "tunnel-threads" property which selects platform
+     * threads.
+     */
+    private static final String PLATFORM_THREADS = "platform";
+
+    /**
+     * The value of the "tunnel-threads" property which selects virtual
+     * threads.
+     */
+    private static final String VIRTUAL_THREADS = "virtual";
+
+    /**
+     * The prefix of the name of each tunnel read thread.
+     */
+    private static final String THREAD_NAME_PREFIX = "guacamole-tunnel";
+
+    /**
+     * The kind of thread which should run each tunnel read task: either
+     * "platform" (the default) or "virtual".
+     */
+    private final StringGuacamoleProperty TUNNEL_THREADS =
+            new StringGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "tunnel-threads"; }
+
+    };
+
+    /**
+     * The maximum number of platform threads which may run tunnel read tasks
+     * at any one time, thus the maximum number of concurrent WebSocket
+     * tunnels. Zero, the default, means there is no limit. This property is
+     * ignored if virtual threads are used.
+     */
+    private final IntegerGuacamoleProperty TUNNEL_MAX_THREADS =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "tunnel-max-threads"; }
+
+    };
+
+    /**
+     * The Guacamole server environment.
+     */
+    @Inject
+    private Environment environment;
+
+    /**
+     * The executor which runs all tunnel read tasks, or null if not yet
+     * created.
+     */
+    private ExecutorService executor = null;
+
+    /**
+     * Creates the executor described by guacamole.properties, falling back
+     * to platform threads if virtual threads were requested but are not
+     * supported.
+     *
+     * @return
+     *     A new executor for tunnel read tasks.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    private ExecutorService createExecutor() throws GuacamoleException {
+
+        String threads = environment.getProperty(TUNNEL_THREADS, PLATFORM_THREADS);
+
+        // Use virtual threads only if supported
+        if (VIRTUAL_THREADS.equals(threads)) {
+
+            if (TunnelExecutors.isVirtualThreadSupported()) {
+                logger.info("Tunnels will be read using virtual threads.");
+                return TunnelExecutors.newVirtualExecutor(THREAD_NAME_PREFIX);
+            }
+
+            logger.warn("Virtual threads are not supported by this version "
+                    + "of Java. Platform threads will be used instead.");
+
+        }
+
+        // Warn of unknown thread types
+        else if (!PLATFORM_THREADS.equals(threads))
+            logger.warn("Unknown value for \"{}\" property: \"{}\". Platform "
+                    + "threads will be used.", TUNNEL_THREADS.getName(), threads);
+
+        int maxThreads = environment.getProperty(TUNNEL_MAX_THREADS, 0);
+        if (maxThreads > 0)
+            logger.info("Tunnels will be read using at most {} platform "
+                    + "threads.", maxThreads);
+
+        return TunnelExecutors.newPlatformExecutor(THREAD_NAME_PREFIX, maxThreads);
+
+    }
+
+    /**
+     * Returns the executor which should run the read task of each WebSocket
+     * tunnel. If the configured executor cannot be created, the shared
+     * default executor is returned instead.
+     *
+     * @return
+     *     The executor which should run the read task of each WebSocket
+     *     tunnel.
+     */
+    public synchronized Executor getReadExecutor() {
+
+        if (executor == null) {
+            try {
+                executor = createExecutor();
+            }
+            catch (GuacamoleException e) {
+                logger.error("Unable to read tunnel thread configuration from "
+                        + "guacamole.properties: {}", e.getMessage());
+                logger.debug("Error reading tunnel thread configuration.", e);
+                executor = TunnelExecutors.getDefault();
+            }
+        }
+
+        return executor;
+
+    }
+
+    /**
+     * Shuts down the executor which runs tunnel read tasks, as well as the
+     * shared default executor, interrupting any read tasks which are still
+     * running. This function should be invoked when the web application is
+     * being unloaded.
+     */
+    public synchronized void shutdown() {
+
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+
+        TunnelExecutors.shutdownDefault();
+
+    }
+
+}
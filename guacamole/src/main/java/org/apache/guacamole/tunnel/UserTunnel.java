@@ -60,6 +60,36 @@ public class UserTunnel extends StreamInterceptingTunnel {
         this.userContext = userContext;
     }
 
+    /**
+     * Creates a new UserTunnel which wraps the given tunnel, associating it
+     * with the given UserContext, and keeping up to the given number of blobs
+     * of each intercepted stream in flight. The UserContext MUST be from the
+     * AuthenticationProvider that created this tunnel, and MUST be associated
+     * with the user for whom this tunnel was created.
+     *
+     * @param userContext
+     *     The UserContext associated with the user for whom this tunnel was
+     *     created. This UserContext MUST be from the AuthenticationProvider
+     *     that created this tunnel.
+     *
+     * @param tunnel
+     *     The tunnel whose stream-related instruction should be intercepted if
+     *     interceptStream() is invoked.
+     *
+     * @param windowSize
+     *     The number of blobs of each intercepted stream which may be in
+     *     flight at any one time.
+     *
+     * @param blobSize
+     *     The maximum number of bytes to send within each blob of an
+     *     intercepted upload.
+     */
+    public UserTunnel(UserContext userContext, GuacamoleTunnel tunnel,
+            int windowSize, int blobSize) {
+        super(tunnel, windowSize, blobSize);
+        this.userContext = userContext;
+    }
+
     /**
      * Returns the UserContext of the user for whom this tunnel was created.
      * This UserContext will be the UserContext from the AuthenticationProvider
@@ -0,0 +1,327 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.tunnel.http;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
+import org.apache.guacamole.environment.Environment;
+import org.apache.guacamole.io.CompressionStatistics;
+import org.apache.guacamole.io.DeflatingOutputStream;
+import org.apache.guacamole.io.InstructionCoalescer;
+import org.apache.guacamole.properties.BooleanGuacamoleProperty;
+import org.apache.guacamole.properties.IntegerGuacamoleProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Service which controls how data is sent over each HTTP tunnel, including
+ * compression, batching of instructions into chunks, and the lifetime of each
+ * read response, configured via guacamole.properties.
+ */
+@Singleton
+public class HTTPTunnelService {
+
+    /**
+     * Logger for this class.
+     */
+    private final Logger logger = LoggerFactory.getLogger(HTTPTunnelService.class);
+
+    /**
+     * Whether data sent over the HTTP tunnel should be compressed for
+     * clients which accept the "deflate" content coding. Compression is
+     * disabled by default.
+     */
+    private final BooleanGuacamoleProperty HTTP_COMPRESSION =
+            new BooleanGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "http-compression"; }
+
+    };
+
+    /**
+     * The compression level to use when compressing data sent over the HTTP
+     * tunnel, from 1 (fastest) to 9 (smallest output). If omitted, the
+     * default level of the deflate implementation is used.
+     */
+    private final IntegerGuacamoleProperty HTTP_COMPRESSION_LEVEL =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "http-compression-level"; }
+
+    };
+
+    /**
+     * The minimum number of bytes which must be sent at once over the HTTP
+     * tunnel for those bytes to be compressed. Smaller amounts of data are
+     * sent within the compressed stream without compression.
+     */
+    private final IntegerGuacamoleProperty HTTP_COMPRESSION_THRESHOLD =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "http-compression-threshold"; }
+
+    };
+
+    /**
+     * The minimum amount of time that each HTTP tunnel read response should
+     * remain open, in milliseconds, even if the client has already issued
+     * the next read request. Zero, the default, ends each response as soon
+     * as the next read request arrives. Clients are informed of this value
+     * so that they issue the next read request only when needed. This value
+     * should be well below the client's receive timeout.
+     */
+    private final IntegerGuacamoleProperty HTTP_READ_DURATION =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "http-read-duration"; }
+
+    };
+
+    /**
+     * The number of characters after which each HTTP tunnel read response
+     * should end once the next read request arrives, regardless of its
+     * duration. Zero, the default, does not limit response length.
+     */
+    private final IntegerGuacamoleProperty HTTP_READ_LENGTH =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "http-read-length"; }
+
+    };
+
+    /**
+     * The maximum length of each chunk of an HTTP tunnel read response, in
+     * characters. Chunks exceed this length only if a single instruction
+     * does.
+     */
+    private final IntegerGuacamoleProperty HTTP_MAX_CHUNK_LENGTH =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "http-max-chunk-length"; }
+
+    };
+
+    /**
+     * The maximum amount of time that an instruction may be held while
+     * further instructions continue to arrive for the same chunk of an HTTP
+     * tunnel read response, in microseconds. Chunks are always sent as soon
+     * as no further data is immediately available. Zero, the default, limits
+     * such chunks only by their maximum length.
+     */
+    private final IntegerGuacamoleProperty HTTP_MAX_CHUNK_DELAY =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "http-max-chunk-delay"; }
+
+    };
+
+    /**
+     * The Guacamole server environment.
+     */
+    @Inject
+    private Environment environment;
+
+    /**
+     * Whether guacamole.properties has been read.
+     */
+    private boolean configured = false;
+
+    /**
+     * Whether data sent over the HTTP tunnel should be compressed.
+     */
+    private boolean compression;
+
+    /**
+     * The compression level to use.
+     */
+    private int compressionLevel;
+
+    /**
+     * The minimum number of bytes which must be sent at once for those bytes
+     * to be compressed.
+     */
+    private int compressionThreshold;
+
+    /**
+     * The minimum lifetime of each read response, in milliseconds.
+     */
+    private long readDuration;
+
+    /**
+     * The maximum length of each read response, in characters, or zero if
+     * unlimited.
+     */
+    private long readLength;
+
+    /**
+     * The maximum length of each chunk of a read response, in characters.
+     */
+    private int maxChunkLength;
+
+    /**
+     * The maximum amount of time that an instruction may be held before its
+     * chunk is sent, in microseconds.
+     */
+    private long maxChunkDelay;
+
+    /**
+     * The effect of compression on all data sent over HTTP tunnels.
+     */
+    private final CompressionStatistics statistics = new CompressionStatistics();
+
+    /**
+     * Reads the HTTP tunnel settings from guacamole.properties, if not
+     * already read. If the settings cannot be read, compression is disabled
+     * and the defaults are used.
+     */
+    private synchronized void readConfiguration() {
+
+        if (configured)
+            return;
+
+        try {
+
+            compression = environment.getProperty(HTTP_COMPRESSION, false);
+            compressionLevel = environment.getProperty(HTTP_COMPRESSION_LEVEL,
+                    Deflater.DEFAULT_COMPRESSION);
+            compressionThreshold = environment.getProperty(HTTP_COMPRESSION_THRESHOLD,
+                    DeflatingOutputStream.DEFAULT_THRESHOLD);
+
+            // Verify level is supported by Deflater
+            if (compressionLevel != Deflater.DEFAULT_COMPRESSION
+                    && (compressionLevel < Deflater.BEST_SPEED
+                        || compressionLevel > Deflater.BEST_COMPRESSION))
+                throw new GuacamoleServerException("Property \""
+                        + HTTP_COMPRESSION_LEVEL.getName()
+                        + "\" must be between 1 and 9 inclusive.");
+
+            readDuration = environment.getProperty(HTTP_READ_DURATION, 0);
+            readLength = environment.getProperty(HTTP_READ_LENGTH, 0);
+            maxChunkLength = environment.getProperty(HTTP_MAX_CHUNK_LENGTH,
+                    InstructionCoalescer.DEFAULT_MAX_FRAME_LENGTH);
+            maxChunkDelay = environment.getProperty(HTTP_MAX_CHUNK_DELAY, 0);
+
+        }
+        catch (GuacamoleException e) {
+            logger.error("Unable to read HTTP tunnel configuration from "
+                    + "guacamole.properties: {}", e.getMessage());
+            logger.debug("Error reading HTTP tunnel configuration.", e);
+            compression = false;
+            readDuration = 0;
+            readLength = 0;
+            maxChunkLength = 0;
+            maxChunkDelay = 0;
+        }
+
+        // Fall back to default length if unset, invalid, or unreadable
+        if (maxChunkLength <= 0)
+            maxChunkLength = InstructionCoalescer.DEFAULT_MAX_FRAME_LENGTH;
+
+        configured = true;
+
+    }
+
+    /**
+     * Returns a new DeflatingOutputStream which compresses the data sent in
+     * response to an HTTP tunnel read request as configured within
+     * guacamole.properties, or null if compression is disabled.
+     *
+     * @param out
+     *     The stream to which compressed data should be written.
+     *
+     * @return
+     *     A new DeflatingOutputStream which writes to the given stream, or
+     *     null if compression is disabled.
+     */
+    public synchronized DeflatingOutputStream createCompressingStream(OutputStream out) {
+
+        readConfiguration();
+        if (!compression)
+            return null;
+
+        return new DeflatingOutputStream(out, compressionLevel,
+                compressionThreshold, statistics);
+
+    }
+
+    /**
+     * Returns a new InstructionCoalescer which batches the instructions read
+     * from an HTTP tunnel into the chunks of a read response as configured
+     * within guacamole.properties.
+     *
+     * @return
+     *     A new InstructionCoalescer for a read response.
+     */
+    public synchronized InstructionCoalescer createCoalescer() {
+        readConfiguration();
+        return new InstructionCoalescer(maxChunkLength, maxChunkDelay, false);
+    }
+
+    /**
+     * Returns the minimum amount of time that each HTTP tunnel read response
+     * should remain open, even if the next read request has arrived.
+     *
+     * @return
+     *     The minimum lifetime of each read response, in milliseconds, or
+     *     zero if each response should end as soon as the next read request
+     *     arrives.
+     */
+    public synchronized long getMinimumResponseDuration() {
+        readConfiguration();
+        return readDuration;
+    }
+
+    /**
+     * Returns the number of characters after which each HTTP tunnel read
+     * response should end once the next read request arrives, regardless of
+     * its duration.
+     *
+     * @return
+     *     The maximum length of each read response, in characters, or zero
+     *     if response length is not limited.
+     */
+    public synchronized long getMaximumResponseLength() {
+        readConfiguration();
+        return readLength;
+    }
+
+    /**
+     * Returns the effect of compression on all data sent over HTTP tunnels
+     * thus far.
+     *
+     * @return
+     *     The effect of compression on all data sent over HTTP tunnels.
+     */
+    public CompressionStatistics getCompressionStatistics() {
+        return statistics;
+    }
+
+}
@@ -21,10 +21,13 @@ package org.apache.guacamole.tunnel.http;
 
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import java.io.OutputStream;
 import javax.servlet.http.HttpServletRequest;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.tunnel.TunnelRequestService;
+import org.apache.guacamole.io.DeflatingOutputStream;
+import org.apache.guacamole.io.InstructionCoalescer;
 import org.apache.guacamole.net.GuacamoleTunnel;
 import org.apache.guacamole.servlet.GuacamoleHTTPTunnelServlet;
 import org.slf4j.Logger;
@@ -42,6 +45,12 @@ public class RestrictedGuacamoleHTTPTunnelServlet extends GuacamoleHTTPTunnelSer
      */
     @Inject
     private TunnelRequestService tunnelRequestService;
+
+    /**
+     * Service for controlling how data is sent over each tunnel.
+     */
+    @Inject
+    private HTTPTunnelService httpTunnelService;
     
     /**
      * Logger for this class.
@@ -61,4 +70,24 @@ public class RestrictedGuacamoleHTTPTunnelServlet extends GuacamoleHTTPTunnelSer
 
     }
 
+    @Override
+    protected DeflatingOutputStream createCompressingStream(OutputStream out) {
+        return httpTunnelService.createCompressingStream(out);
+    }
+
+    @Override
+    protected InstructionCoalescer createCoalescer() {
+        return httpTunnelService.createCoalescer();
+    }
+
+    @Override
+    protected long getMinimumResponseDuration() {
+        return httpTunnelService.getMinimumResponseDuration();
+    }
+
+    @Override
+    protected long getMaximumResponseLength() {
+        return httpTunnelService.getMaximumResponseLength();
+    }
+
 }
@@ -20,17 +20,25 @@
 package org.apache.guacamole.tunnel.websocket;
 
 import com.google.inject.Provider;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 import javax.websocket.EndpointConfig;
+import javax.websocket.Extension;
 import javax.websocket.HandshakeResponse;
 import javax.websocket.Session;
 import javax.websocket.server.HandshakeRequest;
 import javax.websocket.server.ServerEndpointConfig;
 import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.io.InstructionCoalescer;
+import org.apache.guacamole.io.QueuedFrameSender;
 import org.apache.guacamole.net.GuacamoleTunnel;
 import org.apache.guacamole.tunnel.TunnelRequest;
 import org.apache.guacamole.tunnel.TunnelRequestService;
+import org.apache.guacamole.tunnel.TunnelThreadService;
 import org.apache.guacamole.websocket.GuacamoleWebSocketTunnelEndpoint;
+import org.apache.guacamole.websocket.WebSocketFrameSender;
 
 /**
  * Tunnel implementation which uses WebSocket as a tunnel backend, rather than
@@ -50,6 +58,18 @@ public class RestrictedGuacamoleWebSocketTunnelEndpoint extends GuacamoleWebSock
      */
     private static final String TUNNEL_REQUEST_SERVICE_PROPERTY = "WS_GUAC_TUNNEL_REQUEST_SERVICE";
 
+    /**
+     * Unique string which shall be used to store the TunnelThreadService to
+     * be used for running the read task of each tunnel.
+     */
+    private static final String TUNNEL_THREAD_SERVICE_PROPERTY = "WS_GUAC_TUNNEL_THREAD_SERVICE";
+
+    /**
+     * Unique string which shall be used to store the WebSocketTunnelService
+     * to be used for controlling how data is sent over each tunnel.
+     */
+    private static final String WEBSOCKET_TUNNEL_SERVICE_PROPERTY = "WS_GUAC_WEBSOCKET_TUNNEL_SERVICE";
+
     /**
      * Configurator implementation which stores the requested GuacamoleTunnel
      * within the user properties. The GuacamoleTunnel will be later retrieved
@@ -62,18 +82,45 @@ public class RestrictedGuacamoleWebSocketTunnelEndpoint extends GuacamoleWebSock
          * tunnel requests.
          */
         private final Provider<TunnelRequestService> tunnelRequestServiceProvider;
+
+        /**
+         * Provider which provides instances of a service for running the
+         * read task of each tunnel.
+         */
+        private final Provider<TunnelThreadService> tunnelThreadServiceProvider;
+
+        /**
+         * Provider which provides instances of a service for controlling how
+         * data is sent over each tunnel.
+         */
+        private final Provider<WebSocketTunnelService> webSocketTunnelServiceProvider;
          
         /**
          * Creates a new Configurator which uses the given tunnel request
          * service provider to retrieve the necessary service to handle new
-         * connections requests.
+         * connections requests, the given tunnel thread service provider to
+         * retrieve the service which runs the read task of each tunnel, and
+         * the given WebSocket tunnel service provider to retrieve the service
+         * controlling how data is sent over each tunnel.
          * 
          * @param tunnelRequestServiceProvider
          *     The tunnel request service provider to use for all new
          *     connections.
+         *
+         * @param tunnelThreadServiceProvider
+         *     The tunnel thread service provider to use for all new
+         *     connections.
+         *
+         * @param webSocketTunnelServiceProvider
+         *     The WebSocket tunnel service provider to use for all new
+         *     connections.
          */
-        public Configurator(Provider<TunnelRequestService> tunnelRequestServiceProvider) {
+        public Configurator(Provider<TunnelRequestService> tunnelRequestServiceProvider,
+                Provider<TunnelThreadService> tunnelThreadServiceProvider,
+                Provider<WebSocketTunnelService> webSocketTunnelServiceProvider) {
             this.tunnelRequestServiceProvider = tunnelRequestServiceProvider;
+            this.tunnelThreadServiceProvider = tunnelThreadServiceProvider;
+            this.webSocketTunnelServiceProvider = webSocketTunnelServiceProvider;
         }
         
         @Override
@@ -88,6 +135,27 @@ public class RestrictedGuacamoleWebSocketTunnelEndpoint extends GuacamoleWebSock
             userProperties.clear();
             userProperties.put(TUNNEL_REQUEST_PROPERTY, new WebSocketTunnelRequest(request));
             userProperties.put(TUNNEL_REQUEST_SERVICE_PROPERTY, tunnelRequestServiceProvider.get());
+            userProperties.put(TUNNEL_THREAD_SERVICE_PROPERTY, tunnelThreadServiceProvider.get());
+            userProperties.put(WEBSOCKET_TUNNEL_SERVICE_PROPERTY, webSocketTunnelServiceProvider.get());
+
+        }
+
+        @Override
+        public List<Extension> getNegotiatedExtensions(List<Extension> installed,
+                List<Extension> requested) {
+
+            // Negotiate normally if compression is allowed
+            if (webSocketTunnelServiceProvider.get().isCompressionEnabled())
+                return super.getNegotiatedExtensions(installed, requested);
+
+            // Otherwise, ignore any requested compression extensions
+            List<Extension> allowed = new ArrayList<Extension>(requested.size());
+            for (Extension extension : requested) {
+                if (!WebSocketTunnelService.isCompressionExtension(extension.getName()))
+                    allowed.add(extension);
+            }
+
+            return super.getNegotiatedExtensions(installed, allowed);
 
         }
         
@@ -114,4 +182,46 @@ public class RestrictedGuacamoleWebSocketTunnelEndpoint extends GuacamoleWebSock
 
     }
 
+    @Override
+    protected Executor getReadExecutor(Session session,
+            EndpointConfig config) {
+
+        // Use default executor if no tunnel thread service is available
+        TunnelThreadService tunnelThreadService = (TunnelThreadService) config.getUserProperties().get(TUNNEL_THREAD_SERVICE_PROPERTY);
+        if (tunnelThreadService == null)
+            return super.getReadExecutor(session, config);
+
+        return tunnelThreadService.getReadExecutor();
+
+    }
+
+    @Override
+    protected InstructionCoalescer createCoalescer(Session session,
+            EndpointConfig config) {
+
+        // Use default coalescing if no WebSocket tunnel service is available
+        WebSocketTunnelService webSocketTunnelService = (WebSocketTunnelService) config.getUserProperties().get(WEBSOCKET_TUNNEL_SERVICE_PROPERTY);
+        if (webSocketTunnelService == null)
+            return super.createCoalescer(session, config);
+
+        return webSocketTunnelService.createCoalescer();
+
+    }
+
+    @Override
+    protected QueuedFrameSender createFrameSender(Session session,
+            EndpointConfig config) {
+
+        // Use default limits if no WebSocket tunnel service is available
+        WebSocketTunnelService webSocketTunnelService = (WebSocketTunnelService) config.getUserProperties().get(WEBSOCKET_TUNNEL_SERVICE_PROPERTY);
+        if (webSocketTunnelService == null)
+            return super.createFrameSender(session, config);
+
+        return new WebSocketFrameSender(session,
+                webSocketTunnelService.getMaxQueuedLength(),
+                webSocketTunnelService.getOverflowPolicy(),
+                webSocketTunnelService.getSendTimeout());
+
+    }
+
 }
@@ -27,6 +27,8 @@ import javax.websocket.server.ServerContainer;
 import javax.websocket.server.ServerEndpointConfig;
 import org.apache.guacamole.tunnel.TunnelLoader;
 import org.apache.guacamole.tunnel.TunnelRequestService;
+import org.apache.guacamole.tunnel.TunnelThreadService;
+import org.apache.guacamole.websocket.GuacamoleWebSocketTunnelEndpoint;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -76,12 +78,18 @@ public class WebSocketTunnelModule extends ServletModule implements TunnelLoader
         }
 
         Provider<TunnelRequestService> tunnelRequestServiceProvider = getProvider(TunnelRequestService.class);
+        Provider<TunnelThreadService> tunnelThreadServiceProvider = getProvider(TunnelThreadService.class);
+        Provider<WebSocketTunnelService> webSocketTunnelServiceProvider = getProvider(WebSocketTunnelService.class);
 
         // Build configuration for WebSocket tunnel
         ServerEndpointConfig config =
                 ServerEndpointConfig.Builder.create(RestrictedGuacamoleWebSocketTunnelEndpoint.class, "/websocket-tunnel")
-                                            .configurator(new RestrictedGuacamoleWebSocketTunnelEndpoint.Configurator(tunnelRequestServiceProvider))
-                                            .subprotocols(Arrays.asList(new String[]{"guacamole"}))
+                                            .configurator(new RestrictedGuacamoleWebSocketTunnelEndpoint.Configurator(tunnelRequestServiceProvider,
+                                                    tunnelThreadServiceProvider, webSocketTunnelServiceProvider))
+                                            .subprotocols(Arrays.asList(new String[]{
+                                                GuacamoleWebSocketTunnelEndpoint.BINARY_SUBPROTOCOL,
+                                                GuacamoleWebSocketTunnelEndpoint.SUBPROTOCOL
+                                            }))
                                             .build();
 
         try {
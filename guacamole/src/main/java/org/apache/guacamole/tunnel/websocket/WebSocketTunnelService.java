@@ -0,0 +1,356 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.guacamole.tunnel.websocket;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
+import org.apache.guacamole.environment.Environment;
+import org.apache.guacamole.io.InstructionCoalescer;
+import org.apache.guacamole.io.QueuedFrameSender;
+import org.apache.guacamole.io.QueuedFrameSender.OverflowPolicy;
+import org.apache.guacamole.properties.BooleanGuacamoleProperty;
+import org.apache.guacamole.properties.IntegerGuacamoleProperty;
+import org.apache.guacamole.properties.StringGuacamoleProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Service which provides the objects controlling how data is sent over each
+ * WebSocket tunnel, configured via guacamole.properties.
+ */
+@Singleton
+public class WebSocketTunnelService {
+
+    /**
+     * Logger for this class.
+     */
+    private final Logger logger = LoggerFactory.getLogger(WebSocketTunnelService.class);
+
+    /**
+     * The maximum length of each WebSocket message sent to the client, in
+     * characters. Messages exceed this length only if a single instruction
+     * does.
+     */
+    private final IntegerGuacamoleProperty WEBSOCKET_MAX_FRAME_LENGTH =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "websocket-max-frame-length"; }
+
+    };
+
+    /**
+     * The maximum amount of time that an instruction may be held while
+     * further instructions continue to arrive for the same WebSocket message,
+     * in microseconds. Messages are always sent as soon as no further data is
+     * immediately available. Zero, the default, limits such messages only by
+     * their maximum length.
+     */
+    private final IntegerGuacamoleProperty WEBSOCKET_MAX_FRAME_DELAY =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "websocket-max-frame-delay"; }
+
+    };
+
+    /**
+     * Whether each WebSocket message should end at a "sync" instruction,
+     * such that each message contains at most one complete display frame.
+     */
+    private final BooleanGuacamoleProperty WEBSOCKET_FLUSH_ON_SYNC =
+            new BooleanGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "websocket-flush-on-sync"; }
+
+    };
+
+    /**
+     * The maximum number of characters which may be queued for sending to
+     * each WebSocket client before the overflow policy applies.
+     */
+    private final IntegerGuacamoleProperty WEBSOCKET_MAX_QUEUED_LENGTH =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "websocket-max-queued-length"; }
+
+    };
+
+    /**
+     * The action taken when a WebSocket client falls behind such that the
+     * maximum queued length is reached: either "block" (the default), which
+     * pauses reading from guacd until the client catches up, or
+     * "disconnect", which closes the connection immediately.
+     */
+    private final StringGuacamoleProperty WEBSOCKET_OVERFLOW_POLICY =
+            new StringGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "websocket-overflow-policy"; }
+
+    };
+
+    /**
+     * The number of milliseconds that a WebSocket client may go without
+     * receiving any queued data before the connection is closed. Zero waits
+     * indefinitely.
+     */
+    private final IntegerGuacamoleProperty WEBSOCKET_SEND_TIMEOUT =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "websocket-send-timeout"; }
+
+    };
+
+    /**
+     * Whether WebSocket compression extensions like "permessage-deflate" may
+     * be negotiated with clients, if supported by the servlet container. By
+     * default, compression is negotiated wherever possible.
+     */
+    private final BooleanGuacamoleProperty WEBSOCKET_COMPRESSION =
+            new BooleanGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "websocket-compression"; }
+
+    };
+
+    /**
+     * The names of all WebSocket extensions which compress messages.
+     */
+    private static final List<String> COMPRESSION_EXTENSIONS = Arrays.asList(
+        "permessage-deflate",
+        "permessage-compress",
+        "x-webkit-deflate-frame",
+        "deflate-frame"
+    );
+
+    /**
+     * The Guacamole server environment.
+     */
+    @Inject
+    private Environment environment;
+
+    /**
+     * The maximum length of each WebSocket message, in characters, or zero
+     * if guacamole.properties has not yet been read.
+     */
+    private int maxFrameLength = 0;
+
+    /**
+     * The maximum amount of time that an instruction may be held before its
+     * WebSocket message is sent, in microseconds.
+     */
+    private long maxFrameDelay;
+
+    /**
+     * Whether each WebSocket message should end at a "sync" instruction.
+     */
+    private boolean flushOnSync;
+
+    /**
+     * The maximum number of characters which may be queued for sending to
+     * each client.
+     */
+    private int maxQueuedLength;
+
+    /**
+     * The action taken when the maximum queued length is reached.
+     */
+    private OverflowPolicy overflowPolicy;
+
+    /**
+     * The number of milliseconds that a client may go without receiving any
+     * queued data before the connection is closed.
+     */
+    private long sendTimeout;
+
+    /**
+     * Whether WebSocket compression extensions may be negotiated.
+     */
+    private boolean compression;
+
+    /**
+     * Parses the given value of the "websocket-overflow-policy" property.
+     *
+     * @param value
+     *     The value to parse, which may be null.
+     *
+     * @return
+     *     The OverflowPolicy represented by the given value.
+     *
+     * @throws GuacamoleException
+     *     If the given value is not a valid overflow policy.
+     */
+    private OverflowPolicy parseOverflowPolicy(String value)
+            throws GuacamoleException {
+
+        if (value == null || value.equals("block"))
+            return OverflowPolicy.BLOCK;
+
+        if (value.equals("disconnect"))
+            return OverflowPolicy.DISCONNECT;
+
+        throw new GuacamoleServerException("Property \""
+                + WEBSOCKET_OVERFLOW_POLICY.getName()
+                + "\" must be either \"block\" or \"disconnect\".");
+
+    }
+
+    /**
+     * Reads the WebSocket tunnel settings from guacamole.properties, if not
+     * already read. If the settings cannot be read, the defaults are used.
+     */
+    private synchronized void readConfiguration() {
+
+        if (maxFrameLength > 0)
+            return;
+
+        try {
+            maxFrameLength = environment.getProperty(WEBSOCKET_MAX_FRAME_LENGTH,
+                    InstructionCoalescer.DEFAULT_MAX_FRAME_LENGTH);
+            maxFrameDelay = environment.getProperty(WEBSOCKET_MAX_FRAME_DELAY, 0);
+            flushOnSync = environment.getProperty(WEBSOCKET_FLUSH_ON_SYNC, false);
+            maxQueuedLength = environment.getProperty(WEBSOCKET_MAX_QUEUED_LENGTH,
+                    QueuedFrameSender.DEFAULT_HIGH_WATER_MARK);
+            overflowPolicy = parseOverflowPolicy(environment.getProperty(WEBSOCKET_OVERFLOW_POLICY));
+            sendTimeout = environment.getProperty(WEBSOCKET_SEND_TIMEOUT,
+                    (int) QueuedFrameSender.DEFAULT_TIMEOUT);
+            compression = environment.getProperty(WEBSOCKET_COMPRESSION, true);
+        }
+        catch (GuacamoleException e) {
+            logger.error("Unable to read WebSocket tunnel configuration from "
+                    + "guacamole.properties: {}", e.getMessage());
+            logger.debug("Error reading WebSocket tunnel configuration.", e);
+            maxFrameDelay = 0;
+            flushOnSync = false;
+            maxFrameLength = 0;
+            maxQueuedLength = QueuedFrameSender.DEFAULT_HIGH_WATER_MARK;
+            overflowPolicy = OverflowPolicy.BLOCK;
+            sendTimeout = QueuedFrameSender.DEFAULT_TIMEOUT;
+            compression = true;
+        }
+
+        // Fall back to default length if unset, invalid, or unreadable
+        if (maxFrameLength <= 0)
+            maxFrameLength = InstructionCoalescer.DEFAULT_MAX_FRAME_LENGTH;
+
+    }
+
+    /**
+     * Returns a new InstructionCoalescer which batches the instructions read
+     * from a WebSocket tunnel into messages as configured within
+     * guacamole.properties.
+     *
+     * @return
+     *     A new InstructionCoalescer for a WebSocket tunnel.
+     */
+    public synchronized InstructionCoalescer createCoalescer() {
+        readConfiguration();
+        return new InstructionCoalescer(maxFrameLength, maxFrameDelay,
+                flushOnSync);
+    }
+
+    /**
+     * Returns the maximum number of characters which may be queued for
+     * sending to each WebSocket client before the overflow policy applies.
+     *
+     * @return
+     *     The maximum number of characters which may be queued for each
+     *     client.
+     */
+    public synchronized int getMaxQueuedLength() {
+        readConfiguration();
+        return maxQueuedLength;
+    }
+
+    /**
+     * Returns the action taken when a WebSocket client falls behind such
+     * that the maximum queued length is reached.
+     *
+     * @return
+     *     The action taken when the maximum queued length is reached.
+     */
+    public synchronized OverflowPolicy getOverflowPolicy() {
+        readConfiguration();
+        return overflowPolicy;
+    }
+
+    /**
+     * Returns the number of milliseconds that a WebSocket client may go
+     * without receiving any queued data before the connection is closed.
+     *
+     * @return
+     *     The send timeout, in milliseconds, or zero to wait indefinitely.
+     */
+    public synchronized long getSendTimeout() {
+        readConfiguration();
+        return sendTimeout;
+    }
+
+    /**
+     * Returns whether WebSocket compression extensions like
+     * "permessage-deflate" may be negotiated with clients. The compression
+     * itself, including its level, is controlled by the servlet container.
+     *
+     * @return
+     *     true if compression extensions may be negotiated, false otherwise.
+     */
+    public synchronized boolean isCompressionEnabled() {
+        readConfiguration();
+        return compression;
+    }
+
+    /**
+     * Returns whether the WebSocket extension having the given name is an
+     * extension which compresses messages.
+     *
+     * @param name
+     *     The name of the WebSocket extension to test.
+     *
+     * @return
+     *     true if the extension having the given name compresses messages,
+     *     false otherwise.
+     */
+    public static boolean isCompressionExtension(String name) {
+        return COMPRESSION_EXTENSIONS.contains(name);
+    }
+
+    /**
+     * Returns the names of all WebSocket extensions which compress messages.
+     *
+     * @return
+     *     An unmodifiable list of the names of all WebSocket extensions which
+     *     compress messages.
+     */
+    public static List<String> getCompressionExtensions() {
+        return Collections.unmodifiableList(COMPRESSION_EXTENSIONS);
+    }
+
+}
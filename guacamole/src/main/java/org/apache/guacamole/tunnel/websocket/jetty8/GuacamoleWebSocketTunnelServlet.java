@@ -21,11 +21,16 @@ package org.apache.guacamole.tunnel.websocket.jetty8;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import javax.servlet.http.HttpServletRequest;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.io.GuacamoleReader;
+import org.apache.guacamole.io.InstructionCoalescer;
 import org.apache.guacamole.io.GuacamoleWriter;
+import org.apache.guacamole.io.QueuedFrameSender;
 import org.apache.guacamole.net.GuacamoleTunnel;
+import org.apache.guacamole.net.TunnelExecutors;
 import org.eclipse.jetty.websocket.WebSocket;
 import org.eclipse.jetty.websocket.WebSocket.Connection;
 import org.eclipse.jetty.websocket.WebSocketServlet;
@@ -50,11 +55,6 @@ public abstract class GuacamoleWebSocketTunnelServlet extends WebSocketServlet {
      */
     private static final Logger logger = LoggerFactory.getLogger(GuacamoleWebSocketTunnelServlet.class);
     
-    /**
-     * The default, minimum buffer size for instructions.
-     */
-    private static final int BUFFER_SIZE = 8192;
-
     /**
      * The opcode of the instruction used to indicate a connection stability
      * test ping request or response. Note that this instruction is
@@ -64,6 +64,18 @@ public abstract class GuacamoleWebSocketTunnelServlet extends WebSocketServlet {
      */
     private static final String PING_OPCODE = "ping";
 
+    /**
+     * The size of the buffer into which received messages are copied, in
+     * characters.
+     */
+    private static final int MESSAGE_BUFFER_SIZE = 8192;
+
+    /**
+     * The name of the WebSocket subprotocol used by the Guacamole tunnel when
+     * messages sent to the client are binary messages containing UTF-8.
+     */
+    private static final String BINARY_SUBPROTOCOL = "guacamole-binary";
+
     /**
      * Sends the given numeric Guacamole and WebSocket status
      * on the given WebSocket connection and closes the
@@ -109,6 +121,9 @@ public abstract class GuacamoleWebSocketTunnelServlet extends WebSocketServlet {
 
         final TunnelRequest tunnelRequest = new HTTPTunnelRequest(request);
 
+        // Send binary messages only if requested via subprotocol
+        final boolean binary = BINARY_SUBPROTOCOL.equals(protocol);
+
         // Return new WebSocket which communicates through tunnel
         return new WebSocket.OnTextMessage() {
 
@@ -119,55 +134,84 @@ public abstract class GuacamoleWebSocketTunnelServlet extends WebSocketServlet {
             private GuacamoleTunnel tunnel = null;
 
             /**
-             * The active WebSocket connection. This value will always be
+             * Queue of frames awaiting sending along the active WebSocket
+             * connection. This value will always be non-null if tunnel is
+             * non-null.
+             */
+            private QueuedFrameSender sender = null;
+
+            /**
+             * Writer which filters all instructions received from the client
+             * and writes those instructions to the tunnel. A single writer is
+             * used for the life of the tunnel. This value will always be
              * non-null if tunnel is non-null.
              */
-            private Connection connection = null;
+            private GuacamoleWriter writer = null;
 
             /**
-             * Sends a Guacamole instruction along the outbound WebSocket
-             * connection to the connected Guacamole client. If an instruction
-             * is already in the process of being sent by another thread, this
-             * function will block until in-progress instructions are complete.
-             *
-             * @param instruction
-             *     The instruction to send.
-             *
-             * @throws IOException
-             *     If an I/O error occurs preventing the given instruction from
-             *     being sent.
+             * Reusable buffer into which each received message is copied
+             * prior to writing. Messages larger than this buffer are copied
+             * into a new buffer.
              */
-            private void sendInstruction(String instruction)
-                    throws IOException {
+            private final char[] messageBuffer = new char[MESSAGE_BUFFER_SIZE];
+
+            /**
+             * Filter which handles all tunnel-internal instructions received
+             * from the client without passing those instructions through to
+             * guacd.
+             */
+            private final GuacamoleFilter internalInstructionFilter = new GuacamoleFilter() {
+
+                @Override
+                public GuacamoleInstruction filter(GuacamoleInstruction instruction)
+                        throws GuacamoleException {
+
+                    // Filter out all tunnel-internal instructions
+                    if (instruction.getOpcode().equals(GuacamoleTunnel.INTERNAL_DATA_OPCODE)) {
+
+                        // Respond to ping requests
+                        List<String> args = instruction.getArgs();
+                        if (args.size() >= 2 && args.get(0).equals(PING_OPCODE)) {
+
+                            try {
+                                sendInstruction(new GuacamoleInstruction(
+                                    GuacamoleTunnel.INTERNAL_DATA_OPCODE,
+                                    PING_OPCODE, args.get(1)
+                                ));
+                            }
+                            catch (IOException e) {
+                                logger.debug("Unable to send \"ping\" response for WebSocket tunnel.", e);
+                            }
+
+                        }
+
+                        return null;
+
+                    }
+
+                    // Pass through all non-internal instructions untouched
+                    return instruction;
 
-                // NOTE: Synchronization on the non-final remote field here is
-                // intentional. The outbound websocket connection is only
-                // sensitive to simultaneous attempts to send messages with
-                // respect to itself. If the connection changes, then
-                // synchronization need only be performed in context of the new
-                // connection
-                synchronized (connection) {
-                    connection.sendMessage(instruction);
                 }
 
-            }
+            };
 
             /**
-             * Sends a Guacamole instruction along the outbound WebSocket
-             * connection to the connected Guacamole client. If an instruction
-             * is already in the process of being sent by another thread, this
-             * function will block until in-progress instructions are complete.
+             * Queues a Guacamole instruction for sending along the outbound
+             * WebSocket connection to the connected Guacamole client, ahead
+             * of any data not yet queued by the read task. This function does
+             * not block.
              *
              * @param instruction
              *     The instruction to send.
              *
              * @throws IOException
-             *     If an I/O error occurs preventing the given instruction from being
+             *     If an I/O error has previously prevented data from being
              *     sent.
              */
             private void sendInstruction(GuacamoleInstruction instruction)
                     throws IOException {
-                sendInstruction(instruction.toString());
+                sender.sendFrameNow(instruction.toString());
             }
 
             @Override
@@ -177,47 +221,18 @@ public abstract class GuacamoleWebSocketTunnelServlet extends WebSocketServlet {
                 if (tunnel == null)
                     return;
 
-                // Filter received instructions, handling tunnel-internal
-                // instructions without passing through to guacd
-                GuacamoleWriter writer = new FilteredGuacamoleWriter(tunnel.acquireWriter(), new GuacamoleFilter() {
-
-                    @Override
-                    public GuacamoleInstruction filter(GuacamoleInstruction instruction)
-                            throws GuacamoleException {
-
-                        // Filter out all tunnel-internal instructions
-                        if (instruction.getOpcode().equals(GuacamoleTunnel.INTERNAL_DATA_OPCODE)) {
-
-                            // Respond to ping requests
-                            List<String> args = instruction.getArgs();
-                            if (args.size() >= 2 && args.get(0).equals(PING_OPCODE)) {
-
-                                try {
-                                    sendInstruction(new GuacamoleInstruction(
-                                        GuacamoleTunnel.INTERNAL_DATA_OPCODE,
-                                        PING_OPCODE, args.get(1)
-                                    ));
-                                }
-                                catch (IOException e) {
-                                    logger.debug("Unable to send \"ping\" response for WebSocket tunnel.", e);
-                                }
-
-                            }
-
-                            return null;
+                // Copy received message into reusable buffer where possible
+                int length = string.length();
+                char[] chunk = length <= messageBuffer.length ? messageBuffer : new char[length];
+                string.getChars(0, length, chunk, 0);
 
-                        }
-
-                        // Pass through all non-internal instructions untouched
-                        return instruction;
-
-                    }
-
-                });
+                // Hold tunnel writer for duration of write
+                tunnel.acquireWriter();
 
-                // Write message received
+                // Write message received, retaining any partial instruction
+                // until the remainder is received
                 try {
-                    writer.write(string.toCharArray());
+                    writer.write(chunk, 0, length);
                 }
                 catch (GuacamoleConnectionClosedException e) {
                     logger.debug("Connection to guacd closed.", e);
@@ -233,8 +248,8 @@ public abstract class GuacamoleWebSocketTunnelServlet extends WebSocketServlet {
             @Override
             public void onOpen(final Connection connection) {
 
-                // Store websocket connection for future use via sendInstruction()
-                this.connection = connection;
+                // Prepare outbound queue for future use via sendInstruction()
+                this.sender = createFrameSender(connection, binary);
 
                 try {
                     tunnel = doConnect(tunnelRequest);
@@ -253,14 +268,19 @@ public abstract class GuacamoleWebSocketTunnelServlet extends WebSocketServlet {
                     return;
                 }
 
-                Thread readThread = new Thread() {
+                // Filter received instructions for the life of the tunnel
+                GuacamoleWriter tunnelWriter = tunnel.acquireWriter();
+                tunnel.releaseWriter();
+                writer = new FilteredGuacamoleWriter(tunnelWriter,
+                        internalInstructionFilter, true);
+
+                Runnable readTask = new Runnable() {
 
                     @Override
                     public void run() {
 
-                        StringBuilder buffer = new StringBuilder(BUFFER_SIZE);
                         GuacamoleReader reader = tunnel.acquireReader();
-                        char[] readMessage;
+                        InstructionCoalescer coalescer = createCoalescer();
 
                         try {
 
@@ -272,21 +292,11 @@ public abstract class GuacamoleWebSocketTunnelServlet extends WebSocketServlet {
 
                             try {
 
-                                // Attempt to read
-                                while ((readMessage = reader.read()) != null) {
-
-                                    // Buffer message
-                                    buffer.append(readMessage);
-
-                                    // Flush if we expect to wait or buffer is getting full
-                                    if (!reader.available() || buffer.length() >= BUFFER_SIZE) {
-                                        sendInstruction(buffer.toString());
-                                        buffer.setLength(0);
-                                    }
-
-                                }
+                                // Send all data in coalesced frames
+                                coalescer.transfer(reader, sender);
 
                                 // No more data
+                                sender.drain();
                                 closeConnection(connection, GuacamoleStatus.SUCCESS);
                                 
                             }
@@ -317,11 +327,24 @@ public abstract class GuacamoleWebSocketTunnelServlet extends WebSocketServlet {
                             closeConnection(connection, GuacamoleStatus.SERVER_ERROR);
                         }
 
+                        logger.debug("WebSocket tunnel sent {} instructions in {} frames "
+                                + "({} characters).", coalescer.getInstructionCount(),
+                                coalescer.getFrameCount(), coalescer.getCharacterCount());
+
                     }
 
                 };
 
-                readThread.start();
+                // Start read transfer, refusing the connection if no thread is
+                // available
+                try {
+                    getReadExecutor().execute(readTask);
+                }
+                catch (RejectedExecutionException e) {
+                    logger.warn("WebSocket tunnel refused: too many active tunnels.");
+                    logger.debug("Read task of WebSocket tunnel rejected.", e);
+                    closeConnection(connection, GuacamoleStatus.SERVER_BUSY);
+                }
 
             }
 
@@ -362,5 +385,64 @@ public abstract class GuacamoleWebSocketTunnelServlet extends WebSocketServlet {
     protected abstract GuacamoleTunnel doConnect(TunnelRequest request)
             throws GuacamoleException;
 
+    /**
+     * Returns the executor which should run the task that reads from each
+     * tunnel and sends the received data to the client. This task runs for
+     * the life of the tunnel. By default, the shared executor returned by
+     * TunnelExecutors.getDefault() is used.
+     *
+     * @return
+     *     The executor which should run the read task of each tunnel.
+     */
+    protected Executor getReadExecutor() {
+        return TunnelExecutors.getDefault();
+    }
+
+    /**
+     * Returns the executor which should run the blocking send of each frame
+     * sent to the client. Each tunnel occupies a thread of this executor only
+     * while a frame is being sent. By default, the shared executor returned
+     * by TunnelExecutors.getDefault() is used.
+     *
+     * @return
+     *     The executor which should send each frame.
+     */
+    protected Executor getSendExecutor() {
+        return TunnelExecutors.getDefault();
+    }
+
+    /**
+     * Returns a new QueuedFrameSender which should be used to send all data
+     * to the client without blocking the read task. By default, a
+     * WebSocketFrameSender having the default limits and using the executor
+     * returned by getSendExecutor() is returned.
+     *
+     * @param connection
+     *     The active WebSocket connection.
+     *
+     * @param binary
+     *     true if frames should be sent as binary messages containing UTF-8,
+     *     false if frames should be sent as text messages.
+     *
+     * @return
+     *     A new QueuedFrameSender for the connection.
+     */
+    protected QueuedFrameSender createFrameSender(Connection connection,
+            boolean binary) {
+        return new WebSocketFrameSender(connection, binary, getSendExecutor());
+    }
+
+    /**
+     * Returns a new InstructionCoalescer which should be used to batch the
+     * instructions read from a tunnel into WebSocket messages. By default,
+     * an InstructionCoalescer having the default limits is returned.
+     *
+     * @return
+     *     A new InstructionCoalescer for a tunnel.
+     */
+    protected InstructionCoalescer createCoalescer() {
+        return new InstructionCoalescer();
+    }
+
 }
 
@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.guacamole.tunnel.websocket.jetty8;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import org.apache.guacamole.io.QueuedFrameSender;
+import org.eclipse.jetty.websocket.WebSocket.Connection;
+
+/**
+ * QueuedFrameSender which sends frames over a Jetty 8 WebSocket connection.
+ * Jetty 8 provides only a blocking API for sending messages, so each frame
+ * is sent by a task submitted to the given executor, leaving the thread
+ * which queued the frame free to continue. As at most one frame is sent at
+ * a time, each connection occupies at most one thread of that executor, and
+ * only while a frame is actually being sent. Frames are sent as text
+ * messages unless binary messages were requested, in which case each frame
+ * is sent as a binary message containing its UTF-8 encoding.
+ */
+public class WebSocketFrameSender extends QueuedFrameSender {
+
+    /**
+     * The character set used to encode frames sent as binary messages.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * The WebSocket connection to send frames over.
+     */
+    private final Connection connection;
+
+    /**
+     * Whether frames are sent as binary messages rather than text messages.
+     */
+    private final boolean binary;
+
+    /**
+     * The executor which runs the blocking send of each frame.
+     */
+    private final Executor executor;
+
+    /**
+     * Creates a new WebSocketFrameSender which sends frames over the given
+     * WebSocket connection using the given executor, having the given
+     * limits.
+     *
+     * @param connection
+     *     The WebSocket connection to send frames over.
+     *
+     * @param binary
+     *     true if frames should be sent as binary messages containing UTF-8,
+     *     false if frames should be sent as text messages.
+     *
+     * @param executor
+     *     The executor which should run the blocking send of each frame.
+     *
+     * @param highWaterMark
+     *     The maximum number of characters which may be queued before the
+     *     given OverflowPolicy applies.
+     *
+     * @param policy
+     *     The action taken when the high-water mark is reached.
+     *
+     * @param timeout
+     *     The number of milliseconds to wait for queued data to be sent
+     *     before considering the client to have timed out, or zero to wait
+     *     indefinitely.
+     */
+    public WebSocketFrameSender(Connection connection, boolean binary,
+            Executor executor, int highWaterMark, OverflowPolicy policy,
+            long timeout) {
+        super(highWaterMark, policy, timeout);
+        this.connection = connection;
+        this.binary = binary;
+        this.executor = executor;
+    }
+
+    /**
+     * Creates a new WebSocketFrameSender which sends frames over the given
+     * WebSocket connection using the given executor, having the default
+     * limits.
+     *
+     * @param connection
+     *     The WebSocket connection to send frames over.
+     *
+     * @param binary
+     *     true if frames should be sent as binary messages containing UTF-8,
+     *     false if frames should be sent as text messages.
+     *
+     * @param executor
+     *     The executor which should run the blocking send of each frame.
+     */
+    public WebSocketFrameSender(Connection connection, boolean binary,
+            Executor executor) {
+        this.connection = connection;
+        this.binary = binary;
+        this.executor = executor;
+    }
+
+    /**
+     * Sends the given frame, blocking until the frame has been sent.
+     *
+     * @param frame
+     *     The frame to send.
+     *
+     * @throws IOException
+     *     If an I/O error prevents the frame from being sent.
+     */
+    private void send(String frame) throws IOException {
+
+        // Send UTF-8 encoding of frame if using the binary subprotocol
+        if (binary) {
+            byte[] data = frame.getBytes(UTF8);
+            connection.sendMessage(data, 0, data.length);
+        }
+
+        // Otherwise, send frame as text
+        else
+            connection.sendMessage(frame);
+
+    }
+
+    @Override
+    protected void sendAsync(final String frame) {
+
+        try {
+            executor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+
+                    try {
+                        send(frame);
+                    }
+                    catch (IOException e) {
+                        frameSent(e);
+                        return;
+                    }
+
+                    frameSent(null);
+
+                }
+
+            });
+        }
+
+        // Sending fails if no thread is available to send the frame
+        catch (RejectedExecutionException e) {
+            frameSent(e);
+        }
+
+    }
+
+}
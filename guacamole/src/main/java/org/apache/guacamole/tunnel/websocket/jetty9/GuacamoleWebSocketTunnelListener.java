@@ -21,16 +21,20 @@ package org.apache.guacamole.tunnel.websocket.jetty9;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import org.eclipse.jetty.websocket.api.CloseStatus;
-import org.eclipse.jetty.websocket.api.RemoteEndpoint;
 import org.eclipse.jetty.websocket.api.Session;
 import org.eclipse.jetty.websocket.api.WebSocketListener;
 import org.apache.guacamole.GuacamoleClientException;
 import org.apache.guacamole.GuacamoleConnectionClosedException;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.io.GuacamoleReader;
+import org.apache.guacamole.io.InstructionCoalescer;
+import org.apache.guacamole.io.QueuedFrameSender;
 import org.apache.guacamole.io.GuacamoleWriter;
 import org.apache.guacamole.net.GuacamoleTunnel;
+import org.apache.guacamole.net.TunnelExecutors;
 import org.apache.guacamole.protocol.FilteredGuacamoleWriter;
 import org.apache.guacamole.protocol.GuacamoleFilter;
 import org.apache.guacamole.protocol.GuacamoleInstruction;
@@ -43,11 +47,6 @@ import org.slf4j.LoggerFactory;
  */
 public abstract class GuacamoleWebSocketTunnelListener implements WebSocketListener {
 
-    /**
-     * The default, minimum buffer size for instructions.
-     */
-    private static final int BUFFER_SIZE = 8192;
-
     /**
      * The opcode of the instruction used to indicate a connection stability
      * test ping request or response. Note that this instruction is
@@ -57,6 +56,24 @@ public abstract class GuacamoleWebSocketTunnelListener implements WebSocketListe
      */
     private static final String PING_OPCODE = "ping";
 
+    /**
+     * The size of the buffer into which received messages are copied, in
+     * characters.
+     */
+    private static final int MESSAGE_BUFFER_SIZE = 8192;
+
+    /**
+     * The name of the WebSocket subprotocol used by the Guacamole tunnel when
+     * all messages are text messages.
+     */
+    public static final String SUBPROTOCOL = "guacamole";
+
+    /**
+     * The name of the WebSocket subprotocol used by the Guacamole tunnel when
+     * messages sent to the client are binary messages containing UTF-8.
+     */
+    public static final String BINARY_SUBPROTOCOL = "guacamole-binary";
+
     /**
      * Logger for this class.
      */
@@ -70,10 +87,65 @@ public abstract class GuacamoleWebSocketTunnelListener implements WebSocketListe
     private GuacamoleTunnel tunnel;
 
     /**
-     * Remote (client) side of this connection. This value will always be
-     * non-null if tunnel is non-null.
+     * Queue of messages being sent to the remote (client) side of this
+     * connection. This value will always be non-null if tunnel is non-null.
+     */
+    private QueuedFrameSender sender;
+
+    /**
+     * Writer which filters all instructions received from the client and
+     * writes those instructions to the tunnel. A single writer is used for
+     * the life of the tunnel. This value will always be non-null if tunnel
+     * is non-null.
      */
-    private RemoteEndpoint remote;
+    private GuacamoleWriter writer;
+
+    /**
+     * Reusable buffer into which each message received from the client is
+     * copied prior to writing. Messages larger than this buffer are copied
+     * into a new buffer.
+     */
+    private final char[] messageBuffer = new char[MESSAGE_BUFFER_SIZE];
+
+    /**
+     * Filter which handles all tunnel-internal instructions received from the
+     * client without passing those instructions through to guacd.
+     */
+    private final GuacamoleFilter internalInstructionFilter = new GuacamoleFilter() {
+
+        @Override
+        public GuacamoleInstruction filter(GuacamoleInstruction instruction)
+                throws GuacamoleException {
+
+            // Filter out all tunnel-internal instructions
+            if (instruction.getOpcode().equals(GuacamoleTunnel.INTERNAL_DATA_OPCODE)) {
+
+                // Respond to ping requests
+                List<String> args = instruction.getArgs();
+                if (args.size() >= 2 && args.get(0).equals(PING_OPCODE)) {
+
+                    try {
+                        sendInstruction(new GuacamoleInstruction(
+                            GuacamoleTunnel.INTERNAL_DATA_OPCODE,
+                            PING_OPCODE, args.get(1)
+                        ));
+                    }
+                    catch (IOException e) {
+                        logger.debug("Unable to send \"ping\" response for WebSocket tunnel.", e);
+                    }
+
+                }
+
+                return null;
+
+            }
+
+            // Pass through all non-internal instructions untouched
+            return instruction;
+
+        }
+
+    };
 
     /**
      * Sends the given numeric Guacamole and WebSocket status
@@ -121,49 +193,19 @@ public abstract class GuacamoleWebSocketTunnelListener implements WebSocketListe
     }
 
     /**
-     * Sends a Guacamole instruction along the outbound WebSocket connection to
-     * the connected Guacamole client. If an instruction is already in the
-     * process of being sent by another thread, this function will block until
-     * in-progress instructions are complete.
+     * Queues a Guacamole instruction for sending along the outbound WebSocket
+     * connection to the connected Guacamole client, ahead of any data not
+     * yet queued by the read task. This function does not block.
      *
      * @param instruction
      *     The instruction to send.
      *
      * @throws IOException
-     *     If an I/O error occurs preventing the given instruction from being
-     *     sent.
-     */
-    private void sendInstruction(String instruction)
-            throws IOException {
-
-        // NOTE: Synchronization on the non-final remote field here is
-        // intentional. The remote (the outbound websocket connection) is only
-        // sensitive to simultaneous attempts to send messages with respect to
-        // itself. If the remote changes, then the outbound websocket
-        // connection has changed, and synchronization need only be performed
-        // in context of the new remote.
-        synchronized (remote) {
-            remote.sendString(instruction);
-        }
-
-    }
-
-    /**
-     * Sends a Guacamole instruction along the outbound WebSocket connection to
-     * the connected Guacamole client. If an instruction is already in the
-     * process of being sent by another thread, this function will block until
-     * in-progress instructions are complete.
-     *
-     * @param instruction
-     *     The instruction to send.
-     *
-     * @throws IOException
-     *     If an I/O error occurs preventing the given instruction from being
-     *     sent.
+     *     If an I/O error has previously prevented data from being sent.
      */
     private void sendInstruction(GuacamoleInstruction instruction)
             throws IOException {
-        sendInstruction(instruction.toString());
+        sender.sendFrameNow(instruction.toString());
     }
 
     /**
@@ -179,11 +221,51 @@ public abstract class GuacamoleWebSocketTunnelListener implements WebSocketListe
     protected abstract GuacamoleTunnel createTunnel(Session session)
             throws GuacamoleException;
 
+    /**
+     * Returns the executor which should run the task that reads from the
+     * tunnel and sends the received data to the client. This task runs for
+     * the life of the tunnel. By default, the shared executor returned by
+     * TunnelExecutors.getDefault() is used.
+     *
+     * @return
+     *     The executor which should run the read task of the tunnel.
+     */
+    protected Executor getReadExecutor() {
+        return TunnelExecutors.getDefault();
+    }
+
+    /**
+     * Returns a new InstructionCoalescer which should be used to batch the
+     * instructions read from the tunnel into WebSocket messages. By default,
+     * an InstructionCoalescer having the default limits is returned.
+     *
+     * @return
+     *     A new InstructionCoalescer for the tunnel.
+     */
+    protected InstructionCoalescer createCoalescer() {
+        return new InstructionCoalescer();
+    }
+
+    /**
+     * Returns a new QueuedFrameSender which should be used to send all data
+     * to the client asynchronously. By default, a WebSocketFrameSender
+     * having the default limits is returned.
+     *
+     * @param session
+     *     The session associated with the active WebSocket connection.
+     *
+     * @return
+     *     A new QueuedFrameSender for the connection.
+     */
+    protected QueuedFrameSender createFrameSender(Session session) {
+        return new WebSocketFrameSender(session);
+    }
+
     @Override
     public void onWebSocketConnect(final Session session) {
 
-        // Store underlying remote for future use via sendInstruction()
-        remote = session.getRemote();
+        // Prepare outbound queue for future use via sendInstruction()
+        sender = createFrameSender(session);
 
         try {
 
@@ -194,6 +276,12 @@ public abstract class GuacamoleWebSocketTunnelListener implements WebSocketListe
                 return;
             }
 
+            // Filter received instructions for the life of the tunnel
+            GuacamoleWriter tunnelWriter = tunnel.acquireWriter();
+            tunnel.releaseWriter();
+            writer = new FilteredGuacamoleWriter(tunnelWriter,
+                    internalInstructionFilter, true);
+
         }
         catch (GuacamoleException e) {
             logger.error("Creation of WebSocket tunnel to guacd failed: {}", e.getMessage());
@@ -202,15 +290,14 @@ public abstract class GuacamoleWebSocketTunnelListener implements WebSocketListe
             return;
         }
 
-        // Prepare read transfer thread
-        Thread readThread = new Thread() {
+        // Prepare read transfer task
+        Runnable readTask = new Runnable() {
 
             @Override
             public void run() {
 
-                StringBuilder buffer = new StringBuilder(BUFFER_SIZE);
                 GuacamoleReader reader = tunnel.acquireReader();
-                char[] readMessage;
+                InstructionCoalescer coalescer = createCoalescer();
 
                 try {
 
@@ -222,21 +309,11 @@ public abstract class GuacamoleWebSocketTunnelListener implements WebSocketListe
 
                     try {
 
-                        // Attempt to read
-                        while ((readMessage = reader.read()) != null) {
-
-                            // Buffer message
-                            buffer.append(readMessage);
-
-                            // Flush if we expect to wait or buffer is getting full
-                            if (!reader.available() || buffer.length() >= BUFFER_SIZE) {
-                                sendInstruction(buffer.toString());
-                                buffer.setLength(0);
-                            }
-
-                        }
+                        // Send all data in coalesced frames
+                        coalescer.transfer(reader, sender);
 
                         // No more data
+                        sender.drain();
                         closeConnection(session, GuacamoleStatus.SUCCESS);
 
                     }
@@ -267,11 +344,24 @@ public abstract class GuacamoleWebSocketTunnelListener implements WebSocketListe
                     closeConnection(session, GuacamoleStatus.SERVER_ERROR);
                 }
 
+                logger.debug("WebSocket tunnel sent {} instructions in {} frames "
+                        + "({} characters).", coalescer.getInstructionCount(),
+                        coalescer.getFrameCount(), coalescer.getCharacterCount());
+
             }
 
         };
 
-        readThread.start();
+        // Start read transfer, refusing the connection if no thread is
+        // available
+        try {
+            getReadExecutor().execute(readTask);
+        }
+        catch (RejectedExecutionException e) {
+            logger.warn("WebSocket tunnel refused: too many active tunnels.");
+            logger.debug("Read task of WebSocket tunnel rejected.", e);
+            closeConnection(session, GuacamoleStatus.SERVER_BUSY);
+        }
 
     }
 
@@ -282,47 +372,18 @@ public abstract class GuacamoleWebSocketTunnelListener implements WebSocketListe
         if (tunnel == null)
             return;
 
-        // Filter received instructions, handling tunnel-internal instructions
-        // without passing through to guacd
-        GuacamoleWriter writer = new FilteredGuacamoleWriter(tunnel.acquireWriter(), new GuacamoleFilter() {
-
-            @Override
-            public GuacamoleInstruction filter(GuacamoleInstruction instruction)
-                    throws GuacamoleException {
-
-                // Filter out all tunnel-internal instructions
-                if (instruction.getOpcode().equals(GuacamoleTunnel.INTERNAL_DATA_OPCODE)) {
-
-                    // Respond to ping requests
-                    List<String> args = instruction.getArgs();
-                    if (args.size() >= 2 && args.get(0).equals(PING_OPCODE)) {
-
-                        try {
-                            sendInstruction(new GuacamoleInstruction(
-                                GuacamoleTunnel.INTERNAL_DATA_OPCODE,
-                                PING_OPCODE, args.get(1)
-                            ));
-                        }
-                        catch (IOException e) {
-                            logger.debug("Unable to send \"ping\" response for WebSocket tunnel.", e);
-                        }
-
-                    }
-
-                    return null;
-
-                }
-
-                // Pass through all non-internal instructions untouched
-                return instruction;
-
-            }
+        // Copy received message into reusable buffer where possible
+        int length = message.length();
+        char[] chunk = length <= messageBuffer.length ? messageBuffer : new char[length];
+        message.getChars(0, length, chunk, 0);
 
-        });
+        // Hold tunnel writer for duration of write
+        tunnel.acquireWriter();
 
         try {
-            // Write received message
-            writer.write(message.toCharArray());
+            // Write received message, retaining any partial instruction
+            // until the remainder is received
+            writer.write(chunk, 0, length);
         }
         catch (GuacamoleConnectionClosedException e) {
             logger.debug("Connection to guacd closed.", e);
@@ -23,10 +23,13 @@ import org.eclipse.jetty.websocket.api.UpgradeRequest;
 import org.eclipse.jetty.websocket.api.UpgradeResponse;
 import org.eclipse.jetty.websocket.servlet.WebSocketCreator;
 import org.apache.guacamole.tunnel.TunnelRequestService;
+import org.apache.guacamole.tunnel.TunnelThreadService;
+import org.apache.guacamole.tunnel.websocket.WebSocketTunnelService;
 
 /**
  * WebSocketCreator which selects the appropriate WebSocketListener
- * implementation if the "guacamole" subprotocol is in use.
+ * implementation if the "guacamole" or "guacamole-binary" subprotocol is in
+ * use. If the client requests both, the first requested is accepted.
  */
 public class RestrictedGuacamoleWebSocketCreator implements WebSocketCreator {
 
@@ -35,26 +38,49 @@ public class RestrictedGuacamoleWebSocketCreator implements WebSocketCreator {
      */
     private final TunnelRequestService tunnelRequestService;
 
+    /**
+     * Service for running the read task of each tunnel.
+     */
+    private final TunnelThreadService tunnelThreadService;
+
+    /**
+     * Service for controlling how data is sent over each tunnel.
+     */
+    private final WebSocketTunnelService webSocketTunnelService;
+
     /**
      * Creates a new WebSocketCreator which uses the given TunnelRequestService
-     * to create new GuacamoleTunnels for inbound requests.
+     * to create new GuacamoleTunnels for inbound requests, the given
+     * TunnelThreadService to run the read task of each tunnel, and the given
+     * WebSocketTunnelService to control how data is sent over each tunnel.
      *
      * @param tunnelRequestService The service to use for inbound tunnel
      *                             requests.
+     * @param tunnelThreadService The service to use for running the read
+     *                            task of each tunnel.
+     * @param webSocketTunnelService The service to use for controlling how
+     *                               data is sent over each tunnel.
      */
-    public RestrictedGuacamoleWebSocketCreator(TunnelRequestService tunnelRequestService) {
+    public RestrictedGuacamoleWebSocketCreator(TunnelRequestService tunnelRequestService,
+            TunnelThreadService tunnelThreadService,
+            WebSocketTunnelService webSocketTunnelService) {
         this.tunnelRequestService = tunnelRequestService;
+        this.tunnelThreadService = tunnelThreadService;
+        this.webSocketTunnelService = webSocketTunnelService;
     }
 
     @Override
     public Object createWebSocket(UpgradeRequest request, UpgradeResponse response) {
 
-        // Validate and use "guacamole" subprotocol
+        // Validate and use "guacamole" or "guacamole-binary" subprotocol,
+        // whichever the client prefers
         for (String subprotocol : request.getSubProtocols()) {
 
-            if ("guacamole".equals(subprotocol)) {
+            if (GuacamoleWebSocketTunnelListener.SUBPROTOCOL.equals(subprotocol)
+                    || GuacamoleWebSocketTunnelListener.BINARY_SUBPROTOCOL.equals(subprotocol)) {
                 response.setAcceptedSubProtocol(subprotocol);
-                return new RestrictedGuacamoleWebSocketTunnelListener(tunnelRequestService);
+                return new RestrictedGuacamoleWebSocketTunnelListener(tunnelRequestService,
+                        tunnelThreadService, webSocketTunnelService);
             }
 
         }
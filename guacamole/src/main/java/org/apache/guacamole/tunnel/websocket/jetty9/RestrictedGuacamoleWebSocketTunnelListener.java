@@ -19,10 +19,15 @@
 
 package org.apache.guacamole.tunnel.websocket.jetty9;
 
+import java.util.concurrent.Executor;
 import org.eclipse.jetty.websocket.api.Session;
 import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.io.InstructionCoalescer;
+import org.apache.guacamole.io.QueuedFrameSender;
 import org.apache.guacamole.net.GuacamoleTunnel;
 import org.apache.guacamole.tunnel.TunnelRequestService;
+import org.apache.guacamole.tunnel.TunnelThreadService;
+import org.apache.guacamole.tunnel.websocket.WebSocketTunnelService;
 
 /**
  * WebSocket listener implementation which properly parses connection IDs
@@ -35,15 +40,35 @@ public class RestrictedGuacamoleWebSocketTunnelListener extends GuacamoleWebSock
      */
     private final TunnelRequestService tunnelRequestService;
 
+    /**
+     * Service for running the read task of each tunnel.
+     */
+    private final TunnelThreadService tunnelThreadService;
+
+    /**
+     * Service for controlling how data is sent over each tunnel.
+     */
+    private final WebSocketTunnelService webSocketTunnelService;
+
     /**
      * Creates a new WebSocketListener which uses the given TunnelRequestService
-     * to create new GuacamoleTunnels for inbound requests.
+     * to create new GuacamoleTunnels for inbound requests, the given
+     * TunnelThreadService to run the read task of each tunnel, and the given
+     * WebSocketTunnelService to control how data is sent over each tunnel.
      *
      * @param tunnelRequestService The service to use for inbound tunnel
      *                             requests.
+     * @param tunnelThreadService The service to use for running the read
+     *                            task of each tunnel.
+     * @param webSocketTunnelService The service to use for controlling how
+     *                               data is sent over each tunnel.
      */
-    public RestrictedGuacamoleWebSocketTunnelListener(TunnelRequestService tunnelRequestService) {
+    public RestrictedGuacamoleWebSocketTunnelListener(TunnelRequestService tunnelRequestService,
+            TunnelThreadService tunnelThreadService,
+            WebSocketTunnelService webSocketTunnelService) {
         this.tunnelRequestService = tunnelRequestService;
+        this.tunnelThreadService = tunnelThreadService;
+        this.webSocketTunnelService = webSocketTunnelService;
     }
 
     @Override
@@ -51,4 +76,22 @@ public class RestrictedGuacamoleWebSocketTunnelListener extends GuacamoleWebSock
         return tunnelRequestService.createTunnel(new WebSocketTunnelRequest(session.getUpgradeRequest()));
     }
 
+    @Override
+    protected Executor getReadExecutor() {
+        return tunnelThreadService.getReadExecutor();
+    }
+
+    @Override
+    protected InstructionCoalescer createCoalescer() {
+        return webSocketTunnelService.createCoalescer();
+    }
+
+    @Override
+    protected QueuedFrameSender createFrameSender(Session session) {
+        return new WebSocketFrameSender(session,
+                webSocketTunnelService.getMaxQueuedLength(),
+                webSocketTunnelService.getOverflowPolicy(),
+                webSocketTunnelService.getSendTimeout());
+    }
+
 }
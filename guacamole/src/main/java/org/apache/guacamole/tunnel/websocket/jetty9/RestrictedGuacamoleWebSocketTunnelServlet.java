@@ -24,6 +24,8 @@ import com.google.inject.Singleton;
 import org.eclipse.jetty.websocket.servlet.WebSocketServlet;
 import org.eclipse.jetty.websocket.servlet.WebSocketServletFactory;
 import org.apache.guacamole.tunnel.TunnelRequestService;
+import org.apache.guacamole.tunnel.TunnelThreadService;
+import org.apache.guacamole.tunnel.websocket.WebSocketTunnelService;
 
 /**
  * A WebSocketServlet partial re-implementation of GuacamoleTunnelServlet.
@@ -36,13 +38,32 @@ public class RestrictedGuacamoleWebSocketTunnelServlet extends WebSocketServlet
      */
     @Inject
     private TunnelRequestService tunnelRequestService;
+
+    /**
+     * Service for running the read task of each tunnel.
+     */
+    @Inject
+    private TunnelThreadService tunnelThreadService;
+
+    /**
+     * Service for controlling how data is sent over each tunnel.
+     */
+    @Inject
+    private WebSocketTunnelService webSocketTunnelService;
  
     @Override
     public void configure(WebSocketServletFactory factory) {
 
         // Register WebSocket implementation
-        factory.setCreator(new RestrictedGuacamoleWebSocketCreator(tunnelRequestService));
-        
+        factory.setCreator(new RestrictedGuacamoleWebSocketCreator(tunnelRequestService,
+                tunnelThreadService, webSocketTunnelService));
+
+        // Refuse compression extensions unless allowed
+        if (!webSocketTunnelService.isCompressionEnabled()) {
+            for (String name : WebSocketTunnelService.getCompressionExtensions())
+                factory.getExtensionFactory().unregister(name);
+        }
+
     }
     
 }
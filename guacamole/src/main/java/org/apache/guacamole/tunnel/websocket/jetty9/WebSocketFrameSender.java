@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.guacamole.tunnel.websocket.jetty9;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import org.apache.guacamole.io.QueuedFrameSender;
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+
+/**
+ * QueuedFrameSender which sends frames using the asynchronous API of a Jetty 9
+ * WebSocket session. Frames are sent as text messages unless the binary
+ * subprotocol was accepted for the session, in which case each frame is sent
+ * as a binary message containing its UTF-8 encoding.
+ */
+public class WebSocketFrameSender extends QueuedFrameSender {
+
+    /**
+     * The remote endpoint of the WebSocket session.
+     */
+    private final RemoteEndpoint remote;
+
+    /**
+     * The character set used to encode frames sent as binary messages.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Whether frames are sent as binary messages rather than text messages.
+     */
+    private final boolean binary;
+
+    /**
+     * Callback which is notified once each frame has been sent.
+     */
+    private final WriteCallback callback = new WriteCallback() {
+
+        @Override
+        public void writeFailed(Throwable error) {
+            frameSent(error);
+        }
+
+        @Override
+        public void writeSuccess() {
+            frameSent(null);
+        }
+
+    };
+
+    /**
+     * Creates a new WebSocketFrameSender which sends frames over the given
+     * WebSocket session, having the given limits.
+     *
+     * @param session
+     *     The WebSocket session to send frames over.
+     *
+     * @param highWaterMark
+     *     The maximum number of characters which may be queued before the
+     *     given OverflowPolicy applies.
+     *
+     * @param policy
+     *     The action taken when the high-water mark is reached.
+     *
+     * @param timeout
+     *     The number of milliseconds to wait for queued data to be sent
+     *     before considering the client to have timed out, or zero to wait
+     *     indefinitely.
+     */
+    public WebSocketFrameSender(Session session, int highWaterMark,
+            OverflowPolicy policy, long timeout) {
+        super(highWaterMark, policy, timeout);
+        this.remote = session.getRemote();
+        this.binary = isBinary(session);
+    }
+
+    /**
+     * Creates a new WebSocketFrameSender which sends frames over the given
+     * WebSocket session, having the default limits.
+     *
+     * @param session
+     *     The WebSocket session to send frames over.
+     */
+    public WebSocketFrameSender(Session session) {
+        this.remote = session.getRemote();
+        this.binary = isBinary(session);
+    }
+
+    /**
+     * Returns whether the binary subprotocol was accepted for the given
+     * WebSocket session.
+     *
+     * @param session
+     *     The WebSocket session to test.
+     *
+     * @return
+     *     true if frames sent over the given session should be sent as binary
+     *     messages, false otherwise.
+     */
+    private static boolean isBinary(Session session) {
+        return GuacamoleWebSocketTunnelListener.BINARY_SUBPROTOCOL.equals(
+                session.getUpgradeResponse().getAcceptedSubProtocol());
+    }
+
+    @Override
+    protected void sendAsync(String frame) {
+
+        // Send UTF-8 encoding of frame if using the binary subprotocol
+        if (binary)
+            remote.sendBytes(ByteBuffer.wrap(frame.getBytes(UTF8)), callback);
+
+        // Otherwise, send frame as text
+        else
+            remote.sendString(frame, callback);
+
+    }
+
+}
@@ -23,13 +23,17 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
 import java.nio.ByteBuffer;
-import java.nio.CharBuffer;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import javax.servlet.http.HttpServletRequest;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.io.GuacamoleReader;
+import org.apache.guacamole.io.InstructionCoalescer;
 import org.apache.guacamole.io.GuacamoleWriter;
+import org.apache.guacamole.io.QueuedFrameSender;
 import org.apache.guacamole.net.GuacamoleTunnel;
+import org.apache.guacamole.net.TunnelExecutors;
 import org.apache.catalina.websocket.StreamInbound;
 import org.apache.catalina.websocket.WebSocketServlet;
 import org.apache.catalina.websocket.WsOutbound;
@@ -54,6 +58,18 @@ public abstract class GuacamoleWebSocketTunnelServlet extends WebSocketServlet {
      */
     private static final int BUFFER_SIZE = 8192;
 
+    /**
+     * The name of the WebSocket subprotocol used by the Guacamole tunnel when
+     * all messages are text messages.
+     */
+    private static final String SUBPROTOCOL = "guacamole";
+
+    /**
+     * The name of the WebSocket subprotocol used by the Guacamole tunnel when
+     * messages sent to the client are binary messages containing UTF-8.
+     */
+    private static final String BINARY_SUBPROTOCOL = "guacamole-binary";
+
     /**
      * The opcode of the instruction used to indicate a connection stability
      * test ping request or response. Note that this instruction is
@@ -116,10 +132,10 @@ public abstract class GuacamoleWebSocketTunnelServlet extends WebSocketServlet {
     @Override
     protected String selectSubProtocol(List<String> subProtocols) {
 
-        // Search for expected protocol
+        // Search for expected protocols, using whichever the client prefers
         for (String protocol : subProtocols)
-            if ("guacamole".equals(protocol))
-                return "guacamole";
+            if (SUBPROTOCOL.equals(protocol) || BINARY_SUBPROTOCOL.equals(protocol))
+                return protocol;
         
         // Otherwise, fail
         return null;
@@ -132,6 +148,9 @@ public abstract class GuacamoleWebSocketTunnelServlet extends WebSocketServlet {
 
         final TunnelRequest tunnelRequest = new HTTPTunnelRequest(request);
 
+        // Send binary messages only if requested via subprotocol
+        final boolean binary = BINARY_SUBPROTOCOL.equals(protocol);
+
         // Return new WebSocket which communicates through tunnel
         return new StreamInbound() {
 
@@ -142,55 +161,83 @@ public abstract class GuacamoleWebSocketTunnelServlet extends WebSocketServlet {
             private GuacamoleTunnel tunnel = null;
 
             /**
-             * The outbound half of the WebSocket connection. This value will
-             * always be non-null if tunnel is non-null.
+             * Queue of frames awaiting sending along the outbound half of the
+             * WebSocket connection. This value will always be non-null if
+             * tunnel is non-null.
              */
-            private WsOutbound outbound = null;
+            private QueuedFrameSender sender = null;
 
             /**
-             * Sends a Guacamole instruction along the outbound WebSocket
-             * connection to the connected Guacamole client. If an instruction
-             * is already in the process of being sent by another thread, this
-             * function will block until in-progress instructions are complete.
-             *
-             * @param instruction
-             *     The instruction to send.
-             *
-             * @throws IOException
-             *     If an I/O error occurs preventing the given instruction from
-             *     being sent.
+             * Writer which filters all instructions received from the client
+             * and writes those instructions to the tunnel. A single writer is
+             * used for the life of the tunnel. This value will always be
+             * non-null if tunnel is non-null.
              */
-            private void sendInstruction(CharSequence instruction)
-                    throws IOException {
+            private GuacamoleWriter writer = null;
+
+            /**
+             * Reusable buffer into which received data is read prior to
+             * writing.
+             */
+            private final char[] buffer = new char[BUFFER_SIZE];
+
+            /**
+             * Filter which handles all tunnel-internal instructions received
+             * from the client without passing those instructions through to
+             * guacd.
+             */
+            private final GuacamoleFilter internalInstructionFilter = new GuacamoleFilter() {
+
+                @Override
+                public GuacamoleInstruction filter(GuacamoleInstruction instruction)
+                        throws GuacamoleException {
+
+                    // Filter out all tunnel-internal instructions
+                    if (instruction.getOpcode().equals(GuacamoleTunnel.INTERNAL_DATA_OPCODE)) {
+
+                        // Respond to ping requests
+                        List<String> args = instruction.getArgs();
+                        if (args.size() >= 2 && args.get(0).equals(PING_OPCODE)) {
+
+                            try {
+                                sendInstruction(new GuacamoleInstruction(
+                                    GuacamoleTunnel.INTERNAL_DATA_OPCODE,
+                                    PING_OPCODE, args.get(1)
+                                ));
+                            }
+                            catch (IOException e) {
+                                logger.debug("Unable to send \"ping\" response for WebSocket tunnel.", e);
+                            }
+
+                        }
+
+                        return null;
+
+                    }
+
+                    // Pass through all non-internal instructions untouched
+                    return instruction;
 
-                // NOTE: Synchronization on the non-final remote field here is
-                // intentional. The outbound websocket connection is only
-                // sensitive to simultaneous attempts to send messages with
-                // respect to itself. If the connection changes, then
-                // synchronization need only be performed in context of the new
-                // connection
-                synchronized (outbound) {
-                    outbound.writeTextMessage(CharBuffer.wrap(instruction));
                 }
 
-            }
+            };
 
             /**
-             * Sends a Guacamole instruction along the outbound WebSocket
-             * connection to the connected Guacamole client. If an instruction
-             * is already in the process of being sent by another thread, this
-             * function will block until in-progress instructions are complete.
+             * Queues a Guacamole instruction for sending along the outbound
+             * WebSocket connection to the connected Guacamole client, ahead
+             * of any data not yet queued by the read task. This function does
+             * not block.
              *
              * @param instruction
              *     The instruction to send.
              *
              * @throws IOException
-             *     If an I/O error occurs preventing the given instruction from being
+             *     If an I/O error has previously prevented data from being
              *     sent.
              */
             private void sendInstruction(GuacamoleInstruction instruction)
                     throws IOException {
-                sendInstruction(instruction.toString());
+                sender.sendFrameNow(instruction.toString());
             }
 
             @Override
@@ -200,49 +247,13 @@ public abstract class GuacamoleWebSocketTunnelServlet extends WebSocketServlet {
                 if (tunnel == null)
                     return;
 
-                // Filter received instructions, handling tunnel-internal
-                // instructions without passing through to guacd
-                GuacamoleWriter writer = new FilteredGuacamoleWriter(tunnel.acquireWriter(), new GuacamoleFilter() {
-
-                    @Override
-                    public GuacamoleInstruction filter(GuacamoleInstruction instruction)
-                            throws GuacamoleException {
-
-                        // Filter out all tunnel-internal instructions
-                        if (instruction.getOpcode().equals(GuacamoleTunnel.INTERNAL_DATA_OPCODE)) {
-
-                            // Respond to ping requests
-                            List<String> args = instruction.getArgs();
-                            if (args.size() >= 2 && args.get(0).equals(PING_OPCODE)) {
-
-                                try {
-                                    sendInstruction(new GuacamoleInstruction(
-                                        GuacamoleTunnel.INTERNAL_DATA_OPCODE,
-                                        PING_OPCODE, args.get(1)
-                                    ));
-                                }
-                                catch (IOException e) {
-                                    logger.debug("Unable to send \"ping\" response for WebSocket tunnel.", e);
-                                }
-
-                            }
-
-                            return null;
-
-                        }
-
-                        // Pass through all non-internal instructions untouched
-                        return instruction;
+                // Hold tunnel writer for duration of write
+                tunnel.acquireWriter();
 
-                    }
-
-                });
-
-                // Write all available data
+                // Write all available data, retaining any partial instruction
+                // until the remainder is received
                 try {
 
-                    char[] buffer = new char[BUFFER_SIZE];
-
                     int num_read;
                     while ((num_read = reader.read(buffer)) > 0)
                         writer.write(buffer, 0, num_read);
@@ -261,8 +272,8 @@ public abstract class GuacamoleWebSocketTunnelServlet extends WebSocketServlet {
             @Override
             public void onOpen(final WsOutbound outbound) {
 
-                // Store outbound connection for future use via sendInstruction()
-                this.outbound = outbound;
+                // Prepare outbound queue for future use via sendInstruction()
+                this.sender = createFrameSender(outbound, binary);
 
                 try {
                     tunnel = doConnect(tunnelRequest);
@@ -281,14 +292,19 @@ public abstract class GuacamoleWebSocketTunnelServlet extends WebSocketServlet {
                     return;
                 }
 
-                Thread readThread = new Thread() {
+                // Filter received instructions for the life of the tunnel
+                GuacamoleWriter tunnelWriter = tunnel.acquireWriter();
+                tunnel.releaseWriter();
+                writer = new FilteredGuacamoleWriter(tunnelWriter,
+                        internalInstructionFilter, true);
+
+                Runnable readTask = new Runnable() {
 
                     @Override
                     public void run() {
 
-                        StringBuilder buffer = new StringBuilder(BUFFER_SIZE);
                         GuacamoleReader reader = tunnel.acquireReader();
-                        char[] readMessage;
+                        InstructionCoalescer coalescer = createCoalescer();
 
                         try {
 
@@ -300,21 +316,11 @@ public abstract class GuacamoleWebSocketTunnelServlet extends WebSocketServlet {
 
                             try {
 
-                                // Attempt to read
-                                while ((readMessage = reader.read()) != null) {
-
-                                    // Buffer message
-                                    buffer.append(readMessage);
-
-                                    // Flush if we expect to wait or buffer is getting full
-                                    if (!reader.available() || buffer.length() >= BUFFER_SIZE) {
-                                        sendInstruction(CharBuffer.wrap(buffer));
-                                        buffer.setLength(0);
-                                    }
-
-                                }
+                                // Send all data in coalesced frames
+                                coalescer.transfer(reader, sender);
 
                                 // No more data
+                                sender.drain();
                                 closeConnection(outbound, GuacamoleStatus.SUCCESS);
 
                             }
@@ -345,11 +351,24 @@ public abstract class GuacamoleWebSocketTunnelServlet extends WebSocketServlet {
                             closeConnection(outbound, GuacamoleStatus.SERVER_ERROR);
                         }
 
+                        logger.debug("WebSocket tunnel sent {} instructions in {} frames "
+                                + "({} characters).", coalescer.getInstructionCount(),
+                                coalescer.getFrameCount(), coalescer.getCharacterCount());
+
                     }
 
                 };
 
-                readThread.start();
+                // Start read transfer, refusing the connection if no thread is
+                // available
+                try {
+                    getReadExecutor().execute(readTask);
+                }
+                catch (RejectedExecutionException e) {
+                    logger.warn("WebSocket tunnel refused: too many active tunnels.");
+                    logger.debug("Read task of WebSocket tunnel rejected.", e);
+                    closeConnection(outbound, GuacamoleStatus.SERVER_BUSY);
+                }
 
             }
 
@@ -395,5 +414,64 @@ public abstract class GuacamoleWebSocketTunnelServlet extends WebSocketServlet {
     protected abstract GuacamoleTunnel doConnect(TunnelRequest request)
             throws GuacamoleException;
 
+    /**
+     * Returns the executor which should run the task that reads from each
+     * tunnel and sends the received data to the client. This task runs for
+     * the life of the tunnel. By default, the shared executor returned by
+     * TunnelExecutors.getDefault() is used.
+     *
+     * @return
+     *     The executor which should run the read task of each tunnel.
+     */
+    protected Executor getReadExecutor() {
+        return TunnelExecutors.getDefault();
+    }
+
+    /**
+     * Returns the executor which should run the blocking send of each frame
+     * sent to the client. Each tunnel occupies a thread of this executor only
+     * while a frame is being sent. By default, the shared executor returned
+     * by TunnelExecutors.getDefault() is used.
+     *
+     * @return
+     *     The executor which should send each frame.
+     */
+    protected Executor getSendExecutor() {
+        return TunnelExecutors.getDefault();
+    }
+
+    /**
+     * Returns a new QueuedFrameSender which should be used to send all data
+     * to the client without blocking the read task. By default, a
+     * WebSocketFrameSender having the default limits and using the executor
+     * returned by getSendExecutor() is returned.
+     *
+     * @param outbound
+     *     The outbound half of the active WebSocket connection.
+     *
+     * @param binary
+     *     true if frames should be sent as binary messages containing UTF-8,
+     *     false if frames should be sent as text messages.
+     *
+     * @return
+     *     A new QueuedFrameSender for the connection.
+     */
+    protected QueuedFrameSender createFrameSender(WsOutbound outbound,
+            boolean binary) {
+        return new WebSocketFrameSender(outbound, binary, getSendExecutor());
+    }
+
+    /**
+     * Returns a new InstructionCoalescer which should be used to batch the
+     * instructions read from a tunnel into WebSocket messages. By default,
+     * an InstructionCoalescer having the default limits is returned.
+     *
+     * @return
+     *     A new InstructionCoalescer for a tunnel.
+     */
+    protected InstructionCoalescer createCoalescer() {
+        return new InstructionCoalescer();
+    }
+
 }
 
@@ -21,10 +21,16 @@ package org.apache.guacamole.tunnel.websocket.tomcat;
 
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import java.util.concurrent.Executor;
 import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.io.InstructionCoalescer;
+import org.apache.guacamole.io.QueuedFrameSender;
 import org.apache.guacamole.net.GuacamoleTunnel;
 import org.apache.guacamole.tunnel.TunnelRequestService;
 import org.apache.guacamole.tunnel.TunnelRequest;
+import org.apache.guacamole.tunnel.TunnelThreadService;
+import org.apache.guacamole.tunnel.websocket.WebSocketTunnelService;
+import org.apache.catalina.websocket.WsOutbound;
 
 /**
  * Tunnel servlet implementation which uses WebSocket as a tunnel backend,
@@ -39,6 +45,18 @@ public class RestrictedGuacamoleWebSocketTunnelServlet extends GuacamoleWebSocke
      */
     @Inject
     private TunnelRequestService tunnelRequestService;
+
+    /**
+     * Service for running the read task of each tunnel.
+     */
+    @Inject
+    private TunnelThreadService tunnelThreadService;
+
+    /**
+     * Service for controlling how data is sent over each tunnel.
+     */
+    @Inject
+    private WebSocketTunnelService webSocketTunnelService;
  
     @Override
     protected GuacamoleTunnel doConnect(TunnelRequest request)
@@ -46,4 +64,23 @@ public class RestrictedGuacamoleWebSocketTunnelServlet extends GuacamoleWebSocke
         return tunnelRequestService.createTunnel(request);
     };
 
+    @Override
+    protected Executor getReadExecutor() {
+        return tunnelThreadService.getReadExecutor();
+    }
+
+    @Override
+    protected InstructionCoalescer createCoalescer() {
+        return webSocketTunnelService.createCoalescer();
+    }
+
+    @Override
+    protected QueuedFrameSender createFrameSender(WsOutbound outbound,
+            boolean binary) {
+        return new WebSocketFrameSender(outbound, binary, getSendExecutor(),
+                webSocketTunnelService.getMaxQueuedLength(),
+                webSocketTunnelService.getOverflowPolicy(),
+                webSocketTunnelService.getSendTimeout());
+    }
+
 }